@@ -0,0 +1,34 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import common.RequestExecutor.Lane;
+
+/**
+ * Runs the decode, search and cold start benchmarks once per process in debug builds, after the
+ * first snapshot write has logged its timings: the lists are loaded and stored by then, which
+ * ColdStartBenchmark needs. Each benchmark logs its numbers under its own tag. Release builds
+ * have an empty Benchmarks (src/release).
+ */
+public class Benchmarks {
+
+    private static final AtomicBoolean ran = new AtomicBoolean();
+
+    static void RunOnce() {
+        if (!ran.compareAndSet(false, true))
+            return;
+
+        RequestExecutor.Execute(Lane.Background, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ShipmentDecodeBenchmark.Run(500, 5);
+                    SearchBenchmark.Run(1000, 5);
+                    ColdStartBenchmark.Run(5);
+                } catch (Exception ex) {
+                    AppModel.ApplicationError(ex, "Benchmarks::RunOnce");
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,84 @@
+package common;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import common.UserDistributorShipmentsFragment.ShipmentsType;
+
+/**
+ * Compares the ways the lists can be shown at start on the device's own data: decoding the
+ * memory-mapped {@link ShipmentSnapshot}, Gson.fromJson of the lists as they were kept in the
+ * preferences (SHIPMENTS_CACHE_KEY / RECONCILE_SHIPMENTS_CACHE_KEY JSON) and
+ * {@link ShipmentStore#Load} of the three tabs.
+ */
+public class ColdStartBenchmark {
+
+    private static final ShipmentsType[] TABS = { ShipmentsType.MyShipments, ShipmentsType.ReconcileShipments, ShipmentsType.Returns };
+
+    public static String Run(int iterations) throws Exception {
+        File file = ShipmentSnapshot.GetFile();
+        if (!file.exists() || App.CurrentUser == null)
+            return "no snapshot, load the lists first";
+
+        Gson gson = new Gson();
+        List<String> json = new ArrayList<String>();
+        int shipments = 0;
+        for (ShipmentsType type : TABS) {
+            ShipmentResponse list = ShipmentStore.Load(type);
+            if (list != null) {
+                json.add(gson.toJson(list));
+                shipments += list.shipments.size();
+            }
+        }
+
+        // warm up all paths so class loading and JIT don't end up in the numbers
+        DecodeSnapshot(file);
+        DecodeJson(json);
+        LoadStore();
+
+        long snapshot = 0, prefs = 0, store = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            DecodeSnapshot(file);
+            snapshot += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            DecodeJson(json);
+            prefs += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            LoadStore();
+            store += System.nanoTime() - start;
+        }
+
+        int jsonLength = 0;
+        for (String list : json)
+            jsonLength += list.length();
+
+        String summary = String.format(Locale.US, "%d shipments, snapshot %d KB, json %d KB: snapshot=%.1fms prefs json=%.1fms store=%.1fms (avg of %d)",
+                shipments, file.length() / 1024, jsonLength / 1024, snapshot / 1e6 / iterations, prefs / 1e6 / iterations, store / 1e6 / iterations, iterations);
+        Log.d(ColdStartBenchmark.class.getSimpleName(), summary);
+        return summary;
+    }
+
+    private static void DecodeSnapshot(File file) throws Exception {
+        ShipmentSnapshot.Decode(ShipmentSnapshot.Map(file), App.CurrentUser.user_id, new ArrayList<String>());
+    }
+
+    private static void DecodeJson(List<String> json) {
+        Gson gson = new Gson();
+        for (String list : json)
+            gson.fromJson(list, ShipmentResponse.class);
+    }
+
+    private static void LoadStore() {
+        for (ShipmentsType type : TABS)
+            ShipmentStore.Load(type);
+    }
+}
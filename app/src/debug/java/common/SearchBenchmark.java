@@ -0,0 +1,81 @@
+package common;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the per-keystroke cost of the old search (lower-case seven fields of every shipment
+ * and check contains) with {@link ShipmentSearchIndex.Index} while a query is typed one
+ * character at a time, on the synthetic route of {@link ShipmentDecodeBenchmark}.
+ */
+public class SearchBenchmark {
+
+    // typed one character at a time: a tracking id, a street and a receiver
+    private static final String[] QUERIES = { "trk1004", "street 12", "receiver name 77" };
+
+    public static String Run(int shipmentCount, int iterations) throws Exception {
+        ShipmentResponse response = new Gson().fromJson(new String(ShipmentDecodeBenchmark.BuildPayload(shipmentCount), "UTF-8"), ShipmentResponse.class);
+        List<ShipmentWithDetail> items = response.shipments;
+
+        // warm up both paths so class loading and JIT don't end up in the numbers
+        TypeScan(items);
+        TypeIndexed(new ShipmentSearchIndex.Index(items));
+
+        long scan = 0, indexed = 0, build = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            TypeScan(items);
+            scan += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ShipmentSearchIndex.Index index = new ShipmentSearchIndex.Index(items);
+            build += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            TypeIndexed(index);
+            indexed += System.nanoTime() - start;
+        }
+
+        int keystrokes = 0;
+        for (String query : QUERIES)
+            keystrokes += query.length();
+
+        String summary = String.format(Locale.US, "%d shipments, per keystroke: scan=%.3fms index=%.3fms, index build=%.1fms (avg of %d)",
+                shipmentCount, scan / 1e6 / iterations / keystrokes, indexed / 1e6 / iterations / keystrokes, build / 1e6 / iterations, iterations);
+        Log.d(SearchBenchmark.class.getSimpleName(), summary);
+        return summary;
+    }
+
+    private static void TypeScan(List<ShipmentWithDetail> items) {
+        for (String query : QUERIES)
+            for (int length = 1; length <= query.length(); length++)
+                Scan(items, query.substring(0, length));
+    }
+
+    private static void TypeIndexed(ShipmentSearchIndex.Index index) {
+        for (String query : QUERIES)
+            for (int length = 1; length <= query.length(); length++)
+                index.Query(query.substring(0, length));
+    }
+
+    // the search as it was done on the main thread
+    private static List<ShipmentWithDetail> Scan(List<ShipmentWithDetail> items, String txt) {
+        List<ShipmentWithDetail> matched = new ArrayList<ShipmentWithDetail>();
+        for (ShipmentWithDetail s : items) {
+            if ((s.shipment_id != null && s.shipment_id.toLowerCase().contains(txt))
+                    || (s.description != null && s.description.toLowerCase().contains(txt))
+                    || (s.description_title != null && s.description_title.toLowerCase().contains(txt))
+                    || (s.tracking_id != null && s.tracking_id.toLowerCase().contains(txt))
+                    || (s.receiver_name != null && s.receiver_name.toLowerCase().contains(txt))
+                    || (s.receiver_phone != null && s.receiver_phone.toLowerCase().contains(txt))
+                    || (s.receiver_address != null && s.receiver_address.toLowerCase().contains(txt)))
+                matched.add(s);
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,153 @@
+package common;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.Locale;
+
+/**
+ * Compares the buffered decode of a shipments response (Rest.convertInputStreamToString with its
+ * line concatenation, the unauthorized check of Rest.GET, the "shipments" pre-scan and
+ * Gson.fromJson, copied as they were) with {@link ShipmentResponseReader} on a synthetic payload
+ * shaped like a heavy route (notes and images on every shipment).
+ */
+public class ShipmentDecodeBenchmark {
+
+    public static String Run(int shipmentCount, int iterations) throws IOException {
+        byte[] payload = BuildPayload(shipmentCount);
+
+        // warm up both paths so class loading and JIT don't end up in the numbers
+        DecodeBuffered(payload);
+        DecodeStreamed(payload);
+
+        long buffered = 0, streamed = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            DecodeBuffered(payload);
+            buffered += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            DecodeStreamed(payload);
+            streamed += System.nanoTime() - start;
+        }
+
+        String summary = String.format(Locale.US, "%d shipments, %d KB: buffered=%.1fms streamed=%.1fms (avg of %d)",
+                shipmentCount, payload.length / 1024, buffered / 1e6 / iterations, streamed / 1e6 / iterations, iterations);
+        Log.d(ShipmentDecodeBenchmark.class.getSimpleName(), summary);
+        return summary;
+    }
+
+    // Rest.GET and the decode of LoadShipmentsWithDetails before ShipmentResponseReader, as they were
+    private static ShipmentResponse DecodeBuffered(byte[] payload) throws IOException {
+        String json = convertInputStreamToString(new ByteArrayInputStream(payload));
+        if (isUnauthorizedResponse(json))
+            throw new IOException("Unauthorized");
+
+        boolean hasError = !json.contains("shipments"); // Because error is object while shipments is list.
+        if (hasError) {
+            ShipmentError error = new Gson().fromJson(json, ShipmentError.class);
+            throw new IOException(error.response_txt);
+        }
+        return new Gson().fromJson(json, ShipmentResponse.class);
+    }
+
+    private static String convertInputStreamToString(InputStream inputStream) throws IOException {
+        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+        String line = "";
+        String result = "";
+        while ((line = bufferedReader.readLine()) != null)
+            result += line;
+
+        inputStream.close();
+        return result;
+
+    }
+
+    private static boolean isUnauthorizedResponse(String response) {
+        if (response == null) return false;
+        String lower = response.toLowerCase();
+        return lower.contains("unauthorized") || lower.contains("\"authenticated\":\"false\"");
+    }
+
+    private static ShipmentResponse DecodeStreamed(byte[] payload) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(payload), "UTF-8"));
+        Object response = new ShipmentResponseReader().Read(reader);
+        if (!(response instanceof ShipmentResponse))
+            throw new IOException("Unexpected error shape");
+        return (ShipmentResponse) response;
+    }
+
+    static byte[] BuildPayload(int shipmentCount) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter w = new JsonWriter(new OutputStreamWriter(out, "UTF-8"));
+        w.beginObject();
+        w.name("settings").beginObject().name("print_label").value(1).name("routing").value(1).endObject();
+        w.name("cod_to_reconcile").value(1234.5);
+        w.name("shipments").beginArray();
+        for (int i = 0; i < shipmentCount; i++) {
+            String id = String.valueOf(100000 + i);
+            w.beginObject();
+            w.name("shipment_id").value(id);
+            w.name("status_id").value(i % 5 == 0 ? 4 : 1);
+            w.name("status_name").value(i % 5 == 0 ? "In Delivery" : "Picked Up");
+            w.name("description").value("Parcel " + i + ", 2 boxes, handle with care");
+            w.name("receiver_cod").value(String.valueOf(10 + i % 90));
+            w.name("sender_phone").value("+38970" + (100000 + i));
+            w.name("receiver_address").value("Street " + i + " no. " + (i % 120) + ", floor 3, apartment 12");
+            w.name("receiver_city").value("City " + (i % 40));
+            w.name("sender_name").value("Sender Company " + (i % 25));
+            w.name("sender_address").value("Industrial zone " + (i % 25));
+            w.name("tracking_id").value("TRK" + id);
+            w.name("exchange_tracking_id").value(i % 10 == 0 ? "EXC" + id : "");
+            w.name("client_id").value(String.valueOf(2700 + i % 100));
+            w.name("receiver_phone").value("+38971" + (200000 + i));
+            w.name("receiver_name").value("Receiver Name " + i);
+            w.name("receiver_country_id").value("1");
+            w.name("instructions").value("Call before delivery");
+            w.name("lat").value(41.99 + i / 100000.0);
+            w.name("lon").value(21.43 + i / 100000.0);
+            w.name("sms_text").value("Your parcel TRK" + id + " is on its way");
+            w.name("is_urgent").value(i % 7 == 0 ? 1 : 0);
+            w.name("bg_color").value("#FFFFFF");
+            w.name("txt_color").value("#000000");
+            w.name("notes").beginArray();
+            for (int n = 0; n < 3; n++) {
+                w.beginObject();
+                w.name("comment_id").value(id + n);
+                w.name("comment_timestamp").value("2024-01-01 10:0" + n + ":00");
+                w.name("driver_name").value("Driver " + (i % 12));
+                w.name("user_id").value(String.valueOf(i % 12));
+                w.name("shipment_id").value(id);
+                w.name("comment").value("Receiver not at home, will try again later (" + n + ")");
+                w.endObject();
+            }
+            w.endArray();
+            w.name("images").beginArray();
+            for (int p = 0; p < 2; p++) {
+                w.beginObject();
+                w.name("image_id").value(id + p);
+                w.name("description").value("Proof of delivery");
+                w.name("date").value("2024-01-01");
+                w.name("time").value("10:00");
+                w.name("url").value("https://eu.trackify.net/uploads/" + id + "_" + p + ".jpg");
+                w.endObject();
+            }
+            w.endArray();
+            w.endObject();
+        }
+        w.endArray();
+        w.endObject();
+        w.close();
+        return out.toByteArray();
+    }
+}
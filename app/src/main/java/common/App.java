@@ -165,6 +165,7 @@ public class App extends FragmentActivity {
 
         Model.db.ProcessCreateDatabase();
         DatabaseManager.IsDatabaseReady = true;
+        ShipmentStore.ImportPreferencesCache();
 
         iv_Settings = (ImageView) findViewById(R.id.iv_Settings);
         iv_Settings.setOnClickListener(new OnClickListener() {
@@ -602,6 +603,9 @@ public class App extends FragmentActivity {
         AppModel.Object.SaveVariable(AppModel.USER_CACHE_KEY, "");
         AppModel.Object.SaveVariable(AppModel.USER_KEY, "");
         AppModel.Object.SaveVariable(AppModel.PASS_KEY, "");
+        TokenManager.Clear();
+        // the lists are the driver's, not the device's
+        ShipmentStore.Clear();
         ShowCtrl(UserType.None);
     }
     
@@ -35,8 +35,6 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
-import common.PendingRequestsLoader.PendingRequestItem;
-
 public class AppModel {
 
 	public static final boolean IsBeta = false;
@@ -49,6 +47,7 @@ public class AppModel {
 	public static final String PASS_ENCRYPTED_KEY = "PASS_ENCRYPTED_KEY";
 	public static final String USER_CACHE_KEY = "USER_CACHE_KEY";
 	public static final String AUTH_TOKEN = "AUTH_TOKEN";
+	// lists kept as JSON by earlier versions, moved into the database by ShipmentStore
 	public static final String MY_SHIPMENTS_CACHE_KEY = "SHIPMENTS_CACHE_KEY";
 	public static final String RECONCILE_SHIPMENTS_CACHE_KEY = "RECONCILE_SHIPMENTS_CACHE_KEY";
 
@@ -200,19 +199,18 @@ public class AppModel {
 				@Override
 				public void run() {
 
+					// payload files orphaned by a crash or a failed enqueue
+					PayloadStore.Sweep();
+
 					while (!cancel) {
 						try {
 							if (AppModel.Object.IsNetworkAvailable(false)) {
-								List<PendingRequestItem> pendings = AppModel.Pendings.GetPendings();
-								if (pendings.size() > 0) {
-									for (PendingRequestItem pi : pendings) {
-										if (Communicator.SendPending(pi)) {
-											AppModel.Pendings.MarkUploaded(pi.ID);
-										}
-									}
+								if (PendingReplayer.RunPass()) {
 									App.Object.userDistributorMyShipmentsFragment.Load();
 									App.Object.userDistributorReconcileShipmentsFragment.Load();
 									App.Object.userDistributorReturnShipmentsFragment.Load();
+								} else {
+									ShipmentStatePatcher.RefreshIfStale();
 								}
 							}
 						} catch (Exception ex) {
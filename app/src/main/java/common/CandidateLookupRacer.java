@@ -0,0 +1,212 @@
+package common;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Looks up the tracking number candidates of one scan (see BarcodeParser.extractCandidates)
+ * concurrently instead of one round trip per candidate.
+ * <p>
+ * Candidates are started in their ranking order, {@link #STAGGER_MS} apart, with at most
+ * {@link #GetMaxConcurrent()} lookups in flight; a failed lookup frees its slot for the next
+ * candidate. The first successful lookup wins and everything still queued or in flight is
+ * cancelled. With a cap of 1 this is the old one-by-one behavior.
+ * <p>
+ * Round trips saved are counted against the sequential order: a winner at candidate index i
+ * cost i + 1 round trips sequentially and only as many as the chain of failures that led to its
+ * slot here.
+ */
+public class CandidateLookupRacer {
+
+    static final long STAGGER_MS = 150;
+    static final int DEFAULT_MAX_CONCURRENT = 3;
+    static final int MAX_CONCURRENT_LIMIT = 5;
+
+    private static volatile int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private static final AtomicLong races = new AtomicLong();
+    private static final AtomicLong lookups = new AtomicLong();
+    private static final AtomicLong cancelledLookups = new AtomicLong();
+    private static final AtomicLong roundTripsSaved = new AtomicLong();
+
+    /**
+     * Max lookups in flight per scan, clamped to 1..{@link #MAX_CONCURRENT_LIMIT} so a label with
+     * many candidates can't flood the server.
+     */
+    public static void SetMaxConcurrent(int value) {
+        maxConcurrent = Math.max(1, Math.min(MAX_CONCURRENT_LIMIT, value));
+    }
+
+    public static int GetMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Completes with (ShipmentWithDetail, winning candidate) on the first hit, or fails with the
+     * last failure's message when no candidate matched. Cancelling the returned future cancels
+     * all lookups.
+     */
+    public static ServerFuture Race(List<String> candidates) {
+        ServerFuture result = new ServerFuture();
+        if (candidates == null || candidates.isEmpty()) {
+            result.onCompleted(false, null);
+            return result;
+        }
+
+        races.incrementAndGet();
+        new RaceState(candidates, maxConcurrent, result).Start();
+        return result;
+    }
+
+    private static class RaceState {
+        final List<String> candidates;
+        final int cap;
+        final ServerFuture result;
+        final List<ServerFuture> running = new ArrayList<ServerFuture>();
+        final List<Runnable> scheduled = new ArrayList<Runnable>();
+
+        int next;
+        int inFlight;
+        boolean done;
+        long lastStart;
+
+        RaceState(List<String> candidates, int cap, ServerFuture result) {
+            this.candidates = new ArrayList<String>(candidates);
+            this.cap = cap;
+            this.result = result;
+        }
+
+        void Start() {
+            result.WhenComplete(new Communicator.IServerResponse() {
+                @Override
+                public void onCompleted(boolean success, String messageToShow, Object... objs) {
+                    // also runs when the caller cancels
+                    Stop();
+                }
+            });
+
+            synchronized (this) {
+                for (int i = 0; i < cap; i++)
+                    StartNext(1);
+            }
+        }
+
+        /**
+         * @param depth round trips on the critical path up to and including this lookup
+         */
+        void StartNext(final int depth) {
+            if (done || next >= candidates.size())
+                return;
+
+            final int index = next++;
+            inFlight++;
+
+            long now = SystemClock.uptimeMillis();
+            long delay = index == 0 ? 0 : Math.max(0, lastStart + STAGGER_MS - now);
+            lastStart = now + delay;
+
+            Runnable launch = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (RaceState.this) {
+                        scheduled.remove(this);
+                    }
+                    Launch(index, depth);
+                }
+            };
+            if (delay == 0) {
+                launch.run();
+            } else {
+                scheduled.add(launch);
+                mainHandler.postDelayed(launch, delay);
+            }
+        }
+
+        void Launch(final int index, final int depth) {
+            final ServerFuture lookup;
+            synchronized (this) {
+                if (done)
+                    return;
+                lookups.incrementAndGet();
+                lookup = Communicator.LookupShipmentByCourierTracking(candidates.get(index));
+                running.add(lookup);
+            }
+
+            lookup.WhenComplete(new Communicator.IServerResponse() {
+                @Override
+                public void onCompleted(boolean success, String messageToShow, Object... objs) {
+                    OnLookupCompleted(index, depth, lookup, success, messageToShow, objs);
+                }
+            });
+        }
+
+        void OnLookupCompleted(int index, int depth, ServerFuture lookup, boolean success, String messageToShow, Object... objs) {
+            boolean win = false, lost = false;
+            synchronized (this) {
+                running.remove(lookup);
+                inFlight--;
+                if (done)
+                    return;
+
+                if (success && objs != null && objs.length > 0) {
+                    done = win = true;
+                    roundTripsSaved.addAndGet(Math.max(0, index + 1 - depth));
+                } else if (next < candidates.size()) {
+                    StartNext(depth + 1);
+                } else if (inFlight == 0) {
+                    done = lost = true;
+                    roundTripsSaved.addAndGet(Math.max(0, candidates.size() - depth));
+                }
+            }
+
+            if (win)
+                result.onCompleted(true, null, objs[0], candidates.get(index));
+            else if (lost)
+                result.onCompleted(false, messageToShow);
+        }
+
+        void Stop() {
+            List<ServerFuture> toCancel;
+            synchronized (this) {
+                done = true;
+                for (Runnable launch : scheduled)
+                    mainHandler.removeCallbacks(launch);
+                scheduled.clear();
+                toCancel = new ArrayList<ServerFuture>(running);
+                running.clear();
+            }
+
+            for (ServerFuture lookup : toCancel) {
+                if (!lookup.IsDone()) {
+                    cancelledLookups.incrementAndGet();
+                    lookup.Cancel();
+                }
+            }
+        }
+    }
+
+    public static long GetRoundTripsSaved() {
+        return roundTripsSaved.get();
+    }
+
+    public static long GetLookupCount() {
+        return lookups.get();
+    }
+
+    public static long GetCancelledLookupCount() {
+        return cancelledLookups.get();
+    }
+
+    public static String GetSummary() {
+        return String.format(Locale.US, "candidate races=%d lookups=%d cancelled=%d round trips saved=%d",
+                races.get(), lookups.get(), cancelledLookups.get(), roundTripsSaved.get());
+    }
+}
@@ -20,6 +20,8 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import org.json.JSONObject;
@@ -65,7 +67,7 @@ public class Communicator {
             }
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
@@ -78,7 +80,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::SubmitSignature");
                 }
             }
-        })).start();
+        });
     }
 
     public static void Login(final String username, final String password, final IServerResponse callback, Runnable networkIssueCallback) {
@@ -90,7 +92,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
@@ -109,7 +111,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::Login");
                 }
             }
-        })).start();
+        });
     }
 
     public static void SendDistributorRequest(final String key, final String status, final int statusId, final String comments, final IServerResponse callback) {
@@ -128,7 +130,7 @@ public class Communicator {
         }
 
         final String rUrl = url;
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
@@ -141,7 +143,31 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::SendDistributorRequest");
                 }
             }
-        })).start();
+        });
+    }
+
+    /**
+     * Blocking update_status_batch.php call behind {@link StatusUpdateBatcher}. A server without
+     * the endpoint surfaces as HttpResponseException 404.
+     */
+    static StatusUpdateBatcher.BatchResponse SendDistributorRequestBatch(List<StatusUpdateBatcher.Item> items) throws Exception {
+        String url = URL + "/update_status_batch.php";
+
+        ArrayList<HashMap<String, Object>> rows = new ArrayList<HashMap<String, Object>>(items.size());
+        for (StatusUpdateBatcher.Item item : items) {
+            HashMap<String, Object> row = new HashMap<String, Object>();
+            row.put("key", item.key);
+            row.put("status", item.status);
+            row.put("status_id", item.statusId);
+            rows.add(row);
+        }
+
+        HashMap<String, Object> reqParams = new HashMap<String, Object>();
+        reqParams.put("user", App.CurrentUser.user);
+        reqParams.put("items", new Gson().toJson(rows));
+
+        String json = Rest.Post(url, reqParams);
+        return new Gson().fromJson(json, StatusUpdateBatcher.BatchResponse.class);
     }
 
     public static void SendWarehouseManager(final String key, final boolean isStockIn, final int quantity, final Integer statusId, final IServerResponse callback) {
@@ -160,7 +186,7 @@ public class Communicator {
         }
 
         final String rUrl = url;
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
@@ -173,7 +199,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::SendWarehouseManager");
                 }
             }
-        })).start();
+        });
     }
 
     public static void SendPacker(final String key, final boolean isReady, final int statusId, final IServerResponse callback) {
@@ -182,7 +208,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
@@ -201,7 +227,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::SendPacker");
                 }
             }
-        })).start();
+        });
     }
 
     public static void SendWarehouseAdmin(final String key, final IServerResponse callback) {
@@ -295,34 +321,49 @@ public class Communicator {
     // }
 
     public static void LoadShipmentsWithDetails(final ShipmentsType type, final IServerResponse callback) {
+        LoadShipmentsWithDetails(type, null, callback);
+    }
+
+    /**
+     * @param syncToken sync_token of the list the caller currently holds, the server then answers
+     *                  with only the added/changed/removed shipments (ShipmentResponse.IsDelta()).
+     *                  Null, or a server without delta support, gives the full list.
+     *                  Concurrent loads of the same type share one request, see {@link ShipmentListLoader}.
+     */
+    public static void LoadShipmentsWithDetails(final ShipmentsType type, final String syncToken, final IServerResponse callback) {
         if (!AppModel.Object.IsNetworkAvailable(false)) {
             callback.onCompleted(false, "Internet connection not available");
             return;
         }
 
-        (new Thread(new Runnable() {
-            @Override
-            public void run() {
+        ShipmentListLoader.Load(type, syncToken, callback);
+    }
 
-                try {
-                    String url = URL + "/" + (type == ShipmentsType.MyShipments ? "get_driver_shipments_v2" : (type == ShipmentsType.Returns ? "get_driver_returns" : "get_driver_non_reconciled_v2")) + ".php?user=[U]";
-                    url = url.replace("[U]", App.CurrentUser.user);
+    /**
+     * The list endpoint of the type, with since= when the caller holds a sync token.
+     */
+    static String ShipmentsUrl(String baseUrl, ShipmentsType type, String user, String syncToken) throws Exception {
+        String url = baseUrl + "/" + (type == ShipmentsType.MyShipments ? "get_driver_shipments_v2" : (type == ShipmentsType.Returns ? "get_driver_returns" : "get_driver_non_reconciled_v2")) + ".php?user=[U]";
+        url = url.replace("[U]", user);
+        if (syncToken != null && syncToken.length() > 0)
+            url += "&since=" + URLEncoder.encode(syncToken, "UTF-8");
+        return url;
+    }
 
-                    String json = Rest.GET(url);
-                    boolean hasError = !json.contains("shipments"); // Because error is object while shipments is list.
-                    if (hasError) {
-                        ShipmentError error = new Gson().fromJson(json, ShipmentError.class);
-                        callback.onCompleted(false, error.response_txt);
-                    } else {
-                        ShipmentResponse response = new Gson().fromJson(json, ShipmentResponse.class);
-                        callback.onCompleted(true, null, response);
-                    }
-                } catch (Exception ex) {
-                    callback.onCompleted(false, "Something went wrong, Please try again");
-                    AppModel.ApplicationError(ex, "Communicator::LoadShipmentsWithDetails");
-                }
-            }
-        })).start();
+    /**
+     * Blocking fetch behind {@link ShipmentListLoader}.
+     *
+     * @return ShipmentResponse, or ShipmentError when the server refused
+     */
+    static Object FetchShipmentsWithDetails(ShipmentsType type, String syncToken) throws Exception {
+        String url = ShipmentsUrl(URL, type, App.CurrentUser.user, syncToken);
+
+        // Decoded while streaming, the reader tells the error object apart by its keys
+        Rest.Revalidated<Object> result = Rest.GETRevalidated(url, new ShipmentResponseReader());
+        // stored before the fragments get it, a 304 repeats what is already stored
+        if (!result.notModified && result.value instanceof ShipmentResponse)
+            ShipmentStore.Save(type, (ShipmentResponse) result.value);
+        return result.value;
     }
 
     public static void SendShipmentComments_OLD(final String shipmentId, final String comments, final IServerResponse callback) {
@@ -338,7 +379,7 @@ public class Communicator {
         }
 
         final String rUrl = url;
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
@@ -351,7 +392,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::SendShipmentComments");
                 }
             }
-        })).start();
+        });
     }
 
     public static void SendShipmentComments(final String shipmentId, final String noteType, final String comments, final IServerResponse callback) {
@@ -370,7 +411,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
@@ -383,7 +424,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::SendShipmentComments");
                 }
             }
-        })).start();
+        });
     }
 
     public static void GetExpenseTypes(final IServerResponse callback) {
@@ -392,22 +433,27 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
                 try {
                     String url = URL + "/expense_get_types.php";
 
-                    String json = Rest.GET(url);
-                    List<ExpenseType> response = AppModel.JsonToArrayList(json, ExpenseType[].class);
-                    callback.onCompleted(true, null, response);
+                    Rest.Revalidated<String> result = Rest.GETRevalidated(url);
+                    List<ExpenseType> response = result.GetDecoded();
+                    if (response == null) {
+                        response = AppModel.JsonToArrayList(result.value, ExpenseType[].class);
+                        result.SetDecoded(response);
+                    }
+                    // callers own the list they get
+                    callback.onCompleted(true, null, new ArrayList<ExpenseType>(response));
                 } catch (Exception ex) {
                     callback.onCompleted(false, "Something went wrong, Please try again");
                     AppModel.ApplicationError(ex, "Communicator::GetExpenseTypes");
                 }
             }
-        })).start();
+        });
     }
 
     public static void AddExpense(final String expense_type_id, final String amount, final String desc, final IServerResponse callback) {
@@ -416,7 +462,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
@@ -436,7 +482,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::AddExpense");
                 }
             }
-        })).start();
+        });
     }
 
     public static void GetSettings(final IServerResponse callback) {
@@ -452,9 +498,13 @@ public class Communicator {
             reqParams.put("user", App.CurrentUser.user);
             reqParams.put("gps_tracking", GPS.IsConnected ? "on" : "off");
 
-            String json = Rest.Post(url, reqParams);
-            SettingsRef[] obj = new Gson().fromJson(json, SettingsRef[].class);
-            callback.onCompleted(true, null, obj[0]);
+            Rest.Revalidated<String> result = Rest.PostRevalidated(url, reqParams);
+            SettingsRef obj = result.GetDecoded();
+            if (obj == null) {
+                obj = new Gson().fromJson(result.value, SettingsRef[].class)[0];
+                result.SetDecoded(obj);
+            }
+            callback.onCompleted(true, null, obj);
         } catch (Exception ex) {
             callback.onCompleted(false, "Something went wrong, Please try again");
             AppModel.ApplicationError(ex, "Communicator::GetSettings");
@@ -467,7 +517,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
@@ -486,7 +536,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::SendMassUpdate");
                 }
             }
-        })).start();
+        });
     }
 
     public static void UpdateGps(final IServerResponse callback) {
@@ -518,7 +568,7 @@ public class Communicator {
         // return;
         // }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Background, new Runnable() {
             @Override
             public void run() {
 
@@ -536,7 +586,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::SendSmsStatus");
                 }
             }
-        })).start();
+        });
     }
 
     public static void LogSmsToBackend(final String shipmentId, final String smsText, 
@@ -555,7 +605,7 @@ public class Communicator {
         reqParams.put("cod_amount", codAmount);
         
         // Send in background thread - no need to block UI for logging
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Background, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -569,31 +619,26 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::LogSmsToBackend");
                 }
             }
-        })).start();
+        });
     }
 
-    public static boolean SendPending(PendingRequestItem item) {
-        if (!AppModel.Object.IsNetworkAvailable(false)) {
-            return false;
-        }
-
-        try {
-            String url = item.Request;
-
-            if (item.IsGetRequest)
-                Rest.GET(url);
-            else {
-                HashMap<String, Object> reqParams = new HashMap<String, Object>();
-                for (PostParamItem pi : item.Params) {
-                    reqParams.put(pi.Param, pi.Value);
-                }
+    /**
+     * Sends a queued request, called on a replay worker (PendingReplayer). Returns when the server
+     * accepted it; any failure, including an unreachable server, is thrown.
+     */
+    static void ReplayPending(PendingRequestItem item) throws Exception {
+        String url = item.Request;
 
-                Rest.Post(url, reqParams);
+        if (item.IsGetRequest)
+            Rest.GETStrict(url);
+        else {
+            HashMap<String, Object> reqParams = new HashMap<String, Object>();
+            for (PostParamItem pi : item.Params) {
+                // large values are streamed from their file while the request is written
+                reqParams.put(pi.Param, pi.PayloadRef != null ? PayloadStore.Get(pi.PayloadRef) : pi.Value);
             }
-            return true;
-        } catch (Exception ex) {
-            AppModel.ApplicationError(ex, "Communicator::SendPending");
-            return false;
+
+            Rest.Post(url, reqParams);
         }
     }
 
@@ -603,7 +648,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Bulk, callback, new Runnable() {
 
             @Override
             public void run() {
@@ -628,7 +673,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::UploadShipmentPicture");
                 }
             }
-        })).start();
+        });
     }
 
     public static void GetPrintImage(final String trackingId, final IServerResponse callback) {
@@ -640,7 +685,7 @@ public class Communicator {
         }
 
         final String rUrl = url;
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
@@ -657,15 +702,20 @@ public class Communicator {
 //                    in.close();
 //                    Bitmap bmp = BitmapFactory.decodeFile(outputFile.getAbsolutePath());
 
-                    Bitmap bmp = BitmapFactory.decodeStream(in);
-                    in.close();
+                    Bitmap bmp;
+                    try {
+                        bmp = BitmapFactory.decodeStream(in);
+                    } finally {
+                        // returns the connection to the shared pool, also when decoding failed
+                        in.close();
+                    }
                     callback.onCompleted(true, null, bmp);
                 } catch (Exception ex) {
                     callback.onCompleted(false, "Something went wrong, Please try again");
                     AppModel.ApplicationError(ex, "Communicator::GetPrintImage");
                 }
             }
-        })).start();
+        });
     }
 
     public static void CreateReturnShipment(final String trackingId, final IServerResponse callback) {
@@ -674,7 +724,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
 
@@ -691,7 +741,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::CreateReturnShipment");
                 }
             }
-        })).start();
+        });
     }
 
     public static void UploadProfilePicture(final String base64Image, final IServerResponse callback) {
@@ -700,7 +750,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Bulk, callback, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -726,7 +776,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::UploadProfilePicture");
                 }
             }
-        })).start();
+        });
     }
 
     public static void CheckAppUpdate(final IServerResponse callback) {
@@ -735,22 +785,26 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Background, callback, new Runnable() {
             @Override
             public void run() {
 
                 try {
                     String url = URL.replace("/api", "/app") + "/version_check.php";
 
-                    String json = Rest.GET(url);
-                    AppUpdate obj = new Gson().fromJson(json, AppUpdate.class);
+                    Rest.Revalidated<String> result = Rest.GETRevalidated(url);
+                    AppUpdate obj = result.GetDecoded();
+                    if (obj == null) {
+                        obj = new Gson().fromJson(result.value, AppUpdate.class);
+                        result.SetDecoded(obj);
+                    }
                     callback.onCompleted(true, null, obj);
                 } catch (Exception ex) {
                     callback.onCompleted(false, "Something went wrong, Please try again");
                     AppModel.ApplicationError(ex, "Communicator::CheckAppUpdate");
                 }
             }
-        })).start();
+        });
     }
 
     public static long DownloadFileUsingDM(String fileName, String url) {
@@ -768,7 +822,7 @@ public class Communicator {
     }
 
     public static void DownloadFileUsingStream(final String fileName, final String urlString, final IServerResponse response) {
-        new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Bulk, response, new Runnable() {
             @Override
             public void run() {
                 InputStream input = null;
@@ -859,7 +913,7 @@ public class Communicator {
                     }
                 }
             }
-        }).start();
+        });
     }
 
     public static void GetSMSHistory(final String shipmentId, final IServerResponse callback) {
@@ -868,7 +922,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -881,7 +935,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::GetSMSHistory");
                 }
             }
-        })).start();
+        });
     }
 
     public static void ChangePassword(final String currentPassword, final String newPassword, final IServerResponse callback) {
@@ -895,7 +949,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -919,7 +973,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::ChangePassword");
                 }
             }
-        })).start();
+        });
     }
 
     /**
@@ -937,7 +991,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Background, callback, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -982,7 +1036,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::SubmitSMSReplies");
                 }
             }
-        })).start();
+        });
     }
 
     /**
@@ -995,7 +1049,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -1024,7 +1078,7 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::LookupShipmentByCourierTracking");
                 }
             }
-        })).start();
+        });
     }
 
     /**
@@ -1041,7 +1095,7 @@ public class Communicator {
             return;
         }
 
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, callback, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -1068,14 +1122,14 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::MarkReturnReceived");
                 }
             }
-        })).start();
+        });
     }
 
     /**
      * Send a single SMS reply to the server
      */
     public static void SendSMSReply(final SMSReplyMonitor.SMSReply reply, final IServerResponse callback) {
-        (new Thread(new Runnable() {
+        RequestExecutor.Execute(RequestExecutor.Lane.Background, callback, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -1106,6 +1160,63 @@ public class Communicator {
                     AppModel.ApplicationError(ex, "Communicator::SendSMSReply");
                 }
             }
-        })).start();
+        });
+    }
+
+    // Future based overloads. They run on the same RequestExecutor lanes as the callback versions
+    // and can be chained/combined through ServerFuture instead of nesting callbacks.
+
+    public static ServerFuture SendDistributorRequest(final String key, final String status, final int statusId, final String comments) {
+        ServerFuture future = new ServerFuture();
+        SendDistributorRequest(key, status, statusId, comments, future);
+        return future;
+    }
+
+    public static ServerFuture SubmitSignature(final String base64String, final String fullName, final String signatureId, String nullablePin, final int status) {
+        ServerFuture future = new ServerFuture();
+        SubmitSignature(base64String, fullName, signatureId, nullablePin, status, future);
+        return future;
+    }
+
+    public static ServerFuture LoadShipmentsWithDetails(final ShipmentsType type, final String syncToken) {
+        ServerFuture future = new ServerFuture();
+        LoadShipmentsWithDetails(type, syncToken, future);
+        return future;
+    }
+
+    public static ServerFuture SendShipmentComments(final String shipmentId, final String noteType, final String comments) {
+        ServerFuture future = new ServerFuture();
+        SendShipmentComments(shipmentId, noteType, comments, future);
+        return future;
+    }
+
+    public static ServerFuture SendMassUpdate(final String key) {
+        ServerFuture future = new ServerFuture();
+        SendMassUpdate(key, future);
+        return future;
+    }
+
+    public static ServerFuture CreateReturnShipment(final String trackingId) {
+        ServerFuture future = new ServerFuture();
+        CreateReturnShipment(trackingId, future);
+        return future;
+    }
+
+    public static ServerFuture GetSMSHistory(final String shipmentId) {
+        ServerFuture future = new ServerFuture();
+        GetSMSHistory(shipmentId, future);
+        return future;
+    }
+
+    public static ServerFuture LookupShipmentByCourierTracking(final String courierTracking) {
+        ServerFuture future = new ServerFuture();
+        LookupShipmentByCourierTracking(courierTracking, future);
+        return future;
+    }
+
+    public static ServerFuture MarkReturnReceived(final String trackingId, final String courierTracking) {
+        ServerFuture future = new ServerFuture();
+        MarkReturnReceived(trackingId, courierTracking, future);
+        return future;
     }
 }
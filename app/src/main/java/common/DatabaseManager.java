@@ -7,6 +7,8 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.util.Log;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -20,15 +22,104 @@ import java.util.Calendar;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local database (pending requests queue, driver lists). All queries share one connection that is opened in
+ * WAL mode on first use and kept open, so readers (SyncThread) don't block on the writer and a
+ * query doesn't pay for opening the file and parsing the schema. Compiled statements are cached
+ * per connection by their SQL text, so values should be passed as bind args instead of being
+ * formatted into the filter.
+ * <p>
+ * Writes are confined to a single writer thread, callers block until their write is done
+ * unless it was queued with {@link #WriteTransactionAsync}.
+ * Statements slower than {@link #SLOW_QUERY_MS} are logged.
+ */
 public class DatabaseManager extends SQLiteOpenHelper {
 
+	private static final String TAG = "DatabaseManager";
+
 	private File DB_FILE = null;
-	private final static int DB_VERSION = 1;
+	private final static int DB_VERSION = 6;
+	private static final String VERSION_KEY = "DB_VERSION";
 	public static boolean IsDatabaseReady;
 
+	// v2 schema, the DB.sqlite asset is created with exactly these statements followed by the UPGRADE_V* statements
+	private static final String CREATE_PENDING_REQUESTS = "CREATE TABLE PendingRequests ( ID INTEGER PRIMARY KEY AUTOINCREMENT, Request NVARCHAR( 2000 ), Timestamp NVARCHAR( 1000 ), IsGetRequest BOOLEAN, Uploaded BOOLEAN )";
+	private static final String CREATE_POST_PARAMS = "CREATE TABLE PostParams ( ID INTEGER PRIMARY KEY AUTOINCREMENT, PendingRequestID INTEGER NOT NULL, Param NVARCHAR( 2000 ), Value NVARCHAR( 20000 ) )";
+	private static final String CREATE_POST_PARAMS_INDEX = "CREATE INDEX IX_PostParams_PendingRequestID ON PostParams ( PendingRequestID )";
+
+	// v3: retry state of queued requests and the requests that were given up on (PendingReplayer)
+	private static final String[] UPGRADE_V3 = {
+			"ALTER TABLE PendingRequests ADD COLUMN Attempts INTEGER NOT NULL DEFAULT 0",
+			"ALTER TABLE PendingRequests ADD COLUMN NextAttemptAt INTEGER NOT NULL DEFAULT 0",
+			"ALTER TABLE PendingRequests ADD COLUMN LastError NVARCHAR( 2000 )",
+			"CREATE TABLE DeadLetters ( ID INTEGER PRIMARY KEY AUTOINCREMENT, PendingRequestID INTEGER, Request NVARCHAR( 2000 ), Timestamp NVARCHAR( 1000 ), IsGetRequest BOOLEAN, Params NVARCHAR( 20000 ), Attempts INTEGER, LastError NVARCHAR( 2000 ), FailedAt NVARCHAR( 1000 ) )"
+	};
+
+	// v4: queue compaction (PendingCompactor), dropped entries are kept for auditing
+	private static final String[] UPGRADE_V4 = {
+			"ALTER TABLE PendingRequests ADD COLUMN OperationKey NVARCHAR( 2000 )",
+			"CREATE INDEX IX_PendingRequests_OperationKey ON PendingRequests ( OperationKey )",
+			"CREATE TABLE CompactedRequests ( ID INTEGER PRIMARY KEY AUTOINCREMENT, PendingRequestID INTEGER, Request NVARCHAR( 2000 ), Timestamp NVARCHAR( 1000 ), IsGetRequest BOOLEAN, Params NVARCHAR( 20000 ), OperationKey NVARCHAR( 2000 ), KeptRequestID INTEGER, CompactedAt NVARCHAR( 1000 ) )"
+	};
+
+	// v5: large param values live in files (PayloadStore), the row keeps the reference
+	private static final String[] UPGRADE_V5 = {
+			"ALTER TABLE PostParams ADD COLUMN PayloadRef NVARCHAR( 64 )"
+	};
+
+	// v6: the driver lists (ShipmentStore), replaces the JSON copies kept in the preferences
+	private static final String[] UPGRADE_V6 = {
+			"CREATE TABLE Shipments ( ID INTEGER PRIMARY KEY AUTOINCREMENT, ListType NVARCHAR( 50 ) NOT NULL, Position INTEGER NOT NULL, ShipmentID NVARCHAR( 50 ), TrackingID NVARCHAR( 200 ), StatusID INTEGER, StatusName NVARCHAR( 200 ), Description NVARCHAR( 2000 ), DescriptionTitle NVARCHAR( 500 ), ReceiverCod NVARCHAR( 50 ), SenderPhone NVARCHAR( 100 ), ReceiverAddress NVARCHAR( 1000 ), ReceiverCity NVARCHAR( 200 ), SenderName NVARCHAR( 500 ), SenderAddress NVARCHAR( 1000 ), ExchangeTrackingID NVARCHAR( 200 ), ClientID NVARCHAR( 50 ), ReceiverPhone NVARCHAR( 100 ), ReceiverName NVARCHAR( 500 ), ReceiverCountryID NVARCHAR( 50 ), Instructions NVARCHAR( 2000 ), Lat REAL, Lon REAL, SmsText NVARCHAR( 2000 ), IsUrgent INTEGER, BgColor NVARCHAR( 20 ), TxtColor NVARCHAR( 20 ), PinVerification INTEGER, HasPendingSync BOOLEAN, ReturnShipment NVARCHAR( 4000 ) )",
+			"CREATE UNIQUE INDEX IX_Shipments_ListType_ShipmentID ON Shipments ( ListType, ShipmentID )",
+			"CREATE INDEX IX_Shipments_ShipmentID ON Shipments ( ShipmentID )",
+			"CREATE INDEX IX_Shipments_TrackingID ON Shipments ( TrackingID COLLATE NOCASE )",
+			"CREATE INDEX IX_Shipments_StatusID ON Shipments ( StatusID )",
+			"CREATE INDEX IX_Shipments_ReceiverPhone ON Shipments ( ReceiverPhone )",
+			"CREATE TABLE ShipmentNotes ( ID INTEGER PRIMARY KEY AUTOINCREMENT, ShipmentID NVARCHAR( 50 ) NOT NULL, CommentID NVARCHAR( 50 ), CommentTimestamp NVARCHAR( 100 ), DriverName NVARCHAR( 500 ), UserID NVARCHAR( 50 ), Comment NVARCHAR( 4000 ) )",
+			"CREATE INDEX IX_ShipmentNotes_ShipmentID ON ShipmentNotes ( ShipmentID )",
+			"CREATE TABLE ShipmentPictures ( ID INTEGER PRIMARY KEY AUTOINCREMENT, ShipmentID NVARCHAR( 50 ) NOT NULL, ImageID NVARCHAR( 50 ), Description NVARCHAR( 2000 ), Date NVARCHAR( 100 ), Time NVARCHAR( 100 ), Url NVARCHAR( 2000 ) )",
+			"CREATE INDEX IX_ShipmentPictures_ShipmentID ON ShipmentPictures ( ShipmentID )",
+			"CREATE TABLE ShipmentLists ( ListType NVARCHAR( 50 ) PRIMARY KEY, SyncToken NVARCHAR( 500 ), CodToReconcile REAL, Settings NVARCHAR( 20000 ), SavedAt NVARCHAR( 1000 ) )"
+	};
+
+	// SQLiteDatabase.MAX_SQL_CACHE_SIZE
+	private static final int STATEMENT_CACHE_SIZE = 100;
+	static final long SLOW_QUERY_MS = 50;
+
+	private static volatile long slowQueryMs = SLOW_QUERY_MS;
+	private static final AtomicLong queries = new AtomicLong();
+	private static final AtomicLong slowQueries = new AtomicLong();
+	private static final AtomicLong writes = new AtomicLong();
+
+	private final Object connectionLock = new Object();
+	private SQLiteDatabase connection;
+
+	private volatile Thread writerThread;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			writerThread = new Thread(r, "DbWriter");
+			return writerThread;
+		}
+	});
+
+	/**
+	 * Work run on the writer thread with the shared connection.
+	 */
+	public interface IWriteTask<T> {
+		T Run(SQLiteDatabase db) throws Exception;
+	}
+
 	public enum TableType {
-		PendingRequests, PostParams;
+		PendingRequests, PostParams, DeadLetters, CompactedRequests, Shipments, ShipmentNotes, ShipmentPictures, ShipmentLists;
 
 		@SuppressLint("DefaultLocale")
 		public static TableType GetFromLowerCase(String tablename) {
@@ -54,25 +145,88 @@ public class DatabaseManager extends SQLiteOpenHelper {
 
 	public void ProcessCreateDatabase() {
 
-		DeleteOldVersionDatabase();
+		MigrateDatabase();
 
 		while (!(isDbExist() && isDbFunctional())) {
 			if (isDbExist())
-				DB_FILE.delete();
+				DeleteDatabaseFiles();
 
 			CreateDatabase();
 		}
 	}
 
-	private void DeleteOldVersionDatabase() {
-		final String CURRENT_VERSION = "1";
-		final String VERSION_KEY = "DB_VERSION";
-		String existingV = AppModel.Object.GetVariable(VERSION_KEY);
-		if (AppModel.IsNullOrEmpty(existingV) || !existingV.equals(CURRENT_VERSION)) {
-			if (isDbExist())
-				DB_FILE.delete();
-			AppModel.Object.SaveVariable(VERSION_KEY, CURRENT_VERSION);
+	/**
+	 * Brings an existing database up to {@link #DB_VERSION} keeping the queued requests. Only a
+	 * database that fails to migrate is deleted (and recreated from the asset).
+	 */
+	private void MigrateDatabase() {
+		final String CURRENT_VERSION = String.valueOf(DB_VERSION);
+		final String existingV = AppModel.Object.GetVariable(VERSION_KEY);
+		if (CURRENT_VERSION.equals(existingV))
+			return;
+
+		if (isDbExist()) {
+			try {
+				WriteTransaction("migrate from " + existingV, new IWriteTask<Void>() {
+					@Override
+					public Void Run(SQLiteDatabase db) {
+						// the v1 asset has no user_version
+						int version = db.getVersion();
+						if (version < 2)
+							MigrateToV2(db);
+						if (version < 3) {
+							for (String statement : UPGRADE_V3)
+								db.execSQL(statement);
+						}
+						if (version < 4) {
+							for (String statement : UPGRADE_V4)
+								db.execSQL(statement);
+						}
+						if (version < 5) {
+							for (String statement : UPGRADE_V5)
+								db.execSQL(statement);
+						}
+						if (version < 6) {
+							for (String statement : UPGRADE_V6)
+								db.execSQL(statement);
+						}
+						db.setVersion(DB_VERSION);
+						return null;
+					}
+				});
+			} catch (Exception ex) {
+				AppModel.ApplicationError(ex, "DatabaseManager.MigrateDatabase(" + existingV + ")");
+				DeleteDatabaseFiles();
+			}
 		}
+		AppModel.Object.SaveVariable(VERSION_KEY, CURRENT_VERSION);
+	}
+
+	/**
+	 * v1 used INT PRIMARY KEY (ids assigned with MAX(ID) + 1) and had no index on
+	 * PostParams.PendingRequestID. Rows keep their ids.
+	 */
+	private static void MigrateToV2(SQLiteDatabase db) {
+		db.execSQL("ALTER TABLE PendingRequests RENAME TO PendingRequests_v1");
+		db.execSQL("ALTER TABLE PostParams RENAME TO PostParams_v1");
+
+		db.execSQL(CREATE_PENDING_REQUESTS);
+		db.execSQL(CREATE_POST_PARAMS);
+		db.execSQL(CREATE_POST_PARAMS_INDEX);
+
+		db.execSQL("INSERT INTO PendingRequests (ID, Request, Timestamp, IsGetRequest, Uploaded) "
+				+ "SELECT ID, Request, Timestamp, IsGetRequest, Uploaded FROM PendingRequests_v1 WHERE ID IS NOT NULL ORDER BY ID");
+		db.execSQL("INSERT INTO PostParams (ID, PendingRequestID, Param, Value) "
+				+ "SELECT ID, PendingRequestID, Param, Value FROM PostParams_v1 WHERE ID IS NOT NULL AND PendingRequestID IN (SELECT ID FROM PendingRequests) ORDER BY ID");
+
+		db.execSQL("DROP TABLE PendingRequests_v1");
+		db.execSQL("DROP TABLE PostParams_v1");
+	}
+
+	private void DeleteDatabaseFiles() {
+		CloseConnection();
+		// also removes the -wal and -shm files, a stale WAL must never be applied to a fresh copy
+		SQLiteDatabase.deleteDatabase(DB_FILE);
 	}
 
 	private void CreateDatabase() {
@@ -131,17 +285,133 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		return false;
 	}
 
+	/**
+	 * The shared connection, opened on first use. Don't close it.
+	 */
 	public SQLiteDatabase openDataBase() throws SQLException {
+		synchronized (connectionLock) {
+			if (connection == null || !connection.isOpen()) {
+				connection = SQLiteDatabase.openDatabase(DB_FILE.getAbsolutePath(), null,
+						SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+				connection.setMaxSqlCacheSize(STATEMENT_CACHE_SIZE);
+			}
+			return connection;
+		}
+	}
 
-		// Open the database
-		return SQLiteDatabase.openDatabase(DB_FILE.getAbsolutePath(), null, SQLiteDatabase.OPEN_READWRITE);
+	private void CloseConnection() {
+		synchronized (connectionLock) {
+			if (connection != null && connection.isOpen())
+				connection.close();
+			connection = null;
+		}
 	}
 
 	@Override
 	public synchronized void close() {
+		CloseConnection();
 		super.close();
 	}
 
+	/**
+	 * Runs the task on the writer thread and waits for it. Several statements in one task run
+	 * back to back without other writes in between.
+	 */
+	public <T> T Write(final IWriteTask<T> task) throws Exception {
+		final SQLiteDatabase db = openDataBase();
+		writes.incrementAndGet();
+		if (Thread.currentThread() == writerThread)
+			return task.Run(db);
+
+		try {
+			return writer.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					return task.Run(db);
+				}
+			}).get();
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Same as {@link #Write} inside one transaction: either everything the task wrote is kept or,
+	 * when it throws, nothing.
+	 *
+	 * @param label shown in the slow query log
+	 */
+	public <T> T WriteTransaction(final String label, final IWriteTask<T> task) throws Exception {
+		return Write(new IWriteTask<T>() {
+			@Override
+			public T Run(SQLiteDatabase db) throws Exception {
+				long startedAt = SystemClock.uptimeMillis();
+				db.beginTransaction();
+				try {
+					T result = task.Run(db);
+					db.setTransactionSuccessful();
+					return result;
+				} finally {
+					db.endTransaction();
+					Timed("TRANSACTION " + label, startedAt);
+				}
+			}
+		});
+	}
+
+	/**
+	 * {@link #WriteTransaction} queued on the writer thread without waiting for it, for callers on
+	 * the UI thread. Writes still run in the order they were queued, a failure is only logged.
+	 */
+	public void WriteTransactionAsync(final String label, final IWriteTask<?> task) {
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					WriteTransaction(label, task);
+				} catch (Exception ex) {
+					AppModel.ApplicationError(ex, "DatabaseManager.WriteTransactionAsync(" + label + ")");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits until the writes queued before this call (WriteTransactionAsync) have run, a read
+	 * that follows sees them. For background threads only.
+	 */
+	public void AwaitPendingWrites() throws Exception {
+		Write(new IWriteTask<Void>() {
+			@Override
+			public Void Run(SQLiteDatabase db) {
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Statements taking longer than this are logged, 0 logs every statement.
+	 */
+	public static void SetSlowQueryThreshold(long ms) {
+		slowQueryMs = Math.max(0, ms);
+	}
+
+	private static void Timed(String statement, long startedAt) {
+		long elapsed = SystemClock.uptimeMillis() - startedAt;
+		queries.incrementAndGet();
+		if (elapsed >= slowQueryMs) {
+			slowQueries.incrementAndGet();
+			Log.w(TAG, "Slow query (" + elapsed + "ms on " + Thread.currentThread().getName() + "): " + statement);
+		}
+	}
+
+	public static String GetSummary() {
+		return String.format(Locale.US, "db queries=%d slow=%d writes=%d", queries.get(), slowQueries.get(), writes.get());
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 
@@ -154,6 +424,21 @@ public class DatabaseManager extends SQLiteOpenHelper {
 
 	public void copyDatabaseTo(String pathToCopy) throws IOException {
 		if (isDbExist()) {
+			// move what's still in the WAL into the file being copied
+			try {
+				Write(new IWriteTask<Void>() {
+					@Override
+					public Void Run(SQLiteDatabase db) {
+						Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+						cursor.moveToFirst();
+						cursor.close();
+						return null;
+					}
+				});
+			} catch (Exception ex) {
+				AppModel.ApplicationError(ex, "DatabaseManager.copyDatabaseTo(checkpoint)");
+			}
+
 			File dbFile = new File(DB_FILE.getAbsolutePath());
 			FileInputStream fis = new FileInputStream(dbFile);
 
@@ -175,82 +460,87 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	// ///// ---- QUERY CONTROLLER ---- ///// //
 
 	public ArrayList<HashMap<String, String>> SelectFormatted(TableType TableType, String[] columns, String filter, String orderBy) {
-		SQLiteDatabase db = null;
+		return SelectFormatted(TableType, columns, filter, null, orderBy);
+	}
+
+	/**
+	 * @param filterArgs values for the ? placeholders of the filter
+	 */
+	public ArrayList<HashMap<String, String>> SelectFormatted(TableType TableType, String[] columns, String filter, String[] filterArgs, String orderBy) {
+		if (columns == null)
+			columns = new String[] { "*" };
+		String csvColumns = AppModel.ConvertToCsv(columns);
+		String selectCmd = "SELECT " + csvColumns + " FROM " + TableType.toString();
+		if (filter != null)
+			selectCmd += " WHERE " + filter;
+		if (orderBy != null)
+			selectCmd += " ORDER BY " + orderBy;
+		return Select(selectCmd, filterArgs, "DatabaseManager.SelectFormatted(" + TableType + "..)");
+	}
+
+	public ArrayList<HashMap<String, String>> SelectFormatted(String selectCmd) {
+		return SelectFormatted(selectCmd, null);
+	}
+
+	public ArrayList<HashMap<String, String>> SelectFormatted(String selectCmd, String[] selectionArgs) {
+		return Select(selectCmd, selectionArgs, "DatabaseManager.SelectFormatted(" + selectCmd + "..)");
+	}
+
+	private ArrayList<HashMap<String, String>> Select(String selectCmd, String[] selectionArgs, String errorContext) {
 		ArrayList<HashMap<String, String>> result = new ArrayList<HashMap<String, String>>();
 		Cursor cursor = null;
 
 		try {
-			DatabaseManager dbMang = new DatabaseManager(App.Object, DB_FILE);
-			db = dbMang.openDataBase();
-
-			if (columns == null)
-				columns = new String[] { "*" };
-			String csvColumns = AppModel.ConvertToCsv(columns);
-			String selectCmd = "SELECT " + csvColumns + " FROM " + TableType.toString();
-			if (filter != null)
-				selectCmd += " WHERE " + filter;
-			if (orderBy != null)
-				selectCmd += " ORDER BY " + orderBy;
-			cursor = db.rawQuery(selectCmd, null);
+			long startedAt = SystemClock.uptimeMillis();
+			cursor = openDataBase().rawQuery(selectCmd, selectionArgs);
 
+			String[] colNames = cursor.getColumnNames();
 			while (cursor.moveToNext()) {
-				HashMap<String, String> item = new HashMap<String, String>();
-				String[] colNames = cursor.getColumnNames();
-				for (String colName : colNames) {
-					String value = cursor.getString(cursor.getColumnIndex(colName));
+				LinkedHashMap<String, String> item = new LinkedHashMap<String, String>();
+				for (int i = 0; i < colNames.length; i++) {
+					String value = cursor.getString(i);
 					if (value != null && value.equalsIgnoreCase("NULL"))
 						value = null;
-					item.put(colName, value);
+					item.put(colNames[i], value);
 				}
 				result.add(item);
 			}
+			Timed(selectCmd, startedAt);
 
 		} catch (Exception ex) {
 
-			AppModel.ApplicationError(ex, "DatabaseManager.SelectFormatted(" + TableType + "..)");
+			AppModel.ApplicationError(ex, errorContext);
 		} finally {
 			if (cursor != null)
 				cursor.close();
-
-			if (db != null)
-				db.close();
 		}
 		return result;
 	}
 
-	public ArrayList<HashMap<String, String>> SelectFormatted(String selectCmd) {
-		SQLiteDatabase db = null;
-		ArrayList<HashMap<String, String>> result = new ArrayList<HashMap<String, String>>();
-		Cursor cursor = null;
+	/**
+	 * Called for every row of {@link #ReadRows}. Read by column position, the positions are those
+	 * of the select list.
+	 */
+	public interface IRowReader {
+		void Read(Cursor cursor);
+	}
 
+	/**
+	 * Streams the rows to the reader without building a map per row. Errors are thrown to the
+	 * caller.
+	 */
+	public void ReadRows(String selectCmd, String[] selectionArgs, IRowReader reader) {
+		Cursor cursor = null;
 		try {
-			DatabaseManager dbMang = new DatabaseManager(App.Object, DB_FILE);
-			db = dbMang.openDataBase();
-			cursor = db.rawQuery(selectCmd, null);
-
-			while (cursor.moveToNext()) {
-				LinkedHashMap<String, String> item = new LinkedHashMap<String, String>();
-				String[] colNames = cursor.getColumnNames();
-				for (String colName : colNames) {
-					String value = cursor.getString(cursor.getColumnIndex(colName));
-					if (value != null && value.equalsIgnoreCase("NULL"))
-						value = null;
-					item.put(colName, value);
-				}
-				result.add(item);
-			}
-
-		} catch (Exception ex) {
-
-			AppModel.ApplicationError(ex, "DatabaseManager.SelectFormatted(" + selectCmd + "..)");
+			long startedAt = SystemClock.uptimeMillis();
+			cursor = openDataBase().rawQuery(selectCmd, selectionArgs);
+			while (cursor.moveToNext())
+				reader.Read(cursor);
+			Timed(selectCmd, startedAt);
 		} finally {
 			if (cursor != null)
 				cursor.close();
-
-			if (db != null)
-				db.close();
 		}
-		return result;
 	}
 
 	public List<String> GetTableNames() {
@@ -270,14 +560,11 @@ public class DatabaseManager extends SQLiteOpenHelper {
 	@SuppressLint("DefaultLocale")
 	public List<String> GetTableColumns(TableType table, boolean inLowerCase) {
 		List<String> rtn = new ArrayList<String>();
-		SQLiteDatabase db = null;
 		Cursor cursor = null;
 
 		String selectCmd = MessageFormat.format("Select * from {0} LIMIT 1", table);
 		try {
-			DatabaseManager dbMang = new DatabaseManager(App.Object, DB_FILE);
-			db = dbMang.openDataBase();
-			cursor = db.rawQuery(selectCmd, null);
+			cursor = openDataBase().rawQuery(selectCmd, null);
 
 			for (String col : cursor.getColumnNames()) {
 				rtn.add(inLowerCase ? col.toLowerCase() : col);
@@ -288,9 +575,6 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		} finally {
 			if (cursor != null)
 				cursor.close();
-
-			if (db != null)
-				db.close();
 		}
 		return rtn;
 	}
@@ -363,70 +647,86 @@ public class DatabaseManager extends SQLiteOpenHelper {
 		return count;
 	}
 
-	public boolean Insert(TableType TableType, ContentValues values) {
-		SQLiteDatabase db = null;
+	public boolean Insert(final TableType TableType, final ContentValues values) {
 		try {
-			DatabaseManager dbMang = new DatabaseManager(App.Object, DB_FILE);
-			db = dbMang.openDataBase();
-			db.insertOrThrow(TableType.toString(), null, values);
+			Write(new IWriteTask<Long>() {
+				@Override
+				public Long Run(SQLiteDatabase db) {
+					long startedAt = SystemClock.uptimeMillis();
+					long rowId = db.insertOrThrow(TableType.toString(), null, values);
+					Timed("INSERT INTO " + TableType, startedAt);
+					return rowId;
+				}
+			});
 			return true;
 
 		} catch (Exception ex) {
 			AppModel.ApplicationError(ex, "DatabaseManager.Insert(" + TableType + "..)");
-		} finally {
-			if (db != null)
-				db.close();
 		}
 		return false; // error occurred.
 	}
 
 	public boolean Update(TableType TableType, ContentValues values, String filter) {
-		SQLiteDatabase db = null;
+		return Update(TableType, values, filter, null);
+	}
+
+	public boolean Update(final TableType TableType, final ContentValues values, final String filter, final String[] filterArgs) {
 		try {
-			DatabaseManager dbMang = new DatabaseManager(App.Object, DB_FILE);
-			db = dbMang.openDataBase();
-			db.update(TableType.toString(), values, filter, null);
+			Write(new IWriteTask<Integer>() {
+				@Override
+				public Integer Run(SQLiteDatabase db) {
+					long startedAt = SystemClock.uptimeMillis();
+					int rows = db.update(TableType.toString(), values, filter, filterArgs);
+					Timed("UPDATE " + TableType + " WHERE " + filter, startedAt);
+					return rows;
+				}
+			});
 			return true;
 
 		} catch (Exception ex) {
 			AppModel.ApplicationError(ex, "DatabaseManager.Update(" + TableType + "..)");
-		} finally {
-			if (db != null)
-				db.close();
 		}
 		return false;
 	}
 
 	public boolean Delete(TableType TableType, String filter) {
-		SQLiteDatabase db = null;
+		return Delete(TableType, filter, null);
+	}
+
+	public boolean Delete(final TableType TableType, final String filter, final String[] filterArgs) {
 		try {
-			DatabaseManager dbMang = new DatabaseManager(App.Object, DB_FILE);
-			db = dbMang.openDataBase();
-			db.delete(TableType.toString(), filter, null);
+			Write(new IWriteTask<Integer>() {
+				@Override
+				public Integer Run(SQLiteDatabase db) {
+					long startedAt = SystemClock.uptimeMillis();
+					int rows = db.delete(TableType.toString(), filter, filterArgs);
+					Timed("DELETE FROM " + TableType + " WHERE " + filter, startedAt);
+					return rows;
+				}
+			});
 			return true;
 
 		} catch (Exception ex) {
 			AppModel.ApplicationError(ex, "DatabaseManager.Delete(" + TableType + "..)");
-		} finally {
-			if (db != null)
-				db.close();
 		}
 		return false;
 	}
 
-	public boolean ExecuteQuery(String query) {
-		SQLiteDatabase db = null;
+	public boolean ExecuteQuery(final String query) {
 		try {
-			DatabaseManager dbMang = new DatabaseManager(App.Object, DB_FILE);
-			db = dbMang.openDataBase();
-			db.execSQL(query);
+			Write(new IWriteTask<Void>() {
+				@Override
+				public Void Run(SQLiteDatabase db) {
+					long startedAt = SystemClock.uptimeMillis();
+					db.execSQL(query);
+					Timed(query, startedAt);
+					return null;
+				}
+			});
 			return true;
 
 		} catch (Exception ex) {
 			AppModel.ApplicationError(ex, "DatabaseManager.ExecuteQuery()");
-		} finally {
-			if (db != null)
-				db.close();
 		}
 		return false;
 	}
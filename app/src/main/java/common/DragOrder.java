@@ -0,0 +1,150 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The order the driver dragged My Shipments into, as a rank per tracking id (case-insensitive).
+ * A shipment without a rank is ranked after all others the first time it is shown, in list order.
+ * <p>
+ * A drop gives the moved shipment a rank between its new neighbours, nothing else changes. Only
+ * when two neighbours get too close all ranks are spread out again, so drops are O(1) amortized.
+ * Ordering a list is one sort by rank. Kept across restarts by ShipmentSnapshot.
+ */
+public class DragOrder {
+
+    private static final double STEP = 1024;
+    // below this the midpoint of two ranks is no longer exact enough
+    private static final double MIN_GAP = 1e-6;
+
+    private final HashMap<String, Double> ranks = new HashMap<String, Double>();
+    private double highest;
+
+    public synchronized boolean IsEmpty() {
+        return ranks.isEmpty();
+    }
+
+    /**
+     * Replaces the order, trackingIds in display order.
+     */
+    public synchronized void SetKeys(List<String> trackingIds) {
+        ranks.clear();
+        highest = 0;
+        for (String trackingId : trackingIds)
+            RankOf(Key(trackingId));
+    }
+
+    /**
+     * Tracking ids in display order.
+     */
+    public synchronized List<String> Keys() {
+        List<Map.Entry<String, Double>> entries = new ArrayList<Map.Entry<String, Double>>(ranks.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Double>>() {
+            @Override
+            public int compare(Map.Entry<String, Double> a, Map.Entry<String, Double> b) {
+                return Double.compare(a.getValue(), b.getValue());
+            }
+        });
+        List<String> keys = new ArrayList<String>(entries.size());
+        for (Map.Entry<String, Double> entry : entries)
+            keys.add(entry.getKey());
+        return keys;
+    }
+
+    /**
+     * The items sorted by rank.
+     */
+    public synchronized List<ShipmentWithDetail> Project(List<ShipmentWithDetail> items) {
+        final double[] itemRanks = new double[items.size()];
+        Integer[] positions = new Integer[items.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+            itemRanks[i] = RankOf(Key(items.get(i).tracking_id));
+        }
+        // stable, shipments sharing a tracking id keep their list order
+        Arrays.sort(positions, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(itemRanks[a], itemRanks[b]);
+            }
+        });
+
+        List<ShipmentWithDetail> ordered = new ArrayList<ShipmentWithDetail>(positions.length);
+        for (Integer position : positions)
+            ordered.add(items.get(position));
+        return ordered;
+    }
+
+    /**
+     * Moves a shipment between two others, before / after are null at the ends of the list.
+     */
+    public synchronized void Move(String trackingId, String before, String after) {
+        String key = Key(trackingId);
+        Double low = before == null ? null : RankOf(Key(before));
+        Double high = after == null ? null : RankOf(Key(after));
+
+        if (low != null && high != null && high - low < MIN_GAP) {
+            Spread();
+            low = ranks.get(Key(before));
+            high = ranks.get(Key(after));
+        }
+
+        double rank;
+        if (low == null && high == null)
+            rank = RankOf(key);
+        else if (low == null)
+            rank = high - STEP;
+        else if (high == null)
+            rank = low + STEP;
+        else
+            rank = (low + high) / 2;
+
+        ranks.put(key, rank);
+        highest = Math.max(highest, rank);
+    }
+
+    /**
+     * Forgets the shipments not in the list anymore.
+     */
+    public synchronized void Retain(Collection<ShipmentWithDetail> items) {
+        HashSet<String> keep = new HashSet<String>(items.size() * 2);
+        for (ShipmentWithDetail item : items)
+            keep.add(Key(item.tracking_id));
+        Iterator<String> keys = ranks.keySet().iterator();
+        while (keys.hasNext())
+            if (!keep.contains(keys.next()))
+                keys.remove();
+    }
+
+    private double RankOf(String key) {
+        Double rank = ranks.get(key);
+        if (rank == null) {
+            highest += STEP;
+            rank = highest;
+            ranks.put(key, rank);
+        }
+        return rank;
+    }
+
+    // same order, evenly spaced again
+    private void Spread() {
+        List<String> keys = Keys();
+        ranks.clear();
+        highest = 0;
+        for (String key : keys)
+            RankOf(key);
+    }
+
+    private static String Key(String trackingId) {
+        return trackingId == null ? "" : trackingId.toUpperCase(Locale.US);
+    }
+}
@@ -10,8 +10,6 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.AdapterView.OnItemClickListener;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
@@ -19,13 +17,11 @@ import android.widget.TextView;
 
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.RecyclerView;
 
 import eu.trackify.net.R;
-import com.google.gson.Gson;
-import com.terlici.dragndroplist.DragNDropListView;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import common.Communicator.IServerResponse;
@@ -38,7 +34,7 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 	boolean isStatusCheckScan = false;
 	boolean isReturnReceivedScan = false;
 
-	DragNDropListView lv_results;
+	RecyclerView lv_results;
 	View emptyStateContainer;
 	ListDataBinder_Draggable binder;
 	EditText et_Search;
@@ -55,13 +51,24 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 	ShipmentWithDetail SELECTED;
 	public List<ShipmentWithDetail> ITEMS = new ArrayList<ShipmentWithDetail>();
 
+	// sync_token of the list currently in ITEMS, null until a full load succeeded
+	String syncToken;
+
+	final ShipmentSearchIndex searchIndex = new ShipmentSearchIndex();
+
+	// when the list in ITEMS was loaded from the server, shown while it is revalidated
+	TextView tvListAge;
+	long shownSavedAt;
+
 	public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+		ListFreshness.MarkStart(ShipmentsType.MyShipments);
 		final View v = inflater.inflate(R.layout.ctrl_draggable_distributor_user_shipments, null);
 
 		chkMultiscan = v.findViewById(R.id.chkMultiscan);
 		et_Search = (EditText) v.findViewById(R.id.et_Search);
-		lv_results = (DragNDropListView) v.findViewById(R.id.lv_results);
+		lv_results = (RecyclerView) v.findViewById(R.id.lv_results);
 		emptyStateContainer = v.findViewById(R.id.emptyStateContainer);
+		tvListAge = (TextView) v.findViewById(R.id.tvListAge);
 		binder = new ListDataBinder_Draggable(BindedListType.MyShipments, lv_results, R.id.ivHandler);
 
 		// Set Return Received button
@@ -141,10 +148,10 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 			}
 		});
 
-		lv_results.setOnItemClickListener(new OnItemClickListener() {
+		binder.SetOnItemClickListener(new ListDataBinder.IItemClick<ShipmentWithDetail>() {
 			@Override
-			public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-				SELECTED = (ShipmentWithDetail) view.getTag();
+			public void OnItemClick(ShipmentWithDetail item) {
+				SELECTED = item;
 				InitializeSelectedItem();
 			}
 		});
@@ -152,7 +159,7 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 		et_Search.addTextChangedListener(new TextWatcher() {
 			@Override
 			public void onTextChanged(CharSequence arg0, int arg1, int arg2, int arg3) {
-				ApplyFilter();
+				ApplyFilter(ShipmentSearchIndex.DEBOUNCE_MS);
 			}
 
 			@Override
@@ -166,11 +173,59 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 			}
 		});
 
+		ShowSnapshot();
 		Load();
 
 		return v;
 	}
 
+	/**
+	 * Shows the saved list (ShipmentSnapshot, else ShipmentStore) in the order the driver dragged
+	 * it into, until Load() answers. Only the drag order is restored when saved lists are off.
+	 */
+	private void ShowSnapshot() {
+		try {
+			if (binder.Order.IsEmpty())
+				binder.Order.SetKeys(ShipmentSnapshot.GetDragOrder());
+
+			if (!ListFreshness.IsEnabled() || !ITEMS.isEmpty())
+				return;
+			String source = "snapshot";
+			ShipmentResponse snapshot = ShipmentSnapshot.Take(ShipmentsType.MyShipments);
+			if (snapshot == null) {
+				source = "store";
+				snapshot = ShipmentStore.Load(ShipmentsType.MyShipments);
+			}
+			if (snapshot == null)
+				return;
+
+			String tabTitle = String.format(getContext().getString(R.string.tab_title_todo_count), snapshot.shipments.size());
+			App.Object.userDistributorTabCtrl.ChangeTabTitle(tabTitle, App.Object.userDistributorMyShipmentsFragment);
+
+			for (ShipmentWithDetail sd : snapshot.shipments) {
+				sd.GenerateNotes();
+				sd.GeneratePictures();
+				ITEMS.add(sd);
+			}
+			updateStatusCounts();
+			ApplyFilter();
+			shownSavedAt = snapshot.saved_at;
+			ListFreshness.MarkFirstContent(ShipmentsType.MyShipments, source);
+		} catch (Exception ex) {
+			AppModel.ApplicationError(ex, "ScanCtrl::ShowSnapshot");
+		}
+	}
+
+	/**
+	 * The list in ITEMS is the answer of a load.
+	 */
+	private void ShowLoaded() {
+		shownSavedAt = System.currentTimeMillis();
+		ListFreshness.ShowFresh(tvListAge);
+		ListFreshness.MarkFirstContent(ShipmentsType.MyShipments, "network");
+		ShipmentStatePatcher.MarkLoaded(ShipmentsType.MyShipments);
+	}
+
 	private void InitializeSelectedItem() {
 		if (App.Object.userDistributorShipmentDetailTabCtrl.Show(ShipmentsType.MyShipments)) {
 			App.Object.userDistributorShipmentDetail.Initialize();
@@ -186,27 +241,51 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 	}
 
 	public void Load() {
-		App.SetLoading(true);
+		// a list on screen stays usable while it is revalidated, only the differences are applied
+		final boolean revalidate = ListFreshness.IsEnabled() && !ITEMS.isEmpty();
+		if (revalidate)
+			ListFreshness.ShowSaved(tvListAge, shownSavedAt, true);
+		else
+			App.SetLoading(true);
 
 		App.Object.runOnUiThread(new Runnable() {
 			@SuppressWarnings("unchecked")
 			@Override
 			public void run() {
 				try {
-					Communicator.LoadShipmentsWithDetails(ShipmentsType.MyShipments, new IServerResponse() {
+					// what is on screen now, a full answer is compared with it off the main thread
+					final List<ShipmentWithDetail> shown = revalidate ? new ArrayList<ShipmentWithDetail>(ITEMS) : null;
+					Communicator.LoadShipmentsWithDetails(ShipmentsType.MyShipments, syncToken, new IServerResponse() {
 						@Override
 						public void onCompleted(final boolean success, final String messageToShow, final Object... objs) {
+							final ShipmentResponse diff = success && shown != null && objs != null && objs.length > 0
+									&& objs[0] instanceof ShipmentResponse && !((ShipmentResponse) objs[0]).IsDelta()
+									? ShipmentDelta.Diff(shown, (ShipmentResponse) objs[0]) : null;
 							App.Object.runOnUiThread(new Runnable() {
 								@SuppressWarnings("unchecked")
 								@Override
 								public void run() {
 									try {
+										if (!success && revalidate) {
+											if (!AppModel.IsNullOrEmpty(messageToShow))
+												MessageCtrl.Toast(messageToShow);
+											ListFreshness.ShowSaved(tvListAge, shownSavedAt, false);
+											return;
+										}
+
 										if (success) {
 											if (objs != null) {
-												ITEMS.clear();
 												ShipmentResponse resp = (ShipmentResponse) objs[0];
+												syncToken = resp.sync_token;
+
+												if (resp.IsDelta() || revalidate) {
+													ApplyDelta(resp.IsDelta() ? resp : diff);
+													ShowLoaded();
+													App.SetLoading(false);
+													return;
+												}
 
-												AppModel.Object.SaveVariable(AppModel.MY_SHIPMENTS_CACHE_KEY, new Gson().toJson(resp));
+												ITEMS.clear();
 
 												// Update tab title with shipment count
 												int shipmentCount = resp.shipments.size();
@@ -217,8 +296,6 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 													ApplyFilter();
 												} else {
 													for (ShipmentWithDetail sd : resp.shipments) {
-														sd.GenerateNotes();
-														sd.GeneratePictures();
 														ITEMS.add(sd);
 
 														if (SELECTED != null && SELECTED.shipment_id.equals(sd.shipment_id))
@@ -231,17 +308,24 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 													if (App.Object.userDistributorShipmentDetailTabCtrl.getVisibility() == View.VISIBLE && SELECTED != null)
 														InitializeSelectedItem();
 												}
+												ShowLoaded();
 												App.SetLoading(false);
 											} else {
 												MessageCtrl.Toast("Loading failed, Please try again");
+												if (revalidate)
+													ListFreshness.ShowSaved(tvListAge, shownSavedAt, false);
 												App.SetLoading(false);
 											}
 										} else if (!AppModel.IsNullOrEmpty(messageToShow)) {
 											MessageCtrl.Toast(messageToShow);
 
-											String sJson = AppModel.Object.GetSettingVariable(AppModel.MY_SHIPMENTS_CACHE_KEY);
-											ShipmentResponse cached = new Gson().fromJson(sJson, ShipmentResponse.class);
+											ShipmentResponse cached = ShipmentStore.Load(ShipmentsType.MyShipments);
+											if (cached == null) {
+												App.SetLoading(false);
+												return;
+											}
 											ITEMS.clear();
+											syncToken = null;
 
 											// Update tab title with shipment count
 											int shipmentCount = cached.shipments.size();
@@ -250,10 +334,14 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 
 											for (ShipmentWithDetail sd : cached.shipments) {
 												sd.GenerateNotes();
+												sd.GeneratePictures();
 												ITEMS.add(sd);
 											}
 											updateStatusCounts();
 											ApplyFilter();
+											shownSavedAt = cached.saved_at;
+											ListFreshness.ShowSaved(tvListAge, shownSavedAt, false);
+											ListFreshness.MarkFirstContent(ShipmentsType.MyShipments, "cache");
 											App.SetLoading(false);
 										}
 									} catch (Exception ex) {
@@ -273,6 +361,32 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 		});
 	}
 
+	/**
+	 * Merges a delta sync answer (or a local status patch) into ITEMS without rebuilding the list.
+	 */
+	void ApplyDelta(ShipmentResponse delta) {
+		if (!ShipmentDelta.Apply(ITEMS, delta))
+			return;
+
+		// server deltas were stored by the load
+		if (delta.local)
+			ShipmentStore.SaveLocal(ShipmentsType.MyShipments, delta);
+
+		String tabTitle = String.format(getContext().getString(R.string.tab_title_todo_count), ITEMS.size());
+		App.Object.userDistributorTabCtrl.ChangeTabTitle(tabTitle, App.Object.userDistributorMyShipmentsFragment);
+
+		ShipmentWithDetail current = ShipmentDelta.Find(ITEMS, SELECTED);
+		if (current != null)
+			SELECTED = current;
+
+		updateStatusCounts();
+		ApplyFilter();
+		App.Object.routingCtrl.CalculateRoute(ITEMS);
+
+		if (App.Object.userDistributorShipmentDetailTabCtrl.getVisibility() == View.VISIBLE && SELECTED != null)
+			InitializeSelectedItem();
+	}
+
 	private void updateStatusCounts() {
 		// Count shipments by status
 		int inDeliveryCount = 0;
@@ -326,12 +440,35 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 	}
 
 	public void ApplyFilter() {
+		// ITEMS may have changed, the next search indexes the new list
+		searchIndex.SetItems(ITEMS);
+		if (!ITEMS.isEmpty())
+			binder.Order.Retain(ITEMS);
+		ApplyFilter(0);
+	}
+
+	/**
+	 * Runs the text search (after delayMs) on the search thread, then shows its matches.
+	 */
+	private void ApplyFilter(long delayMs) {
 		String txt = et_Search.getText().toString();
-		// Set the search query for text highlighting in ListDataBinder
-		ListDataBinder.currentSearchQuery = AppModel.IsNullOrEmpty(txt) ? "" : txt.toLowerCase();
+		if (AppModel.IsNullOrEmpty(txt)) {
+			searchIndex.Cancel();
+			ShowFiltered("", ITEMS);
+			return;
+		}
+
+		searchIndex.Search(txt.toLowerCase(), delayMs, new ShipmentSearchIndex.IResult() {
+			@Override
+			public void OnResult(String query, List<ShipmentWithDetail> matched) {
+				ShowFiltered(query, matched);
+			}
+		});
+	}
 
-		// First apply text search filter
-		List<ShipmentWithDetail> textFilteredItems = AppModel.IsNullOrEmpty(txt) ? ITEMS : GetSearched(txt.toLowerCase());
+	private void ShowFiltered(String query, List<ShipmentWithDetail> textFilteredItems) {
+		// Set the search query for text highlighting in ListDataBinder
+		ListDataBinder.currentSearchQuery = query;
 
 		// Then apply status filter
 		List<ShipmentWithDetail> allItems = textFilteredItems;
@@ -344,20 +481,7 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 			}
 		}
 
-		LinkedList<ShipmentWithDetail> orderedItems = new LinkedList<ShipmentWithDetail>();
-		for (String uk : binder.OrderedUniqueKeys) {
-			for (ShipmentWithDetail s : allItems) {
-				if (s.tracking_id.equalsIgnoreCase(uk)) {
-					orderedItems.add(s);
-					break;
-				}
-			}
-		}
-		for (ShipmentWithDetail s : allItems) {
-			if (!binder.OrderedUniqueKeys.contains(s.tracking_id))
-				orderedItems.add(s);
-		}
-
+		List<ShipmentWithDetail> orderedItems = binder.Order.Project(allItems);
 		binder.Initialize(orderedItems);
 
 		// Toggle empty state visibility
@@ -372,27 +496,6 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 		}
 	}
 
-	private List<ShipmentWithDetail> GetSearched(String txt) {
-		List<ShipmentWithDetail> matched = new ArrayList<ShipmentWithDetail>();
-		for (ShipmentWithDetail s : ITEMS) {
-			// Search in: tracking ID, description, receiver name, receiver phone, receiver address
-			boolean matches = false;
-
-			if (s.shipment_id != null && s.shipment_id.toLowerCase().contains(txt)) matches = true;
-			if (s.description != null && s.description.toLowerCase().contains(txt)) matches = true;
-			if (s.description_title != null && s.description_title.toLowerCase().contains(txt)) matches = true;
-			if (s.tracking_id != null && s.tracking_id.toLowerCase().contains(txt)) matches = true;
-			if (s.receiver_name != null && s.receiver_name.toLowerCase().contains(txt)) matches = true;
-			if (s.receiver_phone != null && s.receiver_phone.toLowerCase().contains(txt)) matches = true;
-			if (s.receiver_address != null && s.receiver_address.toLowerCase().contains(txt)) matches = true;
-
-			if (matches) {
-				matched.add(s);
-			}
-		}
-		return matched;
-	}
-
 	public void SetScannedCode(String code) {
 		// Scanned = code;
 		if (code != null) {
@@ -519,39 +622,27 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 			}
 		}
 		
-		// If not found, check cache
+		// If not found, check the stored list
 		if (!foundDetails) {
-			String cachedData = AppModel.Object.GetVariable(AppModel.MY_SHIPMENTS_CACHE_KEY);
-			if (!AppModel.IsNullOrEmpty(cachedData)) {
+			ShipmentWithDetail s = ShipmentStore.FindByTrackingId(ShipmentsType.MyShipments, scannedCode);
+			if (s != null) {
+				// Found it - use ONLY receiver details
+				smsData.receiverPhone = s.receiver_phone;
+				smsData.receiverName = s.receiver_name;
+				smsData.receiverAddress = s.receiver_address;
+				smsData.senderName = s.sender_name;
 				try {
-					ShipmentResponse cached = new Gson().fromJson(cachedData, ShipmentResponse.class);
-					if (cached != null && cached.shipments != null) {
-						for (ShipmentWithDetail s : cached.shipments) {
-							if (s.tracking_id != null && s.tracking_id.equalsIgnoreCase(scannedCode)) {
-								// Found it - use ONLY receiver details
-								smsData.receiverPhone = s.receiver_phone;
-								smsData.receiverName = s.receiver_name;
-								smsData.receiverAddress = s.receiver_address;
-								smsData.senderName = s.sender_name;
-								try {
-									smsData.receiverCod = Double.parseDouble(s.receiver_cod);
-									AppModel.ApplicationError(null, "SMS CACHE: COD for " + scannedCode + " = " + smsData.receiverCod + " (from: " + s.receiver_cod + ")");
-								} catch (Exception e) {
-									smsData.receiverCod = 0;
-									AppModel.ApplicationError(null, "SMS CACHE: COD parse error for " + scannedCode + ", defaulting to 0");
-								}
-								// Don't use server sms_text for scan - use template instead
-								// smsData.smsText = s.sms_text;
-								foundDetails = true;
-								AppModel.ApplicationError(null, "SMS: Found details in cache for: " + scannedCode);
-								AppModel.ApplicationError(null, "SMS CACHE: Phone=" + smsData.receiverPhone + ", Name=" + smsData.receiverName + ", COD=" + smsData.receiverCod);
-								break;
-							}
-						}
-					}
+					smsData.receiverCod = Double.parseDouble(s.receiver_cod);
+					AppModel.ApplicationError(null, "SMS CACHE: COD for " + scannedCode + " = " + smsData.receiverCod + " (from: " + s.receiver_cod + ")");
 				} catch (Exception e) {
-					AppModel.ApplicationError(null, "SMS: Cache error: " + e.getMessage());
+					smsData.receiverCod = 0;
+					AppModel.ApplicationError(null, "SMS CACHE: COD parse error for " + scannedCode + ", defaulting to 0");
 				}
+				// Don't use server sms_text for scan - use template instead
+				// smsData.smsText = s.sms_text;
+				foundDetails = true;
+				AppModel.ApplicationError(null, "SMS: Found details in stored list for: " + scannedCode);
+				AppModel.ApplicationError(null, "SMS CACHE: Phone=" + smsData.receiverPhone + ", Name=" + smsData.receiverName + ", COD=" + smsData.receiverCod);
 			}
 		}
 					
@@ -636,36 +727,24 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 			}
 		}
 
-		// If not found, check cache
+		// If not found, check the stored list
 		if (!foundDetails) {
-			String cachedData = AppModel.Object.GetVariable(AppModel.MY_SHIPMENTS_CACHE_KEY);
-			if (!AppModel.IsNullOrEmpty(cachedData)) {
+			ShipmentWithDetail s = ShipmentStore.FindByTrackingId(ShipmentsType.MyShipments, scannedCode);
+			if (s != null) {
+				// Found it - get receiver details and country ID
+				smsData.receiverPhone = s.receiver_phone;
+				smsData.receiverName = s.receiver_name;
+				smsData.receiverAddress = s.receiver_address;
+				smsData.senderName = s.sender_name;
+				smsData.countryId = s.receiver_country_id;
 				try {
-					ShipmentResponse cached = new Gson().fromJson(cachedData, ShipmentResponse.class);
-					if (cached != null && cached.shipments != null) {
-						for (ShipmentWithDetail s : cached.shipments) {
-							if (s.tracking_id != null && s.tracking_id.equalsIgnoreCase(scannedCode)) {
-								// Found it - get receiver details and country ID
-								smsData.receiverPhone = s.receiver_phone;
-								smsData.receiverName = s.receiver_name;
-								smsData.receiverAddress = s.receiver_address;
-								smsData.senderName = s.sender_name;
-								smsData.countryId = s.receiver_country_id;
-								try {
-									smsData.receiverCod = Double.parseDouble(s.receiver_cod);
-								} catch (Exception e) {
-									smsData.receiverCod = 0;
-								}
-								foundDetails = true;
-								AppModel.ApplicationError(null, "SMS: Found details in cache for: " + scannedCode);
-								AppModel.ApplicationError(null, "SMS CACHE: Phone=" + smsData.receiverPhone + ", CountryID=" + smsData.countryId);
-								break;
-							}
-						}
-					}
+					smsData.receiverCod = Double.parseDouble(s.receiver_cod);
 				} catch (Exception e) {
-					AppModel.ApplicationError(null, "SMS: Cache error: " + e.getMessage());
+					smsData.receiverCod = 0;
 				}
+				foundDetails = true;
+				AppModel.ApplicationError(null, "SMS: Found details in stored list for: " + scannedCode);
+				AppModel.ApplicationError(null, "SMS CACHE: Phone=" + smsData.receiverPhone + ", CountryID=" + smsData.countryId);
 			}
 		}
 
@@ -737,8 +816,7 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 			AppModel.ApplicationError(null, "SMS Queue: Removing " + code + " from queue (status changed to " + statusId + ")");
 		}
 		
-		App.SetProcessing(true);
-		Communicator.SendDistributorRequest(code, status, statusId, comments, new IServerResponse() {
+		IServerResponse callback = new IServerResponse() {
 			@Override
 			public void onCompleted(final boolean success, final String messageToShow, final Object... objs) {
 				App.Object.runOnUiThread(new Runnable() {
@@ -766,18 +844,23 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 										// No toast for SMS - just log it
 									}
 
-									// Delay the Load() call slightly to ensure SMS is processed first
+									// Patch the tabs, or reload when that isn't possible. Delayed slightly to ensure SMS is processed first
+									final KeyRef update = u;
+									final boolean reloadAll = isDeliveryScan;
 									App.Object.getWindow().getDecorView().postDelayed(new Runnable() {
 										@Override
 										public void run() {
+											if (ShipmentStatePatcher.Apply(update, status))
+												return;
+
 											Load();
+
+											if (reloadAll) {
+												App.Object.userDistributorReconcileShipmentsFragment.Load();
+												App.Object.userDistributorReturnShipmentsFragment.Load();
+											}
 										}
 									}, 500);
-
-									if (isDeliveryScan) {
-										App.Object.userDistributorReconcileShipmentsFragment.Load();
-										App.Object.userDistributorReturnShipmentsFragment.Load();
-									}
 								} else
 									MessageCtrl.Toast("Scanned key sending failed, Please try again");
 							} else if (!AppModel.IsNullOrEmpty(messageToShow)) {
@@ -796,7 +879,7 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 									s.tracking_id = code;
 									s.description_title = code;
 									ITEMS.add(s);
-									AppModel.Object.SaveVariable(AppModel.MY_SHIPMENTS_CACHE_KEY, new Gson().toJson(ITEMS));
+									ShipmentStore.AddPlaceholder(ShipmentsType.MyShipments, s);
 									ApplyFilter();
 								}
 							}
@@ -808,6 +891,13 @@ public class Draggable_UserDistributorShipmentsFragment extends Fragment {
 					}
 				});
 			}
-		});
+		};
+
+		App.SetProcessing(true);
+		// Multi-scan sends the scans in batches, comments always go on their own
+		if (chkMultiscan.isChecked() && comments == null)
+			StatusUpdateBatcher.Submit(code, status, statusId, callback);
+		else
+			Communicator.SendDistributorRequest(code, status, statusId, comments, callback);
 	}
 }
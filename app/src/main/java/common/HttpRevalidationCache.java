@@ -0,0 +1,365 @@
+package common;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ETag / Last-Modified store behind the conditional calls in {@link Rest}.
+ * <p>
+ * Per URL (+ POST params) and user it keeps the validators and the last body in the app cache
+ * directory. Requests then carry If-None-Match / If-Modified-Since, and a 304 is answered from
+ * the stored body. Bodies are written while the response is being read (see {@link #BeginStore}),
+ * so large lists are never held in memory for caching. Decoded objects can be memoized per key
+ * so an unchanged poll skips parsing as well.
+ * <p>
+ * Validators and body share one file (two header lines, then the body) that is renamed into place
+ * as a whole, so a crash or a concurrent {@link #Get} never pairs a body with another response's
+ * ETag.
+ */
+public class HttpRevalidationCache {
+
+    private static final String CACHE_DIR = "http_revalidation";
+
+    private static final Map<String, Object> decoded = new ConcurrentHashMap<String, Object>();
+    private static final ConcurrentHashMap<String, AtomicLong[]> counters = new ConcurrentHashMap<String, AtomicLong[]>();
+
+    private static final int HITS = 0, MISSES = 1, BYTES_SAVED = 2;
+
+    public static class Entry {
+        final String etag;
+        final String lastModified;
+        final File file;
+        // where the body starts, after the header lines
+        final long offset;
+
+        Entry(String etag, String lastModified, File file, long offset) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.file = file;
+            this.offset = offset;
+        }
+
+        void ApplyTo(HttpRequest request) {
+            if (!AppModel.IsNullOrEmpty(etag))
+                request.setHeader("If-None-Match", etag);
+            if (!AppModel.IsNullOrEmpty(lastModified))
+                request.setHeader("If-Modified-Since", lastModified);
+        }
+
+        InputStream OpenBody() throws IOException {
+            InputStream in = new FileInputStream(file);
+            try {
+                long left = offset;
+                while (left > 0) {
+                    long skipped = in.skip(left);
+                    if (skipped <= 0)
+                        throw new IOException("Truncated cache entry");
+                    left -= skipped;
+                }
+                return in;
+            } catch (IOException ex) {
+                in.close();
+                throw ex;
+            }
+        }
+
+        long Length() {
+            return file.length() - offset;
+        }
+    }
+
+    /**
+     * Copies everything the caller reads into a temp file behind the validators, which becomes the
+     * cache entry on {@link #Commit()}.
+     */
+    public static class Store extends FilterInputStream {
+        private final String key;
+        private final File temp;
+        private final OutputStream out;
+        private boolean failed;
+
+        Store(String key, String etag, String lastModified, InputStream in) throws IOException {
+            super(in);
+            this.key = key;
+            this.temp = File.createTempFile(Hash(key), ".tmp", GetDir());
+            this.out = new FileOutputStream(temp);
+            try {
+                out.write(Header(etag, lastModified));
+            } catch (IOException ex) {
+                Discard();
+                throw ex;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                Write(new byte[]{(byte) b}, 0, 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n > 0)
+                Write(buffer, offset, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // keep the copy complete
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void Write(byte[] buffer, int offset, int count) {
+            if (failed)
+                return;
+            try {
+                out.write(buffer, offset, count);
+            } catch (IOException ex) {
+                failed = true;
+            }
+        }
+
+        /**
+         * Reads whatever the caller left unread, then swaps the temp file in as the cache entry.
+         */
+        public void Commit() {
+            try {
+                byte[] buffer = new byte[8192];
+                while (read(buffer, 0, buffer.length) != -1) {
+                }
+                out.close();
+
+                if (failed) {
+                    temp.delete();
+                    return;
+                }
+
+                if (!temp.renameTo(EntryFile(key)))
+                    temp.delete();
+            } catch (Exception ex) {
+                Discard();
+                AppModel.ApplicationError(ex, "HttpRevalidationCache::Commit");
+            }
+        }
+
+        public void Discard() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            temp.delete();
+        }
+    }
+
+    public static String Key(String method, String url, Map<String, Object> params) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(App.CurrentUser == null ? "" : App.CurrentUser.user).append('|').append(method).append(' ').append(url);
+        if (params != null) {
+            List<String> names = new ArrayList<String>(params.keySet());
+            Collections.sort(names);
+            for (String name : names)
+                sb.append('&').append(name).append('=').append(params.get(name));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the stored validators, or null when there is nothing to revalidate against
+     */
+    public static Entry Get(String key) {
+        try {
+            File file = EntryFile(key);
+            if (!file.exists())
+                return null;
+
+            // the header is read byte-wise, the body offset has to be exact
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            String[] header = new String[2];
+            long offset = 0;
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                for (int i = 0; i < header.length; i++) {
+                    int b;
+                    while ((b = in.read()) != -1 && b != '\n')
+                        line.write(b);
+                    if (b == -1)
+                        return null;
+                    offset += line.size() + 1;
+                    header[i] = line.toString("UTF-8");
+                    line.reset();
+                }
+            } finally {
+                in.close();
+            }
+            if (AppModel.IsNullOrEmpty(header[0]) && AppModel.IsNullOrEmpty(header[1]))
+                return null;
+            return new Entry(header[0], header[1], file, offset);
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "HttpRevalidationCache::Get");
+            return null;
+        }
+    }
+
+    /**
+     * Starts caching a 200 response. Returns null (and forgets any older copy) when the
+     * response carries no validators, the caller then reads the stream as is.
+     */
+    public static Store BeginStore(String key, HttpResponse response, InputStream content) {
+        decoded.remove(key);
+
+        String etag = HeaderValue(response, "ETag");
+        String lastModified = HeaderValue(response, "Last-Modified");
+        if (AppModel.IsNullOrEmpty(etag) && AppModel.IsNullOrEmpty(lastModified)) {
+            Remove(key);
+            return null;
+        }
+
+        try {
+            return new Store(key, etag, lastModified, content);
+        } catch (IOException ex) {
+            AppModel.ApplicationError(ex, "HttpRevalidationCache::BeginStore");
+            return null;
+        }
+    }
+
+    public static void Remove(String key) {
+        decoded.remove(key);
+        EntryFile(key).delete();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T GetDecoded(String key) {
+        return (T) decoded.get(key);
+    }
+
+    public static void SetDecoded(String key, Object value) {
+        if (value == null)
+            decoded.remove(key);
+        else
+            decoded.put(key, value);
+    }
+
+    static void RecordHit(String url, long bytesSaved) {
+        AtomicLong[] c = Counters(url);
+        c[HITS].incrementAndGet();
+        c[BYTES_SAVED].addAndGet(bytesSaved);
+    }
+
+    static void RecordMiss(String url) {
+        Counters(url)[MISSES].incrementAndGet();
+    }
+
+    public static long GetHitCount(String endpoint) {
+        AtomicLong[] c = counters.get(endpoint);
+        return c == null ? 0 : c[HITS].get();
+    }
+
+    public static long GetMissCount(String endpoint) {
+        AtomicLong[] c = counters.get(endpoint);
+        return c == null ? 0 : c[MISSES].get();
+    }
+
+    public static Map<String, long[]> GetCounters() {
+        HashMap<String, long[]> snapshot = new HashMap<String, long[]>();
+        for (Map.Entry<String, AtomicLong[]> e : counters.entrySet())
+            snapshot.put(e.getKey(), new long[]{e.getValue()[HITS].get(), e.getValue()[MISSES].get(), e.getValue()[BYTES_SAVED].get()});
+        return snapshot;
+    }
+
+    public static String GetSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, long[]> e : GetCounters().entrySet()) {
+            if (sb.length() > 0)
+                sb.append(" | ");
+            sb.append(String.format(Locale.US, "%s: hits=%d misses=%d saved=%dKB", e.getKey(), e.getValue()[HITS],
+                    e.getValue()[MISSES], e.getValue()[BYTES_SAVED] / 1024));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Counters are per endpoint (script name), not per full URL.
+     */
+    static String Endpoint(String url) {
+        int query = url.indexOf('?');
+        if (query >= 0)
+            url = url.substring(0, query);
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+    private static AtomicLong[] Counters(String url) {
+        String endpoint = Endpoint(url);
+        AtomicLong[] c = counters.get(endpoint);
+        if (c == null) {
+            c = new AtomicLong[]{new AtomicLong(), new AtomicLong(), new AtomicLong()};
+            AtomicLong[] existing = counters.putIfAbsent(endpoint, c);
+            if (existing != null)
+                c = existing;
+        }
+        return c;
+    }
+
+    private static String HeaderValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static byte[] Header(String etag, String lastModified) throws IOException {
+        return ((etag == null ? "" : etag) + "\n" + (lastModified == null ? "" : lastModified) + "\n").getBytes("UTF-8");
+    }
+
+    private static File EntryFile(String key) {
+        return new File(GetDir(), Hash(key) + ".entry");
+    }
+
+    private static File GetDir() {
+        File dir = new File(AppModel.Object.context.getCacheDir(), CACHE_DIR);
+        if (!dir.exists())
+            dir.mkdirs();
+        return dir;
+    }
+
+    private static String Hash(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest)
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (Exception ex) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
@@ -1,114 +1,330 @@
 package common;
 
-import android.annotation.SuppressLint;
-import android.content.Context;
-import android.content.Intent;
-import android.graphics.Color;
-import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
-import android.widget.AbsListView;
-import android.widget.ArrayAdapter;
-import android.widget.GridView;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+
 import eu.trackify.net.R;
 import com.squareup.picasso.Picasso;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-
-public class ListDataBinder<E> extends ArrayAdapter<E> {
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rows of the shipment, note and picture lists. Rows are recycled by the RecyclerView and have
+ * stable ids (tracking id, comment id, image id). Initialize works out what every row shows
+ * (ShipmentRow for shipments) and diffs it against the shown list off the main thread, only the
+ * rows that were added, removed, moved or show something else are bound again.
+ * <p>
+ * Bind counts and the frame times while a list scrolls are kept, separately for lists of 500 rows
+ * and more, see {@link #GetSummary()}.
+ */
+public class ListDataBinder<E> extends RecyclerView.Adapter<ListDataBinder.RowHolder> {
 
 	public enum BindedListType {
 		MyShipments, ReconcileShipments, Note, Pictures
 	}
 
+	public interface IItemClick<E> {
+		void OnItemClick(E item);
+	}
+
+	static class RowHolder extends RecyclerView.ViewHolder {
+		// shipment rows only
+		ShipmentRow.Views shipmentViews;
+
+		RowHolder(View view) {
+			super(view);
+		}
+	}
+
+	static final int LARGE_LIST = 500;
+
+	// a frame slower than this missed at least one vsync at 60Hz
+	private static final long SLOW_FRAME_NANOS = 25000000;
+
+	private static final ExecutorService differ = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r, "ListDiff");
+		}
+	});
+
+	private static final AtomicLong created = new AtomicLong(), bound = new AtomicLong(), largeBound = new AtomicLong();
+	private static final AtomicLong refreshes = new AtomicLong(), changedRows = new AtomicLong(), fullRefreshes = new AtomicLong();
+	private static final AtomicLong largeFrames = new AtomicLong(), largeFrameNanos = new AtomicLong(), maxLargeFrameNanos = new AtomicLong(), largeSlowFrames = new AtomicLong();
+
+	// Search query for text highlighting
+	public static String currentSearchQuery = "";
+
+	final Handler main = new Handler(Looper.getMainLooper());
 	LayoutInflater inflater;
-	HashMap<E, View> itemsGenerated = new HashMap<E, View>();
 	BindedListType bindedListType;
-	AbsListView ListView;
-	View selectedView;
+	RecyclerView ListView;
+	IItemClick<E> itemClick;
 
 	public List<E> Items = new ArrayList<E>();
-
-	public ListDataBinder(BindedListType BindedListType, AbsListView listView) {
-		super(App.Object, android.R.layout.simple_spinner_item);
-
-		this.inflater = (LayoutInflater) App.Object.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+	// per row of Items: its key and what it shows, compared by the next Initialize
+	private List<String> keys = new ArrayList<String>();
+	private List<String> contents = new ArrayList<String>();
+	// per row of Items: the shipment row to bind, null in the note and picture lists
+	private List<ShipmentRow> rows = new ArrayList<ShipmentRow>();
+
+	// the last Initialize, an older one still being built or diffed is dropped
+	private volatile int submitted;
+	// changes of Items outside Initialize (drag), a diff computed before one can't be dispatched
+	int moves;
+
+	public ListDataBinder(BindedListType BindedListType, RecyclerView listView) {
+		this.inflater = LayoutInflater.from(App.Object);
 		this.bindedListType = BindedListType;
 		this.ListView = listView;
-		// ANDROID_COMPATIBILITY
-		if (ListView instanceof GridView)
-			((GridView) ListView).setAdapter(this);
-		else if (ListView instanceof android.widget.ListView)
-			((android.widget.ListView) ListView).setAdapter(this);
+
+		setHasStableIds(true);
+		ListView.setLayoutManager(new LinearLayoutManager(App.Object));
+		ListView.setAdapter(this);
+		ListView.addOnScrollListener(new FrameMeter());
+	}
+
+	public void SetOnItemClickListener(IItemClick<E> itemClick) {
+		this.itemClick = itemClick;
 	}
 
 	public void Initialize(List<E> items) {
-		Items = items;
-		itemsGenerated.clear();
-		this.notifyDataSetChanged();
+		refreshes.incrementAndGet();
+		final int id = ++submitted;
+		if (items.isEmpty()) {
+			Apply(new ArrayList<E>(), new ArrayList<String>(), new ArrayList<String>(), new ArrayList<ShipmentRow>());
+			fullRefreshes.incrementAndGet();
+			notifyDataSetChanged();
+			return;
+		}
+
+		final List<E> newItems = new ArrayList<E>(items);
+		final List<String> oldKeys = keys;
+		final List<String> oldContents = contents;
+		final List<ShipmentRow> oldRows = rows;
+		final String query = currentSearchQuery;
+		final int movesAtStart = moves;
+		differ.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (id != submitted)
+					return;
+				final List<String> newKeys = new ArrayList<String>(newItems.size());
+				final List<String> newContents = new ArrayList<String>(newItems.size());
+				final List<ShipmentRow> newRows = new ArrayList<ShipmentRow>(newItems.size());
+				final DiffUtil.DiffResult result;
+				try {
+					Describe(newItems, query, oldKeys, oldRows, newKeys, newContents, newRows);
+					result = oldKeys.isEmpty() ? null : DiffUtil.calculateDiff(new DiffUtil.Callback() {
+						@Override
+						public int getOldListSize() {
+							return oldKeys.size();
+						}
+
+						@Override
+						public int getNewListSize() {
+							return newKeys.size();
+						}
+
+						@Override
+						public boolean areItemsTheSame(int oldPosition, int newPosition) {
+							return oldKeys.get(oldPosition).equals(newKeys.get(newPosition));
+						}
+
+						@Override
+						public boolean areContentsTheSame(int oldPosition, int newPosition) {
+							return oldContents.get(oldPosition).equals(newContents.get(newPosition));
+						}
+					});
+				} catch (Exception ex) {
+					AppModel.ApplicationError(ex, "ListDataBinder::Initialize(" + bindedListType + ")");
+					return;
+				}
+
+				main.post(new Runnable() {
+					@Override
+					public void run() {
+						if (id != submitted)
+							return;
+						Apply(newItems, newKeys, newContents, newRows);
+						if (result == null || movesAtStart != moves) {
+							// first rows, or rows were dragged meanwhile and the diff no longer fits
+							fullRefreshes.incrementAndGet();
+							notifyDataSetChanged();
+							return;
+						}
+						result.dispatchUpdatesTo(new ListUpdateCallback() {
+							@Override
+							public void onInserted(int position, int count) {
+								changedRows.addAndGet(count);
+								notifyItemRangeInserted(position, count);
+							}
+
+							@Override
+							public void onRemoved(int position, int count) {
+								changedRows.addAndGet(count);
+								notifyItemRangeRemoved(position, count);
+							}
+
+							@Override
+							public void onMoved(int fromPosition, int toPosition) {
+								changedRows.incrementAndGet();
+								notifyItemMoved(fromPosition, toPosition);
+							}
+
+							@Override
+							public void onChanged(int position, int count, Object payload) {
+								changedRows.addAndGet(count);
+								notifyItemRangeChanged(position, count, payload);
+							}
+						});
+					}
+				});
+			}
+		});
 	}
 
 	public void Clear() {
-		Items.clear();
-		itemsGenerated.clear();
-		this.notifyDataSetChanged();
+		Initialize(new ArrayList<E>());
 	}
 
 	public void Add(E item) {
-		Items.add(item);
-		this.notifyDataSetChanged();
+		List<E> items = new ArrayList<E>(Items);
+		items.add(item);
+		Initialize(items);
 	}
 
 	public void Remove(E item) {
-		Items.remove(item);
-		this.notifyDataSetChanged();
+		List<E> items = new ArrayList<E>(Items);
+		items.remove(item);
+		Initialize(items);
 	}
 
 	public void Insert(E item, int position) {
-		Items.add(position, item);
-		itemsGenerated.clear();
-		this.notifyDataSetChanged();
+		List<E> items = new ArrayList<E>(Items);
+		items.add(position, item);
+		Initialize(items);
+	}
+
+	private void Apply(List<E> items, List<String> keys, List<String> contents, List<ShipmentRow> rows) {
+		Items = items;
+		this.keys = keys;
+		this.contents = contents;
+		this.rows = rows;
+	}
+
+	/**
+	 * Moves a row, for drag and drop. The lists are copied, a running Initialize still reads the
+	 * old ones.
+	 */
+	void Move(int from, int to) {
+		Items = Moved(Items, from, to);
+		keys = Moved(keys, from, to);
+		contents = Moved(contents, from, to);
+		rows = Moved(rows, from, to);
+		moves++;
+		notifyItemMoved(from, to);
+	}
+
+	private static <T> List<T> Moved(List<T> list, int from, int to) {
+		List<T> moved = new ArrayList<T>(list);
+		moved.add(to, moved.remove(from));
+		return moved;
 	}
 
 	@Override
-	public int getCount() {
+	public int getItemCount() {
 		return Items.size();
 	}
 
-	@Override
 	public E getItem(int position) {
 		return Items.get(position);
 	}
 
-	@SuppressLint("InflateParams")
-	@SuppressWarnings("unchecked")
 	@Override
-	public View getView(int position, View convertView, ViewGroup parent) {
+	public long getItemId(int position) {
+		return Id(keys.get(position));
+	}
 
-		View view = convertView;
-		Object source = getItem(position);
-		if (itemsGenerated.containsKey(source))
-			return itemsGenerated.get(source);
+	/**
+	 * 64-bit FNV-1a hash of the row key, the same key always gets the same id without keeping a
+	 * map of every key ever shown. Keys are unique within a list, a collision is negligible.
+	 */
+	static long Id(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		// NO_ID tells RecyclerView the row has no id
+		return hash == RecyclerView.NO_ID ? 0 : hash;
+	}
 
-		try {
+	@Override
+	public int getItemViewType(int position) {
+		switch (bindedListType) {
+			case Note:
+				return ((NoteItem) Items.get(position)).isMyNote() ? R.layout.row_note_my : R.layout.row_note_other;
+			case Pictures:
+				return R.layout.row_picture;
+			default:
+				return R.layout.row_shipment_improved;
+		}
+	}
 
-			if (bindedListType == BindedListType.MyShipments || bindedListType == BindedListType.ReconcileShipments) {
-				final ShipmentWithDetail obj = (ShipmentWithDetail) source;
-				view = GetShipmentsRowView(inflater, bindedListType, obj, false);
+	@Override
+	public RowHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+		final RowHolder holder = new RowHolder(inflater.inflate(viewType, parent, false));
+		if (viewType == R.layout.row_shipment_improved)
+			holder.shipmentViews = new ShipmentRow.Views(holder.itemView);
+		created.incrementAndGet();
+		holder.itemView.setOnClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View view) {
+				int position = holder.getAdapterPosition();
+				if (itemClick != null && position != RecyclerView.NO_POSITION)
+					itemClick.OnItemClick(Items.get(position));
 			}
+		});
+		return holder;
+	}
+
+	@Override
+	public void onBindViewHolder(RowHolder holder, int position) {
+		bound.incrementAndGet();
+		if (Items.size() >= LARGE_LIST)
+			largeBound.incrementAndGet();
+
+		View view = holder.itemView;
+		Object source = getItem(position);
+		try {
+			if (bindedListType == BindedListType.MyShipments || bindedListType == BindedListType.ReconcileShipments)
+				holder.shipmentViews.Bind(rows.get(position), IsDraggable());
 
 			if (bindedListType == BindedListType.Note) {
 				final NoteItem obj = (NoteItem) source;
 
-				view = inflater.inflate(obj.isMyNote() ? R.layout.row_note_my : R.layout.row_note_other, null);
-
 				TextView tvLeft = (TextView) view.findViewById(R.id.tvLeft);
 				TextView tvRight = (TextView) view.findViewById(R.id.tvRight);
 				TextView tvComm = (TextView) view.findViewById(R.id.tvComm);
@@ -120,8 +336,6 @@ public class ListDataBinder<E> extends ArrayAdapter<E> {
 			if (bindedListType == BindedListType.Pictures) {
 				final PictureItem obj = (PictureItem) source;
 
-				view = inflater.inflate(R.layout.row_picture, null);
-
 				ImageView iv = (ImageView) view.findViewById(R.id.iv);
 				Picasso.get().load(obj.url).into(iv);
 
@@ -129,144 +343,115 @@ public class ListDataBinder<E> extends ArrayAdapter<E> {
 				tvComm.setText(obj.description);
 			}
 
-			if (view != null) {
-				view.setTag(source);
-				itemsGenerated.put((E) source, view);
-			}
+			view.setTag(source);
 		} catch (Exception ex) {
-			AppModel.ApplicationError(ex, "ListDataBinder::getView(" + bindedListType + ")");
+			AppModel.ApplicationError(ex, "ListDataBinder::onBindViewHolder(" + bindedListType + ")");
 		}
-		return view;
 	}
 
-	// Search query for text highlighting
-	public static String currentSearchQuery = "";
-
-	public static View GetShipmentsRowView(LayoutInflater _inflater, BindedListType listType, final ShipmentWithDetail obj, boolean isDraggable) {
-		View view = _inflater.inflate(R.layout.row_shipment_improved, null);
+	boolean IsDraggable() {
+		return false;
+	}
 
-		// Store the object in the view tag for click handling
-		view.setTag(obj);
-		
-		// Apply background color to the entire card
-		View cardContainer = view.findViewById(R.id.cardContainer);
-		try {
-			// Override background color for ReconcileShipments (CoD tab) to delivered green
-			if (listType == BindedListType.ReconcileShipments) {
-				cardContainer.setBackgroundColor(Color.parseColor("#81e57b"));
+	/**
+	 * Key (unique within the list), shown content and shipment row of each item. Rows of
+	 * shipments that show the same as before are reused. Runs on the diff thread.
+	 */
+	private void Describe(List<E> items, String query, List<String> oldKeys, List<ShipmentRow> oldRows,
+						  List<String> keys, List<String> contents, List<ShipmentRow> rows) {
+		HashMap<String, ShipmentRow> previous = new HashMap<String, ShipmentRow>();
+		for (int i = 0; i < oldRows.size(); i++)
+			if (oldRows.get(i) != null)
+				previous.put(oldKeys.get(i), oldRows.get(i));
+
+		HashSet<String> seen = new HashSet<String>();
+		StringBuilder sb = new StringBuilder();
+		for (E item : items) {
+			String key;
+			String content;
+			ShipmentRow row = null;
+			if (item instanceof ShipmentWithDetail) {
+				ShipmentWithDetail s = (ShipmentWithDetail) item;
+				key = s.tracking_id == null ? null : s.tracking_id.toUpperCase(Locale.US);
+				row = ShipmentRow.Build(s, bindedListType, query, key == null ? null : previous.get(key));
+				content = row.contents;
+			} else if (item instanceof NoteItem) {
+				NoteItem n = (NoteItem) item;
+				key = n.comment_id;
+				sb.setLength(0);
+				content = sb.append(n.isMyNote()).append('\n').append(n.driver_name).append('\n').append(n.comment_timestamp).append('\n').append(n.comment).toString();
+			} else if (item instanceof PictureItem) {
+				PictureItem p = (PictureItem) item;
+				key = p.image_id != null ? p.image_id : p.url;
+				sb.setLength(0);
+				content = sb.append(p.url).append('\n').append(p.description).toString();
 			} else {
-				cardContainer.setBackgroundColor(Color.parseColor(obj.getBgColor()));
+				key = null;
+				content = String.valueOf(item);
 			}
-		} catch (Exception e) {
-			// Fallback to white if parsing fails
-			cardContainer.setBackgroundColor(Color.WHITE);
+
+			if (key == null)
+				key = "@" + System.identityHashCode(item);
+			// the same shipment twice in a list still needs two ids
+			String unique = key;
+			for (int n = 1; !seen.add(unique); n++)
+				unique = key + "#" + n;
+			keys.add(unique);
+			contents.add(content);
+			rows.add(row);
 		}
+	}
 
-		view.findViewById(R.id.ivSync).setVisibility(obj.hasPendingSync ? View.VISIBLE : View.GONE);
-		view.findViewById(R.id.ivHandler).setVisibility(isDraggable ? View.VISIBLE : View.GONE);
+	public void ScrollToItem(E item) {
+		int indx = Items.indexOf(item);
+		if (indx >= 0)
+			ListView.smoothScrollToPosition(indx);
+	}
 
-		// Handle call button
-		View btnCall = view.findViewById(R.id.btnCall);
-		btnCall.setVisibility(AppModel.IsNullOrEmpty(obj.receiver_phone) ? View.GONE : View.VISIBLE);
-		btnCall.setOnClickListener(new OnClickListener() {
-			@Override
-			public void onClick(View arg0) {
-				try {
-					Intent intent = new Intent(Intent.ACTION_CALL, Uri.parse("tel:" + obj.receiver_phone));
-					App.Object.startActivity(intent);
-				} catch (Exception ex) {
-					MessageCtrl.Toast("Invalid phone number");
-					AppModel.ApplicationError(ex, "ScanCtrl::recPh");
-				}
+	/**
+	 * Times the frames while the list scrolls.
+	 */
+	private class FrameMeter extends RecyclerView.OnScrollListener implements Choreographer.FrameCallback {
+		private boolean scrolling;
+		private long lastFrameNanos;
+
+		@Override
+		public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+			boolean wasScrolling = scrolling;
+			scrolling = newState != RecyclerView.SCROLL_STATE_IDLE;
+			if (scrolling && !wasScrolling) {
+				lastFrameNanos = 0;
+				Choreographer.getInstance().postFrameCallback(this);
+			} else if (!scrolling && wasScrolling && getItemCount() >= LARGE_LIST) {
+				Log.d(ListDataBinder.class.getSimpleName(), GetSummary());
 			}
-		});
-		
-		// Handle notes count badge
-		View notesIndicator = view.findViewById(R.id.notesIndicator);
-		TextView tvNoteCount = (TextView) view.findViewById(R.id.tvNoteCount);
-		if (obj._Notes != null && obj._Notes.size() > 0) {
-			notesIndicator.setVisibility(View.VISIBLE);
-			tvNoteCount.setText(String.valueOf(obj._Notes.size()));
-		} else {
-			notesIndicator.setVisibility(View.GONE);
-		}
-		
-		// Handle pictures count badge
-		View picturesIndicator = view.findViewById(R.id.picturesIndicator);
-		TextView tvPictureCount = (TextView) view.findViewById(R.id.tvPictureCount);
-		if (obj._Images != null && obj._Images.size() > 0) {
-			picturesIndicator.setVisibility(View.VISIBLE);
-			tvPictureCount.setText(String.valueOf(obj._Images.size()));
-		} else {
-			picturesIndicator.setVisibility(View.GONE);
 		}
 
-		// Set status badge - keep its own color for contrast
-		TextView tvStatus = (TextView) view.findViewById(R.id.tvStatus);
-		tvStatus.setText(obj.status_name);
-		// Status badge keeps its default background from drawable
-		
-		// Set tracking ID (without # prefix as some tracking IDs contain #)
-		// Add exchange tracking ID with exchange symbol if present
-		TextView tvTrackingId = (TextView) view.findViewById(R.id.tvTrackingId);
-		String displayTrackingId = obj.tracking_id;
-		if (!AppModel.IsNullOrEmpty(obj.exchange_tracking_id)) {
-			displayTrackingId = displayTrackingId + " ↔ " + obj.exchange_tracking_id;
-		}
-		tvTrackingId.setText(TextHighlighter.highlight(displayTrackingId, currentSearchQuery));
-
-		// Set receiver phone number (top right)
-		TextView tvReceiverPhone = (TextView) view.findViewById(R.id.tvReceiverPhone);
-		if (!AppModel.IsNullOrEmpty(obj.receiver_phone)) {
-			tvReceiverPhone.setVisibility(View.VISIBLE);
-			tvReceiverPhone.setText(TextHighlighter.highlight(obj.receiver_phone, currentSearchQuery));
-		} else {
-			tvReceiverPhone.setVisibility(View.GONE);
-		}
-		
-		// Set customer name
-		TextView tvCustomerName = (TextView) view.findViewById(R.id.tvCustomerName);
-		tvCustomerName.setText(TextHighlighter.highlight(obj.receiver_name, currentSearchQuery));
-		
-		// Set address with city
-		TextView tvAddress = (TextView) view.findViewById(R.id.tvAddress);
-		String fullAddress = obj.receiver_address;
-		if (!AppModel.IsNullOrEmpty(obj.receiver_city)) {
-			fullAddress = fullAddress + ", " + obj.receiver_city;
-		}
-		tvAddress.setText(TextHighlighter.highlight(fullAddress, currentSearchQuery));
-		
-		// Set COD amount if applicable - format with euro symbol suffix
-		View llCod = view.findViewById(R.id.llCod);
-		TextView tvCodAmount = (TextView) view.findViewById(R.id.tvCodAmount);
-		if (!AppModel.IsNullOrEmpty(obj.receiver_cod)) {
-			llCod.setVisibility(View.VISIBLE);
-			tvCodAmount.setText(obj.receiver_cod + " €");
-		} else {
-			llCod.setVisibility(View.GONE);
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			if (!scrolling)
+				return;
+			if (lastFrameNanos != 0 && getItemCount() >= LARGE_LIST)
+				RecordFrame(frameTimeNanos - lastFrameNanos);
+			lastFrameNanos = frameTimeNanos;
+			Choreographer.getInstance().postFrameCallback(this);
 		}
+	}
 
-		// For ReconcileShipments (CoD tab), set all text to black for better visibility on green background
-		if (listType == BindedListType.ReconcileShipments) {
-			tvTrackingId.setTextColor(Color.BLACK);
-			tvReceiverPhone.setTextColor(Color.BLACK);
-			tvCustomerName.setTextColor(Color.BLACK);
-			tvAddress.setTextColor(Color.BLACK);
-			tvStatus.setTextColor(Color.BLACK);
-			tvCodAmount.setTextColor(Color.BLACK);
+	private static void RecordFrame(long nanos) {
+		largeFrames.incrementAndGet();
+		largeFrameNanos.addAndGet(nanos);
+		if (nanos > SLOW_FRAME_NANOS)
+			largeSlowFrames.incrementAndGet();
+		long current;
+		while (nanos > (current = maxLargeFrameNanos.get()) && !maxLargeFrameNanos.compareAndSet(current, nanos)) {
 		}
-
-		// Don't set click listener on cardContainer - let the ListView handle it
-		// This ensures the onItemClick in the fragment is triggered properly
-
-		return view;
 	}
 
-	public void ScrollToItem(E item) {
-		if (Items.contains(item)) {
-			int indx = Items.indexOf(item);
-			if (indx >= 0)
-				ListView.smoothScrollToPosition(indx);
-		}
+	public static String GetSummary() {
+		long frames = largeFrames.get();
+		return String.format(Locale.US, "rows created=%d bound=%d (500+ lists %d), refreshes=%d full=%d changed rows=%d, 500+ scroll frames=%d avg=%.1fms max=%.1fms slow=%d",
+				created.get(), bound.get(), largeBound.get(), refreshes.get(), fullRefreshes.get(), changedRows.get(),
+				frames, frames == 0 ? 0 : largeFrameNanos.get() / 1e6 / frames, maxLargeFrameNanos.get() / 1e6, largeSlowFrames.get());
 	}
 }
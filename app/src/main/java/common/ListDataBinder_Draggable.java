@@ -1,141 +1,98 @@
 package common;
 
 import android.annotation.SuppressLint;
-import android.content.Context;
-import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
-import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 
-import com.terlici.dragndroplist.DragNDropAdapter;
-import com.terlici.dragndroplist.DragNDropListView;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
+import androidx.recyclerview.widget.ItemTouchHelper;
+import androidx.recyclerview.widget.RecyclerView;
 
 import common.ListDataBinder.BindedListType;
 
-public class ListDataBinder_Draggable extends ArrayAdapter implements DragNDropAdapter {
-
-	LayoutInflater inflater;
-	HashMap<ShipmentWithDetail, View> itemsGenerated = new HashMap<ShipmentWithDetail, View>();
-	BindedListType bindedListType;
-	DragNDropListView ListView;
+/**
+ * My Shipments with drag and drop by the row's handle (ItemTouchHelper). The driver's order is
+ * kept in Order, Initialize expects the items already in it (see DragOrder.Project).
+ */
+public class ListDataBinder_Draggable extends ListDataBinder<ShipmentWithDetail> {
 
-	private int mPosition[];
+	private final ItemTouchHelper touchHelper;
 	private int mHandler;
 
-	public List<ShipmentWithDetail> Items = new ArrayList<ShipmentWithDetail>();
-	public LinkedList<String> OrderedUniqueKeys = new LinkedList<String>();
-
-	public ListDataBinder_Draggable(BindedListType BindedListType, DragNDropListView listView, int handler) {
-		super(App.Object, android.R.layout.simple_spinner_item);
-
-		mHandler = handler;
-		this.inflater = (LayoutInflater) App.Object.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-		this.bindedListType = BindedListType;
-		this.ListView = listView;
-		ListView.setDragNDropAdapter(this);
-	}
-
-	private void Setup() {
-		mPosition = new int[Items.size()];
-		for (int i = 0; i < Items.size(); ++i)
-			mPosition[i] = i;
-	}
+	// position the dragged row was picked up at, -1 while nothing is dragged
+	private int dragFrom = -1;
 
-	public void Initialize(List<ShipmentWithDetail> items) {
-		for (ShipmentWithDetail i : items) {
-			if (!OrderedUniqueKeys.contains(i.tracking_id))
-				OrderedUniqueKeys.add(i.tracking_id);
-		}
+	public final DragOrder Order = new DragOrder();
 
-		Items = items;
-		itemsGenerated.clear();
-		Setup();
-		this.notifyDataSetChanged();
-	}
+	public ListDataBinder_Draggable(BindedListType BindedListType, RecyclerView listView, int handler) {
+		super(BindedListType, listView);
 
-	@Override
-	public int getCount() {
-		return Items.size();
-	}
-
-	@SuppressLint("InflateParams")
-	@SuppressWarnings("unchecked")
-	@Override
-	public View getView(int position, View convertView, ViewGroup parent) {
+		mHandler = handler;
+		touchHelper = new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(ItemTouchHelper.UP | ItemTouchHelper.DOWN, 0) {
+			@Override
+			public boolean isLongPressDragEnabled() {
+				return false;
+			}
 
-		View view = convertView;
-		Object source = getItem(position);
-		if (itemsGenerated.containsKey(source))
-			return itemsGenerated.get(source);
+			@Override
+			public boolean onMove(RecyclerView recyclerView, RecyclerView.ViewHolder source, RecyclerView.ViewHolder target) {
+				Move(source.getAdapterPosition(), target.getAdapterPosition());
+				return true;
+			}
 
-		try {
+			@Override
+			public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
 
-			if (bindedListType == BindedListType.MyShipments || bindedListType == BindedListType.ReconcileShipments) {
-				final ShipmentWithDetail obj = (ShipmentWithDetail) source;
-				view = ListDataBinder.GetShipmentsRowView(inflater, bindedListType, obj, false);
 			}
 
-			if (view != null) {
-				view.setTag(source);
-				itemsGenerated.put((ShipmentWithDetail) source, view);
+			@Override
+			public void onSelectedChanged(RecyclerView.ViewHolder viewHolder, int actionState) {
+				super.onSelectedChanged(viewHolder, actionState);
+				if (actionState == ItemTouchHelper.ACTION_STATE_DRAG && viewHolder != null)
+					dragFrom = viewHolder.getAdapterPosition();
 			}
-		} catch (Exception ex) {
-			AppModel.ApplicationError(ex, "ListDataBinder_Draggable::getView(" + bindedListType + ")");
-		}
-		return view;
-	}
-
-	public void ScrollToItem(ShipmentWithDetail item) {
-		if (Items.contains(item)) {
-			int indx = Items.indexOf(item);
-			if (indx >= 0)
-				ListView.smoothScrollToPosition(indx);
-		}
-	}
-
-	@Override
-	public void onItemDrag(DragNDropListView parent, View view, int position, long id) {
 
+			@Override
+			public void clearView(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder) {
+				super.clearView(recyclerView, viewHolder);
+				int dropped = viewHolder.getAdapterPosition();
+				if (dragFrom != -1 && dropped != RecyclerView.NO_POSITION && dropped != dragFrom)
+					onItemDrop(dropped);
+				dragFrom = -1;
+			}
+		});
+		touchHelper.attachToRecyclerView(listView);
 	}
 
 	@Override
-	public ShipmentWithDetail getItem(int position) {
-		return Items.get(mPosition[position]);
+	boolean IsDraggable() {
+		return true;
 	}
 
+	@SuppressLint("ClickableViewAccessibility")
 	@Override
-	public void onItemDrop(DragNDropListView parent, View view, int startPosition, int endPosition, long id) {
-
-		String startUnique = getItem(startPosition).tracking_id;
-		String endUnique = getItem(endPosition).tracking_id;
-		int startUniqueIndex = OrderedUniqueKeys.indexOf(startUnique);
-		int endUniqueIndex = OrderedUniqueKeys.indexOf(endUnique);
-
-		int position = mPosition[startPosition];
-
-		if (startPosition < endPosition) {
-			for (int i = startPosition; i < endPosition; ++i)
-				mPosition[i] = mPosition[i + 1];
-			for (int i = startUniqueIndex; i < endUniqueIndex; ++i)
-				OrderedUniqueKeys.set(i, OrderedUniqueKeys.get(i + 1));
-		} else if (endPosition < startPosition) {
-			for (int i = startPosition; i > endPosition; --i)
-				mPosition[i] = mPosition[i - 1];
-			for (int i = startUniqueIndex; i > endUniqueIndex; --i)
-				OrderedUniqueKeys.set(i, OrderedUniqueKeys.get(i - 1));
+	public void onBindViewHolder(final RowHolder holder, int position) {
+		super.onBindViewHolder(holder, position);
+		View handle = holder.itemView.findViewById(mHandler);
+		if (handle != null) {
+			handle.setOnTouchListener(new View.OnTouchListener() {
+				@Override
+				public boolean onTouch(View v, MotionEvent event) {
+					if (event.getActionMasked() != MotionEvent.ACTION_DOWN)
+						return false;
+					touchHelper.startDrag(holder);
+					return true;
+				}
+			});
 		}
-
-		mPosition[endPosition] = position;
-		OrderedUniqueKeys.set(endUniqueIndex, startUnique);
 	}
 
-	@Override
-	public int getDragHandler() {
-		return mHandler;
+	private void onItemDrop(int position) {
+		// the rows around the drop point, hidden (filtered) shipments keep their rank
+		Order.Move(getItem(position).tracking_id,
+				position > 0 ? getItem(position - 1).tracking_id : null,
+				position + 1 < getItemCount() ? getItem(position + 1).tracking_id : null);
+
+		// kept for the next start
+		ShipmentSnapshot.SetDragOrder(Order);
 	}
 }
@@ -0,0 +1,101 @@
+package common;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+
+import eu.trackify.net.R;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Locale;
+
+import common.UserDistributorShipmentsFragment.ShipmentsType;
+
+/**
+ * "Show saved lists first" mode of the shipment tabs: a tab shows its saved list (ShipmentSnapshot,
+ * else ShipmentStore) right away, the load runs without the blocking spinner and only the
+ * differences of its answer are applied (ShipmentDelta.Diff). While a saved list is shown the
+ * tab's bar says how old it is.
+ * <p>
+ * Also measures the time from creating a tab's view to its first rows, per tab.
+ */
+public class ListFreshness {
+
+    private static final String TAG = "ListFreshness";
+    private static final String PREF_SAVED_LISTS = "show_saved_lists";
+
+    private static final EnumMap<ShipmentsType, Long> startedAt = new EnumMap<ShipmentsType, Long>(ShipmentsType.class);
+    private static final EnumMap<ShipmentsType, String> firstContent = new EnumMap<ShipmentsType, String>(ShipmentsType.class);
+
+    public static boolean IsEnabled() {
+        return GetPrefs().getBoolean(PREF_SAVED_LISTS, true);
+    }
+
+    public static void SetEnabled(boolean enabled) {
+        GetPrefs().edit().putBoolean(PREF_SAVED_LISTS, enabled).apply();
+    }
+
+    /**
+     * Shows when the list on screen was loaded from the server.
+     *
+     * @param savedAt  System.currentTimeMillis() of the load, 0 when unknown
+     * @param updating true while the load runs, false when it failed
+     */
+    public static void ShowSaved(TextView bar, long savedAt, boolean updating) {
+        if (bar == null)
+            return;
+        Context context = bar.getContext();
+        String age = savedAt <= 0 ? "?" : DateUtils.isToday(savedAt)
+                ? new SimpleDateFormat("HH:mm", Locale.getDefault()).format(new Date(savedAt))
+                : new SimpleDateFormat("dd.MM HH:mm", Locale.getDefault()).format(new Date(savedAt));
+        bar.setText(context.getString(updating ? R.string.list_saved_updating : R.string.list_saved_not_updated, age));
+        bar.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * The list on screen is the server's answer.
+     */
+    public static void ShowFresh(TextView bar) {
+        if (bar != null)
+            bar.setVisibility(View.GONE);
+    }
+
+    /**
+     * Called when the tab's view is created.
+     */
+    public static synchronized void MarkStart(ShipmentsType type) {
+        if (!startedAt.containsKey(type))
+            startedAt.put(type, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Called every time rows are shown, only the first one per tab counts.
+     *
+     * @param source snapshot, store, network or cache (failed load)
+     */
+    public static synchronized void MarkFirstContent(ShipmentsType type, String source) {
+        Long start = startedAt.get(type);
+        if (start == null || firstContent.containsKey(type))
+            return;
+        String timing = String.format(Locale.US, "%dms from %s", SystemClock.uptimeMillis() - start, source);
+        firstContent.put(type, timing);
+        Log.d(TAG, type + " first content " + timing);
+    }
+
+    public static synchronized String GetSummary() {
+        StringBuilder sb = new StringBuilder("first content");
+        for (ShipmentsType type : startedAt.keySet())
+            sb.append(' ').append(type).append('=').append(firstContent.containsKey(type) ? firstContent.get(type) : "-");
+        return sb.toString();
+    }
+
+    private static SharedPreferences GetPrefs() {
+        return AppModel.Object.context.getSharedPreferences("app_settings", Context.MODE_PRIVATE);
+    }
+}
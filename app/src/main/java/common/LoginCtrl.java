@@ -77,6 +77,7 @@ public class LoginCtrl extends LinearLayout {
 															AppModel.Object.SaveVariable(AppModel.PASS_KEY, encryptedPassword);
 															AppModel.Object.SaveVariable(AppModel.PASS_ENCRYPTED_KEY, "true");
 														}
+														TokenManager.OnLoggedIn(u, password);
 
 														// App.Object.ShowCtrl(UserType.Driver);
 														App.Object.ShowCtrl(u.GetUserType());
@@ -114,20 +115,10 @@ public class LoginCtrl extends LinearLayout {
 
 	public boolean AutoLogin(final IServerResponse response) {
 		final String username = AppModel.Object.GetVariable(AppModel.USER_KEY);
-		String storedPassword = AppModel.Object.GetVariable(AppModel.PASS_KEY);
 		final String isEncrypted = AppModel.Object.GetVariable(AppModel.PASS_ENCRYPTED_KEY);
 
-		// Decrypt password if it was stored encrypted
-		String password = null;
-		if (!AppModel.IsNullOrEmpty(storedPassword)) {
-			if ("true".equals(isEncrypted)) {
-				String deviceId = PasswordSecurityUtil.getDeviceId(getContext());
-				password = PasswordSecurityUtil.decryptFromStorage(storedPassword, deviceId);
-			} else {
-				// Legacy: password stored in plain text, migrate to encrypted
-				password = storedPassword;
-			}
-		}
+		// Decrypted once and kept for the session, legacy plain text passwords are migrated below
+		String password = TokenManager.GetStoredPassword();
 
 		if (!AppModel.IsNullOrEmpty(username) && !AppModel.IsNullOrEmpty(password)) {
 			final String finalPassword = password;
@@ -161,6 +152,7 @@ public class LoginCtrl extends LinearLayout {
 												AppModel.Object.SaveVariable(AppModel.PASS_ENCRYPTED_KEY, "true");
 											}
 										}
+										TokenManager.OnLoggedIn(u, finalPassword);
 
 										// App.Object.ShowCtrl(UserType.Driver);
 										App.Object.ShowCtrl(u.GetUserType());
@@ -0,0 +1,203 @@
+package common;
+
+import android.database.Cursor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import common.DatabaseManager.IRowReader;
+
+/**
+ * Files holding the large values of queued POSTs (a signature's base64 PNG), so the PostParams row
+ * only keeps a reference (PayloadRef) instead of megabytes of text that have to fit a
+ * CursorWindow and are read on every queue poll.
+ * <p>
+ * Files are named by the SHA-256 of their content, storing the same value twice writes one file.
+ * A file is deleted once no queued param refers to it anymore; payloads of dead-lettered requests
+ * are kept with the dead letter.
+ */
+public class PayloadStore {
+
+    /** Values longer than this (chars) are stored as files */
+    static final int SPILL_THRESHOLD = 16 * 1024;
+
+    private static final String DIR_NAME = "pending_payloads";
+    private static final String TMP_SUFFIX = ".tmp";
+    // files younger than this may belong to an enqueue still in progress
+    private static final long SWEEP_MIN_AGE_MS = 10 * 60 * 1000;
+
+    /**
+     * Queued value read from its file when it is sent. Rest streams it into the request body
+     * (see StreamedFormEntity), toString() reads the whole value for any other use.
+     */
+    public static class Payload {
+        public final File file;
+
+        Payload(File file) {
+            this.file = file;
+        }
+
+        public InputStream Open() throws IOException {
+            return new FileInputStream(file);
+        }
+
+        @Override
+        public String toString() {
+            InputStream in = null;
+            try {
+                in = Open();
+                ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                    out.write(buffer, 0, read);
+                return out.toString("UTF-8");
+            } catch (IOException ex) {
+                AppModel.ApplicationError(ex, "PayloadStore::Payload.toString");
+                return "";
+            } finally {
+                Close(in);
+            }
+        }
+    }
+
+    public static boolean ShouldSpill(String value) {
+        return value != null && value.length() > SPILL_THRESHOLD;
+    }
+
+    /**
+     * Writes the value (UTF-8) unless a file with the same content exists.
+     *
+     * @return the reference to store in PostParams.PayloadRef
+     */
+    public static String Store(String value) throws Exception {
+        byte[] bytes = value.getBytes("UTF-8");
+        String ref = Hex(MessageDigest.getInstance("SHA-256").digest(bytes));
+
+        File file = new File(GetDir(), ref);
+        if (file.exists() && file.length() == bytes.length) {
+            // reused, Sweep must not take it for an orphan before its row is inserted
+            file.setLastModified(System.currentTimeMillis());
+            return ref;
+        }
+
+        // written next to it and renamed, a crash never leaves a partial payload under its name. The
+        // temp name is unique, two enqueues of the same value don't write into each other's file.
+        File tmp = File.createTempFile(ref, TMP_SUFFIX, GetDir());
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(bytes);
+            out.flush();
+        } finally {
+            Close(out);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            // the other enqueue renamed its copy first, the content is the same
+            if (!file.exists() || file.length() != bytes.length)
+                throw new IOException("Could not store payload " + ref);
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return ref;
+    }
+
+    /**
+     * The stored value, FileNotFoundException when sent after its file was lost.
+     */
+    public static Payload Get(String ref) throws IOException {
+        File file = new File(GetDir(), ref);
+        if (!file.exists())
+            throw new java.io.FileNotFoundException("Payload " + ref + " missing");
+        return new Payload(file);
+    }
+
+    /**
+     * Deletes the files no queued param or dead letter refers to anymore. Called after the
+     * referring rows were deleted.
+     */
+    public static void Release(Collection<String> refs) {
+        for (String ref : refs) {
+            try {
+                if (!IsReferenced(ref))
+                    new File(GetDir(), ref).delete();
+            } catch (Exception ex) {
+                AppModel.ApplicationError(ex, "PayloadStore::Release");
+            }
+        }
+    }
+
+    /**
+     * Deletes files left behind by an enqueue that failed or a crash between delete and release.
+     */
+    public static void Sweep() {
+        try {
+            File[] files = GetDir().listFiles();
+            if (files == null)
+                return;
+
+            final Set<String> referenced = new HashSet<String>();
+            AppModel.Object.db.ReadRows("SELECT DISTINCT PayloadRef FROM PostParams WHERE PayloadRef IS NOT NULL", null, new IRowReader() {
+                @Override
+                public void Read(Cursor cursor) {
+                    referenced.add(cursor.getString(0));
+                }
+            });
+
+            long cutoff = System.currentTimeMillis() - SWEEP_MIN_AGE_MS;
+            for (File file : files) {
+                if (file.lastModified() > cutoff)
+                    continue;
+                String name = file.getName();
+                if (name.endsWith(TMP_SUFFIX) || (!referenced.contains(name) && !IsReferenced(name)))
+                    file.delete();
+            }
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "PayloadStore::Sweep");
+        }
+    }
+
+    private static boolean IsReferenced(String ref) {
+        final boolean[] referenced = new boolean[1];
+        AppModel.Object.db.ReadRows("SELECT EXISTS (SELECT 1 FROM PostParams WHERE PayloadRef = ?) OR EXISTS (SELECT 1 FROM DeadLetters WHERE Params LIKE ?)",
+                new String[] { ref, "%" + ref + "%" }, new IRowReader() {
+                    @Override
+                    public void Read(Cursor cursor) {
+                        referenced[0] = cursor.getInt(0) != 0;
+                    }
+                });
+        return referenced[0];
+    }
+
+    private static File GetDir() {
+        File dir = new File(AppModel.Object.context.getFilesDir(), DIR_NAME);
+        if (!dir.exists())
+            dir.mkdirs();
+        return dir;
+    }
+
+    private static String Hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(String.format(Locale.US, "%02x", b));
+        return sb.toString();
+    }
+
+    private static void Close(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package common;
+
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recognizes offline queue entries that make an earlier entry pointless, so the queue holds the
+ * net effect instead of every tap (PendingRequestsLoader checks it on enqueue):
+ * <ul>
+ * <li>A status update (update_status.php without a comment) supersedes the queued status updates
+ * of the same tracking code, only the last one is replayed.</li>
+ * <li>A comment (add_shipment_comment / _v2) identical to one already queued for the shipment is a
+ * double tap, the queued one is kept and the new one dropped.</li>
+ * </ul>
+ * Whatever is dropped is kept in CompactedRequests with the id of the entry it was folded into.
+ * Status updates with a comment (problem reports) and everything else are never compacted.
+ */
+public class PendingCompactor {
+
+    public static class Operation {
+        /** Entries with the same key are the same operation */
+        public final String key;
+        /** true: an entry already queued wins (duplicate), false: the newest entry wins */
+        public final boolean keepFirst;
+
+        Operation(String key, boolean keepFirst) {
+            this.key = key;
+            this.keepFirst = keepFirst;
+        }
+    }
+
+    private static final AtomicLong superseded = new AtomicLong();
+    private static final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * @return null when the request is never compacted
+     */
+    public static Operation Classify(String url, HashMap<String, Object> params) {
+        if (url == null)
+            return null;
+
+        if (params == null) {
+            if (url.contains("/update_status.php")) {
+                String key = PendingReplayer.QueryParam(url, "key");
+                if (key == null || PendingReplayer.QueryParam(url, "comment") != null)
+                    return null;
+                return new Operation("status|" + PendingReplayer.QueryParam(url, "user") + "|" + key.toUpperCase(Locale.US), false);
+            }
+            if (url.contains("/add_shipment_comment.php")) {
+                String shipmentId = PendingReplayer.QueryParam(url, "shipment_id");
+                String comment = PendingReplayer.QueryParam(url, "comment");
+                if (shipmentId == null || comment == null)
+                    return null;
+                return new Operation("comment|" + PendingReplayer.QueryParam(url, "user_id") + "|" + shipmentId + "||" + Hash(comment), true);
+            }
+            return null;
+        }
+
+        if (url.contains("/add_shipment_comment_v2.php")) {
+            Object shipmentId = params.get("shipment_id");
+            Object comment = params.get("comment");
+            if (shipmentId == null || comment == null)
+                return null;
+            return new Operation("comment|" + params.get("user_id") + "|" + shipmentId + "|" + params.get("note_type") + "|" + Hash(comment.toString().trim()), true);
+        }
+        return null;
+    }
+
+    static void RecordSuperseded(int count) {
+        superseded.addAndGet(count);
+    }
+
+    static void RecordDuplicate() {
+        duplicates.incrementAndGet();
+    }
+
+    private static String Hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 12; i++)
+                sb.append(String.format(Locale.US, "%02x", digest[i]));
+            return sb.toString();
+        } catch (Exception ex) {
+            return value;
+        }
+    }
+
+    public static String GetSummary() {
+        return String.format(Locale.US, "queue compaction superseded=%d duplicates=%d", superseded.get(), duplicates.get());
+    }
+}
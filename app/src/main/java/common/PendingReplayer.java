@@ -0,0 +1,329 @@
+package common;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+import java.io.FileNotFoundException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.PendingRequestsLoader.PendingRequestItem;
+import common.PendingRequestsLoader.PostParamItem;
+
+/**
+ * Replays the offline queue (PendingRequestsLoader) once the network is back, called by
+ * SyncThread.
+ * <p>
+ * Requests of the same shipment (see {@link #LaneKey}) are sent one at a time in queue order,
+ * different shipments are replayed in parallel on the Replay lane of RequestExecutor. A failed
+ * request is retried with exponential backoff and jitter and holds back the later requests of its
+ * shipment until it goes through, other shipments keep draining.
+ * <p>
+ * A request the server rejects (an "E:" answer or a 4xx other than 401/408/429) or that failed
+ * {@link #MAX_ATTEMPTS} times is moved to the DeadLetters table with its last error. When no
+ * connection to the server can be opened at all the pass stops without counting an attempt and
+ * the next pass is delayed instead. Any later failure (a read timeout, no free pooled connection)
+ * counts against the request, so one request can't hold up the queue forever.
+ */
+public class PendingReplayer {
+
+    static final int MAX_ATTEMPTS = 8;
+    static final long BASE_BACKOFF_MS = 2 * 1000;
+    static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+    static final long MAX_UNREACHABLE_BACKOFF_MS = 60 * 1000;
+
+    private static final Random random = new Random();
+
+    // pass level backoff while the server can't be reached, SyncThread only
+    private static int unreachablePasses;
+    private static long nextPassAt;
+
+    private static final AtomicLong replayed = new AtomicLong();
+    private static final AtomicLong retried = new AtomicLong();
+    private static final AtomicLong deadLettered = new AtomicLong();
+    private static volatile int lastBacklog;
+    private static volatile int lastReplayed;
+    private static volatile long lastPassMs;
+    private static volatile long oldestAgeMs;
+
+    /**
+     * One pass over the due part of the queue, blocks until it is done.
+     *
+     * @return true when requests were replayed or dead-lettered, i.e. the tabs should be reloaded
+     */
+    public static boolean RunPass() {
+        long now = System.currentTimeMillis();
+        if (SystemClock.elapsedRealtime() < nextPassAt)
+            return false;
+        long due = AppModel.Pendings.GetNextAttemptDue();
+        if (due < 0 || due > now)
+            return false;
+
+        Pass pass = new Pass(now);
+        long startedAt = SystemClock.elapsedRealtime();
+        int lastId = 0;
+        List<PendingRequestItem> page;
+        do {
+            page = AppModel.Pendings.GetPendingPage(lastId, PendingRequestsLoader.PAGE_SIZE);
+            if (page.isEmpty())
+                break;
+            lastId = page.get(page.size() - 1).ID;
+            pass.Run(page);
+        } while (page.size() == PendingRequestsLoader.PAGE_SIZE && !pass.unreachable);
+
+        if (pass.unreachable) {
+            unreachablePasses++;
+            nextPassAt = SystemClock.elapsedRealtime() + Math.min(MAX_UNREACHABLE_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(unreachablePasses - 1, 10));
+        } else {
+            unreachablePasses = 0;
+        }
+
+        int done = pass.replayed.get() + pass.deadLettered.get();
+        if (done > 0 || pass.retried.get() > 0) {
+            lastBacklog = pass.seen;
+            lastReplayed = pass.replayed.get();
+            lastPassMs = SystemClock.elapsedRealtime() - startedAt;
+            oldestAgeMs = pass.oldestAgeMs;
+            Log.d(PendingReplayer.class.getSimpleName(), GetSummary());
+        }
+        return done > 0;
+    }
+
+    private static class Pass {
+        final long now;
+        final SimpleDateFormat timestampFormat = (SimpleDateFormat) AppModel.SERVER_FORMAT.clone();
+        final Set<String> blocked = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger replayed = new AtomicInteger();
+        final AtomicInteger retried = new AtomicInteger();
+        final AtomicInteger deadLettered = new AtomicInteger();
+        volatile boolean unreachable;
+        int seen;
+        long oldestAgeMs = -1;
+
+        Pass(long now) {
+            this.now = now;
+        }
+
+        /**
+         * Replays one page: its requests are split into lanes by shipment, the lanes are drained
+         * by up to Replay.maxThreads workers.
+         */
+        void Run(List<PendingRequestItem> page) {
+            LinkedHashMap<String, List<PendingRequestItem>> lanes = new LinkedHashMap<String, List<PendingRequestItem>>();
+            for (PendingRequestItem item : page) {
+                seen++;
+                if (oldestAgeMs < 0)
+                    oldestAgeMs = Age(item);
+
+                String key = LaneKey(item);
+                if (blocked.contains(key))
+                    continue;
+                if (item.NextAttemptAt > now) {
+                    // still backing off, nothing after it in this lane may overtake it
+                    blocked.add(key);
+                    continue;
+                }
+
+                List<PendingRequestItem> lane = lanes.get(key);
+                if (lane == null) {
+                    lane = new ArrayList<PendingRequestItem>();
+                    lanes.put(key, lane);
+                }
+                lane.add(item);
+            }
+            if (lanes.isEmpty())
+                return;
+
+            final ConcurrentLinkedQueue<Map.Entry<String, List<PendingRequestItem>>> work = new ConcurrentLinkedQueue<Map.Entry<String, List<PendingRequestItem>>>(lanes.entrySet());
+            int workers = Math.min(RequestExecutor.Lane.Replay.maxThreads, lanes.size());
+            final CountDownLatch finished = new CountDownLatch(workers);
+            for (int i = 0; i < workers; i++) {
+                Runnable worker = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Map.Entry<String, List<PendingRequestItem>> lane;
+                            while (!unreachable && (lane = work.poll()) != null) {
+                                if (!Drain(lane.getValue()))
+                                    blocked.add(lane.getKey());
+                            }
+                        } finally {
+                            finished.countDown();
+                        }
+                    }
+                };
+                if (RequestExecutor.Execute(RequestExecutor.Lane.Replay, worker) == null)
+                    worker.run();
+            }
+
+            try {
+                finished.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                unreachable = true;
+            }
+        }
+
+        /**
+         * @return false when a request stays queued and blocks the rest of the lane
+         */
+        boolean Drain(List<PendingRequestItem> lane) {
+            for (PendingRequestItem item : lane) {
+                if (unreachable)
+                    return true;
+
+                try {
+                    Communicator.ReplayPending(item);
+                    AppModel.Pendings.MarkUploaded(item.ID);
+                    replayed.incrementAndGet();
+                    PendingReplayer.replayed.incrementAndGet();
+                } catch (Exception ex) {
+                    if (IsUnreachable(ex)) {
+                        unreachable = true;
+                        return true;
+                    }
+
+                    int attempts = item.Attempts + 1;
+                    String error = Describe(ex);
+                    if (IsPermanent(ex) || attempts >= MAX_ATTEMPTS) {
+                        AppModel.Pendings.MoveToDeadLetters(item, attempts, error);
+                        deadLettered.incrementAndGet();
+                        PendingReplayer.deadLettered.incrementAndGet();
+                        continue;
+                    }
+
+                    AppModel.Pendings.MarkFailed(item.ID, attempts, System.currentTimeMillis() + Backoff(attempts), error);
+                    retried.incrementAndGet();
+                    PendingReplayer.retried.incrementAndGet();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long Age(PendingRequestItem item) {
+            try {
+                return Math.max(0, now - timestampFormat.parse(item.Timestamp).getTime());
+            } catch (Exception ex) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Requests with the same key are replayed in queue order, one at a time: the tracking code of
+     * a status update, the shipment id of a comment or signature, the sku of a stock update.
+     * Requests without any of these share one lane.
+     */
+    static String LaneKey(PendingRequestItem item) {
+        String value;
+        if (item.IsGetRequest) {
+            if ((value = QueryParam(item.Request, "key")) != null)
+                return "key:" + value.toUpperCase(Locale.US);
+            if ((value = QueryParam(item.Request, "shipment_id")) != null)
+                return "shipment:" + value;
+            if ((value = QueryParam(item.Request, "sku")) != null)
+                return "sku:" + value.toUpperCase(Locale.US);
+        } else {
+            for (PostParamItem pi : item.Params) {
+                if ("shipment_id".equalsIgnoreCase(pi.Param) && !AppModel.IsNullOrEmpty(pi.Value))
+                    return "shipment:" + pi.Value.trim();
+            }
+        }
+        return "";
+    }
+
+    static String QueryParam(String url, String name) {
+        int query = url == null ? -1 : url.indexOf('?');
+        if (query < 0)
+            return null;
+        for (String pair : url.substring(query + 1).split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equalsIgnoreCase(name)) {
+                String value = pair.substring(eq + 1).trim();
+                return value.isEmpty() ? null : value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Exponential in the attempts, capped at {@link #MAX_BACKOFF_MS}, with the upper half
+     * randomized so a backlog that failed together doesn't retry together.
+     */
+    static long Backoff(int attempts) {
+        long delay = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempts - 1, 20));
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * The server was never reached (host not resolved, connection refused or not opened in time),
+     * nothing to blame the request for. Waiting for a pooled connection is not connecting, that
+     * pool timeout is a ConnectTimeoutException as well.
+     */
+    private static boolean IsUnreachable(Exception ex) {
+        if (ex instanceof ConnectionPoolTimeoutException)
+            return false;
+        return ex instanceof UnknownHostException
+                || ex instanceof ConnectException // HttpHostConnectException
+                || ex instanceof NoRouteToHostException
+                || ex instanceof ConnectTimeoutException;
+    }
+
+    private static boolean IsPermanent(Exception ex) {
+        // CustomServerException: "E:" answer, FileNotFoundException: the payload file is gone
+        if (ex instanceof CustomServerException || ex instanceof FileNotFoundException)
+            return true;
+        if (ex instanceof HttpResponseException) {
+            int status = ((HttpResponseException) ex).getStatusCode();
+            return status >= 400 && status < 500 && status != 401 && status != 408 && status != 429;
+        }
+        return false;
+    }
+
+    private static String Describe(Exception ex) {
+        if (ex instanceof HttpResponseException)
+            return "HTTP " + ((HttpResponseException) ex).getStatusCode() + ": " + ex.getMessage();
+        return ex.getClass().getSimpleName() + ": " + AppModel.GetExceptionMessage(ex);
+    }
+
+    public static long GetReplayedCount() {
+        return replayed.get();
+    }
+
+    public static long GetDeadLetteredCount() {
+        return deadLettered.get();
+    }
+
+    /**
+     * Age of the oldest queued request at the start of the last pass, -1 when unknown.
+     */
+    public static long GetOldestAgeMs() {
+        return oldestAgeMs;
+    }
+
+    public static String GetSummary() {
+        double perSecond = lastPassMs > 0 ? lastReplayed * 1000.0 / lastPassMs : 0;
+        return String.format(Locale.US, "replay total replayed=%d retried=%d dead=%d, last pass %d/%d in %dms (%.1f/s), oldest %ds",
+                replayed.get(), retried.get(), deadLettered.get(), lastReplayed, lastBacklog, lastPassMs, perSecond, oldestAgeMs / 1000);
+    }
+}
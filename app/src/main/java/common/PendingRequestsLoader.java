@@ -1,12 +1,20 @@
 package common;
 
 import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.google.gson.Gson;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 
+import common.DatabaseManager.IRowReader;
+import common.DatabaseManager.IWriteTask;
 import common.DatabaseManager.TableType;
 
 public class PendingRequestsLoader {
@@ -17,6 +25,8 @@ public class PendingRequestsLoader {
 		public String Timestamp; // 2017-11-17 14:11:20
 		public boolean IsGetRequest;
 		public boolean Uploaded;
+		public int Attempts; // failed replays so far
+		public long NextAttemptAt; // epoch ms, not replayed before
 
 		List<PostParamItem> Params = new ArrayList<PostParamItem>();
 	}
@@ -25,84 +35,292 @@ public class PendingRequestsLoader {
 		public int ID;
 		public int PendingRequestID;
 		public String Param;
-		public String Value;
+		public String Value; // null when the value is stored in a file
+		public String PayloadRef; // see PayloadStore
 	}
 
-	public List<PendingRequestItem> GetPendings() {
-		List<PendingRequestItem> All = new ArrayList<PendingRequestItem>();
+	static final int PAGE_SIZE = 50;
+
+	// One page of requests (in queue order) joined with their params
+	private static final String PAGE_QUERY = "SELECT r.ID, r.Request, r.Timestamp, r.IsGetRequest, r.Uploaded, r.Attempts, r.NextAttemptAt, p.ID, p.Param, p.Value, p.PayloadRef"
+			+ " FROM (SELECT * FROM PendingRequests WHERE ID > ? ORDER BY ID LIMIT ?) r"
+			+ " LEFT JOIN PostParams p ON p.PendingRequestID = r.ID"
+			+ " ORDER BY r.ID, p.ID";
+	private static final int COL_ID = 0, COL_REQUEST = 1, COL_TIMESTAMP = 2, COL_IS_GET = 3, COL_UPLOADED = 4, COL_ATTEMPTS = 5, COL_NEXT_ATTEMPT = 6;
+	private static final int COL_PARAM_ID = 7, COL_PARAM = 8, COL_VALUE = 9, COL_PAYLOAD_REF = 10;
+
+	private static final int MAX_ERROR_LENGTH = 2000;
+
+	/**
+	 * Requests with ID greater than afterId, at most limit of them, each with its params. The queue
+	 * is read a page at a time keyed by the last ID read, so replay can start before the whole
+	 * backlog is loaded and items removed with MarkUploaded in the meantime don't shift the pages.
+	 */
+	public List<PendingRequestItem> GetPendingPage(int afterId, int limit) {
+		final List<PendingRequestItem> items = new ArrayList<PendingRequestItem>();
 		try {
-			ArrayList<HashMap<String, String>> rows = AppModel.Object.db.SelectFormatted(TableType.PendingRequests, null, null, null);
-			for (HashMap<String, String> row : rows) {
-				PendingRequestItem item = new PendingRequestItem();
-				item.ID = Integer.parseInt(row.get("ID"));
-				item.Request = row.get("Request");
-				item.Timestamp = row.get("Timestamp");
-				item.IsGetRequest = row.get("IsGetRequest").equalsIgnoreCase("1") || row.get("IsGetRequest").equalsIgnoreCase("true");
-				item.Uploaded = row.get("Uploaded").equalsIgnoreCase("1") || row.get("Uploaded").equalsIgnoreCase("true");
-
-				if (!item.IsGetRequest) {
-					ArrayList<HashMap<String, String>> detRows = AppModel.Object.db.SelectFormatted(TableType.PostParams, null, "PendingRequestID = " + item.ID, null);
-					for (HashMap<String, String> dr : detRows) {
+			AppModel.Object.db.ReadRows(PAGE_QUERY, new String[] { String.valueOf(afterId), String.valueOf(limit) }, new IRowReader() {
+				PendingRequestItem item;
+
+				@Override
+				public void Read(Cursor cursor) {
+					int id = cursor.getInt(COL_ID);
+					// rows of the same request are adjacent, one per param
+					if (item == null || item.ID != id) {
+						item = new PendingRequestItem();
+						item.ID = id;
+						item.Request = cursor.getString(COL_REQUEST);
+						item.Timestamp = cursor.getString(COL_TIMESTAMP);
+						item.IsGetRequest = IsTrue(cursor.getString(COL_IS_GET));
+						item.Uploaded = IsTrue(cursor.getString(COL_UPLOADED));
+						item.Attempts = cursor.getInt(COL_ATTEMPTS);
+						item.NextAttemptAt = cursor.getLong(COL_NEXT_ATTEMPT);
+						items.add(item);
+					}
+
+					if (!item.IsGetRequest && !cursor.isNull(COL_PARAM_ID)) {
 						PostParamItem pi = new PostParamItem();
-						pi.ID = Integer.parseInt(dr.get("ID"));
-						pi.PendingRequestID = Integer.parseInt(dr.get("PendingRequestID"));
-						pi.Param = dr.get("Param");
-						pi.Value = dr.get("Value");
+						pi.ID = cursor.getInt(COL_PARAM_ID);
+						pi.PendingRequestID = id;
+						pi.Param = cursor.getString(COL_PARAM);
+						pi.Value = cursor.getString(COL_VALUE);
+						pi.PayloadRef = cursor.getString(COL_PAYLOAD_REF);
 						item.Params.add(pi);
 					}
 				}
+			});
+		} catch (Exception ex) {
+			AppModel.ApplicationError(ex, "PendingRequestsLoader::GetPendingPage");
+		}
+		return items;
+	}
 
-				All.add(item);
-			}
+	/**
+	 * Earliest NextAttemptAt in the queue, -1 when the queue is empty.
+	 */
+	public long GetNextAttemptDue() {
+		final long[] due = new long[] { -1 };
+		try {
+			AppModel.Object.db.ReadRows("SELECT MIN(NextAttemptAt) FROM PendingRequests", null, new IRowReader() {
+				@Override
+				public void Read(Cursor cursor) {
+					if (!cursor.isNull(0))
+						due[0] = cursor.getLong(0);
+				}
+			});
 		} catch (Exception ex) {
-			AppModel.ApplicationError(ex, "PendingRequestsLoader::GetPendings");
+			AppModel.ApplicationError(ex, "PendingRequestsLoader::GetNextAttemptDue");
 		}
-		return All;
+		return due[0];
+	}
+
+	private static boolean IsTrue(String value) {
+		return value != null && (value.equalsIgnoreCase("1") || value.equalsIgnoreCase("true"));
 	}
 
 	public void InsertGet(String url) {
+		Enqueue(url, null, "PendingRequestsLoader::InsertGet");
+	}
+
+	/**
+	 * The request and all its params are written in one transaction, values longer than
+	 * PayloadStore.SPILL_THRESHOLD go to a file and the param row only refers to it.
+	 */
+	public void InsertPost(String url, HashMap<String, Object> params) {
+		Enqueue(url, params, "PendingRequestsLoader::InsertPost");
+	}
+
+	/**
+	 * Queues a GET (params null) or POST, compacted against what is already queued (see
+	 * PendingCompactor) in the same transaction.
+	 */
+	private void Enqueue(final String url, final HashMap<String, Object> params, String errorSource) {
+		final HashMap<String, String> payloadRefs = new HashMap<String, String>();
+		final List<String> released = new ArrayList<String>();
 		try {
-			ContentValues cv = new ContentValues();
-			cv.put("ID", AppModel.Object.db.GetTableMaxID(TableType.PendingRequests, null) + 1);
-			cv.put("Request", url);
-			cv.put("Timestamp", AppModel.SERVER_FORMAT.format(new Date()));
-			cv.put("IsGetRequest", true);
-			cv.put("Uploaded", false);
-			AppModel.Object.db.Insert(TableType.PendingRequests, cv);
+			final PendingCompactor.Operation operation = PendingCompactor.Classify(url, params);
+			if (params != null) {
+				for (String key : params.keySet()) {
+					String value = String.valueOf(params.get(key));
+					if (PayloadStore.ShouldSpill(value))
+						payloadRefs.put(key, PayloadStore.Store(value));
+				}
+			}
+
+			AppModel.Object.db.WriteTransaction("PendingRequestsLoader.Enqueue", new IWriteTask<Long>() {
+				@Override
+				public Long Run(SQLiteDatabase db) {
+					String now = AppModel.SERVER_FORMAT.format(new Date());
+					List<Long> queued = operation == null ? new ArrayList<Long>() : QueuedIds(db, operation.key);
+
+					if (operation != null && operation.keepFirst && !queued.isEmpty()) {
+						// double tap, only the provenance of the dropped one is kept
+						ContentValues cv = new ContentValues();
+						cv.put("Request", url);
+						cv.put("Timestamp", now);
+						cv.put("IsGetRequest", params == null);
+						if (params != null)
+							cv.put("Params", new Gson().toJson(params));
+						cv.put("OperationKey", operation.key);
+						cv.put("KeptRequestID", queued.get(0));
+						cv.put("CompactedAt", now);
+						db.insertOrThrow(TableType.CompactedRequests.toString(), null, cv);
+						PendingCompactor.RecordDuplicate();
+						released.addAll(payloadRefs.values());
+						return queued.get(0);
+					}
+
+					ContentValues cv = new ContentValues();
+					cv.put("Request", url);
+					cv.put("Timestamp", now);
+					cv.put("IsGetRequest", params == null);
+					cv.put("Uploaded", false);
+					if (operation != null)
+						cv.put("OperationKey", operation.key);
+					long id = db.insertOrThrow(TableType.PendingRequests.toString(), null, cv);
+
+					if (params != null) {
+						SQLiteStatement insertParam = db.compileStatement("INSERT INTO PostParams (PendingRequestID, Param, Value, PayloadRef) VALUES (?, ?, ?, ?)");
+						try {
+							for (String key : params.keySet()) {
+								insertParam.clearBindings();
+								insertParam.bindLong(1, id);
+								insertParam.bindString(2, key);
+								String payloadRef = payloadRefs.get(key);
+								if (payloadRef != null) {
+									insertParam.bindNull(3);
+									insertParam.bindString(4, payloadRef);
+								} else {
+									insertParam.bindString(3, params.get(key).toString());
+									insertParam.bindNull(4);
+								}
+								insertParam.executeInsert();
+							}
+						} finally {
+							insertParam.close();
+						}
+					}
+
+					if (!queued.isEmpty()) {
+						// superseded by this one, moved out of the queue
+						String[] args = new String[] { operation.key, String.valueOf(id) };
+						released.addAll(PayloadRefs(db, "OperationKey = ? AND ID <> ?", args));
+						db.execSQL("INSERT INTO CompactedRequests (PendingRequestID, Request, Timestamp, IsGetRequest, OperationKey, KeptRequestID, CompactedAt) "
+								+ "SELECT ID, Request, Timestamp, IsGetRequest, OperationKey, ?, ? FROM PendingRequests WHERE OperationKey = ? AND ID <> ?",
+								new Object[] { id, now, operation.key, id });
+						db.delete(TableType.PostParams.toString(), "PendingRequestID IN (SELECT ID FROM PendingRequests WHERE OperationKey = ? AND ID <> ?)", args);
+						db.delete(TableType.PendingRequests.toString(), "OperationKey = ? AND ID <> ?", args);
+						PendingCompactor.RecordSuperseded(queued.size());
+					}
+					return id;
+				}
+			});
 		} catch (Exception ex) {
-			AppModel.ApplicationError(ex, "PendingRequestsLoader::InsertGet");
+			AppModel.ApplicationError(ex, errorSource);
+			released.addAll(payloadRefs.values());
 		}
+		PayloadStore.Release(released);
 	}
 
-	public void InsertPost(String url, HashMap<String, Object> params) {
+	/**
+	 * PayloadRefs of the params of the requests matching the filter.
+	 */
+	private static List<String> PayloadRefs(SQLiteDatabase db, String requestFilter, String[] args) {
+		List<String> refs = new ArrayList<String>();
+		Cursor cursor = db.rawQuery("SELECT DISTINCT PayloadRef FROM PostParams WHERE PayloadRef IS NOT NULL AND PendingRequestID IN (SELECT ID FROM PendingRequests WHERE " + requestFilter + ")", args);
+		try {
+			while (cursor.moveToNext())
+				refs.add(cursor.getString(0));
+		} finally {
+			cursor.close();
+		}
+		return refs;
+	}
+
+	private static List<Long> QueuedIds(SQLiteDatabase db, String operationKey) {
+		List<Long> ids = new ArrayList<Long>();
+		Cursor cursor = db.rawQuery("SELECT ID FROM PendingRequests WHERE OperationKey = ? ORDER BY ID", new String[] { operationKey });
 		try {
-			int id = AppModel.Object.db.GetTableMaxID(TableType.PendingRequests, null) + 1;
+			while (cursor.moveToNext())
+				ids.add(cursor.getLong(0));
+		} finally {
+			cursor.close();
+		}
+		return ids;
+	}
 
+	/**
+	 * Keeps the request queued after a failed replay, it isn't tried again before nextAttemptAt.
+	 */
+	public void MarkFailed(int reqId, int attempts, long nextAttemptAt, String error) {
+		try {
 			ContentValues cv = new ContentValues();
-			cv.put("ID", id);
-			cv.put("Request", url);
-			cv.put("Timestamp", AppModel.SERVER_FORMAT.format(new Date()));
-			cv.put("IsGetRequest", false);
-			cv.put("Uploaded", false);
-			AppModel.Object.db.Insert(TableType.PendingRequests, cv);
-
-			for (String key : params.keySet()) {
-				cv = new ContentValues();
-				cv.put("ID", AppModel.Object.db.GetTableMaxID(TableType.PostParams, null) + 1);
-				cv.put("PendingRequestID", id);
-				cv.put("Param", key);
-				cv.put("Value", params.get(key).toString());
-				AppModel.Object.db.Insert(TableType.PostParams, cv);
-			}
+			cv.put("Attempts", attempts);
+			cv.put("NextAttemptAt", nextAttemptAt);
+			cv.put("LastError", Truncate(error));
+			AppModel.Object.db.Update(TableType.PendingRequests, cv, "ID = ?", new String[] { String.valueOf(reqId) });
 		} catch (Exception ex) {
-			AppModel.ApplicationError(ex, "PendingRequestsLoader::InsertPost");
+			AppModel.ApplicationError(ex, "PendingRequestsLoader::MarkFailed");
 		}
 	}
 
+	/**
+	 * Takes a request that won't be replayed anymore out of the queue and keeps it, with its
+	 * params as JSON and the last error, in DeadLetters.
+	 */
+	public void MoveToDeadLetters(final PendingRequestItem item, final int attempts, final String error) {
+		try {
+			LinkedHashMap<String, String> params = new LinkedHashMap<String, String>();
+			for (PostParamItem pi : item.Params)
+				// the payload file is kept as long as a dead letter mentions it
+				params.put(pi.Param, pi.PayloadRef != null ? "payload:" + pi.PayloadRef : pi.Value);
+
+			final ContentValues cv = new ContentValues();
+			cv.put("PendingRequestID", item.ID);
+			cv.put("Request", item.Request);
+			cv.put("Timestamp", item.Timestamp);
+			cv.put("IsGetRequest", item.IsGetRequest);
+			cv.put("Params", new Gson().toJson(params));
+			cv.put("Attempts", attempts);
+			cv.put("LastError", Truncate(error));
+			cv.put("FailedAt", AppModel.SERVER_FORMAT.format(new Date()));
+
+			final String[] args = new String[] { String.valueOf(item.ID) };
+			AppModel.Object.db.WriteTransaction("PendingRequestsLoader.MoveToDeadLetters", new IWriteTask<Void>() {
+				@Override
+				public Void Run(SQLiteDatabase db) {
+					db.insertOrThrow(TableType.DeadLetters.toString(), null, cv);
+					db.delete(TableType.PostParams.toString(), "PendingRequestID = ?", args);
+					db.delete(TableType.PendingRequests.toString(), "ID = ?", args);
+					return null;
+				}
+			});
+		} catch (Exception ex) {
+			AppModel.ApplicationError(ex, "PendingRequestsLoader::MoveToDeadLetters");
+		}
+	}
+
+	public int GetDeadLetterCount() {
+		return AppModel.Object.db.GetTableCount(TableType.DeadLetters, null);
+	}
+
+	private static String Truncate(String value) {
+		return value == null || value.length() <= MAX_ERROR_LENGTH ? value : value.substring(0, MAX_ERROR_LENGTH);
+	}
+
 	public void MarkUploaded(int reqId) {
 		try {
-			AppModel.Object.db.Delete(TableType.PendingRequests, "ID = " + reqId);
-			AppModel.Object.db.Delete(TableType.PostParams, "PendingRequestID = " + reqId);
+			final String[] args = new String[] { String.valueOf(reqId) };
+			List<String> payloadRefs = AppModel.Object.db.WriteTransaction("PendingRequestsLoader.MarkUploaded", new IWriteTask<List<String>>() {
+				@Override
+				public List<String> Run(SQLiteDatabase db) {
+					List<String> refs = PayloadRefs(db, "ID = ?", args);
+					db.delete(TableType.PostParams.toString(), "PendingRequestID = ?", args);
+					db.delete(TableType.PendingRequests.toString(), "ID = ?", args);
+					return refs;
+				}
+			});
+			PayloadStore.Release(payloadRefs);
 		} catch (Exception ex) {
 			AppModel.ApplicationError(ex, "PendingRequestsLoader::MarkUploaded");
 		}
@@ -0,0 +1,189 @@
+package common;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared, bounded executor for Communicator calls. Work is split into lanes so a burst of
+ * uploads or background logging can never starve the scan/delivery requests the driver is
+ * waiting on.
+ */
+public class RequestExecutor {
+
+    public enum Lane {
+        /** Scan, lookup, delivery and anything else the driver is actively waiting for */
+        Interactive(4, 128, Process.THREAD_PRIORITY_DEFAULT),
+        /** GPS, settings, SMS logging and other fire-and-forget traffic */
+        Background(2, 64, Process.THREAD_PRIORITY_BACKGROUND),
+        /**
+         * Offline queue replay (PendingReplayer), one worker per shipment lane. Kept below the
+         * pool's connections per route (Rest_HttpsFix), a replay pass never holds all of them.
+         */
+        Replay(2, 16, Process.THREAD_PRIORITY_BACKGROUND),
+        /** Picture/profile uploads and file downloads */
+        Bulk(2, 32, Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE);
+
+        final int maxThreads;
+        final int queueCapacity;
+        final int threadPriority;
+
+        Lane(int maxThreads, int queueCapacity, int threadPriority) {
+            this.maxThreads = maxThreads;
+            this.queueCapacity = queueCapacity;
+            this.threadPriority = threadPriority;
+        }
+    }
+
+    public static final String REJECTED_MSG = "Too many requests in progress, Please try again";
+
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+    private static final LaneExecutor[] executors = new LaneExecutor[Lane.values().length];
+
+    private static synchronized LaneExecutor Get(Lane lane) {
+        LaneExecutor executor = executors[lane.ordinal()];
+        if (executor == null) {
+            executor = new LaneExecutor(lane);
+            executors[lane.ordinal()] = executor;
+        }
+        return executor;
+    }
+
+    /**
+     * Queues the task on the given lane. When the lane is saturated the callback (if any) is
+     * completed with a failure instead of spawning more threads. If the callback is a
+     * {@link ServerFuture} it is linked to the queued task, so cancelling the future also
+     * drops/interrupts the request.
+     */
+    public static Future<?> Execute(Lane lane, Communicator.IServerResponse callback, Runnable task) {
+        try {
+            Future<?> future = Get(lane).submit(task);
+            if (callback instanceof ServerFuture)
+                ((ServerFuture) callback).Attach(future);
+            return future;
+        } catch (RejectedExecutionException ex) {
+            AppModel.ApplicationError(ex, "RequestExecutor::Execute " + lane.name());
+            if (callback != null)
+                callback.onCompleted(false, REJECTED_MSG);
+            return null;
+        }
+    }
+
+    public static Future<?> Execute(Lane lane, Runnable task) {
+        return Execute(lane, null, task);
+    }
+
+    public static int GetQueueDepth(Lane lane) {
+        return Get(lane).getQueue().size();
+    }
+
+    public static int GetPeakQueueDepth(Lane lane) {
+        return Get(lane).peakQueueDepth.get();
+    }
+
+    public static int GetActiveCount(Lane lane) {
+        return Get(lane).getActiveCount();
+    }
+
+    public static long GetCompletedCount(Lane lane) {
+        return Get(lane).getCompletedTaskCount();
+    }
+
+    public static long GetRejectedCount(Lane lane) {
+        return Get(lane).rejected.get();
+    }
+
+    public static long GetAverageWaitMillis(Lane lane) {
+        LaneExecutor executor = Get(lane);
+        long started = executor.started.get();
+        return started == 0 ? 0 : executor.totalWaitMillis.get() / started;
+    }
+
+    public static String GetSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Lane lane : Lane.values()) {
+            if (sb.length() > 0)
+                sb.append(" | ");
+            sb.append(String.format(Locale.US, "%s: active=%d queued=%d peak=%d completed=%d rejected=%d avgWait=%dms",
+                    lane.name(), GetActiveCount(lane), GetQueueDepth(lane), GetPeakQueueDepth(lane),
+                    GetCompletedCount(lane), GetRejectedCount(lane), GetAverageWaitMillis(lane)));
+        }
+        return sb.toString();
+    }
+
+    private static class LaneExecutor extends ThreadPoolExecutor {
+
+        final AtomicInteger peakQueueDepth = new AtomicInteger();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong started = new AtomicLong();
+        final AtomicLong totalWaitMillis = new AtomicLong();
+
+        LaneExecutor(final Lane lane) {
+            super(lane.maxThreads, lane.maxThreads, IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(lane.queueCapacity), new LaneThreadFactory(lane));
+            allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            final long queuedAt = System.currentTimeMillis();
+            final Runnable task = command;
+            try {
+                super.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.incrementAndGet();
+                        totalWaitMillis.addAndGet(System.currentTimeMillis() - queuedAt);
+                        task.run();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                rejected.incrementAndGet();
+                throw ex;
+            }
+
+            int depth = getQueue().size();
+            int peak = peakQueueDepth.get();
+            while (depth > peak && !peakQueueDepth.compareAndSet(peak, depth))
+                peak = peakQueueDepth.get();
+        }
+    }
+
+    private static class LaneThreadFactory implements ThreadFactory {
+
+        private final Lane lane;
+        private final AtomicInteger count = new AtomicInteger();
+
+        LaneThreadFactory(Lane lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(lane.threadPriority);
+                    r.run();
+                }
+            }, "Request-" + lane.name() + "-" + count.incrementAndGet());
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                    Log.e(RequestExecutor.class.getSimpleName(), "Uncaught error in " + t.getName(), e);
+                }
+            });
+            return thread;
+        }
+    }
+}
@@ -3,7 +3,9 @@ package common;
 import eu.trackify.net.R;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
@@ -13,10 +15,12 @@ import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -32,7 +36,23 @@ import https.Rest_HttpsFix;
 
 public class Rest {
 
-    private static volatile boolean isReAuthenticating = false;
+    private static final int SNIFF_LIMIT = 64;
+
+    /**
+     * Decodes a response body while it is being received, see {@link #GET(String, IResponseReader)}.
+     */
+    public interface IResponseReader<T> {
+        T Read(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * Raised while streaming when the server answered with an auth failure instead of data.
+     */
+    public static class UnauthorizedResponseException extends IOException {
+        public UnauthorizedResponseException() {
+            super("Unauthorized");
+        }
+    }
 
     private static HashMap<String, String> GetStaticHeaders() {
         HashMap<String, String> headers = new HashMap<String, String>();
@@ -41,74 +61,38 @@ public class Rest {
         return headers;
     }
 
+    /**
+     * Shared keep-alive client, do not shut its connection manager down after a call.
+     */
+    private static HttpClient GetHttpClient() {
+        TokenManager.RenewIfExpiring();
+        return Rest_HttpsFix.GetSharedHttpClient(AppModel.Object == null ? null : AppModel.Object.context);
+    }
+
     private static boolean isUnauthorizedResponse(String response) {
         if (response == null) return false;
         String lower = response.toLowerCase();
         return lower.contains("unauthorized") || lower.contains("\"authenticated\":\"false\"");
     }
 
-    private static synchronized boolean reAuthenticate() {
-        if (isReAuthenticating) return false;
-        isReAuthenticating = true;
-
-        try {
-            String username = AppModel.Object.GetVariable(AppModel.USER_KEY);
-            String storedPassword = AppModel.Object.GetVariable(AppModel.PASS_KEY);
-            String isEncrypted = AppModel.Object.GetVariable(AppModel.PASS_ENCRYPTED_KEY);
-
-            if (AppModel.IsNullOrEmpty(username) || AppModel.IsNullOrEmpty(storedPassword)) {
-                return false;
-            }
-
-            String password = null;
-            if ("true".equals(isEncrypted)) {
-                String deviceId = PasswordSecurityUtil.getDeviceId(AppModel.Object.context);
-                password = PasswordSecurityUtil.decryptFromStorage(storedPassword, deviceId);
-            } else {
-                password = storedPassword;
-            }
-
-            if (AppModel.IsNullOrEmpty(password)) {
-                return false;
-            }
-
-            // Perform synchronous login (we're already on a background thread)
-            String url = Communicator.URL + "/app_login_auth.php";
-            HashMap<String, Object> reqParams = new HashMap<String, Object>();
-            reqParams.put("user", username);
-            reqParams.put("pass", password);
-
-            // Use PostReq directly to avoid re-auth loop
-            String json = PostReqRaw(url, reqParams);
-            UserRef user = new Gson().fromJson(json, UserRef.class);
-
-            if (user != null && !AppModel.IsNullOrEmpty(user.authenticated)
-                    && user.authenticated.equalsIgnoreCase("true")) {
-                App.CurrentUser = user;
-                AppModel.Object.SaveVariable(AppModel.AUTH_TOKEN, user.auth_key);
-                AppModel.Object.SaveVariable(AppModel.USER_CACHE_KEY, new Gson().toJson(user));
-                return true;
-            }
-
-            return false;
-        } catch (Exception ex) {
-            AppModel.ApplicationError(ex, "Rest::reAuthenticate");
-            return false;
-        } finally {
-            isReAuthenticating = false;
-        }
+    /**
+     * @param usedKey auth_key the failed request was sent with
+     * @return true when the request should be replayed, see {@link TokenManager#Renew(String)}
+     */
+    private static boolean reAuthenticate(String usedKey) {
+        return TokenManager.Renew(usedKey);
     }
 
     /**
-     * Raw POST without re-auth logic, used by reAuthenticate() to avoid infinite loops.
+     * Raw POST without re-auth logic, used by the TokenManager login to avoid infinite loops.
      */
-    private static String PostReqRaw(String url, HashMap<String, Object> reqParams) throws Exception {
+    static String PostWithoutReAuth(String url, HashMap<String, Object> reqParams) throws Exception {
         List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(reqParams.size());
         for (String key : reqParams.keySet()) {
             nameValuePairs.add(new BasicNameValuePair(key, reqParams.get(key).toString()));
         }
 
-        HttpClient httpclient = Rest_HttpsFix.GetHttpsSupportedHttpClientV2();
+        HttpClient httpclient = GetHttpClient();
         HttpPost httppost = new HttpPost(url);
 
         InputStream inputStream = null;
@@ -132,21 +116,20 @@ public class Rest {
             } else
                 throw new Exception("Unexpected Error!");
         } catch (Exception ex) {
+            httppost.abort();
             throw ex;
-        } finally {
-            if (httpclient != null)
-                httpclient.getConnectionManager().shutdown();
         }
 
         return result;
     }
 
     public static String UploadFile(String url, HashMap<String, Object> reqParams, File file, final IUploadListener listener) throws Exception {
+        String authKey = TokenManager.CurrentKey();
         String jsonrtn = UploadFileRaw(url, reqParams, file, listener);
 
         // Check for unauthorized response and retry with re-auth
-        if (isUnauthorizedResponse(jsonrtn) && !isReAuthenticating) {
-            if (reAuthenticate()) {
+        if (isUnauthorizedResponse(jsonrtn)) {
+            if (reAuthenticate(authKey)) {
                 jsonrtn = UploadFileRaw(url, reqParams, file, listener);
             }
         }
@@ -162,12 +145,10 @@ public class Rest {
         Gson gson = new GsonBuilder().disableHtmlEscaping().create();
         String reqJson = gson.toJson(reqParams);
 
-        HttpClient httpclient = null;
+        HttpClient httpclient = GetHttpClient();
+        HttpPost httppost = new HttpPost(url);
         String jsonrtn = "";
         try {
-            httpclient = Rest_HttpsFix.GetHttpsSupportedHttpClientV2();
-
-            HttpPost httppost = new HttpPost(url);
 
             // Add Class Object
             httppost.addHeader("DataItem", reqJson);
@@ -183,18 +164,18 @@ public class Rest {
             HttpResponse response = httpclient.execute(httppost);
             jsonrtn = EntityUtils.toString(response.getEntity());
         } catch (Exception e) {
+            httppost.abort();
             throw e;
-        } finally {
-            if (httpclient != null)
-                httpclient.getConnectionManager().shutdown();
         }
 
         return jsonrtn;
     }
 
+    /**
+     * Form POST. Values may be {@link PayloadStore.Payload}s, those are streamed from their file.
+     */
     public static String Post(String url, HashMap<String, Object> reqParams) throws Exception {
-        Gson gson = new GsonBuilder().disableHtmlEscaping().create();
-        String reqJson = gson.toJson(reqParams);
+        String authKey = TokenManager.CurrentKey();
 
         int failedCounts = 0;
         String jsonrtn = "";
@@ -204,8 +185,8 @@ public class Rest {
                 break;
             } catch (HttpResponseException hre) {
                 // Handle HTTP 401 by re-authenticating
-                if (hre.getStatusCode() == 401 && !isReAuthenticating) {
-                    if (reAuthenticate()) {
+                if (hre.getStatusCode() == 401) {
+                    if (reAuthenticate(authKey)) {
                         jsonrtn = PostReq(url, reqParams);
                         break;
                     }
@@ -217,8 +198,8 @@ public class Rest {
         }
 
         // Check for unauthorized response in body and retry with re-auth
-        if (isUnauthorizedResponse(jsonrtn) && !isReAuthenticating) {
-            if (reAuthenticate()) {
+        if (isUnauthorizedResponse(jsonrtn)) {
+            if (reAuthenticate(authKey)) {
                 jsonrtn = PostReq(url, reqParams);
             }
         }
@@ -231,13 +212,19 @@ public class Rest {
     }
 
     private static String PostReq(String url, HashMap<String, Object> reqParams) throws Exception {
-        List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(reqParams.size());
-        for (String key : reqParams.keySet()) {
-            nameValuePairs.add(new BasicNameValuePair(key, reqParams.get(key).toString()));
+        HttpEntity entity;
+        if (StreamedFormEntity.IsNeeded(reqParams)) {
+            entity = new StreamedFormEntity(reqParams);
+        } else {
+            List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(reqParams.size());
+            for (String key : reqParams.keySet()) {
+                nameValuePairs.add(new BasicNameValuePair(key, reqParams.get(key).toString()));
+            }
+            entity = new UrlEncodedFormEntity(nameValuePairs);
         }
 
         // Create a new HttpClient and Post Header
-        HttpClient httpclient = Rest_HttpsFix.GetHttpsSupportedHttpClientV2();
+        HttpClient httpclient = GetHttpClient();
         HttpPost httppost = new HttpPost(url);
 
         InputStream inputStream = null;
@@ -249,7 +236,7 @@ public class Rest {
                 httppost.addHeader(hKey, GetStaticHeaders().get(hKey));
             }
 
-            httppost.setEntity(new UrlEncodedFormEntity(nameValuePairs));
+            httppost.setEntity(entity);
             // Execute HTTP Post Request
             HttpResponse httpResponse = httpclient.execute(httppost);
 
@@ -263,21 +250,20 @@ public class Rest {
             } else
                 throw new Exception("Unexpected Error!");
         } catch (Exception ex) {
+            httppost.abort();
             throw ex;
-        } finally {
-            if (httpclient != null)
-                httpclient.getConnectionManager().shutdown();
         }
 
         return result;
     }
 
     public static String GET(String url) {
+        String authKey = TokenManager.CurrentKey();
         String result = GETRaw(url);
 
         // Check for unauthorized response and retry with re-auth
-        if (isUnauthorizedResponse(result) && !isReAuthenticating) {
-            if (reAuthenticate()) {
+        if (isUnauthorizedResponse(result)) {
+            if (reAuthenticate(authKey)) {
                 result = GETRaw(url);
             }
         }
@@ -291,11 +277,12 @@ public class Rest {
 
         url = url.replace(" ", "%20").replace("\n", "%5Cn");
 
+        HttpGet httpGet = null;
         try {
 
             // create HttpClient
-            HttpClient httpclient = Rest_HttpsFix.GetHttpsSupportedHttpClientV2(); // new DefaultHttpClient();
-            HttpGet httpGet = new HttpGet(url);
+            HttpClient httpclient = GetHttpClient();
+            httpGet = new HttpGet(url);
 
             for (String hKey : GetStaticHeaders().keySet()) {
                 httpGet.addHeader(hKey, GetStaticHeaders().get(hKey));
@@ -312,23 +299,264 @@ public class Rest {
                 result = convertInputStreamToString(inputStream);
 
         } catch (Exception exp) {
+            if (httpGet != null)
+                httpGet.abort();
             exp.printStackTrace();
         }
 
         return result;
     }
 
+    /**
+     * Result of a conditional call, notModified means the server answered 304 and the value was
+     * produced from the locally stored body (see {@link HttpRevalidationCache}).
+     */
+    public static class Revalidated<T> {
+        public final T value;
+        public final boolean notModified;
+        private final String cacheKey;
+
+        Revalidated(T value, boolean notModified, String cacheKey) {
+            this.value = value;
+            this.notModified = notModified;
+            this.cacheKey = cacheKey;
+        }
+
+        /**
+         * Object the caller decoded from this same body earlier, only available on a 304.
+         */
+        public <D> D GetDecoded() {
+            return notModified && cacheKey != null ? HttpRevalidationCache.<D>GetDecoded(cacheKey) : null;
+        }
+
+        public void SetDecoded(Object decoded) {
+            if (cacheKey != null)
+                HttpRevalidationCache.SetDecoded(cacheKey, decoded);
+        }
+    }
+
+    private interface IBodyConsumer<T> {
+        T Consume(InputStream inputStream) throws Exception;
+    }
+
+    private static final IBodyConsumer<String> STRING_BODY = new IBodyConsumer<String>() {
+        @Override
+        public String Consume(InputStream inputStream) throws Exception {
+            return ReadLines(inputStream);
+        }
+    };
+
+    /**
+     * GET that hands the body to the reader as it arrives instead of buffering it into a String.
+     * Unlike {@link #GET(String)} failures are thrown; an auth failure (HTTP 401, a plain text
+     * "unauthorized" body or a reader raising {@link UnauthorizedResponseException}) triggers one
+     * re-authentication and retry.
+     */
+    public static <T> T GET(String url, IResponseReader<T> reader) throws Exception {
+        return GETRevalidated(url, reader, false).value;
+    }
+
+    /**
+     * Conditional {@link #GET(String, IResponseReader)}: sends the stored ETag/Last-Modified and
+     * on a 304 runs the reader over the stored body instead of the network.
+     */
+    public static <T> Revalidated<T> GETRevalidated(String url, IResponseReader<T> reader) throws Exception {
+        return GETRevalidated(url, reader, true);
+    }
+
+    private static <T> Revalidated<T> GETRevalidated(String url, final IResponseReader<T> reader, boolean revalidate) throws Exception {
+        url = url.replace(" ", "%20").replace("\n", "%5Cn");
+        String cacheKey = revalidate ? HttpRevalidationCache.Key("GET", url, null) : null;
+
+        return ExecuteWithReAuth(url, null, cacheKey, false, new IBodyConsumer<T>() {
+            @Override
+            public T Consume(InputStream inputStream) throws Exception {
+                inputStream = new BufferedInputStream(inputStream);
+                if (!StartsWithJson(inputStream)) {
+                    // Not JSON, typically a PHP notice or an auth failure rendered as text
+                    String text = ReadLines(inputStream);
+                    if (isUnauthorizedResponse(text))
+                        throw new UnauthorizedResponseException();
+                    throw new IOException("Unexpected response: " + (text.length() > 200 ? text.substring(0, 200) : text));
+                }
+
+                return reader.Read(new JsonReader(new InputStreamReader(inputStream, "UTF-8")));
+            }
+        });
+    }
+
+    /**
+     * Conditional {@link #GET(String)}. Unlike GET failures are thrown.
+     */
+    public static Revalidated<String> GETRevalidated(String url) throws Exception {
+        url = url.replace(" ", "%20").replace("\n", "%5Cn");
+        return ExecuteWithReAuth(url, null, HttpRevalidationCache.Key("GET", url, null), false, STRING_BODY);
+    }
+
+    /**
+     * {@link #GET(String)} for calls that must know whether they reached the server (offline queue
+     * replay): network failures are thrown instead of answering an empty string, and so is any
+     * status other than 200, as an HttpResponseException carrying the status.
+     */
+    public static String GETStrict(String url) throws Exception {
+        url = url.replace(" ", "%20").replace("\n", "%5Cn");
+        String result = ExecuteWithReAuth(url, null, null, true, STRING_BODY).value;
+        if (isUnauthorizedResponse(result))
+            throw new UnauthorizedResponseException();
+
+        boolean error = (!result.equals("[]") && result.replace("\"", "").length() > 1 && result.replace("\"", "").substring(0, 2).equals("E:"));
+        if (error)
+            throw new CustomServerException(result.replace("\"", "").substring(2));
+
+        return result;
+    }
+
+    /**
+     * Conditional {@link #Post(String, HashMap)}, for read-only POST endpoints. The params are
+     * part of the cache key.
+     */
+    public static Revalidated<String> PostRevalidated(String url, HashMap<String, Object> reqParams) throws Exception {
+        Revalidated<String> result = ExecuteWithReAuth(url, reqParams, HttpRevalidationCache.Key("POST", url, reqParams), true, STRING_BODY);
+
+        String jsonrtn = result.value;
+        boolean error = (!jsonrtn.equals("[]") && jsonrtn.replace("\"", "").length() > 1 && jsonrtn.replace("\"", "").substring(0, 2).equals("E:"));
+        if (error)
+            throw new CustomServerException(jsonrtn.replace("\"", "").substring(2));
+
+        return result;
+    }
+
+    private static <T> Revalidated<T> ExecuteWithReAuth(String url, HashMap<String, Object> postParams, String cacheKey, boolean requireOk, IBodyConsumer<T> consumer) throws Exception {
+        String authKey = TokenManager.CurrentKey();
+        Revalidated<T> result;
+        try {
+            result = Execute(url, postParams, cacheKey, requireOk, consumer);
+        } catch (UnauthorizedResponseException ure) {
+            if (reAuthenticate(authKey))
+                return Execute(url, postParams, cacheKey, requireOk, consumer);
+            throw ure;
+        }
+
+        if (result.value instanceof String && isUnauthorizedResponse((String) result.value)) {
+            // never answer later 304s with an auth failure
+            if (cacheKey != null)
+                HttpRevalidationCache.Remove(cacheKey);
+            if (reAuthenticate(authKey))
+                return Execute(url, postParams, cacheKey, requireOk, consumer);
+        }
+        return result;
+    }
+
+    /**
+     * Single request on the shared client. A GET when postParams is null, otherwise a form POST.
+     * With requireOk (always for POSTs, like PostReq) a non-200 status fails. With a cacheKey the
+     * request is made conditional and a 200 body carrying validators is stored while it is
+     * consumed.
+     */
+    private static <T> Revalidated<T> Execute(String url, HashMap<String, Object> postParams, String cacheKey, boolean requireOk, IBodyConsumer<T> consumer) throws Exception {
+        HttpClient httpclient = GetHttpClient();
+        HttpRequestBase request;
+        if (postParams == null) {
+            request = new HttpGet(url);
+        } else {
+            List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(postParams.size());
+            for (String key : postParams.keySet()) {
+                nameValuePairs.add(new BasicNameValuePair(key, postParams.get(key).toString()));
+            }
+            HttpPost httppost = new HttpPost(url);
+            httppost.setEntity(new UrlEncodedFormEntity(nameValuePairs));
+            request = httppost;
+        }
+
+        for (String hKey : GetStaticHeaders().keySet()) {
+            request.addHeader(hKey, GetStaticHeaders().get(hKey));
+        }
+
+        HttpRevalidationCache.Entry cached = cacheKey == null ? null : HttpRevalidationCache.Get(cacheKey);
+        if (cached != null)
+            cached.ApplyTo(request);
+
+        InputStream inputStream = null;
+        HttpRevalidationCache.Store store = null;
+        try {
+            HttpResponse httpResponse = httpclient.execute(request);
+            StatusLine sl = httpResponse.getStatusLine();
+            int status = sl == null ? HttpStatus.SC_OK : sl.getStatusCode();
+            if (status == HttpStatus.SC_UNAUTHORIZED)
+                throw new UnauthorizedResponseException();
+
+            if (status == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+                if (httpResponse.getEntity() != null)
+                    httpResponse.getEntity().consumeContent();
+                inputStream = cached.OpenBody();
+                T value = consumer.Consume(inputStream);
+                HttpRevalidationCache.RecordHit(url, cached.Length());
+                return new Revalidated<T>(value, true, cacheKey);
+            }
+
+            if (httpResponse.getEntity() == null || (inputStream = httpResponse.getEntity().getContent()) == null)
+                throw new Exception("Unexpected Error!");
+
+            if (cacheKey != null) {
+                HttpRevalidationCache.RecordMiss(url);
+                if (status == HttpStatus.SC_OK && (store = HttpRevalidationCache.BeginStore(cacheKey, httpResponse, inputStream)) != null)
+                    inputStream = store;
+            }
+
+            T value = consumer.Consume(inputStream);
+            if (requireOk && status != HttpStatus.SC_OK)
+                throw new HttpResponseException(status, String.valueOf(value));
+
+            if (store != null) {
+                store.Commit();
+                store = null;
+            }
+            return new Revalidated<T>(value, false, cacheKey);
+        } catch (Exception ex) {
+            request.abort();
+            throw ex;
+        } finally {
+            if (store != null)
+                store.Discard();
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static boolean StartsWithJson(InputStream inputStream) throws IOException {
+        inputStream.mark(SNIFF_LIMIT);
+        try {
+            for (int i = 0; i < SNIFF_LIMIT; i++) {
+                int c = inputStream.read();
+                if (c == -1)
+                    return false;
+                // skip whitespace and a UTF-8 BOM
+                if (Character.isWhitespace(c) || c == 0xEF || c == 0xBB || c == 0xBF)
+                    continue;
+                return c == '{' || c == '[';
+            }
+            return false;
+        } finally {
+            inputStream.reset();
+        }
+    }
+
     public static InputStream GET_Stream(String url) {
         InputStream inputStream = null;
         String result = "";
 
         url = url.replace(" ", "%20").replace("\n", "%5Cn");
 
+        HttpGet httpGet = null;
         try {
 
             // create HttpClient
-            HttpClient httpclient = Rest_HttpsFix.GetHttpsSupportedHttpClientV2(); // new DefaultHttpClient();
-            HttpGet httpGet = new HttpGet(url);
+            HttpClient httpclient = GetHttpClient();
+            httpGet = new HttpGet(url);
 
             for (String hKey : GetStaticHeaders().keySet()) {
                 httpGet.addHeader(hKey, GetStaticHeaders().get(hKey));
@@ -345,6 +573,8 @@ public class Rest {
                 return inputStream;
 
         } catch (Exception exp) {
+            if (httpGet != null)
+                httpGet.abort();
             exp.printStackTrace();
         }
 
@@ -352,15 +582,25 @@ public class Rest {
     }
 
     private static String convertInputStreamToString(InputStream inputStream) throws IOException {
+        try {
+            return ReadLines(inputStream);
+        } finally {
+            // Closing the content stream hands the connection back to the pool
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Joins the body's lines (line breaks dropped, as the endpoints have always been read) without
+     * closing the stream.
+     */
+    private static String ReadLines(InputStream inputStream) throws IOException {
         BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-        String line = "";
-        String result = "";
+        StringBuilder result = new StringBuilder();
+        String line;
         while ((line = bufferedReader.readLine()) != null)
-            result += line;
-
-        inputStream.close();
-        return result;
-
+            result.append(line);
+        return result.toString();
     }
 
     /**
@@ -371,12 +611,13 @@ public class Rest {
      * @return The server response
      */
     public static String PostJSON(String url, String jsonPayload, HashMap<String, String> customHeaders) throws Exception {
+        String authKey = TokenManager.CurrentKey();
         String result;
         try {
             result = PostJSONRaw(url, jsonPayload, customHeaders);
         } catch (HttpResponseException hre) {
-            if (hre.getStatusCode() == 401 && !isReAuthenticating) {
-                if (reAuthenticate()) {
+            if (hre.getStatusCode() == 401) {
+                if (reAuthenticate(authKey)) {
                     return PostJSONRaw(url, jsonPayload, customHeaders);
                 }
             }
@@ -384,8 +625,8 @@ public class Rest {
         }
 
         // Check for unauthorized response in body and retry with re-auth
-        if (isUnauthorizedResponse(result) && !isReAuthenticating) {
-            if (reAuthenticate()) {
+        if (isUnauthorizedResponse(result)) {
+            if (reAuthenticate(authKey)) {
                 result = PostJSONRaw(url, jsonPayload, customHeaders);
             }
         }
@@ -394,7 +635,7 @@ public class Rest {
     }
 
     private static String PostJSONRaw(String url, String jsonPayload, HashMap<String, String> customHeaders) throws Exception {
-        HttpClient httpclient = Rest_HttpsFix.GetHttpsSupportedHttpClientV2();
+        HttpClient httpclient = GetHttpClient();
         HttpPost httppost = new HttpPost(url);
 
         InputStream inputStream = null;
@@ -430,10 +671,8 @@ public class Rest {
                 throw new Exception("Unexpected Error!");
             }
         } catch (Exception ex) {
+            httppost.abort();
             throw ex;
-        } finally {
-            if (httpclient != null)
-                httpclient.getConnectionManager().shutdown();
         }
 
         return result;
@@ -54,7 +54,7 @@ public class ReturnReceivedCtrl extends LinearLayout {
     // Data
     private String scannedCode;
     private List<String> candidateCodes;
-    private int currentCandidateIndex;
+    private ServerFuture candidateLookup;
     private ShipmentWithDetail currentShipment;
 
     public ReturnReceivedCtrl(Context context) {
@@ -172,7 +172,7 @@ public class ReturnReceivedCtrl extends LinearLayout {
     /**
      * Show the return received screen and look up the scanned code.
      * Accepts raw barcode data - will parse GS1/ANSI barcodes to extract
-     * tracking number candidates and try them sequentially.
+     * tracking number candidates and look them up.
      */
     public void show(String rawBarcode) {
         this.scannedCode = rawBarcode;
@@ -180,7 +180,6 @@ public class ReturnReceivedCtrl extends LinearLayout {
 
         // Extract candidates from barcode (handles GS1/ANSI, URLs, plain codes)
         this.candidateCodes = BarcodeParser.extractCandidates(rawBarcode);
-        this.currentCandidateIndex = 0;
 
         // Show the best candidate in the UI
         String displayCode = candidateCodes.isEmpty() ? rawBarcode : candidateCodes.get(0);
@@ -189,9 +188,8 @@ public class ReturnReceivedCtrl extends LinearLayout {
 
         setVisibility(View.VISIBLE);
 
-        // Try the first candidate
         AppModel.ApplicationError(null, "RETURN_RECEIVED: " + candidateCodes.size() + " candidates from barcode");
-        tryNextCandidate();
+        lookupCandidates();
     }
 
     /**
@@ -199,26 +197,53 @@ public class ReturnReceivedCtrl extends LinearLayout {
      */
     public void hide() {
         setVisibility(View.GONE);
+        cancelLookup();
         this.scannedCode = null;
         this.candidateCodes = null;
         this.currentShipment = null;
     }
 
     /**
-     * Try the next candidate tracking number against the backend.
+     * Look up the candidates against the backend, several at once (see CandidateLookupRacer).
+     * The first candidate that resolves to a shipment wins.
      */
-    private void tryNextCandidate() {
-        if (candidateCodes == null || currentCandidateIndex >= candidateCodes.size()) {
-            showError(getContext().getString(R.string.return_received_not_found));
-            return;
-        }
+    private void lookupCandidates() {
+        cancelLookup();
 
-        String candidate = candidateCodes.get(currentCandidateIndex);
-        AppModel.ApplicationError(null, "RETURN_RECEIVED: Trying candidate " +
-            (currentCandidateIndex + 1) + "/" + candidateCodes.size() + ": " + candidate);
-        tvScannedCode.setText(candidate);
+        final ServerFuture lookup = CandidateLookupRacer.Race(candidateCodes);
+        candidateLookup = lookup;
+        lookup.OnMainThread(new IServerResponse() {
+            @Override
+            public void onCompleted(final boolean success, final String messageToShow, final Object... objs) {
+                // superseded by a rescan or closed
+                if (candidateLookup != lookup || lookup.IsCancelled())
+                    return;
+                candidateLookup = null;
+
+                if (success && objs != null && objs.length > 1) {
+                    AppModel.ApplicationError(null, "RETURN_RECEIVED: Candidate matched: " + objs[1]);
+                    tvScannedCode.setText((String) objs[1]);
+                    currentShipment = (ShipmentWithDetail) objs[0];
+                    populateShipmentDetails();
+                    showShipmentDetails();
+                } else {
+                    String errorMsg = messageToShow != null ? messageToShow :
+                        getContext().getString(R.string.return_received_not_found);
+                    showError(errorMsg);
+                }
+            }
+        });
+    }
 
-        lookupShipment(candidate);
+    /**
+     * Cancel completes the lookup inline on the UI thread, the field is cleared first so its
+     * listener sees it was superseded instead of showing the cancellation as an error.
+     */
+    private void cancelLookup() {
+        ServerFuture lookup = candidateLookup;
+        candidateLookup = null;
+        if (lookup != null)
+            lookup.Cancel();
     }
 
     private void showLoading() {
@@ -249,34 +274,6 @@ public class ReturnReceivedCtrl extends LinearLayout {
         llActionButtons.setVisibility(View.VISIBLE);
     }
 
-    private void lookupShipment(String courierTracking) {
-        Communicator.LookupShipmentByCourierTracking(courierTracking, new IServerResponse() {
-            @Override
-            public void onCompleted(final boolean success, final String messageToShow, final Object... objs) {
-                App.Object.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (success && objs != null && objs.length > 0) {
-                            currentShipment = (ShipmentWithDetail) objs[0];
-                            populateShipmentDetails();
-                            showShipmentDetails();
-                        } else {
-                            // Try next candidate if available
-                            currentCandidateIndex++;
-                            if (candidateCodes != null && currentCandidateIndex < candidateCodes.size()) {
-                                tryNextCandidate();
-                            } else {
-                                String errorMsg = messageToShow != null ? messageToShow :
-                                    getContext().getString(R.string.return_received_not_found);
-                                showError(errorMsg);
-                            }
-                        }
-                    }
-                });
-            }
-        });
-    }
-
     private void populateShipmentDetails() {
         if (currentShipment == null) return;
 
@@ -9,8 +9,10 @@ import java.io.DataOutputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -18,6 +20,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import common.UserDistributorShipmentsFragment.ShipmentsType;
+
 public class SMSQueueManager {
     private static SMSQueueManager instance;
     private final Context context;
@@ -344,24 +348,14 @@ public class SMSQueueManager {
         
         private boolean shouldSendSMS(SMSHelper.SMSData smsData) {
             try {
-                // Check current shipment status from cache or server
-                String cachedData = AppModel.Object.GetVariable(AppModel.MY_SHIPMENTS_CACHE_KEY);
-                if (!AppModel.IsNullOrEmpty(cachedData)) {
-                    ShipmentResponse cached = new Gson().fromJson(cachedData, ShipmentResponse.class);
-                    if (cached != null && cached.shipments != null) {
-                        for (ShipmentWithDetail s : cached.shipments) {
-                            if (s.tracking_id != null && s.tracking_id.equalsIgnoreCase(smsData.trackingId)) {
-                                // Check if status is still "In Delivery" (status_id = 1)
-                                // Status 2 = Delivered, Status 3 = Rejected, etc.
-                                if (s.status_id != 1) {
-                                    AppModel.ApplicationError(null, "SMS Queue: Shipment " + smsData.trackingId + 
-                                        " has status " + s.status_id + " (not in delivery), skipping SMS");
-                                    return false;
-                                }
-                                break;
-                            }
-                        }
-                    }
+                // Check current shipment status in the stored list
+                ShipmentWithDetail s = ShipmentStore.FindByTrackingId(ShipmentsType.MyShipments, smsData.trackingId);
+                // Check if status is still "In Delivery" (status_id = 1)
+                // Status 2 = Delivered, Status 3 = Rejected, etc.
+                if (s != null && s.status_id != 1) {
+                    AppModel.ApplicationError(null, "SMS Queue: Shipment " + smsData.trackingId + 
+                        " has status " + s.status_id + " (not in delivery), skipping SMS");
+                    return false;
                 }
                 
                 // Default to sending if we can't verify status (to avoid blocking)
@@ -497,31 +491,23 @@ public class SMSQueueManager {
     // Clean up queue by removing delivered/cancelled shipments
     public void cleanupDeliveredShipments() {
         try {
-            String cachedData = AppModel.Object.GetVariable(AppModel.MY_SHIPMENTS_CACHE_KEY);
-            if (AppModel.IsNullOrEmpty(cachedData)) {
-                return;
-            }
-            
-            ShipmentResponse cached = new Gson().fromJson(cachedData, ShipmentResponse.class);
-            if (cached == null || cached.shipments == null) {
-                return;
-            }
-            
             synchronized (smsQueue) {
                 List<SMSHelper.SMSData> toRemove = new ArrayList<>();
                 
+                // One indexed lookup for the whole queue
+                List<String> trackingIds = new ArrayList<>();
                 for (SMSHelper.SMSData smsData : smsQueue) {
-                    for (ShipmentWithDetail shipment : cached.shipments) {
-                        if (shipment.tracking_id != null && 
-                            shipment.tracking_id.equalsIgnoreCase(smsData.trackingId)) {
-                            // Remove if not "In Delivery" (status_id != 1)
-                            if (shipment.status_id != 1) {
-                                toRemove.add(smsData);
-                                AppModel.ApplicationError(null, "SMS Queue Cleanup: Removing " + 
-                                    smsData.trackingId + " (status: " + shipment.status_id + ")");
-                            }
-                            break;
-                        }
+                    trackingIds.add(smsData.trackingId);
+                }
+                HashMap<String, Integer> statuses = ShipmentStore.GetStatuses(ShipmentsType.MyShipments, trackingIds);
+                
+                for (SMSHelper.SMSData smsData : smsQueue) {
+                    Integer statusId = smsData.trackingId == null ? null : statuses.get(smsData.trackingId.toUpperCase(Locale.US));
+                    // Remove if not "In Delivery" (status_id != 1)
+                    if (statusId != null && statusId != 1) {
+                        toRemove.add(smsData);
+                        AppModel.ApplicationError(null, "SMS Queue Cleanup: Removing " + 
+                            smsData.trackingId + " (status: " + statusId + ")");
                     }
                 }
                 
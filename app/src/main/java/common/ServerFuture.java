@@ -0,0 +1,266 @@
+package common;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Composable result of a Communicator call. It is itself an {@link Communicator.IServerResponse},
+ * so it can be handed to any existing callback based method, and it completes exactly once.
+ * <p>
+ * Failures short-circuit {@link #Then}; use {@link #WhenComplete} to observe both outcomes.
+ * <pre>
+ * Communicator.LookupShipmentByCourierTracking(code)
+ *         .Then(r -> Communicator.MarkReturnReceived(((ShipmentWithDetail) r.Get(0)).tracking_id, code))
+ *         .OnMainThread(callback);
+ * </pre>
+ */
+public class ServerFuture implements Communicator.IServerResponse {
+
+    public interface IContinuation {
+        ServerFuture Then(Result result);
+    }
+
+    public static class Result {
+        public final boolean success;
+        public final String messageToShow;
+        public final Object[] objs;
+
+        Result(boolean success, String messageToShow, Object[] objs) {
+            this.success = success;
+            this.messageToShow = messageToShow;
+            this.objs = objs == null ? new Object[0] : objs;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T Get(int index) {
+            return index < objs.length ? (T) objs[index] : null;
+        }
+    }
+
+    public static final String CANCELLED_MSG = "Cancelled";
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Communicator.IServerResponse> listeners = new ArrayList<>();
+    private volatile Result result;
+    private volatile Future<?> task;
+
+    public static ServerFuture Completed(boolean success, String messageToShow, Object... objs) {
+        ServerFuture future = new ServerFuture();
+        future.onCompleted(success, messageToShow, objs);
+        return future;
+    }
+
+    @Override
+    public void onCompleted(boolean success, String messageToShow, Object... objs) {
+        List<Communicator.IServerResponse> toNotify;
+        synchronized (this) {
+            if (result != null)
+                return;
+            result = new Result(success, messageToShow, objs);
+            toNotify = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        done.countDown();
+
+        for (Communicator.IServerResponse listener : toNotify)
+            Notify(listener, result);
+    }
+
+    void Attach(Future<?> task) {
+        this.task = task;
+        if (result != null && CANCELLED_MSG.equals(result.messageToShow) && !result.success)
+            task.cancel(true);
+    }
+
+    public boolean IsDone() {
+        return result != null;
+    }
+
+    public boolean IsCancelled() {
+        Result r = result;
+        return r != null && !r.success && CANCELLED_MSG.equals(r.messageToShow);
+    }
+
+    /**
+     * Completes the future as failed and drops (or interrupts) the queued request. Listeners
+     * are notified with {@link #CANCELLED_MSG}; a late server answer is ignored.
+     */
+    public boolean Cancel() {
+        if (IsDone())
+            return false;
+
+        onCompleted(false, CANCELLED_MSG);
+        Future<?> t = task;
+        if (t != null)
+            t.cancel(true);
+        return true;
+    }
+
+    /**
+     * Blocks the calling (background) thread until the call completes. Never call it on the
+     * UI thread.
+     */
+    public Result Get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!done.await(timeout, unit))
+            throw new TimeoutException();
+        return result;
+    }
+
+    /**
+     * Invokes the listener on the completing thread, or immediately when already complete.
+     */
+    public ServerFuture WhenComplete(Communicator.IServerResponse listener) {
+        Result r;
+        synchronized (this) {
+            r = result;
+            if (r == null) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        Notify(listener, r);
+        return this;
+    }
+
+    /**
+     * Same as {@link #WhenComplete} but delivered on the main thread, for UI callbacks.
+     */
+    public ServerFuture OnMainThread(final Communicator.IServerResponse listener) {
+        return WhenComplete(new Communicator.IServerResponse() {
+            @Override
+            public void onCompleted(final boolean success, final String messageToShow, final Object... objs) {
+                if (Looper.myLooper() == Looper.getMainLooper()) {
+                    listener.onCompleted(success, messageToShow, objs);
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCompleted(success, messageToShow, objs);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Chains a dependent call. It only runs when this call succeeded; a failure is passed
+     * through unchanged. Cancelling the returned future also cancels the pending step.
+     */
+    public ServerFuture Then(final IContinuation next) {
+        final ServerFuture chained = new ServerFuture();
+        chained.PropagateCancel(this);
+        WhenComplete(new Communicator.IServerResponse() {
+            @Override
+            public void onCompleted(boolean success, String messageToShow, Object... objs) {
+                if (!success || chained.IsDone()) {
+                    chained.onCompleted(false, messageToShow, objs);
+                    return;
+                }
+                try {
+                    ServerFuture step = next.Then(ServerFuture.this.result);
+                    if (step == null)
+                        chained.onCompleted(true, messageToShow, objs);
+                    else {
+                        chained.PropagateCancel(step);
+                        step.WhenComplete(chained);
+                    }
+                } catch (Exception ex) {
+                    AppModel.ApplicationError(ex, "ServerFuture::Then");
+                    chained.onCompleted(false, "Something went wrong, Please try again");
+                }
+            }
+        });
+        return chained;
+    }
+
+    private void PropagateCancel(final ServerFuture upstream) {
+        WhenComplete(new Communicator.IServerResponse() {
+            @Override
+            public void onCompleted(boolean success, String messageToShow, Object... objs) {
+                if (IsCancelled())
+                    upstream.Cancel();
+            }
+        });
+    }
+
+    /**
+     * Succeeds when every call succeeded; objs holds each call's {@link Result} in order.
+     * Fails fast with the first failure's message.
+     */
+    public static ServerFuture AllOf(final ServerFuture... futures) {
+        final ServerFuture all = new ServerFuture();
+        if (futures.length == 0) {
+            all.onCompleted(true, null);
+            return all;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(futures.length);
+        for (final ServerFuture future : futures) {
+            future.WhenComplete(new Communicator.IServerResponse() {
+                @Override
+                public void onCompleted(boolean success, String messageToShow, Object... objs) {
+                    if (!success) {
+                        all.onCompleted(false, messageToShow, objs);
+                        return;
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        Object[] results = new Object[futures.length];
+                        for (int i = 0; i < futures.length; i++)
+                            results[i] = futures[i].result;
+                        all.onCompleted(true, null, results);
+                    }
+                }
+            });
+        }
+        return all;
+    }
+
+    /**
+     * Completes with the first successful call and cancels the others. Fails only when all of
+     * them failed, with the last failure's message.
+     */
+    public static ServerFuture AnyOf(final ServerFuture... futures) {
+        final ServerFuture any = new ServerFuture();
+        if (futures.length == 0) {
+            any.onCompleted(false, null);
+            return any;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(futures.length);
+        for (final ServerFuture future : futures) {
+            future.WhenComplete(new Communicator.IServerResponse() {
+                @Override
+                public void onCompleted(boolean success, String messageToShow, Object... objs) {
+                    if (success) {
+                        any.onCompleted(true, messageToShow, objs);
+                        for (ServerFuture other : futures)
+                            if (other != future)
+                                other.Cancel();
+                    } else if (remaining.decrementAndGet() == 0) {
+                        any.onCompleted(false, messageToShow, objs);
+                    }
+                }
+            });
+        }
+        return any;
+    }
+
+    private static void Notify(Communicator.IServerResponse listener, Result r) {
+        try {
+            listener.onCompleted(r.success, r.messageToShow, r.objs);
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "ServerFuture::Notify");
+        }
+    }
+}
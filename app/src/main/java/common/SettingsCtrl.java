@@ -96,6 +96,9 @@ public class SettingsCtrl extends LinearLayout {
             // Setup Language Selector
             setupLanguageSelector();
 
+            // Setup saved lists mode
+            setupSavedLists();
+
             // Load saved printer preference
             boolean printerEnabled = prefs.getBoolean("printer_enabled", false);
             switchPrinter.setChecked(printerEnabled);
@@ -589,6 +592,24 @@ public class SettingsCtrl extends LinearLayout {
         }
     }
 
+    /**
+     * Setup the "show saved lists first" switch, see ListFreshness
+     */
+    private void setupSavedLists() {
+        Switch switchSavedLists = (Switch) findViewById(R.id.switch_saved_lists);
+        if (switchSavedLists == null) {
+            return;
+        }
+
+        switchSavedLists.setChecked(ListFreshness.IsEnabled());
+        switchSavedLists.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                ListFreshness.SetEnabled(isChecked);
+            }
+        });
+    }
+
     /**
      * Setup SMS Reply Monitoring controls
      */
@@ -0,0 +1,196 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Applies a delta sync answer to a fragment's ITEMS in place: removed shipments are dropped,
+ * changed ones are swapped at their current position (so the driver's order is kept) and added
+ * ones are appended. Everything is keyed by shipment_id, one pass over the list.
+ */
+public class ShipmentDelta {
+
+    /**
+     * @return true when ITEMS changed
+     */
+    public static boolean Apply(List<ShipmentWithDetail> items, ShipmentResponse delta) {
+        boolean modified = false;
+
+        HashSet<String> removed = new HashSet<String>();
+        if (delta.removed != null)
+            removed.addAll(delta.removed);
+
+        // Single compaction pass, also drops offline placeholders (no shipment_id) which the
+        // server state now supersedes, same as a full reload would. A local delta keeps them,
+        // they haven't been synced yet.
+        int write = 0;
+        for (int read = 0; read < items.size(); read++) {
+            ShipmentWithDetail sd = items.get(read);
+            if (sd.shipment_id == null ? !delta.local : removed.contains(sd.shipment_id)) {
+                modified = true;
+                continue;
+            }
+            items.set(write++, sd);
+        }
+        while (items.size() > write)
+            items.remove(items.size() - 1);
+
+        HashMap<String, Integer> index = new HashMap<String, Integer>(items.size() * 2);
+        for (int i = 0; i < items.size(); i++)
+            if (items.get(i).shipment_id != null)
+                index.put(items.get(i).shipment_id, i);
+
+        modified |= Upsert(items, index, delta.changed);
+        modified |= Upsert(items, index, delta.added);
+        return modified;
+    }
+
+    private static boolean Upsert(List<ShipmentWithDetail> items, HashMap<String, Integer> index, List<ShipmentWithDetail> incoming) {
+        if (incoming == null || incoming.size() == 0)
+            return false;
+
+        for (ShipmentWithDetail sd : incoming) {
+            // notes and pictures are generated by ShipmentListLoader, local deltas carry loaded rows
+            if (sd == null || sd.shipment_id == null)
+                continue;
+
+            Integer position = index.get(sd.shipment_id);
+            if (position != null) {
+                items.set(position, sd);
+            } else {
+                index.put(sd.shipment_id, items.size());
+                items.add(sd);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The delta that turns ITEMS into a full answer, so a list already on screen only gets the
+     * shipments that differ: new ids are added, missing ones removed and ones whose content
+     * changed (compared field by field, notes and pictures included) are changed. Offline
+     * placeholders are dropped by Apply as the full answer would.
+     * <p>
+     * Runs on the loader's thread, items is a copy of what was on screen when the load started.
+     */
+    public static ShipmentResponse Diff(List<ShipmentWithDetail> items, ShipmentResponse full) {
+        ShipmentResponse delta = new ShipmentResponse();
+        delta.delta = true;
+        delta.sync_token = full.sync_token;
+        delta.settings = full.settings;
+        delta.cod_to_reconcile = full.cod_to_reconcile;
+        delta.added = new ArrayList<ShipmentWithDetail>();
+        delta.changed = new ArrayList<ShipmentWithDetail>();
+        delta.removed = new ArrayList<String>();
+
+        HashMap<String, ShipmentWithDetail> current = new HashMap<String, ShipmentWithDetail>(items.size() * 2);
+        for (ShipmentWithDetail sd : items)
+            if (sd.shipment_id != null)
+                current.put(sd.shipment_id, sd);
+
+        HashSet<String> kept = new HashSet<String>();
+        if (full.shipments != null) {
+            for (ShipmentWithDetail sd : full.shipments) {
+                if (sd == null || sd.shipment_id == null)
+                    continue;
+                kept.add(sd.shipment_id);
+                ShipmentWithDetail shown = current.get(sd.shipment_id);
+                if (shown == null)
+                    delta.added.add(sd);
+                else if (!Same(shown, sd))
+                    delta.changed.add(sd);
+            }
+        }
+        for (String id : current.keySet())
+            if (!kept.contains(id))
+                delta.removed.add(id);
+        return delta;
+    }
+
+    /**
+     * Whether two shipments have the same content, every field the server sends.
+     */
+    static boolean Same(ShipmentWithDetail a, ShipmentWithDetail b) {
+        return a.status_id == b.status_id && a.is_urgent == b.is_urgent && a.pin_verification == b.pin_verification
+                && a.hasPendingSync == b.hasPendingSync
+                && Eq(a.shipment_id, b.shipment_id) && Eq(a.status_name, b.status_name)
+                && Eq(a.description, b.description) && Eq(a.description_title, b.description_title)
+                && Eq(a.receiver_cod, b.receiver_cod) && Eq(a.sender_phone, b.sender_phone)
+                && Eq(a.receiver_address, b.receiver_address) && Eq(a.receiver_city, b.receiver_city)
+                && Eq(a.sender_name, b.sender_name) && Eq(a.sender_address, b.sender_address)
+                && Eq(a.tracking_id, b.tracking_id) && Eq(a.exchange_tracking_id, b.exchange_tracking_id)
+                && Eq(a.client_id, b.client_id) && Eq(a.receiver_phone, b.receiver_phone)
+                && Eq(a.receiver_name, b.receiver_name) && Eq(a.receiver_country_id, b.receiver_country_id)
+                && Eq(a.instructions, b.instructions) && Eq(a.lat, b.lat) && Eq(a.lon, b.lon)
+                && Eq(a.sms_text, b.sms_text) && Eq(a.bg_color, b.bg_color) && Eq(a.txt_color, b.txt_color)
+                && SameNotes(a.notes, b.notes) && SamePictures(a.images, b.images)
+                && SameReturn(a.returnShipment, b.returnShipment);
+    }
+
+    private static boolean SameNotes(NoteItem[] a, NoteItem[] b) {
+        if (a == null || b == null)
+            return a == b;
+        if (a.length != b.length)
+            return false;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == null || b[i] == null) {
+                if (a[i] != b[i])
+                    return false;
+                continue;
+            }
+            if (!Eq(a[i].comment_id, b[i].comment_id) || !Eq(a[i].comment_timestamp, b[i].comment_timestamp)
+                    || !Eq(a[i].driver_name, b[i].driver_name) || !Eq(a[i].user_id, b[i].user_id)
+                    || !Eq(a[i].shipment_id, b[i].shipment_id) || !Eq(a[i].comment, b[i].comment))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean SamePictures(PictureItem[] a, PictureItem[] b) {
+        if (a == null || b == null)
+            return a == b;
+        if (a.length != b.length)
+            return false;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == null || b[i] == null) {
+                if (a[i] != b[i])
+                    return false;
+                continue;
+            }
+            if (!Eq(a[i].image_id, b[i].image_id) || !Eq(a[i].description, b[i].description)
+                    || !Eq(a[i].date, b[i].date) || !Eq(a[i].time, b[i].time) || !Eq(a[i].url, b[i].url))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean SameReturn(ReturnShipment a, ReturnShipment b) {
+        if (a == null || b == null)
+            return a == b;
+        return Eq(a.tracking_id, b.tracking_id) && Eq(a.cod, b.cod) && Eq(a.special_instructions, b.special_instructions)
+                && Eq(a.sender_name, b.sender_name) && Eq(a.sender_address, b.sender_address)
+                && Eq(a.sender_city, b.sender_city) && Eq(a.sender_phone, b.sender_phone)
+                && Eq(a.receiver_name, b.receiver_name) && Eq(a.receiver_address, b.receiver_address)
+                && Eq(a.receiver_city, b.receiver_city) && Eq(a.receiver_phone, b.receiver_phone);
+    }
+
+    private static boolean Eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Returns the shipment with the same id from the merged list, so a selected row keeps
+     * pointing at current data; null when it was removed.
+     */
+    public static ShipmentWithDetail Find(List<ShipmentWithDetail> items, ShipmentWithDetail selected) {
+        if (selected == null || selected.shipment_id == null)
+            return null;
+
+        for (ShipmentWithDetail sd : items)
+            if (selected.shipment_id.equals(sd.shipment_id))
+                return sd;
+        return null;
+    }
+}
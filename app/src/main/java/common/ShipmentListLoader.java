@@ -0,0 +1,165 @@
+package common;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Communicator.IServerResponse;
+import common.UserDistributorShipmentsFragment.ShipmentsType;
+
+/**
+ * Single-flight loading of the driver lists, one flight per {@link ShipmentsType}.
+ * <p>
+ * A list reload is requested from many places at once (SyncThread replay, DataSyncWorker,
+ * scheduled sync, SubmitRequest callbacks, delivery, pull-to-refresh). Callers that arrive while
+ * a request is still queued join it and all get its result. Callers that arrive once the request
+ * is already on the wire may be reacting to a change the server hasn't included, so they are
+ * collapsed into at most one follow-up request, started when the current one completes.
+ * Responses for one type are therefore never delivered out of order.
+ * <p>
+ * A delta is only valid against the token it was asked with. The follow-up keeps its callers'
+ * token when they all passed the same one and asks for the full list otherwise. It is not moved
+ * on to the current answer's token, its callers never received that answer.
+ */
+public class ShipmentListLoader {
+
+    private static class Flight {
+        final List<IServerResponse> callbacks = new ArrayList<IServerResponse>();
+        String syncToken;
+        boolean sent;
+
+        Flight(String syncToken) {
+            this.syncToken = syncToken;
+        }
+    }
+
+    private static class State {
+        Flight current;
+        Flight next;
+    }
+
+    private static final EnumMap<ShipmentsType, State> states = new EnumMap<ShipmentsType, State>(ShipmentsType.class);
+
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong joined = new AtomicLong();
+    private static final AtomicLong collapsed = new AtomicLong();
+
+    /**
+     * Same contract as {@link Communicator#LoadShipmentsWithDetails(ShipmentsType, String, IServerResponse)},
+     * the callback may receive a response shared with other callers. Its notes and pictures are
+     * already generated, once for all of them.
+     */
+    public static void Load(ShipmentsType type, String syncToken, IServerResponse callback) {
+        Flight start = null;
+        synchronized (states) {
+            State state = states.get(type);
+            if (state == null) {
+                state = new State();
+                states.put(type, state);
+            }
+
+            if (state.current == null) {
+                state.current = start = new Flight(syncToken);
+            } else if (!state.current.sent && Same(state.current.syncToken, syncToken)) {
+                joined.incrementAndGet();
+            } else {
+                if (state.next == null) {
+                    state.next = new Flight(syncToken);
+                } else {
+                    collapsed.incrementAndGet();
+                    // callers holding different lists, or none, all get the full list
+                    if (!Same(state.next.syncToken, syncToken))
+                        state.next.syncToken = null;
+                }
+                state.next.callbacks.add(callback);
+                return;
+            }
+            state.current.callbacks.add(callback);
+        }
+
+        if (start != null)
+            Start(type, start);
+    }
+
+    private static void Start(final ShipmentsType type, final Flight flight) {
+        requests.incrementAndGet();
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, new IServerResponse() {
+            @Override
+            public void onCompleted(boolean success, String messageToShow, Object... objs) {
+                // only reached when the lane rejected the request
+                Complete(type, flight, success, messageToShow, objs);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                String token;
+                synchronized (states) {
+                    flight.sent = true;
+                    token = flight.syncToken;
+                }
+
+                try {
+                    Object response = Communicator.FetchShipmentsWithDetails(type, token);
+                    if (response instanceof ShipmentError) {
+                        Complete(type, flight, false, ((ShipmentError) response).response_txt);
+                    } else {
+                        if (response instanceof ShipmentResponse)
+                            ((ShipmentResponse) response).GenerateDetails();
+                        Complete(type, flight, true, null, response);
+                    }
+                } catch (Exception ex) {
+                    Complete(type, flight, false, "Something went wrong, Please try again");
+                    AppModel.ApplicationError(ex, "Communicator::LoadShipmentsWithDetails");
+                }
+            }
+        });
+    }
+
+    private static void Complete(ShipmentsType type, Flight flight, boolean success, String messageToShow, Object... objs) {
+        Flight next;
+        synchronized (states) {
+            State state = states.get(type);
+            next = state.next;
+            state.next = null;
+            state.current = next;
+        }
+
+        for (IServerResponse callback : flight.callbacks) {
+            try {
+                callback.onCompleted(success, messageToShow, objs);
+            } catch (Exception ex) {
+                AppModel.ApplicationError(ex, "ShipmentListLoader::Complete");
+            }
+        }
+
+        if (next != null)
+            Start(type, next);
+    }
+
+    private static boolean Same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public static long GetRequestCount() {
+        return requests.get();
+    }
+
+    public static long GetJoinedCount() {
+        return joined.get();
+    }
+
+    public static long GetCollapsedCount() {
+        return collapsed.get();
+    }
+
+    public static String GetSummary() {
+        String summary = String.format(Locale.US, "list loads: requests=%d joined=%d collapsed=%d",
+                requests.get(), joined.get(), collapsed.get());
+        Log.d(ShipmentListLoader.class.getSimpleName(), summary);
+        return summary;
+    }
+}
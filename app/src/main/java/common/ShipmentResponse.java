@@ -7,4 +7,45 @@ public class ShipmentResponse {
 	public AppSetting settings;
 	public List<ShipmentWithDetail> shipments;
 	public double cod_to_reconcile;
+
+	// Delta sync, see DELTA_SYNC_BACKEND_IMPLEMENTATION.md
+	public String sync_token;
+	public boolean delta;
+	public List<ShipmentWithDetail> added;
+	public List<ShipmentWithDetail> changed;
+	public List<String> removed;
+
+	// Set on deltas built on the device (ShipmentStatePatcher), never sent by the server
+	public transient boolean local;
+
+	// When a stored list (ShipmentStore, ShipmentSnapshot) was last loaded from the server, 0 when unknown
+	public transient long saved_at;
+
+	public boolean IsDelta() {
+		return delta;
+	}
+
+	/**
+	 * Fills _Notes and _Images of every shipment in the answer.
+	 */
+	public void GenerateDetails() {
+		GenerateDetails(shipments);
+		GenerateDetails(added);
+		GenerateDetails(changed);
+	}
+
+	private static void GenerateDetails(List<ShipmentWithDetail> list) {
+		if (list == null)
+			return;
+		for (ShipmentWithDetail sd : list) {
+			if (sd == null)
+				continue;
+			sd.GenerateNotes();
+			sd.GeneratePictures();
+		}
+	}
+
+	public boolean HasChanges() {
+		return (added != null && added.size() > 0) || (changed != null && changed.size() > 0) || (removed != null && removed.size() > 0);
+	}
 }
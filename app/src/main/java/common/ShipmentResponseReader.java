@@ -0,0 +1,143 @@
+package common;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Decodes the get_driver_*.php responses token by token, straight from the response stream.
+ * <p>
+ * Success looks like {"settings":{..},"shipments":[..],"cod_to_reconcile":..}, failure like
+ * {"error_id":..,"response_txt":".."}. The shape is decided by the keys that are actually
+ * present, so the body never has to be buffered to look for "shipments" first. Returns a
+ * {@link ShipmentResponse} or a {@link ShipmentError}.
+ * <p>
+ * A delta sync answer ({"delta":true,"added":[..],"changed":[..],"removed":[..],"sync_token":..})
+ * is returned as a ShipmentResponse with {@link ShipmentResponse#IsDelta()} set.
+ */
+public class ShipmentResponseReader implements Rest.IResponseReader<Object> {
+
+    private static final Gson gson = new Gson();
+    private static final TypeAdapter<ShipmentWithDetail> shipmentAdapter = gson.getAdapter(ShipmentWithDetail.class);
+    private static final TypeAdapter<AppSetting> settingsAdapter = gson.getAdapter(AppSetting.class);
+    private static final TypeAdapter<Double> doubleAdapter = gson.getAdapter(Double.class);
+    private static final TypeAdapter<Integer> integerAdapter = gson.getAdapter(Integer.class);
+
+    @Override
+    public Object Read(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT)
+            throw new IOException("Unexpected shipments response: " + reader.peek());
+
+        ShipmentResponse response = new ShipmentResponse();
+        ShipmentError error = new ShipmentError();
+        boolean hasShipments = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "shipments":
+                    hasShipments = true;
+                    response.shipments = ReadShipments(reader);
+                    break;
+                case "added":
+                    response.added = ReadShipments(reader);
+                    break;
+                case "changed":
+                    response.changed = ReadShipments(reader);
+                    break;
+                case "removed":
+                    response.removed = ReadIds(reader);
+                    break;
+                case "delta":
+                    response.delta = "true".equalsIgnoreCase(ReadString(reader));
+                    break;
+                case "sync_token":
+                    response.sync_token = ReadString(reader);
+                    break;
+                case "settings":
+                    response.settings = settingsAdapter.read(reader);
+                    break;
+                case "cod_to_reconcile":
+                    Double cod = doubleAdapter.read(reader);
+                    response.cod_to_reconcile = cod == null ? 0 : cod;
+                    break;
+                case "error_id":
+                    Integer errorId = integerAdapter.read(reader);
+                    error.error_id = errorId == null ? 0 : errorId;
+                    break;
+                case "response_txt":
+                    error.response_txt = ReadString(reader);
+                    break;
+                case "authenticated":
+                    String authenticated = ReadString(reader);
+                    if ("false".equalsIgnoreCase(authenticated))
+                        throw new Rest.UnauthorizedResponseException();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (response.delta) {
+            if (response.shipments == null)
+                response.shipments = new ArrayList<ShipmentWithDetail>();
+            return response;
+        }
+        return hasShipments ? response : error;
+    }
+
+    private static ArrayList<ShipmentWithDetail> ReadShipments(JsonReader reader) throws IOException {
+        ArrayList<ShipmentWithDetail> shipments = new ArrayList<ShipmentWithDetail>();
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return shipments;
+        }
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ShipmentWithDetail shipment = shipmentAdapter.read(reader);
+            if (shipment != null)
+                shipments.add(shipment);
+        }
+        reader.endArray();
+        return shipments;
+    }
+
+    private static ArrayList<String> ReadIds(JsonReader reader) throws IOException {
+        ArrayList<String> ids = new ArrayList<String>();
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return ids;
+        }
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String id = ReadString(reader);
+            if (id != null)
+                ids.add(id);
+        }
+        reader.endArray();
+        return ids;
+    }
+
+    private static String ReadString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (reader.peek() == JsonToken.BEGIN_OBJECT || reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        if (reader.peek() == JsonToken.BOOLEAN)
+            return String.valueOf(reader.nextBoolean());
+        return reader.nextString();
+    }
+}
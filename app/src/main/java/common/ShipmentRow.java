@@ -0,0 +1,247 @@
+package common;
+
+import android.content.Intent;
+import android.graphics.Color;
+import android.net.Uri;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.TextView;
+
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import eu.trackify.net.R;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+import common.ListDataBinder.BindedListType;
+
+/**
+ * What a shipment row shows, worked out off the main thread by ListDataBinder when a list is
+ * loaded or the search query changes: the parsed card color, the texts with their search
+ * highlights, the COD text and the badge counts. The receiver's name and address are also
+ * measured ahead (PrecomputedTextCompat) once a row has been shown. Binding a row is then only
+ * setting fields, see {@link Views}. Immutable.
+ */
+public class ShipmentRow {
+
+    // Override background color for ReconcileShipments (CoD tab) to delivered green
+    private static final int RECONCILE_COLOR = Color.parseColor("#81e57b");
+
+    // a route uses a handful of colors, parsed once each
+    private static final HashMap<String, Integer> colors = new HashMap<String, Integer>();
+
+    // text metrics of the name and address views, known after the first row was created
+    private static volatile PrecomputedTextCompat.Params nameParams, addressParams;
+
+    // the highlighted texts, in the order of their ranges
+    private static final int TRACKING = 0, PHONE = 1, NAME = 2, ADDRESS = 3;
+
+    public final ShipmentWithDetail shipment;
+    final String contents;
+
+    final int background;
+    final boolean blackText;
+    final boolean pendingSync;
+    final String phone;
+    final CharSequence trackingId, receiverPhone, customerName, address;
+    final String status, cod, noteCount, pictureCount;
+
+    private ShipmentRow(ShipmentWithDetail s, BindedListType listType, String trackingText, String addressText, int[][] ranges, String contents) {
+        this.shipment = s;
+        this.contents = contents;
+
+        background = listType == BindedListType.ReconcileShipments ? RECONCILE_COLOR : ParseColor(s.getBgColor());
+        // For ReconcileShipments (CoD tab), set all text to black for better visibility on green background
+        blackText = listType == BindedListType.ReconcileShipments;
+        pendingSync = s.hasPendingSync;
+        phone = AppModel.IsNullOrEmpty(s.receiver_phone) ? null : s.receiver_phone;
+
+        trackingId = TextHighlighter.highlight(trackingText, ranges[TRACKING]);
+        receiverPhone = phone == null ? null : TextHighlighter.highlight(phone, ranges[PHONE]);
+        customerName = Precompute(TextHighlighter.highlight(s.receiver_name, ranges[NAME]), nameParams);
+        address = Precompute(TextHighlighter.highlight(addressText, ranges[ADDRESS]), addressParams);
+
+        status = s.status_name;
+        // format with euro symbol suffix
+        cod = AppModel.IsNullOrEmpty(s.receiver_cod) ? null : s.receiver_cod + " €";
+        noteCount = s._Notes != null && s._Notes.size() > 0 ? String.valueOf(s._Notes.size()) : null;
+        pictureCount = s._Images != null && s._Images.size() > 0 ? String.valueOf(s._Images.size()) : null;
+    }
+
+    /**
+     * The row of a shipment, reuses previous when the shipment shows the same as it did then.
+     *
+     * @param query the search query as typed
+     */
+    static ShipmentRow Build(ShipmentWithDetail s, BindedListType listType, String query, ShipmentRow previous) {
+        String queryLower = query == null ? "" : query.toLowerCase(Locale.getDefault());
+        String trackingText = TrackingText(s), addressText = AddressText(s);
+        int[][] ranges = new int[4][];
+        ranges[TRACKING] = TextHighlighter.ranges(trackingText, queryLower);
+        ranges[PHONE] = TextHighlighter.ranges(s.receiver_phone, queryLower);
+        ranges[NAME] = TextHighlighter.ranges(s.receiver_name, queryLower);
+        ranges[ADDRESS] = TextHighlighter.ranges(addressText, queryLower);
+
+        String contents = Contents(s, listType, ranges);
+        if (previous != null && previous.contents.equals(contents))
+            return previous;
+        return new ShipmentRow(s, listType, trackingText, addressText, ranges, contents);
+    }
+
+    /**
+     * Everything a row shows in one string, equal strings give equal rows. The search is in it as
+     * the highlighted ranges, a keystroke only changes the rows whose highlights it changes.
+     */
+    static String Contents(ShipmentWithDetail s, BindedListType listType, int[][] ranges) {
+        StringBuilder sb = new StringBuilder().append(listType).append('\n').append(s.getBgColor()).append('\n').append(s.hasPendingSync)
+                .append('\n').append(s.status_name).append('\n').append(s.tracking_id).append('\n').append(s.exchange_tracking_id)
+                .append('\n').append(s.receiver_phone).append('\n').append(s.receiver_name)
+                .append('\n').append(s.receiver_address).append('\n').append(s.receiver_city)
+                .append('\n').append(s.receiver_cod)
+                .append('\n').append(s._Notes == null ? 0 : s._Notes.size())
+                .append('\n').append(s._Images == null ? 0 : s._Images.size());
+        for (int[] textRanges : ranges)
+            sb.append('\n').append(Arrays.toString(textRanges));
+        return sb.toString();
+    }
+
+    // Tracking ID without # prefix (some tracking IDs contain #), with the exchange tracking ID if present
+    private static String TrackingText(ShipmentWithDetail s) {
+        if (AppModel.IsNullOrEmpty(s.exchange_tracking_id))
+            return s.tracking_id;
+        return s.tracking_id + " ↔ " + s.exchange_tracking_id;
+    }
+
+    private static String AddressText(ShipmentWithDetail s) {
+        if (AppModel.IsNullOrEmpty(s.receiver_city))
+            return s.receiver_address;
+        return s.receiver_address + ", " + s.receiver_city;
+    }
+
+    private static int ParseColor(String color) {
+        synchronized (colors) {
+            Integer parsed = colors.get(color);
+            if (parsed == null) {
+                try {
+                    parsed = Color.parseColor(color);
+                } catch (Exception e) {
+                    // Fallback to white if parsing fails
+                    parsed = Color.WHITE;
+                }
+                colors.put(color, parsed);
+            }
+            return parsed;
+        }
+    }
+
+    private static CharSequence Precompute(CharSequence text, PrecomputedTextCompat.Params params) {
+        if (params == null || text.length() == 0)
+            return text;
+        try {
+            return PrecomputedTextCompat.create(text, params);
+        } catch (Exception ex) {
+            return text;
+        }
+    }
+
+    private static void SetText(TextView tv, CharSequence text) {
+        if (text instanceof PrecomputedTextCompat) {
+            try {
+                TextViewCompat.setPrecomputedText(tv, (PrecomputedTextCompat) text);
+                return;
+            } catch (IllegalArgumentException ex) {
+                // measured for other text metrics, set it as plain spanned text
+            }
+        }
+        tv.setText(text);
+    }
+
+    /**
+     * The views of a shipment row, looked up once per recycled row.
+     */
+    static class Views {
+        final View cardContainer, ivSync, ivHandler, btnCall, notesIndicator, picturesIndicator, llCod;
+        final TextView tvNoteCount, tvPictureCount, tvStatus, tvTrackingId, tvReceiverPhone, tvCustomerName, tvAddress, tvCodAmount;
+
+        ShipmentRow row;
+
+        Views(View view) {
+            cardContainer = view.findViewById(R.id.cardContainer);
+            ivSync = view.findViewById(R.id.ivSync);
+            ivHandler = view.findViewById(R.id.ivHandler);
+            btnCall = view.findViewById(R.id.btnCall);
+            notesIndicator = view.findViewById(R.id.notesIndicator);
+            tvNoteCount = (TextView) view.findViewById(R.id.tvNoteCount);
+            picturesIndicator = view.findViewById(R.id.picturesIndicator);
+            tvPictureCount = (TextView) view.findViewById(R.id.tvPictureCount);
+            tvStatus = (TextView) view.findViewById(R.id.tvStatus);
+            tvTrackingId = (TextView) view.findViewById(R.id.tvTrackingId);
+            tvReceiverPhone = (TextView) view.findViewById(R.id.tvReceiverPhone);
+            tvCustomerName = (TextView) view.findViewById(R.id.tvCustomerName);
+            tvAddress = (TextView) view.findViewById(R.id.tvAddress);
+            llCod = view.findViewById(R.id.llCod);
+            tvCodAmount = (TextView) view.findViewById(R.id.tvCodAmount);
+
+            if (nameParams == null) {
+                nameParams = TextViewCompat.getTextMetricsParams(tvCustomerName);
+                addressParams = TextViewCompat.getTextMetricsParams(tvAddress);
+            }
+
+            // Handle call button
+            btnCall.setOnClickListener(new OnClickListener() {
+                @Override
+                public void onClick(View arg0) {
+                    if (row == null || row.phone == null)
+                        return;
+                    try {
+                        Intent intent = new Intent(Intent.ACTION_CALL, Uri.parse("tel:" + row.phone));
+                        App.Object.startActivity(intent);
+                    } catch (Exception ex) {
+                        MessageCtrl.Toast("Invalid phone number");
+                        AppModel.ApplicationError(ex, "ScanCtrl::recPh");
+                    }
+                }
+            });
+        }
+
+        void Bind(ShipmentRow row, boolean isDraggable) {
+            this.row = row;
+
+            cardContainer.setBackgroundColor(row.background);
+            ivSync.setVisibility(row.pendingSync ? View.VISIBLE : View.GONE);
+            ivHandler.setVisibility(isDraggable ? View.VISIBLE : View.GONE);
+            btnCall.setVisibility(row.phone == null ? View.GONE : View.VISIBLE);
+
+            notesIndicator.setVisibility(row.noteCount != null ? View.VISIBLE : View.GONE);
+            if (row.noteCount != null)
+                tvNoteCount.setText(row.noteCount);
+            picturesIndicator.setVisibility(row.pictureCount != null ? View.VISIBLE : View.GONE);
+            if (row.pictureCount != null)
+                tvPictureCount.setText(row.pictureCount);
+
+            tvStatus.setText(row.status);
+            tvTrackingId.setText(row.trackingId);
+            tvReceiverPhone.setVisibility(row.receiverPhone != null ? View.VISIBLE : View.GONE);
+            if (row.receiverPhone != null)
+                tvReceiverPhone.setText(row.receiverPhone);
+            SetText(tvCustomerName, row.customerName);
+            SetText(tvAddress, row.address);
+
+            llCod.setVisibility(row.cod != null ? View.VISIBLE : View.GONE);
+            if (row.cod != null)
+                tvCodAmount.setText(row.cod);
+
+            if (row.blackText) {
+                tvTrackingId.setTextColor(Color.BLACK);
+                tvReceiverPhone.setTextColor(Color.BLACK);
+                tvCustomerName.setTextColor(Color.BLACK);
+                tvAddress.setTextColor(Color.BLACK);
+                tvStatus.setTextColor(Color.BLACK);
+                tvCodAmount.setTextColor(Color.BLACK);
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package common;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Search box of a shipment tab. Matches the same fields as before (shipment id, description and
+ * its title, tracking id, receiver name, phone and address; lower-cased substring) through a
+ * trigram index built off the main thread the first time a list is searched.
+ * <p>
+ * Keystrokes are debounced, queries run one at a time on the search thread and only the answer
+ * to the latest one is delivered on the main thread. A query that extends the previous one (the
+ * driver typing on) only re-checks the previous matches. Query times are kept separately for
+ * lists of 1000 shipments and more, see {@link #GetSummary()}, logged whenever a query on such a
+ * list is delivered.
+ */
+public class ShipmentSearchIndex {
+
+    /** Delay after a keystroke before the query runs */
+    public static final long DEBOUNCE_MS = 150;
+
+    static final int LARGE_LIST = 1000;
+
+    public interface IResult {
+        void OnResult(String query, List<ShipmentWithDetail> matched);
+    }
+
+    private static final ExecutorService searcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "ShipmentSearch");
+        }
+    });
+
+    private static final AtomicLong queries = new AtomicLong(), queryNanos = new AtomicLong(), maxQueryNanos = new AtomicLong();
+    private static final AtomicLong largeQueries = new AtomicLong(), largeQueryNanos = new AtomicLong(), maxLargeQueryNanos = new AtomicLong();
+    private static final AtomicLong builds = new AtomicLong(), buildNanos = new AtomicLong();
+    private static final AtomicLong largeDelivered = new AtomicLong(), largeDeliveredMs = new AtomicLong();
+
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final AtomicInteger sequence = new AtomicInteger();
+    private Runnable pending;
+
+    // set on the main thread, the search thread builds its index from it
+    private volatile List<ShipmentWithDetail> items = new ArrayList<ShipmentWithDetail>();
+
+    // search thread only
+    private List<ShipmentWithDetail> indexedItems;
+    private Index index;
+
+    /**
+     * The list to search from now on, called whenever ITEMS changed. The index is rebuilt by the
+     * next query.
+     */
+    public void SetItems(List<ShipmentWithDetail> items) {
+        this.items = new ArrayList<ShipmentWithDetail>(items);
+    }
+
+    /**
+     * Looks the query (lower-cased) up after delayMs, a newer Search or Cancel drops it.
+     * The callback is called on the main thread.
+     */
+    public void Search(final String query, long delayMs, final IResult callback) {
+        final int id = sequence.incrementAndGet();
+        final long requestedAt = SystemClock.uptimeMillis();
+        if (pending != null)
+            main.removeCallbacks(pending);
+
+        pending = new Runnable() {
+            @Override
+            public void run() {
+                pending = null;
+                searcher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (id != sequence.get())
+                            return;
+                        final List<ShipmentWithDetail> matched = Run(query);
+                        final int listSize = indexedItems.size();
+                        main.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (id != sequence.get())
+                                    return;
+                                if (listSize >= LARGE_LIST) {
+                                    largeDelivered.incrementAndGet();
+                                    largeDeliveredMs.addAndGet(SystemClock.uptimeMillis() - requestedAt);
+                                    Log.d(ShipmentSearchIndex.class.getSimpleName(), GetSummary());
+                                }
+                                callback.OnResult(query, matched);
+                            }
+                        });
+                    }
+                });
+            }
+        };
+        if (delayMs > 0)
+            main.postDelayed(pending, delayMs);
+        else
+            pending.run();
+    }
+
+    /**
+     * Drops the queued and running queries, their results are never delivered.
+     */
+    public void Cancel() {
+        sequence.incrementAndGet();
+        if (pending != null) {
+            main.removeCallbacks(pending);
+            pending = null;
+        }
+    }
+
+    private List<ShipmentWithDetail> Run(String query) {
+        List<ShipmentWithDetail> current = items;
+        if (current != indexedItems) {
+            long start = System.nanoTime();
+            index = new Index(current);
+            indexedItems = current;
+            builds.incrementAndGet();
+            buildNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        long start = System.nanoTime();
+        int[] found = index.Query(query);
+        RecordQuery(current.size(), System.nanoTime() - start);
+
+        List<ShipmentWithDetail> matched = new ArrayList<ShipmentWithDetail>(found.length);
+        for (int i : found)
+            matched.add(current.get(i));
+        return matched;
+    }
+
+    /**
+     * Lower-cased text of each shipment and the shipments holding each trigram of it. Not thread
+     * safe, used by one thread at a time.
+     */
+    static class Index {
+        // between fields, so a match never spans two of them
+        private static final char SEPARATOR = '\n';
+
+        private final String[] texts;
+        private final HashMap<Long, int[]> postings = new HashMap<Long, int[]>();
+
+        private String lastQuery;
+        private int[] lastResult;
+
+        Index(List<ShipmentWithDetail> items) {
+            texts = new String[items.size()];
+            HashMap<Long, IntList> building = new HashMap<Long, IntList>();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < texts.length; i++) {
+                ShipmentWithDetail s = items.get(i);
+                sb.setLength(0);
+                Append(sb, s.shipment_id);
+                Append(sb, s.description);
+                Append(sb, s.description_title);
+                Append(sb, s.tracking_id);
+                Append(sb, s.receiver_name);
+                Append(sb, s.receiver_phone);
+                Append(sb, s.receiver_address);
+                String text = sb.toString().toLowerCase();
+                texts[i] = text;
+
+                for (int c = 0; c + 3 <= text.length(); c++) {
+                    long key = Trigram(text, c);
+                    IntList ids = building.get(key);
+                    if (ids == null) {
+                        ids = new IntList();
+                        building.put(key, ids);
+                    }
+                    // shipments are added in order, a repeated trigram is the same shipment
+                    if (ids.size == 0 || ids.values[ids.size - 1] != i)
+                        ids.Add(i);
+                }
+            }
+            for (Map.Entry<Long, IntList> entry : building.entrySet())
+                postings.put(entry.getKey(), entry.getValue().ToArray());
+        }
+
+        /**
+         * Positions of the shipments whose text contains the query, in list order.
+         */
+        int[] Query(String query) {
+            int[] candidates;
+            if (lastQuery != null && query.contains(lastQuery))
+                candidates = lastResult; // narrowing, everything matching now matched before
+            else if (query.length() >= 3)
+                candidates = Candidates(query);
+            else
+                candidates = null; // too short for trigrams, check every shipment
+
+            IntList matched = new IntList();
+            if (candidates == null) {
+                for (int i = 0; i < texts.length; i++)
+                    if (texts[i].contains(query))
+                        matched.Add(i);
+            } else {
+                for (int i : candidates)
+                    if (texts[i].contains(query))
+                        matched.Add(i);
+            }
+
+            lastQuery = query;
+            lastResult = matched.ToArray();
+            return lastResult;
+        }
+
+        private int[] Candidates(String query) {
+            List<int[]> lists = new ArrayList<int[]>();
+            for (int c = 0; c + 3 <= query.length(); c++) {
+                int[] ids = postings.get(Trigram(query, c));
+                if (ids == null)
+                    return new int[0];
+                lists.add(ids);
+            }
+            // intersect starting with the rarest trigram
+            Collections.sort(lists, new Comparator<int[]>() {
+                @Override
+                public int compare(int[] a, int[] b) {
+                    return a.length - b.length;
+                }
+            });
+            int[] result = lists.get(0);
+            for (int l = 1; l < lists.size() && result.length > 0; l++)
+                result = Intersect(result, lists.get(l));
+            return result;
+        }
+
+        private static int[] Intersect(int[] a, int[] b) {
+            int[] result = new int[Math.min(a.length, b.length)];
+            int count = 0, i = 0, j = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j])
+                    i++;
+                else if (a[i] > b[j])
+                    j++;
+                else {
+                    result[count++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+
+        private static long Trigram(String text, int start) {
+            return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+        }
+
+        private static void Append(StringBuilder sb, String value) {
+            if (value != null)
+                sb.append(value);
+            sb.append(SEPARATOR);
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void Add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] ToArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static void RecordQuery(int listSize, long nanos) {
+        queries.incrementAndGet();
+        queryNanos.addAndGet(nanos);
+        Max(maxQueryNanos, nanos);
+        if (listSize >= LARGE_LIST) {
+            largeQueries.incrementAndGet();
+            largeQueryNanos.addAndGet(nanos);
+            Max(maxLargeQueryNanos, nanos);
+        }
+    }
+
+    private static void Max(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+    private static double AvgMs(AtomicLong total, AtomicLong count) {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / 1e6 / n;
+    }
+
+    public static String GetSummary() {
+        long large = largeDelivered.get();
+        return String.format(Locale.US, "search queries=%d avg=%.2fms max=%.2fms, 1k+ queries=%d avg=%.2fms max=%.2fms keystroke-to-result=%dms (incl. debounce), builds=%d avg=%.1fms",
+                queries.get(), AvgMs(queryNanos, queries), maxQueryNanos.get() / 1e6,
+                largeQueries.get(), AvgMs(largeQueryNanos, largeQueries), maxLargeQueryNanos.get() / 1e6,
+                large == 0 ? 0 : largeDeliveredMs.get() / large,
+                builds.get(), AvgMs(buildNanos, builds));
+    }
+}
@@ -0,0 +1,457 @@
+package common;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import common.RequestExecutor.Lane;
+import common.UserDistributorShipmentsFragment.ShipmentsType;
+
+/**
+ * Binary copy of the three driver lists and the drag order of My Shipments, read when the tabs
+ * are created so the last known lists show in the first frame instead of after the load answers
+ * (or fails on a bad signal).
+ * <p>
+ * Rewritten in the background after every change of ShipmentStore and every drop, to a temp file
+ * that is synced and renamed, a crash never leaves a partial snapshot. Read once per process
+ * through a memory-mapped file, strings are length-prefixed UTF-8 so decoding is a single pass
+ * without a parser. A snapshot of another user or format version is ignored. The read and the
+ * last write times are logged after every write, see {@link #GetSummary()}.
+ */
+public class ShipmentSnapshot {
+
+    private static final String TAG = "ShipmentSnapshot";
+    private static final String FILE_NAME = "shipments.snapshot";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x54524B53; // "TRKS"
+    private static final int FORMAT_VERSION = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ShipmentsType[] TABS = { ShipmentsType.MyShipments, ShipmentsType.ReconcileShipments, ShipmentsType.Returns };
+
+    private static final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private static volatile DragOrder dragOrder;
+
+    // decoded on the first Take, each tab takes its list once
+    private static HashMap<ShipmentsType, ShipmentResponse> tabs;
+    private static List<String> savedDragOrder;
+
+    private static volatile long lastReadMs = -1, lastWriteMs = -1, lastBytes, lastShipments;
+
+    /**
+     * The list saved for the tab, null when there is no usable snapshot or it was taken already.
+     * Called on the main thread when the tab's view is created.
+     */
+    public static synchronized ShipmentResponse Take(ShipmentsType type) {
+        if (tabs == null)
+            ReadOnce();
+        return tabs.remove(type);
+    }
+
+    /**
+     * Tracking ids of My Shipments in the order the driver dragged them into, empty when unknown.
+     */
+    public static synchronized List<String> GetDragOrder() {
+        if (tabs == null)
+            ReadOnce();
+        return savedDragOrder;
+    }
+
+    /**
+     * Called after a drop, the snapshot is rewritten with the order.
+     */
+    public static void SetDragOrder(DragOrder order) {
+        dragOrder = order;
+        Schedule();
+    }
+
+    /**
+     * Deletes the snapshot and forgets what was read of it, the next Take reads again for the user
+     * then logged in. Called by ShipmentStore.Clear on logout.
+     */
+    public static synchronized void Clear() {
+        tabs = null;
+        savedDragOrder = null;
+        dragOrder = null;
+        try {
+            File file = GetFile();
+            if (file.exists() && !file.delete())
+                Log.w(TAG, "Could not delete " + file.getName());
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "ShipmentSnapshot::Clear");
+        }
+    }
+
+    /**
+     * Queues a rewrite from ShipmentStore, calls made while one is queued are folded into it.
+     */
+    public static void Schedule() {
+        if (!writeScheduled.compareAndSet(false, true))
+            return;
+
+        Future<?> future = RequestExecutor.Execute(Lane.Background, new Runnable() {
+            @Override
+            public void run() {
+                writeScheduled.set(false);
+                Write();
+            }
+        });
+        if (future == null)
+            writeScheduled.set(false);
+    }
+
+    private static void Write() {
+        try {
+            if (App.CurrentUser == null)
+                return;
+
+            // the snapshot is read from the store, after SaveLocal / AddPlaceholder queued before it
+            AppModel.Object.db.AwaitPendingWrites();
+
+            long startedAt = SystemClock.uptimeMillis();
+            File file = GetFile();
+            File tmp = new File(file.getPath() + TMP_SUFFIX);
+            FileOutputStream fileOut = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+            int shipments = 0;
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(App.CurrentUser.user_id);
+                out.writeLong(System.currentTimeMillis());
+
+                // not dragged since the start, keep the order of the last snapshot
+                DragOrder dragged = dragOrder;
+                List<String> order = dragged != null ? dragged.Keys() : GetDragOrder();
+                out.writeInt(order.size());
+                for (String trackingId : order)
+                    WriteString(out, trackingId);
+
+                List<ShipmentResponse> lists = new ArrayList<ShipmentResponse>();
+                List<ShipmentsType> types = new ArrayList<ShipmentsType>();
+                for (ShipmentsType type : TABS) {
+                    ShipmentResponse list = ShipmentStore.Load(type);
+                    if (list != null) {
+                        lists.add(list);
+                        types.add(type);
+                    }
+                }
+
+                out.writeInt(lists.size());
+                for (int i = 0; i < lists.size(); i++) {
+                    ShipmentResponse list = lists.get(i);
+                    WriteString(out, types.get(i).toString());
+                    out.writeDouble(list.cod_to_reconcile);
+                    out.writeLong(list.saved_at);
+                    out.writeInt(list.shipments.size());
+                    for (ShipmentWithDetail sd : list.shipments)
+                        WriteShipment(out, sd);
+                    shipments += list.shipments.size();
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Could not replace " + file.getName());
+            }
+            lastWriteMs = SystemClock.uptimeMillis() - startedAt;
+            lastBytes = file.length();
+            lastShipments = shipments;
+            Log.d(TAG, GetSummary());
+            Benchmarks.RunOnce();
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "ShipmentSnapshot::Write");
+        }
+    }
+
+    private static void ReadOnce() {
+        tabs = new HashMap<ShipmentsType, ShipmentResponse>();
+        savedDragOrder = Collections.emptyList();
+        if (App.CurrentUser == null)
+            return;
+
+        long startedAt = SystemClock.uptimeMillis();
+        try {
+            File file = GetFile();
+            if (!file.exists())
+                return;
+
+            List<String> order = new ArrayList<String>();
+            HashMap<ShipmentsType, ShipmentResponse> decoded = Decode(Map(file), App.CurrentUser.user_id, order);
+            if (decoded == null)
+                return;
+
+            int shipments = 0;
+            for (ShipmentResponse list : decoded.values())
+                shipments += list.shipments.size();
+            tabs.putAll(decoded);
+            savedDragOrder = order;
+
+            lastReadMs = SystemClock.uptimeMillis() - startedAt;
+            lastBytes = file.length();
+            lastShipments = shipments;
+            Log.d(TAG, String.format(Locale.US, "%d shipments, %d KB read in %dms", shipments, lastBytes / 1024, lastReadMs));
+        } catch (Exception ex) {
+            // a snapshot that can't be read is only a slower start, the load still shows the lists
+            tabs.clear();
+            AppModel.ApplicationError(ex, "ShipmentSnapshot::ReadOnce");
+        }
+    }
+
+    /**
+     * Decodes a snapshot, the drag order is added to order.
+     *
+     * @return null when it was written by another user or format version
+     */
+    static HashMap<ShipmentsType, ShipmentResponse> Decode(ByteBuffer buffer, int userId, List<String> order) {
+        Reader reader = new Reader(buffer);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION || buffer.getInt() != userId)
+            return null;
+        buffer.getLong(); // saved at
+
+        int orderSize = buffer.getInt();
+        for (int i = 0; i < orderSize; i++)
+            order.add(reader.String());
+
+        HashMap<ShipmentsType, ShipmentResponse> lists = new HashMap<ShipmentsType, ShipmentResponse>();
+        int listCount = buffer.getInt();
+        for (int i = 0; i < listCount; i++) {
+            String type = reader.String();
+            ShipmentResponse list = new ShipmentResponse();
+            list.cod_to_reconcile = buffer.getDouble();
+            list.saved_at = buffer.getLong();
+            int count = buffer.getInt();
+            list.shipments = new ArrayList<ShipmentWithDetail>(count);
+            for (int s = 0; s < count; s++)
+                list.shipments.add(ReadShipment(reader));
+            lists.put(ShipmentsType.valueOf(type), list);
+        }
+        return lists;
+    }
+
+    static MappedByteBuffer Map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    static File GetFile() {
+        return new File(AppModel.Object.context.getFilesDir(), FILE_NAME);
+    }
+
+    private static void WriteShipment(DataOutputStream out, ShipmentWithDetail sd) throws IOException {
+        WriteString(out, sd.shipment_id);
+        out.writeInt(sd.status_id);
+        WriteString(out, sd.status_name);
+        WriteString(out, sd.description);
+        WriteString(out, sd.description_title);
+        WriteString(out, sd.receiver_cod);
+        WriteString(out, sd.sender_phone);
+        WriteString(out, sd.receiver_address);
+        WriteString(out, sd.receiver_city);
+        WriteString(out, sd.sender_name);
+        WriteString(out, sd.sender_address);
+        WriteString(out, sd.tracking_id);
+        WriteString(out, sd.exchange_tracking_id);
+        WriteString(out, sd.client_id);
+        WriteString(out, sd.receiver_phone);
+        WriteString(out, sd.receiver_name);
+        WriteString(out, sd.receiver_country_id);
+        WriteString(out, sd.instructions);
+        WriteDouble(out, sd.lat);
+        WriteDouble(out, sd.lon);
+        WriteString(out, sd.sms_text);
+        out.writeInt(sd.is_urgent);
+        WriteString(out, sd.bg_color);
+        WriteString(out, sd.txt_color);
+        out.writeInt(sd.pin_verification);
+        out.writeBoolean(sd.hasPendingSync);
+
+        ReturnShipment rs = sd.returnShipment;
+        out.writeBoolean(rs != null);
+        if (rs != null) {
+            WriteString(out, rs.tracking_id);
+            WriteString(out, rs.cod);
+            WriteString(out, rs.special_instructions);
+            WriteString(out, rs.sender_name);
+            WriteString(out, rs.sender_address);
+            WriteString(out, rs.sender_city);
+            WriteString(out, rs.sender_phone);
+            WriteString(out, rs.receiver_name);
+            WriteString(out, rs.receiver_address);
+            WriteString(out, rs.receiver_city);
+            WriteString(out, rs.receiver_phone);
+        }
+
+        out.writeInt(sd.notes == null ? -1 : sd.notes.length);
+        if (sd.notes != null) {
+            for (NoteItem note : sd.notes) {
+                WriteString(out, note.comment_id);
+                WriteString(out, note.comment_timestamp);
+                WriteString(out, note.driver_name);
+                WriteString(out, note.user_id);
+                WriteString(out, note.shipment_id);
+                WriteString(out, note.comment);
+            }
+        }
+
+        out.writeInt(sd.images == null ? -1 : sd.images.length);
+        if (sd.images != null) {
+            for (PictureItem picture : sd.images) {
+                WriteString(out, picture.image_id);
+                WriteString(out, picture.description);
+                WriteString(out, picture.date);
+                WriteString(out, picture.time);
+                WriteString(out, picture.url);
+            }
+        }
+    }
+
+    private static ShipmentWithDetail ReadShipment(Reader in) {
+        ShipmentWithDetail sd = new ShipmentWithDetail();
+        sd.shipment_id = in.String();
+        sd.status_id = in.buffer.getInt();
+        sd.status_name = in.String();
+        sd.description = in.String();
+        sd.description_title = in.String();
+        sd.receiver_cod = in.String();
+        sd.sender_phone = in.String();
+        sd.receiver_address = in.String();
+        sd.receiver_city = in.String();
+        sd.sender_name = in.String();
+        sd.sender_address = in.String();
+        sd.tracking_id = in.String();
+        sd.exchange_tracking_id = in.String();
+        sd.client_id = in.String();
+        sd.receiver_phone = in.String();
+        sd.receiver_name = in.String();
+        sd.receiver_country_id = in.String();
+        sd.instructions = in.String();
+        sd.lat = in.Double();
+        sd.lon = in.Double();
+        sd.sms_text = in.String();
+        sd.is_urgent = in.buffer.getInt();
+        sd.bg_color = in.String();
+        sd.txt_color = in.String();
+        sd.pin_verification = in.buffer.getInt();
+        sd.hasPendingSync = in.buffer.get() != 0;
+
+        if (in.buffer.get() != 0) {
+            ReturnShipment rs = new ReturnShipment();
+            rs.tracking_id = in.String();
+            rs.cod = in.String();
+            rs.special_instructions = in.String();
+            rs.sender_name = in.String();
+            rs.sender_address = in.String();
+            rs.sender_city = in.String();
+            rs.sender_phone = in.String();
+            rs.receiver_name = in.String();
+            rs.receiver_address = in.String();
+            rs.receiver_city = in.String();
+            rs.receiver_phone = in.String();
+            sd.returnShipment = rs;
+        }
+
+        int noteCount = in.buffer.getInt();
+        if (noteCount >= 0) {
+            sd.notes = new NoteItem[noteCount];
+            for (int i = 0; i < noteCount; i++) {
+                NoteItem note = new NoteItem();
+                note.comment_id = in.String();
+                note.comment_timestamp = in.String();
+                note.driver_name = in.String();
+                note.user_id = in.String();
+                note.shipment_id = in.String();
+                note.comment = in.String();
+                sd.notes[i] = note;
+            }
+        }
+
+        int pictureCount = in.buffer.getInt();
+        if (pictureCount >= 0) {
+            sd.images = new PictureItem[pictureCount];
+            for (int i = 0; i < pictureCount; i++) {
+                PictureItem picture = new PictureItem();
+                picture.image_id = in.String();
+                picture.description = in.String();
+                picture.date = in.String();
+                picture.time = in.String();
+                picture.url = in.String();
+                sd.images[i] = picture;
+            }
+        }
+        return sd;
+    }
+
+    private static void WriteString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void WriteDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeDouble(value);
+    }
+
+    /**
+     * Decodes the values written by WriteString / WriteDouble, big-endian like DataOutputStream.
+     */
+    private static class Reader {
+        final ByteBuffer buffer;
+        private byte[] scratch = new byte[256];
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        String String() {
+            int length = buffer.getInt();
+            if (length < 0)
+                return null;
+            if (length > scratch.length)
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            buffer.get(scratch, 0, length);
+            return new String(scratch, 0, length, UTF8);
+        }
+
+        Double Double() {
+            return buffer.get() != 0 ? buffer.getDouble() : null;
+        }
+    }
+
+    public static String GetSummary() {
+        return String.format(Locale.US, "snapshot shipments=%d size=%dKB read=%dms write=%dms", lastShipments, lastBytes / 1024, lastReadMs, lastWriteMs);
+    }
+}
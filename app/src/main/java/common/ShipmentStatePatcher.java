@@ -0,0 +1,186 @@
+package common;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.UserDistributorShipmentsFragment.ShipmentsType;
+
+/**
+ * Applies a successful status update (the KeyRef answer carries shipment_id, prev_status_id and
+ * new_status_id) to the loaded tabs locally, instead of reloading all three lists after every
+ * scan.
+ * <p>
+ * The move is expressed as a local delta (removed from the tab it leaves, added to or changed in
+ * the tab it enters) and goes through the same ApplyDelta path as a delta sync answer, so cache,
+ * counts, filter and route are updated exactly as for a server delta. The tabs' sync tokens are
+ * left alone, the next server delta simply re-sends the row.
+ * <p>
+ * When the answer can't be patched (unknown status, shipment not loaded in any tab) the caller
+ * falls back to a full reload. A patched tab that hasn't had a server answer since is reloaded
+ * by SyncThread {@link #FULL_REFRESH_INTERVAL_MS} after its first patch, see RefreshIfStale.
+ */
+public class ShipmentStatePatcher {
+
+    static final long FULL_REFRESH_INTERVAL_MS = 10 * 60 * 1000;
+
+    // first patch of each tab since its last server answer, elapsedRealtime
+    private static final Map<ShipmentsType, Long> patchedSince = new HashMap<ShipmentsType, Long>();
+
+    /**
+     * @param statusName label shown until the next load, same as the offline path sets
+     * @return false when nothing was patched and the tabs have to be reloaded
+     */
+    public static boolean Apply(KeyRef u, String statusName) {
+        try {
+            if (u == null || AppModel.IsNullOrEmpty(u.shipment_id) || AppModel.IsNullOrEmpty(u.new_status_id))
+                return false;
+
+            int newStatusId = Integer.parseInt(u.new_status_id.trim());
+            ShipmentsType target = TabFor(newStatusId);
+            if (target == null || App.Object == null)
+                return false;
+
+            Draggable_UserDistributorShipmentsFragment my = App.Object.userDistributorMyShipmentsFragment;
+            UserDistributorShipmentsFragment reconcile = App.Object.userDistributorReconcileShipmentsFragment;
+            UserDistributorShipmentsFragment returns = App.Object.userDistributorReturnShipmentsFragment;
+            if (my == null || reconcile == null || returns == null)
+                return false;
+
+            ShipmentWithDetail shipment = Find(my.ITEMS, u.shipment_id);
+            ShipmentsType source = ShipmentsType.MyShipments;
+            if (shipment == null) {
+                shipment = Find(reconcile.ITEMS, u.shipment_id);
+                source = ShipmentsType.ReconcileShipments;
+            }
+            if (shipment == null) {
+                shipment = Find(returns.ITEMS, u.shipment_id);
+                source = ShipmentsType.Returns;
+            }
+            // Not loaded yet (e.g. first scan of a new parcel), only the server has its data
+            if (shipment == null)
+                return false;
+
+            shipment.status_id = newStatusId;
+            if (!AppModel.IsNullOrEmpty(statusName))
+                shipment.status_name = statusName;
+            shipment.hasPendingSync = false;
+
+            double codDelta = 0;
+            if (target == ShipmentsType.ReconcileShipments && source != ShipmentsType.ReconcileShipments)
+                codDelta = ParseCod(shipment.receiver_cod);
+            else if (source == ShipmentsType.ReconcileShipments && target != ShipmentsType.ReconcileShipments)
+                codDelta = -ParseCod(shipment.receiver_cod);
+
+            if (source == ShipmentsType.MyShipments || target == ShipmentsType.MyShipments)
+                my.ApplyDelta(Move(my.ITEMS, my.syncToken, shipment, target == ShipmentsType.MyShipments, 0));
+            if (source == ShipmentsType.ReconcileShipments || target == ShipmentsType.ReconcileShipments)
+                reconcile.ApplyDelta(Move(reconcile.ITEMS, reconcile.syncToken, shipment, target == ShipmentsType.ReconcileShipments, reconcile.codToReconcile + codDelta));
+            if (source == ShipmentsType.Returns || target == ShipmentsType.Returns)
+                returns.ApplyDelta(Move(returns.ITEMS, returns.syncToken, shipment, target == ShipmentsType.Returns, 0));
+
+            MarkPatched(source);
+            MarkPatched(target);
+            return true;
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "ShipmentStatePatcher::Apply");
+            return false;
+        }
+    }
+
+    /**
+     * Tab a status lands in on the server, null when it isn't known for sure.
+     */
+    static ShipmentsType TabFor(int statusId) {
+        switch (statusId) {
+            case 1:  // in delivery
+            case 3:  // problematic
+            case 4:  // picked up
+            case 14: // packed
+                return ShipmentsType.MyShipments;
+            case 2:  // delivered, waits for COD reconcile
+                return ShipmentsType.ReconcileShipments;
+            default:
+                return null;
+        }
+    }
+
+    private static synchronized void MarkPatched(ShipmentsType type) {
+        if (!patchedSince.containsKey(type))
+            patchedSince.put(type, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Called by the tabs on every server answer (full or delta), the tab matches the server again.
+     */
+    public static synchronized void MarkLoaded(ShipmentsType type) {
+        patchedSince.remove(type);
+    }
+
+    /**
+     * Reloads the tabs patched locally more than {@link #FULL_REFRESH_INTERVAL_MS} ago without a
+     * server answer since. Called every second by SyncThread while the network is available, a
+     * reload that fails is tried again after another interval.
+     */
+    public static void RefreshIfStale() {
+        List<ShipmentsType> stale = new ArrayList<ShipmentsType>();
+        synchronized (ShipmentStatePatcher.class) {
+            long now = SystemClock.elapsedRealtime();
+            for (Map.Entry<ShipmentsType, Long> entry : patchedSince.entrySet()) {
+                if (now - entry.getValue() >= FULL_REFRESH_INTERVAL_MS) {
+                    stale.add(entry.getKey());
+                    entry.setValue(now);
+                }
+            }
+        }
+        if (stale.isEmpty() || App.Object == null)
+            return;
+
+        if (stale.contains(ShipmentsType.MyShipments) && App.Object.userDistributorMyShipmentsFragment != null)
+            App.Object.userDistributorMyShipmentsFragment.Load();
+        if (stale.contains(ShipmentsType.ReconcileShipments) && App.Object.userDistributorReconcileShipmentsFragment != null)
+            App.Object.userDistributorReconcileShipmentsFragment.Load();
+        if (stale.contains(ShipmentsType.Returns) && App.Object.userDistributorReturnShipmentsFragment != null)
+            App.Object.userDistributorReturnShipmentsFragment.Load();
+    }
+
+    private static ShipmentResponse Move(List<ShipmentWithDetail> items, String syncToken, ShipmentWithDetail shipment, boolean belongsHere, double codToReconcile) {
+        ShipmentResponse delta = new ShipmentResponse();
+        delta.delta = true;
+        delta.local = true;
+        delta.sync_token = syncToken;
+        delta.cod_to_reconcile = codToReconcile;
+        delta.shipments = new ArrayList<ShipmentWithDetail>();
+
+        if (belongsHere) {
+            ArrayList<ShipmentWithDetail> rows = new ArrayList<ShipmentWithDetail>();
+            rows.add(shipment);
+            if (Find(items, shipment.shipment_id) != null)
+                delta.changed = rows;
+            else
+                delta.added = rows;
+        } else {
+            delta.removed = new ArrayList<String>();
+            delta.removed.add(shipment.shipment_id);
+        }
+        return delta;
+    }
+
+    private static ShipmentWithDetail Find(List<ShipmentWithDetail> items, String shipmentId) {
+        for (ShipmentWithDetail sd : items)
+            if (shipmentId.equals(sd.shipment_id))
+                return sd;
+        return null;
+    }
+
+    private static double ParseCod(String cod) {
+        try {
+            return AppModel.IsNullOrEmpty(cod) ? 0 : Double.parseDouble(cod.trim().replace(",", "."));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+}
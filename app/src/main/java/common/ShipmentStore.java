@@ -0,0 +1,631 @@
+package common;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import common.DatabaseManager.IRowReader;
+import common.DatabaseManager.IWriteTask;
+import common.DatabaseManager.TableType;
+import common.UserDistributorShipmentsFragment.ShipmentsType;
+
+/**
+ * Local copy of the driver lists in the database: one Shipments row per shipment and list (in
+ * the list's order), its notes and pictures in ShipmentNotes / ShipmentPictures and the list's
+ * sync token, COD total and settings in ShipmentLists.
+ * <p>
+ * Every list answer is written here by the network load (a full answer replaces the list, a delta
+ * updates only its rows), changes made on the device (status patches, offline scans) are queued
+ * on the writer thread. Offline fallback, SMS and barcode matching read from here instead of
+ * parsing the whole list, lookups by tracking id, shipment id, status or receiver phone are
+ * indexed.
+ */
+public class ShipmentStore {
+
+    // order of the bind args / select list, see BindShipment and ReadShipment
+    private static final String[] COLUMNS = {
+            "ShipmentID", "TrackingID", "StatusID", "StatusName", "Description", "DescriptionTitle", "ReceiverCod",
+            "SenderPhone", "ReceiverAddress", "ReceiverCity", "SenderName", "SenderAddress", "ExchangeTrackingID",
+            "ClientID", "ReceiverPhone", "ReceiverName", "ReceiverCountryID", "Instructions", "Lat", "Lon",
+            "SmsText", "IsUrgent", "BgColor", "TxtColor", "PinVerification", "HasPendingSync", "ReturnShipment"
+    };
+    private static final String COLUMN_LIST = AppModel.ConvertToCsv(COLUMNS);
+
+    private static final String INSERT_SHIPMENT = "INSERT INTO Shipments (ListType, Position, " + COLUMN_LIST + ") VALUES (?, ?" + Repeat(", ?", COLUMNS.length) + ")";
+    private static final String UPDATE_SHIPMENT = "UPDATE Shipments SET " + Join(COLUMNS, " = ?, ") + " = ? WHERE ListType = ? AND ShipmentID = ?";
+    private static final String INSERT_NOTE = "INSERT INTO ShipmentNotes (ShipmentID, CommentID, CommentTimestamp, DriverName, UserID, Comment) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_PICTURE = "INSERT INTO ShipmentPictures (ShipmentID, ImageID, Description, Date, Time, Url) VALUES (?, ?, ?, ?, ?, ?)";
+
+    // bind args per query, below SQLite's limit of 999
+    private static final int MAX_IN_ARGS = 500;
+
+    // the tabs in display order, a tracking id found in several lists is taken from the first
+    private static final ShipmentsType[] TABS = { ShipmentsType.MyShipments, ShipmentsType.ReconcileShipments, ShipmentsType.Returns };
+
+    private static final Gson gson = new Gson();
+
+    /**
+     * Stores a list answer, blocks until it is written. Called by the network load before the
+     * answer is handed to the fragments.
+     */
+    public static void Save(final ShipmentsType type, final ShipmentResponse response) {
+        try {
+            AppModel.Object.db.WriteTransaction("ShipmentStore.Save(" + type + ")", new IWriteTask<Void>() {
+                @Override
+                public Void Run(SQLiteDatabase db) {
+                    // logged out while the answer was on the way, Clear ran or is queued
+                    if (App.CurrentUser == null)
+                        return null;
+                    Apply(db, type, response);
+                    return null;
+                }
+            });
+            ShipmentSnapshot.Schedule();
+            TrackingIdMatcher.Schedule();
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "ShipmentStore::Save");
+        }
+    }
+
+    /**
+     * Stores a delta built on the device (ShipmentStatePatcher), queued without waiting.
+     */
+    public static void SaveLocal(final ShipmentsType type, final ShipmentResponse delta) {
+        AppModel.Object.db.WriteTransactionAsync("ShipmentStore.SaveLocal(" + type + ")", new IWriteTask<Void>() {
+            @Override
+            public Void Run(SQLiteDatabase db) {
+                Apply(db, type, delta);
+                return null;
+            }
+        });
+        ShipmentSnapshot.Schedule();
+        TrackingIdMatcher.Schedule();
+    }
+
+    /**
+     * Appends the row shown for a scan that couldn't be sent (only the tracking id is known), it is
+     * dropped by the next answer from the server.
+     */
+    public static void AddPlaceholder(final ShipmentsType type, final ShipmentWithDetail placeholder) {
+        AppModel.Object.db.WriteTransactionAsync("ShipmentStore.AddPlaceholder", new IWriteTask<Void>() {
+            @Override
+            public Void Run(SQLiteDatabase db) {
+                Insert(db, type, NextPosition(db, type), placeholder);
+                return null;
+            }
+        });
+        ShipmentSnapshot.Schedule();
+        TrackingIdMatcher.Schedule();
+    }
+
+    /**
+     * Drops the stored lists and the snapshot, called on logout so the next driver on the device
+     * never sees them.
+     */
+    public static void Clear() {
+        AppModel.Object.db.WriteTransactionAsync("ShipmentStore.Clear", new IWriteTask<Void>() {
+            @Override
+            public Void Run(SQLiteDatabase db) {
+                db.delete(TableType.Shipments.toString(), null, null);
+                db.delete(TableType.ShipmentNotes.toString(), null, null);
+                db.delete(TableType.ShipmentPictures.toString(), null, null);
+                db.delete(TableType.ShipmentLists.toString(), null, null);
+                return null;
+            }
+        });
+        ShipmentSnapshot.Clear();
+        TrackingIdMatcher.Schedule();
+    }
+
+    private static void Apply(SQLiteDatabase db, ShipmentsType type, ShipmentResponse response) {
+        String[] listArgs = new String[] { type.toString() };
+
+        if (!response.IsDelta()) {
+            db.delete(TableType.Shipments.toString(), "ListType = ?", listArgs);
+            int position = 0;
+            if (response.shipments != null) {
+                for (ShipmentWithDetail sd : response.shipments) {
+                    if (sd == null)
+                        continue;
+                    Insert(db, type, position++, sd);
+                    ReplaceDetails(db, sd);
+                }
+            }
+        } else {
+            // same rules as ShipmentDelta.Apply: offline placeholders only survive a local delta
+            if (!response.local)
+                db.delete(TableType.Shipments.toString(), "ListType = ? AND ShipmentID IS NULL", listArgs);
+            if (response.removed != null) {
+                for (String shipmentId : response.removed)
+                    db.delete(TableType.Shipments.toString(), "ListType = ? AND ShipmentID = ?", new String[] { type.toString(), shipmentId });
+            }
+            Upsert(db, type, response.changed);
+            Upsert(db, type, response.added);
+        }
+
+        // notes and pictures of shipments no list holds anymore
+        db.delete(TableType.ShipmentNotes.toString(), "ShipmentID NOT IN (SELECT ShipmentID FROM Shipments WHERE ShipmentID IS NOT NULL)", null);
+        db.delete(TableType.ShipmentPictures.toString(), "ShipmentID NOT IN (SELECT ShipmentID FROM Shipments WHERE ShipmentID IS NOT NULL)", null);
+
+        // a delta without settings keeps the stored ones, a local delta keeps the time of the last load
+        SQLiteStatement list = db.compileStatement("INSERT OR REPLACE INTO ShipmentLists (ListType, SyncToken, CodToReconcile, Settings, SavedAt) "
+                + "VALUES (?, ?, ?, COALESCE(?, (SELECT Settings FROM ShipmentLists WHERE ListType = ?)), COALESCE(?, (SELECT SavedAt FROM ShipmentLists WHERE ListType = ?)))");
+        try {
+            list.bindString(1, type.toString());
+            BindString(list, 2, response.sync_token);
+            list.bindDouble(3, response.cod_to_reconcile);
+            BindString(list, 4, response.settings != null ? gson.toJson(response.settings) : null);
+            list.bindString(5, type.toString());
+            BindString(list, 6, response.local ? null : AppModel.SERVER_FORMAT.format(new Date()));
+            list.bindString(7, type.toString());
+            list.executeInsert();
+        } finally {
+            list.close();
+        }
+    }
+
+    /**
+     * Changed rows keep their position, new ones are appended.
+     */
+    private static void Upsert(SQLiteDatabase db, ShipmentsType type, List<ShipmentWithDetail> rows) {
+        if (rows == null || rows.isEmpty())
+            return;
+
+        SQLiteStatement update = db.compileStatement(UPDATE_SHIPMENT);
+        try {
+            int position = -1;
+            for (ShipmentWithDetail sd : rows) {
+                if (sd == null || sd.shipment_id == null)
+                    continue;
+
+                update.clearBindings();
+                BindShipment(update, 1, sd);
+                update.bindString(COLUMNS.length + 1, type.toString());
+                update.bindString(COLUMNS.length + 2, sd.shipment_id);
+                if (update.executeUpdateDelete() == 0) {
+                    if (position < 0)
+                        position = NextPosition(db, type);
+                    Insert(db, type, position++, sd);
+                }
+                ReplaceDetails(db, sd);
+            }
+        } finally {
+            update.close();
+        }
+    }
+
+    private static void Insert(SQLiteDatabase db, ShipmentsType type, int position, ShipmentWithDetail sd) {
+        SQLiteStatement insert = db.compileStatement(INSERT_SHIPMENT);
+        try {
+            insert.bindString(1, type.toString());
+            insert.bindLong(2, position);
+            BindShipment(insert, 3, sd);
+            insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+
+    private static int NextPosition(SQLiteDatabase db, ShipmentsType type) {
+        Cursor cursor = db.rawQuery("SELECT IFNULL(MAX(Position) + 1, 0) FROM Shipments WHERE ListType = ?", new String[] { type.toString() });
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The server always sends all notes and pictures of a shipment, they replace the stored ones.
+     */
+    private static void ReplaceDetails(SQLiteDatabase db, ShipmentWithDetail sd) {
+        if (sd.shipment_id == null)
+            return;
+
+        String[] args = new String[] { sd.shipment_id };
+        db.delete(TableType.ShipmentNotes.toString(), "ShipmentID = ?", args);
+        db.delete(TableType.ShipmentPictures.toString(), "ShipmentID = ?", args);
+
+        if (sd.notes != null && sd.notes.length > 0) {
+            SQLiteStatement insert = db.compileStatement(INSERT_NOTE);
+            try {
+                for (NoteItem note : sd.notes) {
+                    insert.clearBindings();
+                    insert.bindString(1, sd.shipment_id);
+                    BindString(insert, 2, note.comment_id);
+                    BindString(insert, 3, note.comment_timestamp);
+                    BindString(insert, 4, note.driver_name);
+                    BindString(insert, 5, note.user_id);
+                    BindString(insert, 6, note.comment);
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+        }
+
+        if (sd.images != null && sd.images.length > 0) {
+            SQLiteStatement insert = db.compileStatement(INSERT_PICTURE);
+            try {
+                for (PictureItem picture : sd.images) {
+                    insert.clearBindings();
+                    insert.bindString(1, sd.shipment_id);
+                    BindString(insert, 2, picture.image_id);
+                    BindString(insert, 3, picture.description);
+                    BindString(insert, 4, picture.date);
+                    BindString(insert, 5, picture.time);
+                    BindString(insert, 6, picture.url);
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+        }
+    }
+
+    /**
+     * The stored list with notes and pictures in the notes / images arrays, as the server sent it.
+     *
+     * @return null when the list was never stored
+     */
+    public static ShipmentResponse Load(ShipmentsType type) {
+        try {
+            final String[] listArgs = new String[] { type.toString() };
+            final ShipmentResponse[] stored = new ShipmentResponse[1];
+            AppModel.Object.db.ReadRows("SELECT SyncToken, CodToReconcile, Settings, SavedAt FROM ShipmentLists WHERE ListType = ?", listArgs, new IRowReader() {
+                @Override
+                public void Read(Cursor cursor) {
+                    ShipmentResponse response = new ShipmentResponse();
+                    response.sync_token = cursor.getString(0);
+                    response.cod_to_reconcile = cursor.getDouble(1);
+                    if (!cursor.isNull(2))
+                        response.settings = gson.fromJson(cursor.getString(2), AppSetting.class);
+                    response.saved_at = ParseTime(cursor.getString(3));
+                    response.shipments = new ArrayList<ShipmentWithDetail>();
+                    stored[0] = response;
+                }
+            });
+            if (stored[0] == null)
+                return null;
+
+            final HashMap<String, ShipmentWithDetail> byId = new HashMap<String, ShipmentWithDetail>();
+            AppModel.Object.db.ReadRows("SELECT " + COLUMN_LIST + " FROM Shipments WHERE ListType = ? ORDER BY Position", listArgs, new IRowReader() {
+                @Override
+                public void Read(Cursor cursor) {
+                    ShipmentWithDetail sd = ReadShipment(cursor, 0);
+                    stored[0].shipments.add(sd);
+                    if (sd.shipment_id != null)
+                        byId.put(sd.shipment_id, sd);
+                }
+            });
+
+            final HashMap<String, List<NoteItem>> notes = new HashMap<String, List<NoteItem>>();
+            AppModel.Object.db.ReadRows("SELECT ShipmentID, CommentID, CommentTimestamp, DriverName, UserID, Comment FROM ShipmentNotes"
+                    + " WHERE ShipmentID IN (SELECT ShipmentID FROM Shipments WHERE ListType = ?) ORDER BY ID", listArgs, new IRowReader() {
+                @Override
+                public void Read(Cursor cursor) {
+                    NoteItem note = new NoteItem();
+                    note.shipment_id = cursor.getString(0);
+                    note.comment_id = cursor.getString(1);
+                    note.comment_timestamp = cursor.getString(2);
+                    note.driver_name = cursor.getString(3);
+                    note.user_id = cursor.getString(4);
+                    note.comment = cursor.getString(5);
+                    Group(notes, note.shipment_id).add(note);
+                }
+            });
+
+            final HashMap<String, List<PictureItem>> pictures = new HashMap<String, List<PictureItem>>();
+            AppModel.Object.db.ReadRows("SELECT ShipmentID, ImageID, Description, Date, Time, Url FROM ShipmentPictures"
+                    + " WHERE ShipmentID IN (SELECT ShipmentID FROM Shipments WHERE ListType = ?) ORDER BY ID", listArgs, new IRowReader() {
+                @Override
+                public void Read(Cursor cursor) {
+                    PictureItem picture = new PictureItem();
+                    picture.image_id = cursor.getString(1);
+                    picture.description = cursor.getString(2);
+                    picture.date = cursor.getString(3);
+                    picture.time = cursor.getString(4);
+                    picture.url = cursor.getString(5);
+                    Group(pictures, cursor.getString(0)).add(picture);
+                }
+            });
+
+            for (ShipmentWithDetail sd : byId.values()) {
+                List<NoteItem> shipmentNotes = notes.get(sd.shipment_id);
+                if (shipmentNotes != null)
+                    sd.notes = shipmentNotes.toArray(new NoteItem[0]);
+                List<PictureItem> shipmentPictures = pictures.get(sd.shipment_id);
+                if (shipmentPictures != null)
+                    sd.images = shipmentPictures.toArray(new PictureItem[0]);
+            }
+            return stored[0];
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "ShipmentStore::Load");
+            return null;
+        }
+    }
+
+    /**
+     * The shipment with this tracking id (case-insensitive) in the list, without notes and
+     * pictures; null when it isn't stored.
+     */
+    public static ShipmentWithDetail FindByTrackingId(ShipmentsType type, String trackingId) {
+        if (AppModel.IsNullOrEmpty(trackingId))
+            return null;
+
+        try {
+            final ShipmentWithDetail[] found = new ShipmentWithDetail[1];
+            AppModel.Object.db.ReadRows("SELECT " + COLUMN_LIST + " FROM Shipments WHERE TrackingID = ? COLLATE NOCASE AND ListType = ? ORDER BY Position LIMIT 1",
+                    new String[] { trackingId, type.toString() }, new IRowReader() {
+                        @Override
+                        public void Read(Cursor cursor) {
+                            found[0] = ReadShipment(cursor, 0);
+                        }
+                    });
+            return found[0];
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "ShipmentStore::FindByTrackingId");
+            return null;
+        }
+    }
+
+    /**
+     * Status of each of the tracking ids stored in the list, keyed by the upper case tracking id.
+     * Tracking ids that aren't stored are missing from the map.
+     */
+    public static HashMap<String, Integer> GetStatuses(ShipmentsType type, Collection<String> trackingIds) {
+        final HashMap<String, Integer> statuses = new HashMap<String, Integer>();
+        if (trackingIds == null || trackingIds.isEmpty())
+            return statuses;
+
+        try {
+            IRowReader reader = new IRowReader() {
+                @Override
+                public void Read(Cursor cursor) {
+                    String trackingId = cursor.getString(0).toUpperCase(Locale.US);
+                    if (!statuses.containsKey(trackingId))
+                        statuses.put(trackingId, cursor.getInt(1));
+                }
+            };
+
+            List<String> args = new ArrayList<String>();
+            for (String trackingId : trackingIds) {
+                if (trackingId != null)
+                    args.add(trackingId);
+                if (args.size() == MAX_IN_ARGS) {
+                    ReadStatuses(type, args, reader);
+                    args.clear();
+                }
+            }
+            if (!args.isEmpty())
+                ReadStatuses(type, args, reader);
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "ShipmentStore::GetStatuses");
+        }
+        return statuses;
+    }
+
+    private static void ReadStatuses(ShipmentsType type, List<String> trackingIds, IRowReader reader) {
+        String[] args = new String[trackingIds.size() + 1];
+        args[0] = type.toString();
+        for (int i = 0; i < trackingIds.size(); i++)
+            args[i + 1] = trackingIds.get(i);
+        AppModel.Object.db.ReadRows("SELECT TrackingID, StatusID FROM Shipments WHERE ListType = ? AND TrackingID COLLATE NOCASE IN (?" + Repeat(", ?", trackingIds.size() - 1) + ") ORDER BY Position",
+                args, reader);
+    }
+
+    /**
+     * The stored tracking id equal to the code ignoring case, null when there is none. Lists are
+     * searched in tab order.
+     */
+    public static String FindTrackingId(String code) {
+        if (AppModel.IsNullOrEmpty(code))
+            return null;
+
+        try {
+            final String[] found = new String[1];
+            for (ShipmentsType type : TABS) {
+                AppModel.Object.db.ReadRows("SELECT TrackingID FROM Shipments WHERE TrackingID = ? COLLATE NOCASE AND ListType = ? ORDER BY Position LIMIT 1",
+                        new String[] { code, type.toString() }, new IRowReader() {
+                            @Override
+                            public void Read(Cursor cursor) {
+                                found[0] = cursor.getString(0);
+                            }
+                        });
+                if (found[0] != null)
+                    return found[0];
+            }
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "ShipmentStore::FindTrackingId");
+        }
+        return null;
+    }
+
+    /**
+     * All stored tracking ids, in tab order and list order within a tab.
+     */
+    public static List<String> GetTrackingIds() {
+        final List<String> trackingIds = new ArrayList<String>();
+        try {
+            for (ShipmentsType type : TABS) {
+                AppModel.Object.db.ReadRows("SELECT TrackingID FROM Shipments WHERE ListType = ? AND TrackingID IS NOT NULL ORDER BY Position",
+                        new String[] { type.toString() }, new IRowReader() {
+                            @Override
+                            public void Read(Cursor cursor) {
+                                trackingIds.add(cursor.getString(0));
+                            }
+                        });
+            }
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "ShipmentStore::GetTrackingIds");
+        }
+        return trackingIds;
+    }
+
+    /**
+     * Moves the lists cached as JSON in the preferences by earlier versions into the tables, once.
+     */
+    public static void ImportPreferencesCache() {
+        final String myJson = AppModel.Object.GetVariable(AppModel.MY_SHIPMENTS_CACHE_KEY);
+        final String reconcileJson = AppModel.Object.GetVariable(AppModel.RECONCILE_SHIPMENTS_CACHE_KEY);
+        if (AppModel.IsNullOrEmpty(myJson) && AppModel.IsNullOrEmpty(reconcileJson))
+            return;
+
+        AppModel.Object.db.WriteTransactionAsync("ShipmentStore.ImportPreferencesCache", new IWriteTask<Void>() {
+            @Override
+            public Void Run(SQLiteDatabase db) {
+                Import(db, ShipmentsType.MyShipments, myJson);
+                Import(db, ShipmentsType.ReconcileShipments, reconcileJson);
+                AppModel.Object.SaveVariable(AppModel.MY_SHIPMENTS_CACHE_KEY, "");
+                AppModel.Object.SaveVariable(AppModel.RECONCILE_SHIPMENTS_CACHE_KEY, "");
+                return null;
+            }
+        });
+        TrackingIdMatcher.Schedule();
+    }
+
+    private static void Import(SQLiteDatabase db, ShipmentsType type, String json) {
+        if (AppModel.IsNullOrEmpty(json))
+            return;
+        try {
+            ShipmentResponse cached = gson.fromJson(json, ShipmentResponse.class);
+            if (cached != null && cached.shipments != null) {
+                // stored without its token, a full load follows anyway
+                cached.delta = false;
+                cached.sync_token = null;
+                Apply(db, type, cached);
+            }
+        } catch (Exception ex) {
+            // an offline scan saved the bare list under the key, nothing worth keeping
+            AppModel.ApplicationError(ex, "ShipmentStore::Import(" + type + ")");
+        }
+    }
+
+    /**
+     * Binds the COLUMNS values of the shipment starting at index.
+     */
+    private static void BindShipment(SQLiteStatement statement, int index, ShipmentWithDetail sd) {
+        BindString(statement, index++, sd.shipment_id);
+        BindString(statement, index++, sd.tracking_id);
+        statement.bindLong(index++, sd.status_id);
+        BindString(statement, index++, sd.status_name);
+        BindString(statement, index++, sd.description);
+        BindString(statement, index++, sd.description_title);
+        BindString(statement, index++, sd.receiver_cod);
+        BindString(statement, index++, sd.sender_phone);
+        BindString(statement, index++, sd.receiver_address);
+        BindString(statement, index++, sd.receiver_city);
+        BindString(statement, index++, sd.sender_name);
+        BindString(statement, index++, sd.sender_address);
+        BindString(statement, index++, sd.exchange_tracking_id);
+        BindString(statement, index++, sd.client_id);
+        BindString(statement, index++, sd.receiver_phone);
+        BindString(statement, index++, sd.receiver_name);
+        BindString(statement, index++, sd.receiver_country_id);
+        BindString(statement, index++, sd.instructions);
+        BindDouble(statement, index++, sd.lat);
+        BindDouble(statement, index++, sd.lon);
+        BindString(statement, index++, sd.sms_text);
+        statement.bindLong(index++, sd.is_urgent);
+        BindString(statement, index++, sd.bg_color);
+        BindString(statement, index++, sd.txt_color);
+        statement.bindLong(index++, sd.pin_verification);
+        statement.bindLong(index++, sd.hasPendingSync ? 1 : 0);
+        BindString(statement, index, sd.returnShipment != null ? gson.toJson(sd.returnShipment) : null);
+    }
+
+    /**
+     * Reads the COLUMNS values starting at column index.
+     */
+    private static ShipmentWithDetail ReadShipment(Cursor cursor, int index) {
+        ShipmentWithDetail sd = new ShipmentWithDetail();
+        sd.shipment_id = cursor.getString(index++);
+        sd.tracking_id = cursor.getString(index++);
+        sd.status_id = cursor.getInt(index++);
+        sd.status_name = cursor.getString(index++);
+        sd.description = cursor.getString(index++);
+        sd.description_title = cursor.getString(index++);
+        sd.receiver_cod = cursor.getString(index++);
+        sd.sender_phone = cursor.getString(index++);
+        sd.receiver_address = cursor.getString(index++);
+        sd.receiver_city = cursor.getString(index++);
+        sd.sender_name = cursor.getString(index++);
+        sd.sender_address = cursor.getString(index++);
+        sd.exchange_tracking_id = cursor.getString(index++);
+        sd.client_id = cursor.getString(index++);
+        sd.receiver_phone = cursor.getString(index++);
+        sd.receiver_name = cursor.getString(index++);
+        sd.receiver_country_id = cursor.getString(index++);
+        sd.instructions = cursor.getString(index++);
+        sd.lat = cursor.isNull(index) ? null : cursor.getDouble(index);
+        index++;
+        sd.lon = cursor.isNull(index) ? null : cursor.getDouble(index);
+        index++;
+        sd.sms_text = cursor.getString(index++);
+        sd.is_urgent = cursor.getInt(index++);
+        sd.bg_color = cursor.getString(index++);
+        sd.txt_color = cursor.getString(index++);
+        sd.pin_verification = cursor.getInt(index++);
+        sd.hasPendingSync = cursor.getInt(index++) != 0;
+        if (!cursor.isNull(index))
+            sd.returnShipment = gson.fromJson(cursor.getString(index), ReturnShipment.class);
+        return sd;
+    }
+
+    private static long ParseTime(String value) {
+        try {
+            return value == null ? 0 : AppModel.SERVER_FORMAT.parse(value).getTime();
+        } catch (Exception ex) {
+            return 0;
+        }
+    }
+
+    private static void BindString(SQLiteStatement statement, int index, String value) {
+        if (value == null)
+            statement.bindNull(index);
+        else
+            statement.bindString(index, value);
+    }
+
+    private static void BindDouble(SQLiteStatement statement, int index, Double value) {
+        if (value == null)
+            statement.bindNull(index);
+        else
+            statement.bindDouble(index, value);
+    }
+
+    private static <T> List<T> Group(HashMap<String, List<T>> groups, String key) {
+        List<T> group = groups.get(key);
+        if (group == null) {
+            group = new ArrayList<T>();
+            groups.put(key, group);
+        }
+        return group;
+    }
+
+    private static String Repeat(String value, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            sb.append(value);
+        return sb.toString();
+    }
+
+    private static String Join(String[] values, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                sb.append(separator);
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+}
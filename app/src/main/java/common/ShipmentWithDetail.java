@@ -45,9 +45,14 @@ public class ShipmentWithDetail {
     public int pin_verification = 0; // "pin based verification is required for delivery status, use case is money delivery" - (1=yes or 0=no)
 
     public NoteItem[] notes;
-    public List<NoteItem> _Notes = new ArrayList<NoteItem>();
+    public transient List<NoteItem> _Notes = new ArrayList<NoteItem>();
 
+    /**
+     * Rebuilds _Notes from notes, the same instance may be generated again (local patches,
+     * answers shared by joined loads).
+     */
     public void GenerateNotes() {
+        _Notes.clear();
         if (notes != null)
             for (NoteItem noteItem : notes) {
                 _Notes.add(noteItem);
@@ -55,9 +60,13 @@ public class ShipmentWithDetail {
     }
 
     public PictureItem[] images;
-    public List<PictureItem> _Images = new ArrayList<PictureItem>();
+    public transient List<PictureItem> _Images = new ArrayList<PictureItem>();
 
+    /**
+     * Rebuilds _Images from images, see GenerateNotes.
+     */
     public void GeneratePictures() {
+        _Images.clear();
         if (images != null)
             for (PictureItem noteItem : images) {
                 _Images.add(noteItem);
@@ -60,7 +60,7 @@ public class StatusCheckCtrl extends LinearLayout {
     // Data
     private String scannedCode;
     private List<String> candidateCodes;
-    private int currentCandidateIndex;
+    private ServerFuture candidateLookup;
     private ShipmentWithDetail currentShipment;
 
     public StatusCheckCtrl(Context context) {
@@ -191,7 +191,7 @@ public class StatusCheckCtrl extends LinearLayout {
     /**
      * Show the status check screen and look up the scanned code.
      * Accepts raw barcode data - will parse GS1/ANSI barcodes to extract
-     * tracking number candidates and try them sequentially.
+     * tracking number candidates and look them up.
      */
     public void show(String rawBarcode) {
         this.scannedCode = rawBarcode;
@@ -199,7 +199,6 @@ public class StatusCheckCtrl extends LinearLayout {
 
         // Extract candidates from barcode (handles GS1/ANSI, URLs, plain codes)
         this.candidateCodes = BarcodeParser.extractCandidates(rawBarcode);
-        this.currentCandidateIndex = 0;
 
         // Show the best candidate in the UI
         String displayCode = candidateCodes.isEmpty() ? rawBarcode : candidateCodes.get(0);
@@ -208,9 +207,8 @@ public class StatusCheckCtrl extends LinearLayout {
 
         setVisibility(View.VISIBLE);
 
-        // Try the first candidate
         AppModel.ApplicationError(null, "STATUS_CHECK: " + candidateCodes.size() + " candidates from barcode");
-        tryNextCandidate();
+        lookupCandidates();
     }
 
     /**
@@ -218,28 +216,58 @@ public class StatusCheckCtrl extends LinearLayout {
      */
     public void hide() {
         setVisibility(View.GONE);
+        cancelLookup();
         this.scannedCode = null;
         this.candidateCodes = null;
         this.currentShipment = null;
     }
 
     /**
-     * Try the next candidate tracking number against the backend.
-     * If it fails, automatically tries the next candidate.
+     * Look up the candidates against the backend, several at once (see CandidateLookupRacer).
+     * The first candidate that resolves to a shipment wins.
      */
-    private void tryNextCandidate() {
-        if (candidateCodes == null || currentCandidateIndex >= candidateCodes.size()) {
-            // All candidates exhausted
-            showError(getContext().getString(R.string.status_check_not_found));
-            return;
-        }
+    private void lookupCandidates() {
+        cancelLookup();
 
-        String candidate = candidateCodes.get(currentCandidateIndex);
-        AppModel.ApplicationError(null, "STATUS_CHECK: Trying candidate " +
-            (currentCandidateIndex + 1) + "/" + candidateCodes.size() + ": " + candidate);
-        tvScannedCode.setText(candidate);
+        final ServerFuture lookup = CandidateLookupRacer.Race(candidateCodes);
+        candidateLookup = lookup;
+        lookup.OnMainThread(new IServerResponse() {
+            @Override
+            public void onCompleted(final boolean success, final String messageToShow, final Object... objs) {
+                // superseded by a rescan or closed
+                if (candidateLookup != lookup || lookup.IsCancelled())
+                    return;
+                candidateLookup = null;
+
+                if (success && objs != null && objs.length > 1) {
+                    AppModel.ApplicationError(null, "STATUS_CHECK: Candidate matched: " + objs[1]);
+                    tvScannedCode.setText((String) objs[1]);
+                    currentShipment = (ShipmentWithDetail) objs[0];
+                    currentShipment.GenerateNotes();
+                    currentShipment.GeneratePictures();
+
+                    // Set static SELECTED and open full detail view
+                    SELECTED = currentShipment;
+                    hide();
+                    openFullDetailView();
+                } else {
+                    String errorMsg = messageToShow != null ? messageToShow :
+                        getContext().getString(R.string.status_check_not_found);
+                    showError(errorMsg);
+                }
+            }
+        });
+    }
 
-        lookupShipment(candidate);
+    /**
+     * Cancel completes the lookup inline on the UI thread, the field is cleared first so its
+     * listener sees it was superseded instead of showing the cancellation as an error.
+     */
+    private void cancelLookup() {
+        ServerFuture lookup = candidateLookup;
+        candidateLookup = null;
+        if (lookup != null)
+            lookup.Cancel();
     }
 
     private void showLoading() {
@@ -270,39 +298,6 @@ public class StatusCheckCtrl extends LinearLayout {
         llActionButtons.setVisibility(View.VISIBLE);
     }
 
-    private void lookupShipment(String courierTracking) {
-        Communicator.LookupShipmentByCourierTracking(courierTracking, new IServerResponse() {
-            @Override
-            public void onCompleted(final boolean success, final String messageToShow, final Object... objs) {
-                App.Object.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (success && objs != null && objs.length > 0) {
-                            currentShipment = (ShipmentWithDetail) objs[0];
-                            currentShipment.GenerateNotes();
-                            currentShipment.GeneratePictures();
-
-                            // Set static SELECTED and open full detail view
-                            SELECTED = currentShipment;
-                            hide();
-                            openFullDetailView();
-                        } else {
-                            // Try next candidate if available
-                            currentCandidateIndex++;
-                            if (candidateCodes != null && currentCandidateIndex < candidateCodes.size()) {
-                                tryNextCandidate();
-                            } else {
-                                String errorMsg = messageToShow != null ? messageToShow :
-                                    getContext().getString(R.string.status_check_not_found);
-                                showError(errorMsg);
-                            }
-                        }
-                    }
-                });
-            }
-        });
-    }
-
     /**
      * Opens the full tabbed detail view (Details, Notes, Photos, SMS) for the looked-up shipment.
      */
@@ -0,0 +1,227 @@
+package common;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Communicator.IServerResponse;
+
+/**
+ * Collects multi-scan status updates and sends them as one update_status_batch.php POST.
+ * <p>
+ * A batch is flushed {@link #WINDOW_MS} after its first scan or as soon as it holds
+ * {@link #MAX_BATCH} codes. Each scan keeps its own callback and gets exactly what
+ * {@link Communicator#SendDistributorRequest} would have given it: a KeyRef on success, the
+ * server's message on failure. Scanning the same code twice in one window sends it once, with the
+ * status of the last scan, and every scan of it gets that result. Results are matched by key,
+ * which is unique within a batch.
+ * <p>
+ * When the server has no batch endpoint (404 or an answer without "results"), or the device is
+ * offline, the batch is sent as individual update_status.php requests, which also keeps the
+ * offline queueing of SendDistributorRequest. Batch support is then not tried again until the
+ * app restarts.
+ */
+public class StatusUpdateBatcher {
+
+    static final long WINDOW_MS = 1500;
+    static final int MAX_BATCH = 25;
+
+    public static class Item {
+        public final String key;
+        public final String status;
+        public final int statusId;
+        final List<IServerResponse> callbacks = new ArrayList<IServerResponse>();
+
+        Item(String key, String status, int statusId) {
+            this.key = key;
+            this.status = status;
+            this.statusId = statusId;
+        }
+    }
+
+    /**
+     * update_status_batch.php answer, one result per submitted item.
+     */
+    public static class BatchResponse {
+        public List<BatchResult> results;
+    }
+
+    public static class BatchResult extends KeyRef {
+        public boolean success;
+        public String error;
+    }
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private static final LinkedHashMap<String, Item> pending = new LinkedHashMap<String, Item>();
+    private static volatile boolean batchUnsupported;
+
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong batchedItems = new AtomicLong();
+    private static final AtomicLong fallbackItems = new AtomicLong();
+
+    private static final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Flush();
+        }
+    };
+
+    /**
+     * Same contract as {@link Communicator#SendDistributorRequest} without comments, the
+     * callback is completed once the batch holding this scan has been answered.
+     */
+    public static void Submit(String key, String status, int statusId, IServerResponse callback) {
+        if (batchUnsupported) {
+            Communicator.SendDistributorRequest(key, status, statusId, null, callback);
+            return;
+        }
+
+        boolean flushNow;
+        synchronized (pending) {
+            String id = key.toUpperCase(Locale.US);
+            Item item = new Item(key, status, statusId);
+            // scanned again with another status, the last one wins
+            Item previous = pending.put(id, item);
+            if (previous != null)
+                item.callbacks.addAll(previous.callbacks);
+            item.callbacks.add(callback);
+
+            flushNow = pending.size() >= MAX_BATCH;
+            if (pending.size() == 1 && !flushNow)
+                mainHandler.postDelayed(flushRunnable, WINDOW_MS);
+        }
+
+        if (flushNow)
+            Flush();
+    }
+
+    /**
+     * Sends whatever is collected right away.
+     */
+    public static void Flush() {
+        final List<Item> items;
+        synchronized (pending) {
+            mainHandler.removeCallbacks(flushRunnable);
+            if (pending.isEmpty())
+                return;
+            items = new ArrayList<Item>(pending.values());
+            pending.clear();
+        }
+
+        if (batchUnsupported || items.size() == 1 || !AppModel.Object.IsNetworkAvailable(false)) {
+            SendIndividually(items);
+            return;
+        }
+
+        RequestExecutor.Execute(RequestExecutor.Lane.Interactive, new IServerResponse() {
+            @Override
+            public void onCompleted(boolean success, String messageToShow, Object... objs) {
+                // only reached when the lane rejected the batch
+                for (Item item : items)
+                    Complete(item, false, messageToShow);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                BatchResponse response;
+                try {
+                    response = Communicator.SendDistributorRequestBatch(items);
+                } catch (HttpResponseException ex) {
+                    if (ex.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+                        batchUnsupported = true;
+                        SendIndividually(items);
+                        return;
+                    }
+                    Fail(items, ex);
+                    return;
+                } catch (Exception ex) {
+                    Fail(items, ex);
+                    return;
+                }
+
+                if (response == null || response.results == null) {
+                    batchUnsupported = true;
+                    SendIndividually(items);
+                    return;
+                }
+
+                batches.incrementAndGet();
+                batchedItems.addAndGet(items.size());
+                Dispatch(items, response.results);
+            }
+        });
+    }
+
+    private static void Dispatch(List<Item> items, List<BatchResult> results) {
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            BatchResult result = Find(results, item.key, i);
+            if (result == null) {
+                Complete(item, false, "Something went wrong, Please try again");
+            } else if (!result.success) {
+                Complete(item, false, AppModel.IsNullOrEmpty(result.error) ? "Something went wrong, Please try again" : result.error);
+            } else {
+                Complete(item, true, null, result);
+            }
+        }
+    }
+
+    private static BatchResult Find(List<BatchResult> results, String key, int index) {
+        for (BatchResult result : results)
+            if (result != null && key.equalsIgnoreCase(result.key))
+                return result;
+        // servers that don't echo the key answer in request order
+        if (index < results.size() && results.get(index) != null && AppModel.IsNullOrEmpty(results.get(index).key))
+            return results.get(index);
+        return null;
+    }
+
+    private static void Fail(List<Item> items, Exception ex) {
+        AppModel.ApplicationError(ex, "Communicator::SendDistributorRequestBatch");
+        for (Item item : items)
+            Complete(item, false, "Something went wrong, Please try again");
+    }
+
+    private static void SendIndividually(List<Item> items) {
+        fallbackItems.addAndGet(items.size());
+        for (final Item item : items) {
+            Communicator.SendDistributorRequest(item.key, item.status, item.statusId, null, new IServerResponse() {
+                @Override
+                public void onCompleted(boolean success, String messageToShow, Object... objs) {
+                    Complete(item, success, messageToShow, objs);
+                }
+            });
+        }
+    }
+
+    private static void Complete(Item item, boolean success, String messageToShow, Object... objs) {
+        for (IServerResponse callback : item.callbacks) {
+            try {
+                callback.onCompleted(success, messageToShow, objs);
+            } catch (Exception ex) {
+                AppModel.ApplicationError(ex, "StatusUpdateBatcher::Complete");
+            }
+        }
+    }
+
+    public static long GetBatchCount() {
+        return batches.get();
+    }
+
+    public static long GetBatchedItemCount() {
+        return batchedItems.get();
+    }
+
+    public static long GetFallbackItemCount() {
+        return fallbackItems.get();
+    }
+}
@@ -0,0 +1,135 @@
+package common;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.protocol.HTTP;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URLEncoder;
+import java.util.Map;
+
+/**
+ * Form (application/x-www-form-urlencoded) body whose {@link PayloadStore.Payload} values are
+ * encoded from their file while the request is written, instead of being loaded into a String
+ * first. Plain values are encoded like UrlEncodedFormEntity does.
+ */
+public class StreamedFormEntity extends AbstractHttpEntity {
+
+    private static final int CHUNK_CHARS = 8192;
+
+    private final Map<String, Object> params;
+    private long contentLength = -1;
+
+    public StreamedFormEntity(Map<String, Object> params) {
+        this.params = params;
+        setContentType("application/x-www-form-urlencoded");
+    }
+
+    /**
+     * Whether the params hold a payload, otherwise UrlEncodedFormEntity does the same job.
+     */
+    public static boolean IsNeeded(Map<String, Object> params) {
+        for (Object value : params.values())
+            if (value instanceof PayloadStore.Payload)
+                return true;
+        return false;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Exact length, counted by encoding once without sending so the server gets a
+     * Content-Length rather than a chunked body.
+     */
+    @Override
+    public long getContentLength() {
+        if (contentLength < 0) {
+            CountingStream counter = new CountingStream();
+            try {
+                writeTo(counter);
+                contentLength = counter.count;
+            } catch (IOException ex) {
+                AppModel.ApplicationError(ex, "StreamedFormEntity::getContentLength");
+            }
+        }
+        return contentLength;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        boolean first = true;
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+            if (!first)
+                out.write('&');
+            first = false;
+
+            out.write(Encode(param.getKey()));
+            out.write('=');
+            if (param.getValue() instanceof PayloadStore.Payload)
+                WritePayload((PayloadStore.Payload) param.getValue(), out);
+            else
+                out.write(Encode(String.valueOf(param.getValue())));
+        }
+        out.flush();
+    }
+
+    private static void WritePayload(PayloadStore.Payload payload, OutputStream out) throws IOException {
+        Reader reader = new InputStreamReader(payload.Open(), "UTF-8");
+        try {
+            char[] buffer = new char[CHUNK_CHARS];
+            int carried = 0;
+            int read;
+            while ((read = reader.read(buffer, carried, buffer.length - carried)) != -1) {
+                int length = carried + read;
+                // never split a surrogate pair between two chunks
+                carried = Character.isHighSurrogate(buffer[length - 1]) ? 1 : 0;
+                out.write(Encode(new String(buffer, 0, length - carried)));
+                if (carried == 1)
+                    buffer[0] = buffer[length - 1];
+            }
+            if (carried == 1)
+                out.write(Encode(String.valueOf(buffer[0])));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static byte[] Encode(String value) throws IOException {
+        // same charset UrlEncodedFormEntity defaults to
+        return URLEncoder.encode(value, HTTP.DEFAULT_CONTENT_CHARSET).getBytes(HTTP.US_ASCII);
+    }
+
+    private static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import android.text.SpannableString;
 import android.text.Spanned;
 import android.text.style.BackgroundColorSpan;
 
+import java.util.Arrays;
 import java.util.Locale;
 
 /**
@@ -24,30 +25,56 @@ public class TextHighlighter {
         if (AppModel.IsNullOrEmpty(text) || AppModel.IsNullOrEmpty(searchQuery)) {
             return text == null ? "" : text;
         }
+        return highlight(text, ranges(text, searchQuery.toLowerCase(Locale.getDefault())));
+    }
 
-        // Create spannable string for highlighting
-        SpannableString spannableString = new SpannableString(text);
+    /**
+     * Start and end of every occurrence of the query, {start0, end0, start1, end1, ...}
+     *
+     * @param queryLower The search query, already lower-cased
+     */
+    public static int[] ranges(String text, String queryLower) {
+        if (AppModel.IsNullOrEmpty(text) || AppModel.IsNullOrEmpty(queryLower)) {
+            return new int[0];
+        }
 
-        // Convert both to lowercase for case-insensitive search
+        // Convert the text to lowercase for case-insensitive search
         String textLower = text.toLowerCase(Locale.getDefault());
-        String queryLower = searchQuery.toLowerCase(Locale.getDefault());
 
-        // Find and highlight all occurrences
+        int[] ranges = new int[0];
         int startPos = 0;
         while ((startPos = textLower.indexOf(queryLower, startPos)) >= 0) {
             int endPos = startPos + queryLower.length();
+            ranges = Arrays.copyOf(ranges, ranges.length + 2);
+            ranges[ranges.length - 2] = startPos;
+            ranges[ranges.length - 1] = endPos;
+            startPos = endPos;
+        }
+        return ranges;
+    }
 
+    /**
+     * Text with a yellow background on the given ranges, see {@link #ranges(String, String)}
+     */
+    public static CharSequence highlight(String text, int[] ranges) {
+        if (text == null) {
+            return "";
+        }
+        if (ranges.length == 0) {
+            return text;
+        }
+
+        // Create spannable string for highlighting
+        SpannableString spannableString = new SpannableString(text);
+        for (int i = 0; i + 1 < ranges.length; i += 2) {
             // Apply yellow background highlight
             spannableString.setSpan(
                 new BackgroundColorSpan(Color.YELLOW),
-                startPos,
-                endPos,
+                ranges[i],
+                ranges[i + 1],
                 Spanned.SPAN_EXCLUSIVE_EXCLUSIVE
             );
-
-            startPos = endPos;
         }
-
         return spannableString;
     }
 }
@@ -0,0 +1,238 @@
+package common;
+
+import android.os.SystemClock;
+
+import com.google.gson.Gson;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns the session's auth_key renewal.
+ * <p>
+ * Renewal is single-flight: the first request that sees an auth failure logs in again, requests
+ * failing at the same time wait for that login and then replay with the new key instead of
+ * failing. A request whose key has already been replaced by the time it failed replays right
+ * away without another login.
+ * <p>
+ * The key is also renewed in the background shortly before it expires (expires_in of the login
+ * answer, {@link #DEFAULT_TOKEN_LIFETIME_MS} when the server doesn't send it), so a route
+ * normally never hits the 401 path at all.
+ * <p>
+ * The stored password is decrypted (PBKDF2) once per session and kept in memory until
+ * {@link #Clear()} on logout.
+ */
+public class TokenManager {
+
+    static final long DEFAULT_TOKEN_LIFETIME_MS = 8 * 60 * 60 * 1000;
+    static final long LOGIN_WAIT_MS = 30 * 1000;
+
+    // renew when this share of the lifetime has passed
+    private static final double RENEW_AT = 0.9;
+
+    private static class Login {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean success;
+
+        void Finish(boolean success) {
+            this.success = success;
+            done.countDown();
+        }
+
+        boolean Await() {
+            try {
+                return done.await(LOGIN_WAIT_MS, TimeUnit.MILLISECONDS) && success;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private static final Object lock = new Object();
+    private static Login inFlight;
+
+    private static String password;
+    private static String passwordSource;
+
+    private static long issuedAt;
+    private static long lifetimeMs = DEFAULT_TOKEN_LIFETIME_MS;
+
+    private static final AtomicLong logins = new AtomicLong();
+    private static final AtomicLong waiters = new AtomicLong();
+    private static final AtomicLong replays = new AtomicLong();
+    private static final AtomicLong proactiveRenewals = new AtomicLong();
+
+    public static String CurrentKey() {
+        UserRef user = App.CurrentUser;
+        return user == null ? null : user.auth_key;
+    }
+
+    /**
+     * Called after an auth failure.
+     *
+     * @param failedKey auth_key the failed request was sent with
+     * @return true when a valid key is available now and the request should be replayed
+     */
+    public static boolean Renew(String failedKey) {
+        Login login;
+        boolean leader = false;
+        synchronized (lock) {
+            String current = CurrentKey();
+            if (current != null && !current.equals(failedKey) && inFlight == null) {
+                // renewed by someone else after this request was sent
+                replays.incrementAndGet();
+                return true;
+            }
+
+            if (inFlight == null) {
+                inFlight = new Login();
+                leader = true;
+            } else {
+                waiters.incrementAndGet();
+            }
+            login = inFlight;
+        }
+
+        if (!leader)
+            return login.Await();
+
+        boolean success = false;
+        try {
+            success = DoLogin();
+        } finally {
+            synchronized (lock) {
+                inFlight = null;
+            }
+            login.Finish(success);
+        }
+        return success;
+    }
+
+    /**
+     * Starts a background renewal when the key is close to expiry. Cheap, called per request.
+     */
+    public static void RenewIfExpiring() {
+        synchronized (lock) {
+            if (issuedAt == 0 || inFlight != null || App.CurrentUser == null)
+                return;
+            if (SystemClock.elapsedRealtime() - issuedAt < lifetimeMs * RENEW_AT)
+                return;
+            // don't trigger again while this one is queued
+            issuedAt = SystemClock.elapsedRealtime();
+        }
+
+        final String key = CurrentKey();
+        RequestExecutor.Execute(RequestExecutor.Lane.Background, new Runnable() {
+            @Override
+            public void run() {
+                proactiveRenewals.incrementAndGet();
+                Renew(key);
+            }
+        });
+    }
+
+    /**
+     * Records a successful interactive login (LoginCtrl), with the plain password when known.
+     */
+    public static void OnLoggedIn(UserRef user, String plainPassword) {
+        synchronized (lock) {
+            issuedAt = SystemClock.elapsedRealtime();
+            lifetimeMs = user != null && user.expires_in > 0 ? user.expires_in * 1000 : DEFAULT_TOKEN_LIFETIME_MS;
+            if (!AppModel.IsNullOrEmpty(plainPassword)) {
+                password = plainPassword;
+                passwordSource = AppModel.Object.GetVariable(AppModel.PASS_KEY);
+            }
+        }
+    }
+
+    /**
+     * Stored password in plain text, decrypted once per session.
+     */
+    public static String GetStoredPassword() {
+        String storedPassword = AppModel.Object.GetVariable(AppModel.PASS_KEY);
+        if (AppModel.IsNullOrEmpty(storedPassword))
+            return null;
+
+        synchronized (lock) {
+            // a changed password (ChangePasswordDialog) replaces the stored value
+            if (password != null && storedPassword.equals(passwordSource))
+                return password;
+        }
+
+        String plain;
+        if ("true".equals(AppModel.Object.GetVariable(AppModel.PASS_ENCRYPTED_KEY))) {
+            String deviceId = PasswordSecurityUtil.getDeviceId(AppModel.Object.context);
+            plain = PasswordSecurityUtil.decryptFromStorage(storedPassword, deviceId);
+        } else {
+            plain = storedPassword;
+        }
+
+        synchronized (lock) {
+            password = plain;
+            passwordSource = storedPassword;
+        }
+        return plain;
+    }
+
+    /**
+     * Forgets the session, on logout.
+     */
+    public static void Clear() {
+        synchronized (lock) {
+            password = null;
+            passwordSource = null;
+            issuedAt = 0;
+            lifetimeMs = DEFAULT_TOKEN_LIFETIME_MS;
+        }
+    }
+
+    private static boolean DoLogin() {
+        try {
+            String username = AppModel.Object.GetVariable(AppModel.USER_KEY);
+            if (AppModel.IsNullOrEmpty(username))
+                return false;
+
+            String password = GetStoredPassword();
+            if (AppModel.IsNullOrEmpty(password))
+                return false;
+
+            logins.incrementAndGet();
+
+            // Perform synchronous login (we're already on a background thread)
+            String url = Communicator.URL + "/app_login_auth.php";
+            HashMap<String, Object> reqParams = new HashMap<String, Object>();
+            reqParams.put("user", username);
+            reqParams.put("pass", password);
+
+            String json = Rest.PostWithoutReAuth(url, reqParams);
+            UserRef user = new Gson().fromJson(json, UserRef.class);
+
+            if (user != null && !AppModel.IsNullOrEmpty(user.authenticated)
+                    && user.authenticated.equalsIgnoreCase("true")) {
+                App.CurrentUser = user;
+                AppModel.Object.SaveVariable(AppModel.AUTH_TOKEN, user.auth_key);
+                AppModel.Object.SaveVariable(AppModel.USER_CACHE_KEY, new Gson().toJson(user));
+
+                synchronized (lock) {
+                    issuedAt = SystemClock.elapsedRealtime();
+                    lifetimeMs = user.expires_in > 0 ? user.expires_in * 1000 : DEFAULT_TOKEN_LIFETIME_MS;
+                }
+                return true;
+            }
+
+            return false;
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "TokenManager::Login");
+            return false;
+        }
+    }
+
+    public static String GetSummary() {
+        return String.format(Locale.US, "auth logins=%d waited=%d replayed=%d proactive=%d",
+                logins.get(), waiters.get(), replays.get(), proactiveRenewals.get());
+    }
+}
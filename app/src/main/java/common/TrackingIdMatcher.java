@@ -0,0 +1,282 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import common.RequestExecutor.Lane;
+
+/**
+ * Finds the loaded tracking ids contained in a scanned code, for BarcodeParser. An Aho-Corasick
+ * automaton over the case-folded tracking ids of the stored lists finds all of them in one pass
+ * over the code (control characters skipped). Of those the one that comes first in tab order,
+ * then list order, is taken, as the scan over the id list did.
+ * <p>
+ * Kept up to date by ShipmentStore: after a list was written the ids are read again in the
+ * background, only ids not seen before are added to the trie and ids no longer loaded are switched
+ * off. The failure links are recomputed by the next lookup after a change, the trie is built anew
+ * once most of it is switched off.
+ */
+public class TrackingIdMatcher {
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private static final TrackingIdMatcher loaded = new TrackingIdMatcher();
+    private static boolean loadedOnce; // guarded by loaded
+    private static final AtomicBoolean refreshScheduled = new AtomicBoolean();
+
+    // trie, one entry per node
+    private int nodeCount;
+    private char[] label = new char[64];
+    private int[] firstChild = new int[64], nextSibling = new int[64];
+    private int[] fail = new int[64];
+    // pattern ending at the node, nearest node with a pattern on the failure chain
+    private int[] terminal = new int[64], output = new int[64];
+    // (parent << 16) | folded char -> child
+    private final HashMap<Long, Integer> edges = new HashMap<Long, Integer>();
+    private boolean linksStale;
+
+    // per pattern: the tracking id as loaded and its position in the id list, NONE when not loaded
+    private final List<String> ids = new ArrayList<String>();
+    private int[] rank = new int[16];
+    private final HashMap<String, Integer> patternOf = new HashMap<String, Integer>();
+    private int emptyRank = NONE;
+
+    TrackingIdMatcher() {
+        Clear();
+    }
+
+    /**
+     * The loaded tracking id contained in the code ignoring case and control characters, the first
+     * in tab order when there are several. Null when there is none.
+     */
+    public static String FindLoaded(String code) {
+        synchronized (loaded) {
+            if (!loadedOnce) {
+                loaded.SetIds(ShipmentStore.GetTrackingIds());
+                loadedOnce = true;
+            }
+            return loaded.Find(code);
+        }
+    }
+
+    /**
+     * Reads the loaded tracking ids again in the background, called after a list was written.
+     */
+    public static void Schedule() {
+        if (!refreshScheduled.compareAndSet(false, true))
+            return;
+
+        Future<?> future = RequestExecutor.Execute(Lane.Background, new Runnable() {
+            @Override
+            public void run() {
+                refreshScheduled.set(false);
+                try {
+                    AppModel.Object.db.AwaitPendingWrites();
+                    List<String> trackingIds = ShipmentStore.GetTrackingIds();
+                    synchronized (loaded) {
+                        loaded.SetIds(trackingIds);
+                        loadedOnce = true;
+                    }
+                } catch (Exception ex) {
+                    AppModel.ApplicationError(ex, "TrackingIdMatcher::Schedule");
+                }
+            }
+        });
+        if (future == null)
+            refreshScheduled.set(false);
+    }
+
+    /**
+     * The ids to find from now on, the first one wins when several are contained in a code.
+     */
+    void SetIds(List<String> trackingIds) {
+        Arrays.fill(rank, 0, ids.size(), NONE);
+        emptyRank = NONE;
+
+        for (int i = 0; i < trackingIds.size(); i++) {
+            String id = trackingIds.get(i);
+            if (id.isEmpty()) {
+                // contained in every code, as String.contains("") is
+                if (emptyRank == NONE)
+                    emptyRank = i;
+                continue;
+            }
+            String folded = Fold(id);
+            Integer pattern = patternOf.get(folded);
+            if (pattern == null) {
+                pattern = AddPattern(folded);
+                ids.add(id);
+            }
+            if (rank[pattern] == NONE) {
+                rank[pattern] = i;
+                ids.set(pattern, id);
+            }
+        }
+
+        int switchedOff = 0;
+        for (int p = 0; p < ids.size(); p++)
+            if (rank[p] == NONE)
+                switchedOff++;
+        if (switchedOff > 64 && switchedOff * 2 > ids.size())
+            Rebuild();
+    }
+
+    /**
+     * See {@link #FindLoaded(String)}.
+     */
+    String Find(String code) {
+        if (linksStale)
+            BuildLinks();
+
+        int best = emptyRank == NONE ? Integer.MAX_VALUE : emptyRank;
+        String found = emptyRank == NONE ? null : "";
+        int state = ROOT;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c <= 0x1F || c == 0x7F)
+                continue; // stripped, an id may span them
+            c = Fold(c);
+
+            int next;
+            while ((next = Child(state, c)) == NONE && state != ROOT)
+                state = fail[state];
+            state = next == NONE ? ROOT : next;
+
+            for (int node = terminal[state] != NONE ? state : output[state]; node != NONE; node = output[node]) {
+                int pattern = terminal[node];
+                if (rank[pattern] != NONE && rank[pattern] < best) {
+                    best = rank[pattern];
+                    found = ids.get(pattern);
+                }
+            }
+        }
+        return found;
+    }
+
+    int PatternCount() {
+        return ids.size();
+    }
+
+    private int AddPattern(String folded) {
+        int pattern = ids.size();
+        if (pattern == rank.length)
+            rank = Arrays.copyOf(rank, pattern * 2);
+        rank[pattern] = NONE;
+        patternOf.put(folded, pattern);
+
+        int node = ROOT;
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            int child = Child(node, c);
+            if (child == NONE) {
+                child = NewNode(c);
+                edges.put(EdgeKey(node, c), child);
+                nextSibling[child] = firstChild[node];
+                firstChild[node] = child;
+            }
+            node = child;
+        }
+        terminal[node] = pattern;
+        linksStale = true;
+        return pattern;
+    }
+
+    // breadth first, a node's failure link is always shallower than the node
+    private void BuildLinks() {
+        int[] queue = new int[nodeCount];
+        int head = 0, tail = 0;
+        for (int child = firstChild[ROOT]; child != NONE; child = nextSibling[child]) {
+            fail[child] = ROOT;
+            output[child] = NONE;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+                char c = label[child];
+                int f = fail[node];
+                int target;
+                while ((target = Child(f, c)) == NONE && f != ROOT)
+                    f = fail[f];
+                fail[child] = target == NONE ? ROOT : target;
+                output[child] = terminal[fail[child]] != NONE ? fail[child] : output[fail[child]];
+                queue[tail++] = child;
+            }
+        }
+        linksStale = false;
+    }
+
+    // drops the switched off ids
+    private void Rebuild() {
+        List<String> live = new ArrayList<String>();
+        List<Integer> liveRanks = new ArrayList<Integer>();
+        for (int p = 0; p < ids.size(); p++) {
+            if (rank[p] != NONE) {
+                live.add(ids.get(p));
+                liveRanks.add(rank[p]);
+            }
+        }
+
+        Clear();
+        for (int i = 0; i < live.size(); i++) {
+            int pattern = AddPattern(Fold(live.get(i)));
+            ids.add(live.get(i));
+            rank[pattern] = liveRanks.get(i);
+        }
+    }
+
+    private void Clear() {
+        nodeCount = 0;
+        edges.clear();
+        ids.clear();
+        patternOf.clear();
+        NewNode('\0');
+        fail[ROOT] = ROOT;
+        linksStale = true;
+    }
+
+    private int NewNode(char c) {
+        if (nodeCount == label.length) {
+            int size = nodeCount * 2;
+            label = Arrays.copyOf(label, size);
+            firstChild = Arrays.copyOf(firstChild, size);
+            nextSibling = Arrays.copyOf(nextSibling, size);
+            fail = Arrays.copyOf(fail, size);
+            terminal = Arrays.copyOf(terminal, size);
+            output = Arrays.copyOf(output, size);
+        }
+        int node = nodeCount++;
+        label[node] = c;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        fail[node] = ROOT;
+        terminal[node] = NONE;
+        output[node] = NONE;
+        return node;
+    }
+
+    private int Child(int node, char c) {
+        Integer child = edges.get(EdgeKey(node, c));
+        return child == null ? NONE : child;
+    }
+
+    private static long EdgeKey(int node, char c) {
+        return ((long) node << 16) | c;
+    }
+
+    private static char Fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static String Fold(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = Fold(chars[i]);
+        return new String(chars);
+    }
+}
@@ -8,14 +8,15 @@ import android.view.View.OnClickListener;
 import android.view.View.OnTouchListener;
 import android.view.ViewGroup;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.RadioButton;
 import android.widget.TextView;
 
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.RecyclerView;
 
 import eu.trackify.net.R;
 
+import java.util.Arrays;
 import java.util.Date;
 
 import common.Communicator.IServerResponse;
@@ -24,7 +25,7 @@ import common.UserDistributorShipmentsFragment.ShipmentsType;
 
 public class UserDistributorNotesFragment extends Fragment {
 
-	ListView lv_results;
+	RecyclerView lv_results;
 	ListDataBinder<NoteItem> binder;
 
 	View btnSendComments;
@@ -42,10 +43,22 @@ public class UserDistributorNotesFragment extends Fragment {
 	public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 		View v = inflater.inflate(R.layout.ctrl_distributor_notes, null);
 
-		lv_results = (ListView) v.findViewById(R.id.lv_results);
+		lv_results = (RecyclerView) v.findViewById(R.id.lv_results);
 		// Remove touch listener as we're not using ScrollView anymore
 		
 		binder = new ListDataBinder<NoteItem>(BindedListType.Note, lv_results);
+		// newest note at the bottom, keep it in view when the notes change
+		binder.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+			@Override
+			public void onChanged() {
+				ScrollToLast();
+			}
+
+			@Override
+			public void onItemRangeInserted(int positionStart, int itemCount) {
+				ScrollToLast();
+			}
+		});
 		
 		// Initialize new UI elements
 		btnToggleAddNote = v.findViewById(R.id.btnToggleAddNote);
@@ -139,6 +152,10 @@ public class UserDistributorNotesFragment extends Fragment {
 			i.driver_name = App.CurrentUser.user;
 			i.user_id = "" + App.CurrentUser.user_id;
 
+			// also in notes, kept when _Notes is generated again before the next load
+			NoteItem[] notes = Current.notes == null ? new NoteItem[0] : Current.notes;
+			Current.notes = Arrays.copyOf(notes, notes.length + 1);
+			Current.notes[notes.length] = i;
 			Current._Notes.add(i);
 			Initialize();
 		} catch (Exception ex) {
@@ -158,6 +175,11 @@ public class UserDistributorNotesFragment extends Fragment {
 		}
 	}
 	
+	private void ScrollToLast() {
+		if (binder.getItemCount() > 0)
+			lv_results.scrollToPosition(binder.getItemCount() - 1);
+	}
+
 	public void Initialize() {
 		try {
 			if (App.Object.userDistributorShipmentDetailTabCtrl.LoadFromShipmentType == ShipmentsType.StatusCheck) {
@@ -411,13 +411,12 @@ public class UserDistributorShipmentDetail extends Fragment {
                                                 Current.status_id = statusId;
                                             }
 
-                                            // Clear cache to force fresh data on next load
-                                            AppModel.Object.SaveVariable(AppModel.MY_SHIPMENTS_CACHE_KEY, "");
-                                            AppModel.Object.SaveVariable(AppModel.RECONCILE_SHIPMENTS_CACHE_KEY, "");
-
-                                            App.Object.userDistributorMyShipmentsFragment.Load();
-                                            App.Object.userDistributorReconcileShipmentsFragment.Load();
-                                            App.Object.userDistributorReturnShipmentsFragment.Load();
+                                            // Move it between the tabs locally, otherwise reload
+                                            if (!ShipmentStatePatcher.Apply(u, null)) {
+                                                App.Object.userDistributorMyShipmentsFragment.Load();
+                                                App.Object.userDistributorReconcileShipmentsFragment.Load();
+                                                App.Object.userDistributorReturnShipmentsFragment.Load();
+                                            }
                                             App.Object.userDistributorShipmentDetailTabCtrl.Hide();
                                         } else {
                                             MessageCtrl.Toast(getContext().getString(R.string.error_signature_failed));
@@ -723,7 +722,7 @@ public class UserDistributorShipmentDetail extends Fragment {
 
     // ── StatusCheck action ───────────────────────────────────────────────
 
-    private void submitStatusCheckAction(final int statusId, String status) {
+    private void submitStatusCheckAction(final int statusId, final String status) {
         App.SetProcessing(true);
         Communicator.SendDistributorRequest(Current.tracking_id, status, statusId, null, new IServerResponse() {
             @Override
@@ -733,19 +732,22 @@ public class UserDistributorShipmentDetail extends Fragment {
                     public void run() {
                         App.SetProcessing(false);
                         if (success) {
+                            KeyRef u = null;
                             if (objs != null && objs.length > 0) {
-                                KeyRef u = (KeyRef) objs[0];
+                                u = (KeyRef) objs[0];
                                 if (!AppModel.IsNullOrEmpty(u.response_txt)) {
                                     MessageCtrl.Toast(u.response_txt);
                                 }
                             }
-                            // Refresh all shipment lists
-                            if (App.Object.userDistributorMyShipmentsFragment != null)
-                                App.Object.userDistributorMyShipmentsFragment.Load();
-                            if (App.Object.userDistributorReconcileShipmentsFragment != null)
-                                App.Object.userDistributorReconcileShipmentsFragment.Load();
-                            if (App.Object.userDistributorReturnShipmentsFragment != null)
-                                App.Object.userDistributorReturnShipmentsFragment.Load();
+                            // Patch the shipment lists, or refresh all of them
+                            if (!ShipmentStatePatcher.Apply(u, status)) {
+                                if (App.Object.userDistributorMyShipmentsFragment != null)
+                                    App.Object.userDistributorMyShipmentsFragment.Load();
+                                if (App.Object.userDistributorReconcileShipmentsFragment != null)
+                                    App.Object.userDistributorReconcileShipmentsFragment.Load();
+                                if (App.Object.userDistributorReturnShipmentsFragment != null)
+                                    App.Object.userDistributorReturnShipmentsFragment.Load();
+                            }
 
                             // Close detail view
                             App.Object.userDistributorShipmentDetailTabCtrl.Hide();
@@ -4,14 +4,15 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.graphics.Rect;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ListView;
 import android.widget.TextView;
 
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.io.File;
 
@@ -22,7 +23,7 @@ import common.UserDistributorShipmentsFragment.ShipmentsType;
 
 public class UserDistributorShipmentPicturesFragment extends Fragment {
 
-    ListView lv_results;
+    RecyclerView lv_results;
     ListDataBinder<PictureItem> binder;
     View btnAddPicture;
     View emptyState;
@@ -44,8 +45,17 @@ public class UserDistributorShipmentPicturesFragment extends Fragment {
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View v = inflater.inflate(R.layout.ctrl_pictures_tab, null);
 
-        lv_results = (ListView) v.findViewById(R.id.lv_results);
+        lv_results = (RecyclerView) v.findViewById(R.id.lv_results);
         binder = new ListDataBinder<PictureItem>(BindedListType.Pictures, lv_results);
+        // 8dp between the pictures
+        final int spacing = (int) (8 * getResources().getDisplayMetrics().density);
+        lv_results.addItemDecoration(new RecyclerView.ItemDecoration() {
+            @Override
+            public void getItemOffsets(Rect outRect, View view, RecyclerView parent, RecyclerView.State state) {
+                if (parent.getChildAdapterPosition(view) > 0)
+                    outRect.top = spacing;
+            }
+        });
         emptyState = v.findViewById(R.id.emptyState);
         tvPictureCount = (TextView) v.findViewById(R.id.tvPictureCount);
         
@@ -10,18 +10,15 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.AdapterView.OnItemClickListener;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
-import android.widget.ListView;
 import android.widget.TextView;
 
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.RecyclerView;
 
 import eu.trackify.net.R;
-import com.google.gson.Gson;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -45,7 +42,7 @@ public class UserDistributorShipmentsFragment extends Fragment {
     boolean isStatusCheckScan = false;
     boolean isReturnReceivedScan = false;
 
-    ListView lv_results;
+    RecyclerView lv_results;
     View emptyStateContainer;
     ListDataBinder<ShipmentWithDetail> binder;
     EditText et_Search;
@@ -64,7 +61,19 @@ public class UserDistributorShipmentsFragment extends Fragment {
     ShipmentWithDetail SELECTED;
     List<ShipmentWithDetail> ITEMS = new ArrayList<ShipmentWithDetail>();
 
+    // sync_token of the list currently in ITEMS, null until a full load succeeded
+    String syncToken;
+    // cod_to_reconcile of the last answer, base for local status patches
+    double codToReconcile;
+
+    final ShipmentSearchIndex searchIndex = new ShipmentSearchIndex();
+
+    // when the list in ITEMS was loaded from the server, shown while it is revalidated
+    TextView tvListAge;
+    long shownSavedAt;
+
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        ListFreshness.MarkStart(Type);
         final View v = inflater.inflate(R.layout.ctrl_distributor_user_shipments, null);
 
         chkMultiscan = v.findViewById(R.id.chkMultiscan);
@@ -72,8 +81,9 @@ public class UserDistributorShipmentsFragment extends Fragment {
         btnScanPick = v.findViewById(R.id.btnScanPick);
         btnStatusCheck = v.findViewById(R.id.btnStatusCheck);
         et_Search = (EditText) v.findViewById(R.id.et_Search);
-        lv_results = (ListView) v.findViewById(R.id.lv_results);
+        lv_results = (RecyclerView) v.findViewById(R.id.lv_results);
         emptyStateContainer = v.findViewById(R.id.emptyStateContainer);
+        tvListAge = (TextView) v.findViewById(R.id.tvListAge);
         llDeliveredInfo = v.findViewById(R.id.llDeliveredInfo);
         tvDeliveredCount = (TextView) v.findViewById(R.id.tvDeliveredCount);
 
@@ -139,10 +149,10 @@ public class UserDistributorShipmentsFragment extends Fragment {
             btnStatusCheck.setVisibility(View.GONE); // Hide status check for returns
         }
 
-        lv_results.setOnItemClickListener(new OnItemClickListener() {
+        binder.SetOnItemClickListener(new ListDataBinder.IItemClick<ShipmentWithDetail>() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                SELECTED = (ShipmentWithDetail) view.getTag();
+            public void OnItemClick(ShipmentWithDetail item) {
+                SELECTED = item;
                 InitializeSelectedItem();
             }
         });
@@ -150,7 +160,7 @@ public class UserDistributorShipmentsFragment extends Fragment {
         et_Search.addTextChangedListener(new TextWatcher() {
             @Override
             public void onTextChanged(CharSequence arg0, int arg1, int arg2, int arg3) {
-                ApplyFilter();
+                ApplyFilter(ShipmentSearchIndex.DEBOUNCE_MS);
             }
 
             @Override
@@ -164,11 +174,65 @@ public class UserDistributorShipmentsFragment extends Fragment {
             }
         });
 
+        ShowSnapshot();
         Load();
 
         return v;
     }
 
+    /**
+     * Shows the saved list (ShipmentSnapshot, else ShipmentStore) until Load() answers.
+     */
+    private void ShowSnapshot() {
+        try {
+            if (!ListFreshness.IsEnabled() || !ITEMS.isEmpty())
+                return;
+            String source = "snapshot";
+            ShipmentResponse snapshot = ShipmentSnapshot.Take(Type);
+            if (snapshot == null) {
+                source = "store";
+                snapshot = ShipmentStore.Load(Type);
+            }
+            if (snapshot == null)
+                return;
+
+            codToReconcile = snapshot.cod_to_reconcile;
+            if (Type == ShipmentsType.ReconcileShipments) {
+                int deliveredCount = 0;
+                for (ShipmentWithDetail sd : snapshot.shipments) {
+                    if (sd.status_id == 2) {
+                        deliveredCount++;
+                    }
+                }
+                int codAmount = (int) snapshot.cod_to_reconcile;
+                String tabTitle = String.format(getContext().getString(R.string.tab_title_delivered_count), deliveredCount, String.valueOf(codAmount));
+                App.Object.userDistributorTabCtrl.ChangeTabTitle(tabTitle, App.Object.userDistributorReconcileShipmentsFragment);
+            }
+
+            for (ShipmentWithDetail sd : snapshot.shipments) {
+                sd.GenerateNotes();
+                sd.GeneratePictures();
+                ITEMS.add(sd);
+            }
+            updateDeliveredCount();
+            ApplyFilter();
+            shownSavedAt = snapshot.saved_at;
+            ListFreshness.MarkFirstContent(Type, source);
+        } catch (Exception ex) {
+            AppModel.ApplicationError(ex, "ScanCtrl::ShowSnapshot");
+        }
+    }
+
+    /**
+     * The list in ITEMS is the answer of a load.
+     */
+    private void ShowLoaded() {
+        shownSavedAt = System.currentTimeMillis();
+        ListFreshness.ShowFresh(tvListAge);
+        ListFreshness.MarkFirstContent(Type, "network");
+        ShipmentStatePatcher.MarkLoaded(Type);
+    }
+
     private void InitializeSelectedItem() {
         if (App.Object.userDistributorShipmentDetailTabCtrl.Show(Type)) {
             App.Object.userDistributorShipmentDetail.Initialize();
@@ -184,25 +248,52 @@ public class UserDistributorShipmentsFragment extends Fragment {
     }
 
     public void Load() {
-        App.SetLoading(true);
+        // a list on screen stays usable while it is revalidated, only the differences are applied
+        final boolean revalidate = ListFreshness.IsEnabled() && !ITEMS.isEmpty();
+        if (revalidate)
+            ListFreshness.ShowSaved(tvListAge, shownSavedAt, true);
+        else
+            App.SetLoading(true);
 
         App.Object.runOnUiThread(new Runnable() {
             @SuppressWarnings("unchecked")
             @Override
             public void run() {
                 try {
-                    Communicator.LoadShipmentsWithDetails(Type, new IServerResponse() {
+                    // what is on screen now, a full answer is compared with it off the main thread
+                    final List<ShipmentWithDetail> shown = revalidate ? new ArrayList<ShipmentWithDetail>(ITEMS) : null;
+                    Communicator.LoadShipmentsWithDetails(Type, syncToken, new IServerResponse() {
                         @Override
                         public void onCompleted(final boolean success, final String messageToShow, final Object... objs) {
+                            final ShipmentResponse diff = success && shown != null && objs != null && objs.length > 0
+                                    && objs[0] instanceof ShipmentResponse && !((ShipmentResponse) objs[0]).IsDelta()
+                                    ? ShipmentDelta.Diff(shown, (ShipmentResponse) objs[0]) : null;
                             App.Object.runOnUiThread(new Runnable() {
                                 @SuppressWarnings("unchecked")
                                 @Override
                                 public void run() {
                                     try {
+                                        if (!success && revalidate) {
+                                            if (!AppModel.IsNullOrEmpty(messageToShow))
+                                                MessageCtrl.Toast(messageToShow);
+                                            ListFreshness.ShowSaved(tvListAge, shownSavedAt, false);
+                                            return;
+                                        }
+
                                         if (success) {
                                             if (objs != null) {
-                                                ITEMS.clear();
                                                 ShipmentResponse resp = (ShipmentResponse) objs[0];
+                                                syncToken = resp.sync_token;
+
+                                                if (resp.IsDelta() || revalidate) {
+                                                    ApplyDelta(resp.IsDelta() ? resp : diff);
+                                                    ShowLoaded();
+                                                    App.SetLoading(false);
+                                                    return;
+                                                }
+
+                                                ITEMS.clear();
+                                                codToReconcile = resp.cod_to_reconcile;
 
                                                 if (Type == ShipmentsType.ReconcileShipments) {
                                                     // Count delivered shipments for tab title
@@ -222,14 +313,10 @@ public class UserDistributorShipmentsFragment extends Fragment {
                                                     App.Object.userDistributorTabCtrl.ChangeTabTitle("Returns", App.Object.userDistributorReturnShipmentsFragment);
                                                 }
 
-                                                AppModel.Object.SaveVariable(Type == ShipmentsType.MyShipments ? AppModel.MY_SHIPMENTS_CACHE_KEY : AppModel.RECONCILE_SHIPMENTS_CACHE_KEY, new Gson().toJson(resp));
-
                                                 if (resp.shipments.size() == 0) {
                                                     ApplyFilter();
                                                 } else {
                                                     for (ShipmentWithDetail sd : resp.shipments) {
-                                                        sd.GenerateNotes();
-                                                        sd.GeneratePictures();
                                                         ITEMS.add(sd);
 
                                                         if (SELECTED != null && SELECTED.shipment_id.equals(sd.shipment_id))
@@ -245,17 +332,25 @@ public class UserDistributorShipmentsFragment extends Fragment {
                                                     App.Object.ApplySettings(resp.settings);
                                                 }
 
+                                                ShowLoaded();
                                                 App.SetLoading(false);
                                             } else {
                                                 MessageCtrl.Toast("Loading failed, Please try again");
+                                                if (revalidate)
+                                                    ListFreshness.ShowSaved(tvListAge, shownSavedAt, false);
                                                 App.SetLoading(false);
                                             }
                                         } else if (!AppModel.IsNullOrEmpty(messageToShow)) {
                                             MessageCtrl.Toast(messageToShow);
 
-                                            String sJson = AppModel.Object.GetSettingVariable(Type == ShipmentsType.MyShipments ? AppModel.MY_SHIPMENTS_CACHE_KEY : AppModel.RECONCILE_SHIPMENTS_CACHE_KEY);
-                                            ShipmentResponse cached = new Gson().fromJson(sJson, ShipmentResponse.class);
+                                            ShipmentResponse cached = ShipmentStore.Load(Type);
+                                            if (cached == null) {
+                                                App.SetLoading(false);
+                                                return;
+                                            }
                                             ITEMS.clear();
+                                            syncToken = null;
+                                            codToReconcile = cached.cod_to_reconcile;
 
                                             if (Type == ShipmentsType.ReconcileShipments) {
                                                 // Count delivered shipments for tab title
@@ -277,9 +372,13 @@ public class UserDistributorShipmentsFragment extends Fragment {
 
                                             for (ShipmentWithDetail sd : cached.shipments) {
                                                 sd.GenerateNotes();
+                                                sd.GeneratePictures();
                                                 ITEMS.add(sd);
                                             }
                                             ApplyFilter();
+                                            shownSavedAt = cached.saved_at;
+                                            ListFreshness.ShowSaved(tvListAge, shownSavedAt, false);
+                                            ListFreshness.MarkFirstContent(Type, "cache");
                                             App.SetLoading(false);
                                         }
                                     } catch (Exception ex) {
@@ -300,16 +399,33 @@ public class UserDistributorShipmentsFragment extends Fragment {
     }
 
     public void ApplyFilter() {
+        // ITEMS may have changed, the next search indexes the new list
+        searchIndex.SetItems(ITEMS);
+        ApplyFilter(0);
+    }
+
+    /**
+     * Runs the text search (after delayMs) on the search thread, then shows its matches.
+     */
+    private void ApplyFilter(long delayMs) {
         String txt = et_Search.getText().toString();
-        // Set the search query for text highlighting in ListDataBinder
-        ListDataBinder.currentSearchQuery = AppModel.IsNullOrEmpty(txt) ? "" : txt.toLowerCase();
+        if (AppModel.IsNullOrEmpty(txt)) {
+            searchIndex.Cancel();
+            ShowFiltered("", ITEMS);
+            return;
+        }
 
-        List<ShipmentWithDetail> filtered = ITEMS;
+        searchIndex.Search(txt.toLowerCase(), delayMs, new ShipmentSearchIndex.IResult() {
+            @Override
+            public void OnResult(String query, List<ShipmentWithDetail> matched) {
+                ShowFiltered(query, matched);
+            }
+        });
+    }
 
-        // Apply text search filter
-        if (!AppModel.IsNullOrEmpty(txt)) {
-            filtered = GetSearched(txt.toLowerCase());
-        }
+    private void ShowFiltered(String query, List<ShipmentWithDetail> filtered) {
+        // Set the search query for text highlighting in ListDataBinder
+        ListDataBinder.currentSearchQuery = query;
 
         // Apply client filters if any are active
         if (!activeClientFilters.isEmpty()) {
@@ -330,27 +446,6 @@ public class UserDistributorShipmentsFragment extends Fragment {
         }
     }
 
-    private List<ShipmentWithDetail> GetSearched(String txt) {
-        List<ShipmentWithDetail> matched = new ArrayList<ShipmentWithDetail>();
-        for (ShipmentWithDetail s : ITEMS) {
-            // Search in: tracking ID, description, receiver name, receiver phone, receiver address
-            boolean matches = false;
-
-            if (s.shipment_id != null && s.shipment_id.toLowerCase().contains(txt)) matches = true;
-            if (s.description != null && s.description.toLowerCase().contains(txt)) matches = true;
-            if (s.description_title != null && s.description_title.toLowerCase().contains(txt)) matches = true;
-            if (s.tracking_id != null && s.tracking_id.toLowerCase().contains(txt)) matches = true;
-            if (s.receiver_name != null && s.receiver_name.toLowerCase().contains(txt)) matches = true;
-            if (s.receiver_phone != null && s.receiver_phone.toLowerCase().contains(txt)) matches = true;
-            if (s.receiver_address != null && s.receiver_address.toLowerCase().contains(txt)) matches = true;
-
-            if (matches) {
-                matched.add(s);
-            }
-        }
-        return matched;
-    }
-
     private List<ShipmentWithDetail> GetClientFiltered(List<ShipmentWithDetail> items) {
         List<ShipmentWithDetail> filtered = new ArrayList<ShipmentWithDetail>();
         for (ShipmentWithDetail s : items) {
@@ -595,7 +690,7 @@ public class UserDistributorShipmentsFragment extends Fragment {
         }
     }
 
-    private void SubmitRequest(final String code, String status, int statudId, String comments) {
+    private void SubmitRequest(final String code, final String status, int statudId, String comments) {
         App.SetProcessing(true);
         Communicator.SendDistributorRequest(code, status, statudId, comments, new IServerResponse() {
             @Override
@@ -610,10 +705,12 @@ public class UserDistributorShipmentsFragment extends Fragment {
                                     if (!AppModel.IsNullOrEmpty(u.response_txt))
                                         MessageCtrl.Toast(u.response_txt);
 
-                                    Load();
+                                    if (!ShipmentStatePatcher.Apply(u, status)) {
+                                        Load();
 
-                                    App.Object.userDistributorReconcileShipmentsFragment.Load();
-                                    App.Object.userDistributorReturnShipmentsFragment.Load();
+                                        App.Object.userDistributorReconcileShipmentsFragment.Load();
+                                        App.Object.userDistributorReturnShipmentsFragment.Load();
+                                    }
 
                                 } else
                                     MessageCtrl.Toast("Scanned key sending failed, Please try again");
@@ -633,7 +730,7 @@ public class UserDistributorShipmentsFragment extends Fragment {
                                     s.tracking_id = code;
                                     s.description_title = code;
                                     ITEMS.add(s);
-                                    AppModel.Object.SaveVariable(AppModel.MY_SHIPMENTS_CACHE_KEY, new Gson().toJson(ITEMS));
+                                    ShipmentStore.AddPlaceholder(Type, s);
                                     ApplyFilter();
                                 }
                             }
@@ -648,6 +745,48 @@ public class UserDistributorShipmentsFragment extends Fragment {
         });
     }
 
+    /**
+     * Merges a delta sync answer (or a local status patch) into ITEMS without rebuilding the list.
+     */
+    void ApplyDelta(ShipmentResponse delta) {
+        boolean modified = ShipmentDelta.Apply(ITEMS, delta);
+        codToReconcile = delta.cod_to_reconcile;
+
+        if (Type == ShipmentsType.ReconcileShipments) {
+            // COD total can change without the list changing
+            int deliveredCount = 0;
+            for (ShipmentWithDetail sd : ITEMS) {
+                if (sd.status_id == 2) {
+                    deliveredCount++;
+                }
+            }
+            int codAmount = (int) delta.cod_to_reconcile;
+            String tabTitle = String.format(getContext().getString(R.string.tab_title_delivered_count), deliveredCount, String.valueOf(codAmount));
+            App.Object.userDistributorTabCtrl.ChangeTabTitle(tabTitle, App.Object.userDistributorReconcileShipmentsFragment);
+            updateDeliveredCount();
+        }
+
+        if (delta.settings != null) {
+            App.Object.ApplySettings(delta.settings);
+        }
+
+        if (!modified)
+            return;
+
+        // server deltas were stored by the load
+        if (delta.local)
+            ShipmentStore.SaveLocal(Type, delta);
+
+        ShipmentWithDetail current = ShipmentDelta.Find(ITEMS, SELECTED);
+        if (current != null)
+            SELECTED = current;
+
+        ApplyFilter();
+
+        if (App.Object.userDistributorShipmentDetailTabCtrl.getVisibility() == View.VISIBLE && SELECTED != null)
+            InitializeSelectedItem();
+    }
+
     /**
      * Updates the delivered shipments count display for COD tab
      * Only shows for ReconcileShipments type
@@ -7,6 +7,8 @@ public class UserRef {
 	public int user_id;
 	public String auth_key;
 	public String error_message;
+	// seconds the auth_key stays valid, 0 when the server doesn't say
+	public long expires_in;
 
 	public enum UserType {
 		None, Distributor, Driver // , WarehouseManager, WarehouseAdmin, Packer
@@ -0,0 +1,186 @@
+package common.barcode;
+
+/**
+ * ANSI MH10.8.2 barcodes (starts with [)>), the QR codes of shipping labels. Their fields are
+ * separated by control characters: GS (0x1D), RS (0x1E), EOT (0x04).
+ * <p>
+ * The fields that can be a tracking number are returned, a carrier's tracking number first, then
+ * the fields of the first half of the label (tracking and id fields come before the address and
+ * contact fields), then the rest. At most 3, to avoid cycling through many wrong values.
+ */
+class AnsiLabelFormat extends BarcodeFormat {
+
+    static final String HEADER = "[)>";
+
+    private static final int MAX_CANDIDATES = 3;
+
+    private static final int CARRIER = 90;
+    private static final int PRIMARY = 60;
+    private static final int SECONDARY = 40;
+
+    private static final String[] CURRENCIES = {"EUR", "USD", "HRK", "MKD", "RSD", "BAM", "ALL", "GBP", "CHF"};
+
+    // Phone numbers in the EU/Balkans region start with these country codes
+    private static final String[] PHONE_PREFIXES = {
+        "385", "381", "387", "383", "389", "355", "386", "382",  // Balkans
+        "36", "43", "39", "49", "33", "44", "34", "31",          // Major EU
+        "48", "40", "420", "421"                                   // Central EU
+    };
+
+    AnsiLabelFormat() {
+        super("ANSI MH10.8.2", 100);
+    }
+
+    @Override
+    public boolean Parse(String code, Candidates out) {
+        if (!code.startsWith(HEADER))
+            return false;
+
+        // fields are the runs between control characters, first count the data fields
+        int fields = 0, dataFields = 0;
+        for (int start = SkipControl(code, 0); start < code.length(); start = SkipControl(code, start)) {
+            int end = FieldEnd(code, start);
+            if (IsDataField(code, start, end, fields))
+                dataFields++;
+            fields++;
+            start = end;
+        }
+        if (fields <= 1)
+            return true;
+
+        int field = 0, dataField = 0;
+        for (int start = SkipControl(code, 0); start < code.length(); start = SkipControl(code, start)) {
+            int end = FieldEnd(code, start);
+            if (IsDataField(code, start, end, field)) {
+                int from = TrimStart(code, start, end), to = TrimEnd(code, from, end);
+                if (IsLikelyTrackingNumber(code, from, to) && !IsDefinitelyNotTracking(code, from, to)
+                        && !IsLikelyPhoneNumber(code, from, to)) {
+                    int confidence = BarcodeFormats.IsCarrierTrackingNumber(code, from, to) ? CARRIER
+                            : dataField < dataFields / 2 ? PRIMARY : SECONDARY;
+                    out.Add(from, to, confidence);
+                }
+                dataField++;
+            }
+            field++;
+            start = end;
+        }
+
+        out.Truncate(MAX_CANDIDATES);
+        return true;
+    }
+
+    // Skips the ANSI header "[)>" and the format type "01" and empty fields
+    private static boolean IsDataField(String code, int start, int end, int field) {
+        int from = TrimStart(code, start, end), to = TrimEnd(code, from, end);
+        if (from == to)
+            return false;
+        if (code.startsWith(HEADER, from))
+            return false;
+        if (field <= 2 && (Chars.Is(code, from, to, "01") || Chars.Is(code, from, to, "02") || Chars.Is(code, from, to, "00")))
+            return false;
+        return true;
+    }
+
+    /**
+     * Tracking numbers are 4-25 characters long, alphanumeric with optional / - . _
+     */
+    private static boolean IsLikelyTrackingNumber(String code, int start, int end) {
+        int length = end - start;
+        return length >= 4 && length <= 25 && Chars.AllTrackingChars(code, start, end);
+    }
+
+    /**
+     * Obvious non-tracking fields, for a field that looks like a tracking number (so without
+     * spaces, @ and longer than 3 characters).
+     */
+    private static boolean IsDefinitelyNotTracking(String code, int start, int end) {
+        int length = end - start;
+
+        // Weight values (e.g., "0.20KG", "5.5KG", "3LB")
+        if ((Chars.EndsWithIgnoreCase(code, start, end, "KG") || Chars.EndsWithIgnoreCase(code, start, end, "LB"))
+                && Chars.HasDigit(code, start, end))
+            return true;
+
+        // Currency/money values (e.g., "EUR21.000", "USD50.00")
+        if (Chars.IsDigit(code.charAt(start + 3)))
+            for (String currency : CURRENCIES)
+                if (Chars.RegionMatchesIgnoreCase(code, start, currency))
+                    return true;
+
+        // Decimal amounts like 33.00
+        int digitsEnd = Chars.SkipDigits(code, start, end);
+        if (digitsEnd > start && digitsEnd == end - 3 && code.charAt(digitsEnd) == '.' && Chars.AllDigits(code, end - 2, end))
+            return true;
+
+        // Package count patterns (e.g., "001/001", "1/1", "2/3")
+        if (digitsEnd > start && digitsEnd - start <= 3 && code.charAt(digitsEnd) == '/'
+                && end - digitsEnd - 1 >= 1 && end - digitsEnd - 1 <= 3 && Chars.AllDigits(code, digitsEnd + 1, end))
+            return true;
+
+        // ANSI MH10.8.2 data identifiers (e.g., S010, S020, S030)
+        if (length == 4 && Chars.IsUpper(code.charAt(start)) && Chars.AllDigits(code, start + 1, end))
+            return true;
+
+        // 4 letter uppercase codes (GEOP etc.)
+        if (length == 4 && Chars.AllUpper(code, start, end))
+            return true;
+
+        // Zip codes (exactly 4-5 digits)
+        if (length <= 5 && digitsEnd == end)
+            return true;
+
+        // Addresses: text ending with house number (e.g., "Oremburska11"), letters followed by a
+        // small number (1-4 digits), and purely alphabetic strings (names, words)
+        int lettersEnd = Chars.SkipLetters(code, start, end);
+        if (lettersEnd > start && end - lettersEnd <= 4 && Chars.AllDigits(code, lettersEnd, end))
+            return true;
+
+        return false;
+    }
+
+    /**
+     * Phone numbers in the EU/Balkans region start with 0 (local format) or a country code and
+     * are 10-15 digits long. For a field that looks like a tracking number (so without +).
+     */
+    private static boolean IsLikelyPhoneNumber(String code, int start, int end) {
+        int length = end - start;
+        if (length < 8 || !Chars.AllDigits(code, start, end))
+            return false;
+
+        // Starts with 0 (local phone format in most EU countries)
+        if (code.charAt(start) == '0' && length >= 9 && length <= 15)
+            return true;
+
+        if (length < 10 || length > 15)
+            return false;
+        for (String prefix : PHONE_PREFIXES)
+            if (code.startsWith(prefix, start))
+                return true;
+        return false;
+    }
+
+    private static int SkipControl(String code, int i) {
+        while (i < code.length() && Chars.IsControl(code.charAt(i)))
+            i++;
+        return i;
+    }
+
+    private static int FieldEnd(String code, int i) {
+        while (i < code.length() && !Chars.IsControl(code.charAt(i)))
+            i++;
+        return i;
+    }
+
+    // as String.trim
+    private static int TrimStart(String code, int start, int end) {
+        while (start < end && code.charAt(start) <= ' ')
+            start++;
+        return start;
+    }
+
+    private static int TrimEnd(String code, int start, int end) {
+        while (end > start && code.charAt(end - 1) <= ' ')
+            end--;
+        return end;
+    }
+}
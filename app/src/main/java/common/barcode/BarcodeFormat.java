@@ -0,0 +1,40 @@
+package common.barcode;
+
+/**
+ * A barcode format found on shipping labels, registered with BarcodeFormats. The formats are
+ * tried on a scanned code by priority, highest first, until one recognizes it.
+ * <p>
+ * A format reads the code in place by index and adds the parts it finds to Candidates as ranges,
+ * only the candidates returned in the end are taken out of the code.
+ */
+public abstract class BarcodeFormat {
+
+    public final String Name;
+    public final int Priority;
+
+    protected BarcodeFormat(String name, int priority) {
+        this.Name = name;
+        this.Priority = priority;
+    }
+
+    /**
+     * Adds the tracking number candidates found in the code to out.
+     *
+     * @return false when the code is not in this format, the next format is tried then. True ends
+     * the search, the code is returned as it is when nothing was added.
+     */
+    public abstract boolean Parse(String code, Candidates out);
+
+    /**
+     * Whether code[start, end) is a tracking number of this format's carrier. Used to rank the
+     * fields of a label, only carrier formats know their numbers.
+     */
+    public boolean IsTrackingNumber(String code, int start, int end) {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return Name;
+    }
+}
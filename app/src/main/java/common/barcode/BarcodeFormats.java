@@ -0,0 +1,80 @@
+package common.barcode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The barcode formats of shipping labels, by priority:
+ * 1. ANSI MH10.8.2 label QR codes (starts with [)>)
+ * 2. GS1-128 barcodes with the ]C1 prefix
+ * 3. URL-based QR codes
+ * 4. Carrier tracking numbers told apart by their shape (UPS, PostNL)
+ * 5. DPD routing codes
+ * 6. GS1-128 data without prefix (AI 01/02)
+ * A code in none of them is a plain tracking number and returned as it is. More formats can be
+ * added with Register.
+ */
+public class BarcodeFormats {
+
+    private static final Object lock = new Object();
+    // highest priority first, replaced as a whole on Register
+    private static volatile BarcodeFormat[] formats = new BarcodeFormat[0];
+
+    static {
+        Register(new AnsiLabelFormat());
+        Register(new Gs1Format(true));
+        Register(new UrlFormat());
+        Register(CarrierFormats.UPS);
+        Register(CarrierFormats.POSTNL);
+        Register(new DpdRoutingFormat());
+        Register(new Gs1Format(false));
+    }
+
+    /**
+     * Adds a format, tried after the formats of a higher or the same priority.
+     */
+    public static void Register(BarcodeFormat format) {
+        synchronized (lock) {
+            BarcodeFormat[] registered = formats;
+            int at = 0;
+            while (at < registered.length && registered[at].Priority >= format.Priority)
+                at++;
+
+            BarcodeFormat[] updated = new BarcodeFormat[registered.length + 1];
+            System.arraycopy(registered, 0, updated, 0, at);
+            updated[at] = format;
+            System.arraycopy(registered, at, updated, at + 1, registered.length - at);
+            formats = updated;
+        }
+    }
+
+    /**
+     * The tracking number candidates of a code, best first, the first format that recognizes the
+     * code gives them. Never empty, the code itself when no format found any.
+     */
+    public static List<String> Parse(String code) {
+        Candidates out = new Candidates(code);
+        for (BarcodeFormat format : formats) {
+            if (format.Parse(code, out)) {
+                if (out.Size() > 0)
+                    return out.ToList();
+                break;
+            }
+            out.Clear();
+        }
+
+        List<String> candidates = new ArrayList<String>(1);
+        candidates.add(code);
+        return candidates;
+    }
+
+    /**
+     * Whether code[start, end) is the tracking number of a known carrier.
+     */
+    static boolean IsCarrierTrackingNumber(String code, int start, int end) {
+        for (BarcodeFormat format : formats)
+            if (format.IsTrackingNumber(code, start, end))
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+package common.barcode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The tracking number candidates of one code, best first: ordered by confidence, candidates of
+ * equal confidence in the order they were added. A candidate is a range of the code, the string
+ * is only made for the candidates returned.
+ */
+public class Candidates {
+
+    private final String code;
+
+    private int count;
+    private int[] starts = new int[4], ends = new int[4], confidences = new int[4];
+    // candidates that are not a range of the code, null for a range
+    private String[] values = new String[4];
+
+    Candidates(String code) {
+        this.code = code;
+    }
+
+    public int Size() {
+        return count;
+    }
+
+    /**
+     * Adds code[start, end).
+     *
+     * @param confidence 0 to 100, how sure the format is this is the tracking number
+     */
+    public void Add(int start, int end, int confidence) {
+        Insert(start, end, null, confidence);
+    }
+
+    /**
+     * Adds a candidate put together from parts of the code.
+     */
+    public void Add(String value, int confidence) {
+        Insert(0, 0, value, confidence);
+    }
+
+    /**
+     * Keeps the best size candidates.
+     */
+    public void Truncate(int size) {
+        if (size < count) {
+            Arrays.fill(values, size, count, null);
+            count = size;
+        }
+    }
+
+    void Clear() {
+        Truncate(0);
+    }
+
+    List<String> ToList() {
+        List<String> candidates = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++)
+            candidates.add(values[i] != null ? values[i] : code.substring(starts[i], ends[i]));
+        return candidates;
+    }
+
+    private void Insert(int start, int end, String value, int confidence) {
+        if (count == starts.length) {
+            int size = count * 2;
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+            confidences = Arrays.copyOf(confidences, size);
+            values = Arrays.copyOf(values, size);
+        }
+
+        // after the candidates at least as good, a label has a handful of fields
+        int at = count;
+        while (at > 0 && confidences[at - 1] < confidence)
+            at--;
+        int moved = count - at;
+        System.arraycopy(starts, at, starts, at + 1, moved);
+        System.arraycopy(ends, at, ends, at + 1, moved);
+        System.arraycopy(confidences, at, confidences, at + 1, moved);
+        System.arraycopy(values, at, values, at + 1, moved);
+
+        starts[at] = start;
+        ends[at] = end;
+        confidences[at] = confidence;
+        values[at] = value;
+        count++;
+    }
+}
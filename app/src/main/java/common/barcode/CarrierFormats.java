@@ -0,0 +1,58 @@
+package common.barcode;
+
+/**
+ * Carriers whose tracking numbers can be told apart by their shape alone. A code that is one of
+ * them is returned as it is without trying the generic formats, and on an ANSI label their field
+ * is ranked first.
+ */
+final class CarrierFormats {
+
+    static final int PRIORITY = 75;
+    static final int CONFIDENCE = 90;
+
+    private CarrierFormats() {
+    }
+
+    /**
+     * UPS: 1Z, 6 character shipper number, 2 digit service code, 7 digit package number and a
+     * check digit, e.g. 1Z999AA10123456784.
+     */
+    static final BarcodeFormat UPS = new Carrier("UPS") {
+        @Override
+        public boolean IsTrackingNumber(String code, int start, int end) {
+            if (end - start != 18 || !code.startsWith("1Z", start))
+                return false;
+            for (int i = start + 2; i < end; i++)
+                if (!Chars.IsUpper(code.charAt(i)) && !Chars.IsDigit(code.charAt(i)))
+                    return false;
+            return true;
+        }
+    };
+
+    /**
+     * PostNL: 3S, 4 letter customer code and the parcel's serial number, e.g. 3SABCD123456789.
+     */
+    static final BarcodeFormat POSTNL = new Carrier("PostNL") {
+        @Override
+        public boolean IsTrackingNumber(String code, int start, int end) {
+            int length = end - start;
+            return length >= 11 && length <= 17 && code.startsWith("3S", start)
+                    && Chars.AllUpper(code, start + 2, start + 6) && Chars.AllDigits(code, start + 6, end);
+        }
+    };
+
+    private abstract static class Carrier extends BarcodeFormat {
+
+        Carrier(String name) {
+            super(name, PRIORITY);
+        }
+
+        @Override
+        public boolean Parse(String code, Candidates out) {
+            if (!IsTrackingNumber(code, 0, code.length()))
+                return false;
+            out.Add(0, code.length(), CONFIDENCE);
+            return true;
+        }
+    }
+}
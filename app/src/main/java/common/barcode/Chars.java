@@ -0,0 +1,156 @@
+package common.barcode;
+
+/**
+ * Character tests over a range of a string, in place of String.matches for the barcode formats
+ * (a pattern compiled on every call). Letters and digits are ASCII only, as \d and [A-Za-z] were.
+ */
+public final class Chars {
+
+    private Chars() {
+    }
+
+    public static boolean IsDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    public static boolean IsUpper(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    public static boolean IsLetter(char c) {
+        return IsUpper(c) || (c >= 'a' && c <= 'z');
+    }
+
+    /**
+     * [\x00-\x1F\x7F], the separators of label fields.
+     */
+    public static boolean IsControl(char c) {
+        return c <= 0x1F || c == 0x7F;
+    }
+
+    /**
+     * [A-Za-z0-9/\-_.], the characters of a tracking number.
+     */
+    public static boolean IsTrackingChar(char c) {
+        return IsLetter(c) || IsDigit(c) || c == '/' || c == '-' || c == '_' || c == '.';
+    }
+
+    /**
+     * Line terminators, which '.' in a pattern does not match.
+     */
+    public static boolean IsLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    public static boolean AllDigits(String s, int start, int end) {
+        for (int i = start; i < end; i++)
+            if (!IsDigit(s.charAt(i)))
+                return false;
+        return true;
+    }
+
+    public static boolean AllUpper(String s, int start, int end) {
+        for (int i = start; i < end; i++)
+            if (!IsUpper(s.charAt(i)))
+                return false;
+        return true;
+    }
+
+    public static boolean AllTrackingChars(String s, int start, int end) {
+        for (int i = start; i < end; i++)
+            if (!IsTrackingChar(s.charAt(i)))
+                return false;
+        return true;
+    }
+
+    public static int CountDigits(String s, int start, int end) {
+        int digits = 0;
+        for (int i = start; i < end; i++)
+            if (IsDigit(s.charAt(i)))
+                digits++;
+        return digits;
+    }
+
+    public static boolean HasDigit(String s, int start, int end) {
+        for (int i = start; i < end; i++)
+            if (IsDigit(s.charAt(i)))
+                return true;
+        return false;
+    }
+
+    /**
+     * The end of the letters starting at start.
+     */
+    public static int SkipLetters(String s, int start, int end) {
+        while (start < end && IsLetter(s.charAt(start)))
+            start++;
+        return start;
+    }
+
+    /**
+     * The end of the digits starting at start.
+     */
+    public static int SkipDigits(String s, int start, int end) {
+        while (start < end && IsDigit(s.charAt(start)))
+            start++;
+        return start;
+    }
+
+    /**
+     * Whether s[start, end) is text.
+     */
+    public static boolean Is(String s, int start, int end, String text) {
+        return end - start == text.length() && s.startsWith(text, start);
+    }
+
+    /**
+     * Whether s[start, end) ends with the text, ignoring case.
+     */
+    public static boolean EndsWithIgnoreCase(String s, int start, int end, String text) {
+        return end - start >= text.length() && RegionMatchesIgnoreCase(s, end - text.length(), text);
+    }
+
+    /**
+     * Whether s[start, end) contains the text, ignoring case.
+     */
+    public static boolean ContainsIgnoreCase(String s, int start, int end, String text) {
+        for (int i = start; i + text.length() <= end; i++)
+            if (RegionMatchesIgnoreCase(s, i, text))
+                return true;
+        return false;
+    }
+
+    /**
+     * Whether s has the text at offset, ignoring the case of ASCII letters.
+     */
+    public static boolean RegionMatchesIgnoreCase(String s, int offset, String text) {
+        if (offset + text.length() > s.length())
+            return false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = s.charAt(offset + i), t = text.charAt(i);
+            if (c != t && !(IsLetter(c) && IsLetter(t) && (c | 0x20) == (t | 0x20)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The string without control characters, the same string when it has none.
+     */
+    public static String StripControl(String s) {
+        int i = 0;
+        while (i < s.length() && !IsControl(s.charAt(i)))
+            i++;
+        if (i == s.length())
+            return s;
+
+        StringBuilder stripped = new StringBuilder(s.length() - 1);
+        stripped.append(s, 0, i);
+        for (; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!IsControl(c))
+                stripped.append(c);
+        }
+        return stripped.toString();
+    }
+}
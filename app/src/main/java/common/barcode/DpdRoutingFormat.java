@@ -0,0 +1,47 @@
+package common.barcode;
+
+/**
+ * DPD routing barcodes (Code128 with FNC1).
+ * Format: [%][7-digit depot][14-digit tracking][6+ digit service]
+ * The % is FNC1 character from Code128 symbology, ZXing may also represent FNC1 as \x1D (GS).
+ * <p>
+ * Examples:
+ *   %009740417522003367335330703 → tracking: 17522003367335
+ *   %000737017522003367333330348 → tracking: 17522003367333
+ */
+class DpdRoutingFormat extends BarcodeFormat {
+
+    private static final int CONFIDENCE = 95;
+
+    private static final int DEPOT = 7;
+    private static final int TRACKING = 14;
+
+    DpdRoutingFormat() {
+        super("DPD routing", 70);
+    }
+
+    @Override
+    public boolean Parse(String code, Candidates out) {
+        // Strip FNC1 prefix: % or \x1D (GS char)
+        int start = code.startsWith("%") || code.startsWith("\u001D") ? 1 : 0;
+
+        // Must be at least 27 chars: 7 depot + 14 tracking + 6 service
+        if (code.length() - start < 27)
+            return false;
+
+        // First 21 characters must be all digits (depot + tracking)
+        int service = start + DEPOT + TRACKING;
+        if (!Chars.AllDigits(code, start, service))
+            return false;
+
+        // Service portion must be 5+ digits (may end with a letter)
+        int digitsEnd = Chars.SkipDigits(code, service, code.length());
+        if (digitsEnd - service < 5)
+            return false;
+        if (digitsEnd != code.length() && (digitsEnd != code.length() - 1 || !Chars.IsLetter(code.charAt(digitsEnd))))
+            return false;
+
+        out.Add(start + DEPOT, service, CONFIDENCE);
+        return true;
+    }
+}
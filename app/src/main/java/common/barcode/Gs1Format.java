@@ -0,0 +1,130 @@
+package common.barcode;
+
+/**
+ * GS1-128 barcodes (Code 128 with GS1 Application Identifiers), the 1D barcodes of shipping
+ * labels. Registered twice: with the ]C1 symbology prefix, and without when the code clearly is
+ * GS1 data (an AI 01/02 GTIN, not a DPD routing code).
+ * <p>
+ * Common AIs in shipping:
+ * - 00: SSCC (18 digits) - Serial Shipping Container Code
+ * - 01: GTIN (14 digits) - Global Trade Item Number
+ * - 02: GTIN of contained items (14 digits)
+ * - 10: Batch/Lot number (variable, up to 20 chars)
+ * - 17: Expiration date (6 digits)
+ * - 420: Ship-to postal code (variable)
+ * <p>
+ * Fields may be separated by GS character (0x1D) for variable-length AIs.
+ */
+class Gs1Format extends BarcodeFormat {
+
+    static final String SYMBOLOGY = "]C1";
+
+    private static final char GS = 0x1D;
+
+    private static final int FIELD = 80;
+    private static final int DIGITS = 50;
+
+    private final boolean prefixed;
+
+    Gs1Format(boolean prefixed) {
+        super(prefixed ? "GS1-128" : "GS1-128 data", prefixed ? 90 : 50);
+        this.prefixed = prefixed;
+    }
+
+    @Override
+    public boolean Parse(String code, Candidates out) {
+        if (prefixed) {
+            if (!code.startsWith(SYMBOLOGY))
+                return false;
+            ParseData(code, SYMBOLOGY.length(), out);
+            return true;
+        }
+
+        if (!IsGs1Data(code))
+            return false;
+        ParseData(code, 0, out);
+        return out.Size() > 0;
+    }
+
+    // 01 or 02 and a 14 digit GTIN, on one line
+    private static boolean IsGs1Data(String code) {
+        if (code.length() <= 16 || code.charAt(0) != '0' || (code.charAt(1) != '1' && code.charAt(1) != '2'))
+            return false;
+        if (!Chars.AllDigits(code, 2, 16))
+            return false;
+        for (int i = 16; i < code.length(); i++)
+            if (Chars.IsLineTerminator(code.charAt(i)))
+                return false;
+        return true;
+    }
+
+    private static void ParseData(String code, int start, Candidates out) {
+        int end = code.length();
+        for (int field = start; field < end; ) {
+            int fieldEnd = code.indexOf(GS, field);
+            if (fieldEnd == -1)
+                fieldEnd = end;
+            ParseField(code, field, fieldEnd, out);
+            field = fieldEnd + 1;
+        }
+
+        // If no AI-based extraction worked, maybe it's a simple barcode with the tracking number
+        // and some prefix/suffix
+        if (out.Size() == 0) {
+            int digits = Chars.CountDigits(code, start, end);
+            if (digits >= 10 && digits <= 20) {
+                StringBuilder number = new StringBuilder(digits);
+                for (int i = start; i < end; i++)
+                    if (Chars.IsDigit(code.charAt(i)))
+                        number.append(code.charAt(i));
+                out.Add(number.toString(), DIGITS);
+            }
+        }
+    }
+
+    private static void ParseField(String code, int pos, int end, Candidates out) {
+        while (pos < end) {
+            // Try to match known AIs at current position
+            if (pos + 2 <= end) {
+                // AI 00: SSCC - 18 digits (fixed length)
+                if (code.startsWith("00", pos) && pos + 20 <= end && Chars.AllDigits(code, pos + 2, pos + 20)) {
+                    out.Add(pos + 2, pos + 20, FIELD);
+                    pos += 20;
+                    continue;
+                }
+
+                // AI 01, 02: GTIN, GTIN of contained items - 14 digits (fixed length)
+                if ((code.startsWith("01", pos) || code.startsWith("02", pos)) && pos + 16 <= end
+                        && Chars.AllDigits(code, pos + 2, pos + 16)) {
+                    out.Add(pos + 2, pos + 16, FIELD);
+                    pos += 16;
+                    continue;
+                }
+
+                // AI 10: Batch/Lot number - variable length up to 20 chars, until end of field
+                if (code.startsWith("10", pos)) {
+                    int valueEnd = Math.min(end, pos + 2 + 20);
+                    if (valueEnd > pos + 2)
+                        out.Add(pos + 2, valueEnd, FIELD);
+                    pos = valueEnd;
+                    continue;
+                }
+
+                // AI 17: Expiration date - 6 digits (fixed length) - skip, not tracking
+                if (code.startsWith("17", pos) && pos + 8 <= end) {
+                    pos += 8;
+                    continue;
+                }
+            }
+
+            // AI 420: Ship-to postal code - variable length, not tracking, stop here
+            if (pos + 3 <= end && code.startsWith("420", pos))
+                break;
+
+            // Can't parse further - take remaining as potential candidate
+            if (end - pos >= 4 && Chars.AllTrackingChars(code, pos, end))
+                out.Add(pos, end, FIELD);
+            break;
+        }
+    }
+}
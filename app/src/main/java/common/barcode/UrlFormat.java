@@ -0,0 +1,68 @@
+package common.barcode;
+
+/**
+ * URL-based QR codes. The tracking number is taken from a query parameter named like one
+ * (tracking, id, parcel, ...), else from the last path segment, else the URL is returned as it is.
+ */
+class UrlFormat extends BarcodeFormat {
+
+    private static final int PARAMETER = 70;
+    private static final int PATH = 60;
+
+    private static final String[] TRACKING_PARAMS = {"tracking", "track", "id", "code", "shipment", "parcel", "barcode"};
+
+    UrlFormat() {
+        super("URL", 80);
+    }
+
+    @Override
+    public boolean Parse(String code, Candidates out) {
+        if (!code.startsWith("http://") && !code.startsWith("https://"))
+            return false;
+
+        int query = code.indexOf('?');
+        if ((query != -1 || code.indexOf('&') != -1) && FindParameter(code, query + 1, out))
+            return true;
+        FindPathSegment(code, query == -1 ? code.length() : query, out);
+        return true;
+    }
+
+    // The first key=value parameter whose key contains a tracking parameter name
+    private static boolean FindParameter(String code, int start, Candidates out) {
+        for (int param = start; ; ) {
+            int paramEnd = code.indexOf('&', param);
+            if (paramEnd == -1)
+                paramEnd = code.length();
+
+            int equals = code.indexOf('=', param);
+            if (equals != -1 && equals < paramEnd) {
+                for (String trackingParam : TRACKING_PARAMS) {
+                    if (Chars.ContainsIgnoreCase(code, param, equals, trackingParam)) {
+                        out.Add(equals + 1, paramEnd, PARAMETER);
+                        return true;
+                    }
+                }
+            }
+
+            if (paramEnd == code.length())
+                return false;
+            param = paramEnd + 1;
+        }
+    }
+
+    // Last path segment, when it looks like a tracking number
+    private static void FindPathSegment(String code, int pathEnd, Candidates out) {
+        if (code.charAt(pathEnd - 1) == '/')
+            pathEnd--;
+        int segment = code.lastIndexOf('/', pathEnd - 1) + 1;
+
+        int length = pathEnd - segment;
+        if (length < 4 || length > 25 || !Chars.AllTrackingChars(code, segment, pathEnd))
+            return;
+        // a file name, unless it has digits
+        int dot = code.indexOf('.', segment);
+        if (dot != -1 && dot < pathEnd && !Chars.HasDigit(code, segment, pathEnd))
+            return;
+        out.Add(segment, pathEnd, PATH);
+    }
+}
@@ -1,23 +1,117 @@
 package https;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.SingleClientConnManager;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HttpContext;
+
+import android.content.Context;
+import android.net.SSLSessionCache;
+import android.util.Log;
 
 public class Rest_HttpsFix {
 
+	private static final String USER_AGENT = "Trackify Mobile App Android";
+
+	private static final int MAX_TOTAL_CONNECTIONS = 8;
+	private static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+	private static final int POOL_WAIT_TIMEOUT_MS = 15000;
+	private static final int CONNECT_TIMEOUT_MS = 20000;
+	private static final int SOCKET_TIMEOUT_MS = 60000;
+	private static final long KEEP_ALIVE_MS = 30000;
+	private static final int METRICS_LOG_INTERVAL = 50;
+
+	private static DefaultHttpClient sharedClient;
+	private static ThreadSafeClientConnManager sharedConnManager;
+	private static volatile long lastIdleSweep = 0;
+
+	/**
+	 * Returns the process wide pooled client. Connections are kept alive between calls and TLS
+	 * sessions are resumed through the SSL session cache, so callers must NOT shut the connection
+	 * manager down; consuming or closing the response entity is enough to return the connection
+	 * to the pool.
+	 */
+	public static synchronized DefaultHttpClient GetSharedHttpClient(Context context) {
+		if (sharedClient == null) {
+			HttpParams params = new BasicHttpParams();
+			HttpProtocolParams.setUserAgent(params, USER_AGENT);
+			HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT_MS);
+			HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT_MS);
+			HttpConnectionParams.setStaleCheckingEnabled(params, true);
+			ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+			ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+			ConnManagerParams.setTimeout(params, POOL_WAIT_TIMEOUT_MS);
+
+			SSLSessionCache sessionCache = context == null ? null : new SSLSessionCache(context.getApplicationContext());
+
+			SchemeRegistry registry = new SchemeRegistry();
+			registry.register(new Scheme("https", new TlsSniSocketFactory(sessionCache, CONNECT_TIMEOUT_MS), 443));
+
+			sharedConnManager = new ThreadSafeClientConnManager(params, registry);
+			sharedClient = new DefaultHttpClient(sharedConnManager, params);
+			sharedClient.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+				private final DefaultConnectionKeepAliveStrategy serverHint = new DefaultConnectionKeepAliveStrategy();
+
+				@Override
+				public long getKeepAliveDuration(HttpResponse response, HttpContext httpContext) {
+					// Honour a shorter Keep-Alive timeout from the server, otherwise cap our own
+					long duration = serverHint.getKeepAliveDuration(response, httpContext);
+					return duration > 0 && duration < KEEP_ALIVE_MS ? duration : KEEP_ALIVE_MS;
+				}
+			});
+			sharedClient.addRequestInterceptor(new HttpRequestInterceptor() {
+				@Override
+				public void process(HttpRequest request, HttpContext httpContext) throws HttpException, IOException {
+					long count = TransportMetrics.Requests.incrementAndGet();
+					SweepIdleConnections();
+					if (count % METRICS_LOG_INTERVAL == 0)
+						Log.d(Rest_HttpsFix.class.getSimpleName(), TransportMetrics.GetSummary());
+				}
+			});
+
+			HttpsURLConnection.setDefaultHostnameVerifier(org.apache.http.conn.ssl.SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+		}
+
+		return sharedClient;
+	}
+
+	private static void SweepIdleConnections() {
+		long now = System.currentTimeMillis();
+		if (now - lastIdleSweep < KEEP_ALIVE_MS)
+			return;
+
+		lastIdleSweep = now;
+		sharedConnManager.closeExpiredConnections();
+		sharedConnManager.closeIdleConnections(KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+	}
+
 	public static DefaultHttpClient GetHttpsSupportedHttpClientV2() {
 		HostnameVerifier hostnameVerifier = org.apache.http.conn.ssl.SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER;
 
 		DefaultHttpClient client = new DefaultHttpClient();
 
 		// Set custom User-Agent
-		HttpProtocolParams.setUserAgent(client.getParams(), "Trackify Mobile App Android");
+		HttpProtocolParams.setUserAgent(client.getParams(), USER_AGENT);
 
 		SchemeRegistry registry = new SchemeRegistry();
 
@@ -27,7 +121,7 @@ public class Rest_HttpsFix {
 		DefaultHttpClient httpClient = new DefaultHttpClient(mgr, client.getParams());
 
 		// Set custom User-Agent for the final client as well
-		HttpProtocolParams.setUserAgent(httpClient.getParams(), "Trackify Mobile App Android");
+		HttpProtocolParams.setUserAgent(httpClient.getParams(), USER_AGENT);
 
 		// Set verifier
 		HttpsURLConnection.setDefaultHostnameVerifier(hostnameVerifier);
@@ -32,6 +32,7 @@ import org.apache.http.params.HttpParams;
 
 import android.annotation.TargetApi;
 import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
 import android.os.Build;
 import android.util.Log;
 
@@ -53,6 +54,9 @@ import android.util.Log;
  * server certificate is given, such that the correct SHA-1 hash to use can be foudn in the log.
  * <p/>
  * Finally, the ignoring of all SSL certificates (and hostname) is possible (which is obviously very insecure!).
+ * <p/>
+ * The TLS layer is created over the plain socket that HttpClient already connected, using one
+ * SSLCertificateSocketFactory per instance so that an SSLSessionCache can resume earlier sessions.
  */
 public class TlsSniSocketFactory implements LayeredSocketFactory {
 
@@ -60,20 +64,40 @@ public class TlsSniSocketFactory implements LayeredSocketFactory {
 
 	private final boolean acceptAllCertificates;
 	private final String selfSignedCertificateKey;
+	private final SSLCertificateSocketFactory sslSocketFactory;
 
 	public TlsSniSocketFactory() {
-		this.acceptAllCertificates = false;
-		this.selfSignedCertificateKey = null;
+		this(false, null, null, 0);
 	}
 
 	public TlsSniSocketFactory(String certKey) {
-		this.acceptAllCertificates = false;
-		this.selfSignedCertificateKey = certKey;
+		this(false, certKey, null, 0);
 	}
 
 	public TlsSniSocketFactory(boolean acceptAllCertificates) {
+		this(acceptAllCertificates, null, null, 0);
+	}
+
+	/**
+	 * Factory for a long lived (pooled) client: a single SSLCertificateSocketFactory is kept so that
+	 * sessions stored in the given cache can be resumed instead of doing a full handshake per socket.
+	 */
+	public TlsSniSocketFactory(SSLSessionCache sessionCache, int handshakeTimeoutMillis) {
+		this(false, null, sessionCache, handshakeTimeoutMillis);
+	}
+
+	private TlsSniSocketFactory(boolean acceptAllCertificates, String certKey, SSLSessionCache sessionCache,
+								int handshakeTimeoutMillis) {
 		this.acceptAllCertificates = acceptAllCertificates;
-		this.selfSignedCertificateKey = null;
+		this.selfSignedCertificateKey = certKey;
+		this.sslSocketFactory = (SSLCertificateSocketFactory) SSLCertificateSocketFactory.getDefault(handshakeTimeoutMillis, sessionCache);
+
+		// For self-signed certificates use a custom trust manager
+		if (acceptAllCertificates) {
+			sslSocketFactory.setTrustManagers(new TrustManager[]{new IgnoreSSLTrustManager()});
+		} else if (selfSignedCertificateKey != null) {
+			sslSocketFactory.setTrustManagers(new TrustManager[]{new SelfSignedTrustManager(selfSignedCertificateKey)});
+		}
 	}
 
 	// Plain TCP/IP (layer below TLS)
@@ -102,23 +126,11 @@ public class TlsSniSocketFactory implements LayeredSocketFactory {
 	@Override
 	@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
 	public Socket createSocket(Socket plainSocket, String host, int port, boolean autoClose) throws IOException {
-		if (autoClose) {
-			// we don't need the plainSocket
-			plainSocket.close();
-		}
-
-		SSLCertificateSocketFactory sslSocketFactory =
-				(SSLCertificateSocketFactory) SSLCertificateSocketFactory.getDefault(0);
-
-		// For self-signed certificates use a custom trust manager
-		if (acceptAllCertificates) {
-			sslSocketFactory.setTrustManagers(new TrustManager[]{new IgnoreSSLTrustManager()});
-		} else if (selfSignedCertificateKey != null) {
-			sslSocketFactory.setTrustManagers(new TrustManager[]{new SelfSignedTrustManager(selfSignedCertificateKey)});
-		}
+		long startedAt = System.currentTimeMillis();
 
-		// create and connect SSL socket, but don't do hostname/certificate verification yet
-		SSLSocket ssl = (SSLSocket) sslSocketFactory.createSocket(InetAddress.getByName(host), port);
+		// layer TLS over the already connected plain socket (connect timeout is applied there),
+		// hostname/certificate verification is done below
+		SSLSocket ssl = (SSLSocket) sslSocketFactory.createSocket(plainSocket, host, port, autoClose);
 
 		// enable TLSv1.1/1.2 if available
 		ssl.setEnabledProtocols(ssl.getSupportedProtocols());
@@ -138,9 +150,12 @@ public class TlsSniSocketFactory implements LayeredSocketFactory {
 		// verify hostname and certificate
 		SSLSession session = ssl.getSession();
 		if (!(acceptAllCertificates || selfSignedCertificateKey != null) && !hostnameVerifier.verify(host, session)) {
+			ssl.close();
 			throw new SSLPeerUnverifiedException("Cannot verify hostname: " + host);
 		}
 
+		TransportMetrics.OnHandshake(startedAt, session.getCreationTime(), System.currentTimeMillis() - startedAt);
+
 		/*DLog.d(TlsSniSocketFactory.class.getSimpleName(),
 				"Established " + session.getProtocol() + " connection with " + session.getPeerHost() +
 						" using " + session.getCipherSuite());*/
@@ -0,0 +1,62 @@
+package https;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters for the shared HTTPS transport. A request that does not open a new
+ * connection was served from the keep-alive pool, so pool hit-rate = 1 - connections / requests.
+ */
+public class TransportMetrics {
+
+	static final AtomicLong Requests = new AtomicLong();
+	static final AtomicLong ConnectionsOpened = new AtomicLong();
+	static final AtomicLong FullHandshakes = new AtomicLong();
+	static final AtomicLong ResumedHandshakes = new AtomicLong();
+	static final AtomicLong HandshakeMillis = new AtomicLong();
+
+	public static long GetRequestCount() {
+		return Requests.get();
+	}
+
+	public static long GetConnectionsOpened() {
+		return ConnectionsOpened.get();
+	}
+
+	public static long GetHandshakeCount() {
+		return FullHandshakes.get() + ResumedHandshakes.get();
+	}
+
+	public static long GetResumedHandshakeCount() {
+		return ResumedHandshakes.get();
+	}
+
+	public static double GetPoolHitRate() {
+		long requests = Requests.get();
+		if (requests == 0)
+			return 0;
+		long reused = requests - ConnectionsOpened.get();
+		return reused <= 0 ? 0 : (double) reused / requests;
+	}
+
+	public static long GetAverageHandshakeMillis() {
+		long count = GetHandshakeCount();
+		return count == 0 ? 0 : HandshakeMillis.get() / count;
+	}
+
+	public static String GetSummary() {
+		return String.format(Locale.US, "requests=%d connections=%d poolHitRate=%.1f%% handshakes=%d (resumed=%d) avgHandshake=%dms",
+				GetRequestCount(), GetConnectionsOpened(), GetPoolHitRate() * 100, GetHandshakeCount(),
+				GetResumedHandshakeCount(), GetAverageHandshakeMillis());
+	}
+
+	static void OnHandshake(long startedAt, long creationTime, long elapsed) {
+		ConnectionsOpened.incrementAndGet();
+		HandshakeMillis.addAndGet(elapsed);
+		// A resumed session keeps the creation time of the handshake that established it
+		if (creationTime > 0 && creationTime < startedAt)
+			ResumedHandshakes.incrementAndGet();
+		else
+			FullHandshakes.incrementAndGet();
+	}
+}
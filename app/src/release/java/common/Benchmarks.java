@@ -0,0 +1,10 @@
+package common;
+
+/**
+ * The benchmarks only run in debug builds, see src/debug.
+ */
+public class Benchmarks {
+
+    static void RunOnce() {
+    }
+}
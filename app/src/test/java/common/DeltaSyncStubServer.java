@@ -0,0 +1,231 @@
+package common;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.UserDistributorShipmentsFragment.ShipmentsType;
+
+/**
+ * Local stand-in for the three list endpoints of DELTA_SYNC_BACKEND_IMPLEMENTATION.md, for the
+ * tests of the app side of delta sync.
+ * <p>
+ * Every list keeps a change log like driver_list_changes, the sync_token is the last seq the
+ * client has seen. A since older than the kept log (see Expire) or one that isn't a number gets
+ * the full list, like the PHP example. With SetDeltaSupported(false) since is ignored, as on a
+ * server from before delta sync.
+ */
+class DeltaSyncStubServer {
+
+    private static class Change {
+        final long seq;
+        final String shipmentId;
+
+        Change(long seq, String shipmentId) {
+            this.seq = seq;
+            this.shipmentId = shipmentId;
+        }
+    }
+
+    private static class StubList {
+        // in the order the server sends them
+        final LinkedHashMap<String, ShipmentWithDetail> shipments = new LinkedHashMap<String, ShipmentWithDetail>();
+        // seq of the last time a shipment entered the list, tells added from changed
+        final HashMap<String, Long> enteredAt = new HashMap<String, Long>();
+        final List<Change> log = new ArrayList<Change>();
+        // a since below this was purged from the log
+        long oldestSince;
+        double cod;
+    }
+
+    private final Gson gson = new Gson();
+    private final Map<ShipmentsType, StubList> lists = new HashMap<ShipmentsType, StubList>();
+    private final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+    private HttpServer server;
+    private long seq;
+    private boolean deltaSupported = true;
+
+    DeltaSyncStubServer() {
+        for (ShipmentsType type : ShipmentsType.values())
+            lists.put(type, new StubList());
+    }
+
+    void Start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Handle(exchange);
+            }
+        });
+        server.start();
+    }
+
+    void Stop() {
+        if (server != null)
+            server.stop(0);
+    }
+
+    /**
+     * Base URL to use in place of Communicator.URL.
+     */
+    String Url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+    }
+
+    /**
+     * Query strings received, in order.
+     */
+    List<String> GetQueries() {
+        synchronized (queries) {
+            return new ArrayList<String>(queries);
+        }
+    }
+
+    synchronized void SetDeltaSupported(boolean supported) {
+        deltaSupported = supported;
+    }
+
+    synchronized void SetCod(ShipmentsType type, double cod) {
+        lists.get(type).cod = cod;
+    }
+
+    /**
+     * Adds the shipment to the list or changes it, sent in its final state only.
+     */
+    synchronized void Put(ShipmentsType type, ShipmentWithDetail sd) {
+        StubList list = lists.get(type);
+        seq++;
+        if (!list.shipments.containsKey(sd.shipment_id))
+            list.enteredAt.put(sd.shipment_id, seq);
+        list.shipments.put(sd.shipment_id, sd);
+        list.log.add(new Change(seq, sd.shipment_id));
+    }
+
+    synchronized void Remove(ShipmentsType type, String shipmentId) {
+        StubList list = lists.get(type);
+        seq++;
+        list.shipments.remove(shipmentId);
+        list.enteredAt.remove(shipmentId);
+        list.log.add(new Change(seq, shipmentId));
+    }
+
+    /**
+     * Purges the change log of the list, every token handed out so far gets the full list.
+     */
+    synchronized void Expire(ShipmentsType type) {
+        StubList list = lists.get(type);
+        list.log.clear();
+        list.oldestSince = seq + 1;
+    }
+
+    private void Handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        queries.add(query);
+
+        ShipmentsType type = TypeOf(exchange.getRequestURI().getPath());
+        String body;
+        int status = 200;
+        if (type == null) {
+            status = 404;
+            body = "{\"error_id\":1,\"response_txt\":\"Unknown endpoint\"}";
+        } else {
+            body = gson.toJson(Answer(type, Parameter(query, "since")));
+        }
+
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private synchronized Map<String, Object> Answer(ShipmentsType type, String since) {
+        StubList list = lists.get(type);
+        LinkedHashMap<String, Object> answer = new LinkedHashMap<String, Object>();
+
+        long sinceSeq = -1;
+        if (deltaSupported && since != null) {
+            try {
+                sinceSeq = Long.parseLong(since);
+            } catch (NumberFormatException ex) {
+                sinceSeq = -1;
+            }
+        }
+
+        if (sinceSeq < 0 || sinceSeq < list.oldestSince - 1) {
+            answer.put("cod_to_reconcile", list.cod);
+            answer.put("sync_token", String.valueOf(seq));
+            answer.put("shipments", new ArrayList<ShipmentWithDetail>(list.shipments.values()));
+            return answer;
+        }
+
+        // every shipment once, from its final state
+        LinkedHashMap<String, Boolean> touched = new LinkedHashMap<String, Boolean>();
+        long token = sinceSeq;
+        for (Change change : list.log) {
+            if (change.seq <= sinceSeq)
+                continue;
+            touched.put(change.shipmentId, Boolean.TRUE);
+            token = Math.max(token, change.seq);
+        }
+
+        List<ShipmentWithDetail> added = new ArrayList<ShipmentWithDetail>();
+        List<ShipmentWithDetail> changed = new ArrayList<ShipmentWithDetail>();
+        List<String> removed = new ArrayList<String>();
+        for (String id : touched.keySet()) {
+            ShipmentWithDetail sd = list.shipments.get(id);
+            if (sd == null)
+                removed.add(id);
+            else if (list.enteredAt.get(id) > sinceSeq)
+                added.add(sd);
+            else
+                changed.add(sd);
+        }
+
+        answer.put("delta", true);
+        answer.put("sync_token", String.valueOf(token));
+        answer.put("cod_to_reconcile", list.cod);
+        answer.put("added", added);
+        answer.put("changed", changed);
+        answer.put("removed", removed);
+        return answer;
+    }
+
+    private static ShipmentsType TypeOf(String path) {
+        if (path.endsWith("/get_driver_shipments_v2.php"))
+            return ShipmentsType.MyShipments;
+        if (path.endsWith("/get_driver_non_reconciled_v2.php"))
+            return ShipmentsType.ReconcileShipments;
+        if (path.endsWith("/get_driver_returns.php"))
+            return ShipmentsType.Returns;
+        return null;
+    }
+
+    private static String Parameter(String query, String name) throws IOException {
+        if (query == null)
+            return null;
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name))
+                return URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+        }
+        return null;
+    }
+}
@@ -0,0 +1,258 @@
+package common;
+
+import com.google.gson.stream.JsonReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import common.UserDistributorShipmentsFragment.ShipmentsType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The app side of delta sync against {@link DeltaSyncStubServer}: the request Communicator builds
+ * (since=), decoding with ShipmentResponseReader and ShipmentDelta.Apply merging every answer
+ * into a tab's ITEMS and into the stored list, the way the fragments and ShipmentStore do.
+ */
+public class DeltaSyncTest {
+
+    private static final String USER = "driver1";
+    private static final ShipmentsType TYPE = ShipmentsType.MyShipments;
+
+    private DeltaSyncStubServer server;
+
+    // what a tab holds between loads
+    private List<ShipmentWithDetail> items;
+    private ShipmentResponse stored;
+    private String syncToken;
+
+    @Before
+    public void SetUp() throws Exception {
+        server = new DeltaSyncStubServer();
+        server.Start();
+        server.Put(TYPE, Shipment("1", 1));
+        server.Put(TYPE, Shipment("2", 1));
+        server.Put(TYPE, Shipment("3", 4));
+        server.SetCod(TYPE, 100);
+    }
+
+    @After
+    public void TearDown() {
+        server.Stop();
+    }
+
+    @Test
+    public void FirstLoadIsFullWithoutSince() throws Exception {
+        ShipmentResponse resp = Load();
+
+        assertFalse(resp.IsDelta());
+        assertNotNull(resp.sync_token);
+        assertFalse(server.GetQueries().get(0).contains("since="));
+        assertEquals(Ids("1", "2", "3"), Ids(items));
+        assertEquals(Ids("1", "2", "3"), Ids(stored.shipments));
+    }
+
+    @Test
+    public void AddedShipmentIsAppended() throws Exception {
+        Load();
+        server.Put(TYPE, Shipment("4", 14));
+
+        ShipmentResponse resp = Load();
+
+        assertTrue(resp.IsDelta());
+        assertEquals(Ids("4"), Ids(resp.added));
+        assertTrue(resp.changed.isEmpty());
+        assertTrue(resp.removed.isEmpty());
+        assertEquals(Ids("1", "2", "3", "4"), Ids(items));
+        assertEquals(Ids("1", "2", "3", "4"), Ids(stored.shipments));
+    }
+
+    @Test
+    public void ChangedShipmentKeepsTheDriversOrder() throws Exception {
+        Load();
+        // dragged by the driver
+        Collections.swap(items, 0, 2);
+        Collections.swap(stored.shipments, 0, 2);
+        server.Put(TYPE, Shipment("1", 3));
+
+        ShipmentResponse resp = Load();
+
+        assertTrue(resp.IsDelta());
+        assertEquals(Ids("1"), Ids(resp.changed));
+        assertTrue(resp.added.isEmpty());
+        assertEquals(Ids("3", "2", "1"), Ids(items));
+        assertEquals(3, items.get(2).status_id);
+        assertEquals(Ids("3", "2", "1"), Ids(stored.shipments));
+        assertEquals(3, stored.shipments.get(2).status_id);
+    }
+
+    @Test
+    public void RemovedShipmentIsDropped() throws Exception {
+        Load();
+        server.Remove(TYPE, "2");
+
+        ShipmentResponse resp = Load();
+
+        assertTrue(resp.IsDelta());
+        assertEquals(Collections.singletonList("2"), resp.removed);
+        assertEquals(Ids("1", "3"), Ids(items));
+        assertEquals(Ids("1", "3"), Ids(stored.shipments));
+    }
+
+    @Test
+    public void EmptyDeltaOnlyUpdatesTokenAndCod() throws Exception {
+        Load();
+        String token = syncToken;
+        server.SetCod(TYPE, 250);
+
+        ShipmentResponse resp = Load();
+
+        assertTrue(resp.IsDelta());
+        assertFalse(resp.HasChanges());
+        assertEquals(token, resp.sync_token);
+        assertEquals(250, stored.cod_to_reconcile, 0);
+        assertEquals(Ids("1", "2", "3"), Ids(items));
+    }
+
+    @Test
+    public void TokenRollsOverFromAnswerToAnswer() throws Exception {
+        Load();
+        List<String> tokens = new ArrayList<String>();
+        tokens.add(syncToken);
+
+        server.Put(TYPE, Shipment("4", 14));
+        server.Put(TYPE, Shipment("4", 1));
+        Load();
+        tokens.add(syncToken);
+
+        server.Remove(TYPE, "1");
+        server.Put(TYPE, Shipment("5", 4));
+        Load();
+        tokens.add(syncToken);
+
+        server.Put(TYPE, Shipment("3", 3));
+        Load();
+
+        // every request continues from the previous answer's token
+        List<String> queries = server.GetQueries();
+        for (int i = 0; i < tokens.size(); i++)
+            assertTrue(queries.get(i + 1), queries.get(i + 1).endsWith("&since=" + tokens.get(i)));
+        assertFalse(tokens.get(0).equals(tokens.get(1)));
+        assertFalse(tokens.get(1).equals(tokens.get(2)));
+
+        // the merged list is the server's list
+        assertEquals(Ids("2", "3", "4", "5"), Ids(items));
+        assertEquals(Ids("2", "3", "4", "5"), Ids(stored.shipments));
+        assertEquals(1, items.get(2).status_id);
+        assertEquals(3, items.get(1).status_id);
+    }
+
+    @Test
+    public void ExpiredTokenGetsTheFullList() throws Exception {
+        Load();
+        server.Remove(TYPE, "1");
+        server.Expire(TYPE);
+
+        ShipmentResponse resp = Load();
+
+        assertFalse(resp.IsDelta());
+        assertEquals(Ids("2", "3"), Ids(items));
+        assertEquals(Ids("2", "3"), Ids(stored.shipments));
+
+        // and deltas continue from the new token
+        server.Put(TYPE, Shipment("6", 1));
+        assertTrue(Load().IsDelta());
+        assertEquals(Ids("2", "3", "6"), Ids(items));
+    }
+
+    @Test
+    public void ServerWithoutDeltaSupportKeepsAnsweringFullLists() throws Exception {
+        server.SetDeltaSupported(false);
+        Load();
+        server.Remove(TYPE, "3");
+
+        ShipmentResponse resp = Load();
+
+        assertTrue(server.GetQueries().get(1).contains("since="));
+        assertFalse(resp.IsDelta());
+        assertEquals(Ids("1", "2"), Ids(items));
+    }
+
+    @Test
+    public void SinceIsOnlySentWithAToken() throws Exception {
+        String full = Communicator.ShipmentsUrl("https://host/api", ShipmentsType.Returns, USER, null);
+        String delta = Communicator.ShipmentsUrl("https://host/api", ShipmentsType.ReconcileShipments, USER, "a b");
+
+        assertEquals("https://host/api/get_driver_returns.php?user=driver1", full);
+        assertEquals("https://host/api/get_driver_non_reconciled_v2.php?user=driver1&since=a+b", delta);
+    }
+
+    /**
+     * One load of the tab: a full answer replaces ITEMS and the stored list, a delta is merged
+     * into both.
+     */
+    private ShipmentResponse Load() throws Exception {
+        ShipmentResponse resp = Fetch(syncToken);
+        if (resp.IsDelta()) {
+            ShipmentDelta.Apply(items, resp);
+            ShipmentDelta.Apply(stored.shipments, resp);
+            stored.cod_to_reconcile = resp.cod_to_reconcile;
+            stored.sync_token = resp.sync_token;
+        } else {
+            items = new ArrayList<ShipmentWithDetail>(resp.shipments);
+            stored = new ShipmentResponse();
+            stored.shipments = new ArrayList<ShipmentWithDetail>(resp.shipments);
+            stored.cod_to_reconcile = resp.cod_to_reconcile;
+            stored.sync_token = resp.sync_token;
+        }
+        syncToken = resp.sync_token;
+        return resp;
+    }
+
+    private ShipmentResponse Fetch(String token) throws Exception {
+        String url = Communicator.ShipmentsUrl(server.Url(), TYPE, USER, token);
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+            try {
+                return (ShipmentResponse) new ShipmentResponseReader().Read(reader);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static ShipmentWithDetail Shipment(String id, int statusId) {
+        ShipmentWithDetail sd = new ShipmentWithDetail();
+        sd.shipment_id = id;
+        sd.tracking_id = "TRK" + id;
+        sd.status_id = statusId;
+        return sd;
+    }
+
+    private static List<String> Ids(String... ids) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, ids);
+        return list;
+    }
+
+    private static List<String> Ids(List<ShipmentWithDetail> shipments) {
+        List<String> ids = new ArrayList<String>();
+        for (ShipmentWithDetail sd : shipments)
+            ids.add(sd.shipment_id);
+        return ids;
+    }
+}